@@ -0,0 +1,204 @@
+/*
+ * The Apache Software License, Version 1.1
+ *
+ * Copyright (c) 2001-2004 Caucho Technology, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution, if
+ *    any, must include the following acknowlegement:
+ *       "This product includes software developed by the
+ *        Caucho Technology (http://www.caucho.com/)."
+ *    Alternately, this acknowlegement may appear in the software itself,
+ *    if and wherever such third-party acknowlegements normally appear.
+ *
+ * 4. The names "Hessian", "Resin", and "Caucho" must not be used to
+ *    endorse or promote products derived from this software without prior
+ *    written permission. For written permission, please contact
+ *    info@caucho.com.
+ *
+ * 5. Products derived from this software may not be called "Resin"
+ *    nor may "Resin" appear in their names without prior written
+ *    permission of Caucho Technology.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL CAUCHO TECHNOLOGY OR ITS CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.hessian.client;
+
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.Type;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Asynchronous proxy for Hessian clients.  Methods of the async API
+ * returning a <code>Future&lt;T&gt;</code> are sent on the factory's
+ * executor and read the reply as a <code>T</code>.  Other methods are
+ * called synchronously.
+ *
+ * <pre>
+ * interface HelloAsync {
+ *   Future&lt;String&gt; hello(String name);
+ * }
+ *
+ * HelloAsync hello = factory.createAsync(HelloAsync.class, url);
+ * </pre>
+ */
+public class HessianAsyncProxy implements InvocationHandler {
+  private final HessianProxy _proxy;
+  private final Executor _executor;
+
+  HessianAsyncProxy(HessianProxy proxy, Executor executor)
+  {
+    _proxy = proxy;
+    _executor = executor;
+  }
+
+  /**
+   * Returns the underlying synchronous proxy.
+   */
+  public HessianProxy getProxy()
+  {
+    return _proxy;
+  }
+
+  /**
+   * Handles the object invocation.
+   */
+  @Override
+  public Object invoke(Object proxy, Method method, Object []args)
+    throws Throwable
+  {
+    String methodName = method.getName();
+    Class<?> []params = method.getParameterTypes();
+
+    if (methodName.equals("equals")
+        && params.length == 1 && params[0].equals(Object.class)) {
+      Object value = args[0];
+      if (value == null || ! Proxy.isProxyClass(value.getClass()))
+        return Boolean.FALSE;
+
+      Object handler = Proxy.getInvocationHandler(value);
+
+      if (! (handler instanceof HessianAsyncProxy))
+        return Boolean.FALSE;
+
+      HessianAsyncProxy asyncHandler = (HessianAsyncProxy) handler;
+
+      return _proxy.getURL().equals(asyncHandler.getProxy().getURL());
+    }
+    else if (methodName.equals("hashCode") && params.length == 0)
+      return _proxy.getURL().hashCode();
+    else if (methodName.equals("toString") && params.length == 0)
+      return "HessianAsyncProxy[" + _proxy.getURL() + "]";
+
+    if (! Future.class.equals(method.getReturnType()))
+      return _proxy.invoke(proxy, method, args);
+
+    String mangleName = _proxy.getMangleName(method);
+    Class<?> resultType = getResultType(method.getGenericReturnType());
+
+    FutureTask<Object> task
+      = new FutureTask<Object>(new RemoteCall(mangleName, resultType, args));
+
+    _executor.execute(task);
+
+    return task;
+  }
+
+  /**
+   * Returns the T of a Future&lt;T&gt; return type.
+   */
+  private static Class<?> getResultType(Type type)
+  {
+    if (! (type instanceof ParameterizedType))
+      return Object.class;
+
+    Type []typeArgs = ((ParameterizedType) type).getActualTypeArguments();
+
+    return getRawClass(typeArgs[0]);
+  }
+
+  private static Class<?> getRawClass(Type type)
+  {
+    if (type instanceof Class<?>)
+      return (Class<?>) type;
+    else if (type instanceof ParameterizedType)
+      return getRawClass(((ParameterizedType) type).getRawType());
+    else if (type instanceof GenericArrayType) {
+      Type compType = ((GenericArrayType) type).getGenericComponentType();
+
+      return java.lang.reflect.Array.newInstance(getRawClass(compType), 0)
+                                    .getClass();
+    }
+    else
+      return Object.class;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _proxy.getURL() + "]";
+  }
+
+  class RemoteCall implements Callable<Object> {
+    private final String _mangleName;
+    private final Class<?> _resultType;
+    private final Object []_args;
+
+    RemoteCall(String mangleName, Class<?> resultType, Object []args)
+    {
+      _mangleName = mangleName;
+      _resultType = resultType;
+      _args = args;
+    }
+
+    /**
+     * The remote exception is thrown directly, since FutureTask already
+     * wraps it in the ExecutionException seen by Future.get().
+     */
+    @Override
+    public Object call()
+      throws Exception
+    {
+      try {
+        return _proxy.invokeRemote(_mangleName, _resultType, _args);
+      } catch (Exception e) {
+        throw e;
+      } catch (Error e) {
+        throw e;
+      } catch (Throwable e) {
+        throw new HessianRuntimeException(e);
+      }
+    }
+  }
+}
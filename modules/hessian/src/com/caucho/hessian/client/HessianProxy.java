@@ -150,7 +150,26 @@ public class HessianProxy implements InvocationHandler, Serializable {
         return _url.toString();
       else if (methodName.equals("toString") && params.length == 0)
         return "HessianProxy[" + _url + "]";
-      
+
+      mangleName = getMangleName(method);
+    }
+
+    return invokeRemote(mangleName, method.getReturnType(), args);
+  }
+
+  /**
+   * Returns the mangled name for the method, respecting the factory's
+   * overload setting.
+   */
+  String getMangleName(Method method)
+  {
+    String mangleName;
+
+    synchronized (_mangleMap) {
+      mangleName = _mangleMap.get(method);
+    }
+
+    if (mangleName == null) {
       if (! _factory.isOverloadEnabled())
         mangleName = method.getName();
       else
@@ -161,8 +180,25 @@ public class HessianProxy implements InvocationHandler, Serializable {
       }
     }
 
+    return mangleName;
+  }
+
+  /**
+   * Calls the remote method and reads the reply.  On a clean reply the
+   * connection is closed with keepalive, otherwise it is destroyed.
+   *
+   * @param mangleName the remote method name
+   * @param returnType the expected type of the reply
+   * @param args the arguments to the call
+   */
+  protected Object invokeRemote(String mangleName,
+                                Class<?> returnType,
+                                Object []args)
+    throws Throwable
+  {
     InputStream is = null;
     HessianConnection conn = null;
+    boolean isValid = false;
     
     try {
       if (log.isLoggable(Level.FINER))
@@ -192,7 +228,9 @@ public class HessianProxy implements InvocationHandler, Serializable {
 
         in = _factory.getHessian2Input(is);
 
-        Object value = in.readReply(method.getReturnType());
+        Object value = in.readReply(returnType);
+
+        isValid = true;
 
         return value;
       }
@@ -204,7 +242,7 @@ public class HessianProxy implements InvocationHandler, Serializable {
 
         in.startReplyBody();
 
-        Object value = in.readObject(method.getReturnType());
+        Object value = in.readObject(returnType);
 
         if (value instanceof InputStream) {
           value = new ResultInputStream(conn, is, in, (InputStream) value);
@@ -214,6 +252,8 @@ public class HessianProxy implements InvocationHandler, Serializable {
         else
           in.completeReply();
 
+        isValid = true;
+
         return value;
       }
       else
@@ -229,7 +269,11 @@ public class HessianProxy implements InvocationHandler, Serializable {
       }
       
       try {
-        if (conn != null)
+        if (conn == null) {
+        }
+        else if (isValid)
+          conn.close();
+        else
           conn.destroy();
       } catch (Exception e) {
         log.log(Level.FINE, e.toString(), e);
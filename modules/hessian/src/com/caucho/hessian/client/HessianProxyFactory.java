@@ -56,6 +56,10 @@ import java.lang.reflect.Proxy;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Hashtable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Logger;
 
 import javax.naming.Context;
@@ -144,6 +148,8 @@ public class HessianProxyFactory implements ServiceProxyFactory, ObjectFactory {
   private long _readTimeout = -1;
   private long _connectTimeout = -1;
 
+  private Executor _executor;
+
   /**
    * Creates the new proxy factory.
    */
@@ -213,6 +219,39 @@ public class HessianProxyFactory implements ServiceProxyFactory, ObjectFactory {
     return _connFactory;
   }
 
+  /**
+   * Sets the executor used to send asynchronous calls.
+   */
+  public void setExecutor(Executor executor)
+  {
+    _executor = executor;
+  }
+
+  /**
+   * Returns the executor used to send asynchronous calls.  The default
+   * is a cached pool of daemon threads.
+   */
+  public synchronized Executor getExecutor()
+  {
+    if (_executor == null)
+      _executor = createDefaultExecutor();
+
+    return _executor;
+  }
+
+  private static ExecutorService createDefaultExecutor()
+  {
+    return Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(Runnable task)
+        {
+          Thread thread = new Thread(task, "hessian-async");
+          thread.setDaemon(true);
+
+          return thread;
+        }
+      });
+  }
+
   /**
    * Sets the debug
    */
@@ -458,6 +497,52 @@ public class HessianProxyFactory implements ServiceProxyFactory, ObjectFactory {
                                   handler);
   }
 
+  /**
+   * Creates a new asynchronous proxy with the specified URL.  Methods of
+   * the async api returning <code>Future&lt;T&gt;</code> call the remote
+   * method of the same name and parameters on the factory's executor.
+   *
+   * <pre>
+   * String url = "http://localhost:8080/ejb/hello");
+   * HelloAsync hello = factory.createAsync(HelloAsync.class, url);
+   * Future&lt;String&gt; result = hello.hello("world");
+   * </pre>
+   *
+   * @param api the async interface the proxy class needs to implement
+   * @param url the URL where the client object is located.
+   *
+   * @return an async proxy to the object with the specified interface.
+   */
+  public <T> T createAsync(Class<T> api, String urlName)
+    throws MalformedURLException
+  {
+    return createAsync(api, new URL(urlName), _loader);
+  }
+
+  /**
+   * Creates a new asynchronous proxy with the specified URL.
+   *
+   * @param api the async interface the proxy class needs to implement
+   * @param url the URL where the client object is located.
+   * @param loader the class loader for the proxy class
+   *
+   * @return an async proxy to the object with the specified interface.
+   */
+  public <T> T createAsync(Class<T> api, URL url, ClassLoader loader)
+  {
+    if (api == null)
+      throw new NullPointerException("api must not be null for HessianProxyFactory.createAsync()");
+
+    HessianProxy proxy = new HessianProxy(url, this, api);
+    InvocationHandler handler = new HessianAsyncProxy(proxy, getExecutor());
+
+    Object value = Proxy.newProxyInstance(loader,
+                                          new Class[] { api },
+                                          handler);
+
+    return api.cast(value);
+  }
+
   public AbstractHessianInput getHessianInput(InputStream is)
   {
     return getHessian2Input(is);
@@ -73,23 +73,7 @@ abstract public class AbstractStreamSerializer extends AbstractSerializer
     if (ref < -1) {
       out.writeString("value");
 
-      InputStream is = null;
-
-      try {
-        is = getInputStream(obj);
-      } catch (Exception e) {
-        log.log(Level.WARNING, e.toString(), e);
-      }
-      
-      if (is != null) {
-        try {
-          out.writeByteStream(is);
-        } finally {
-          is.close();
-        }
-      } else {
-        out.writeNull();
-      }
+      writeValue(obj, out);
       
       out.writeMapEnd();
     }
@@ -101,23 +85,33 @@ abstract public class AbstractStreamSerializer extends AbstractSerializer
         out.writeObjectBegin(getClassName(obj));
       }
 
-      InputStream is = null;
+      writeValue(obj, out);
+    }
+  }
 
-      try {
-        is = getInputStream(obj);
-      } catch (Exception e) {
-        log.log(Level.WARNING, e.toString(), e);
-      }
+  /**
+   * Writes the stream's data as a binary value.  Subclasses with buffered
+   * data can override to write the buffers directly.
+   */
+  protected void writeValue(Object obj, AbstractHessianOutput out)
+    throws IOException
+  {
+    InputStream is = null;
 
-      try {
-        if (is != null)
-          out.writeByteStream(is);
-        else
-          out.writeNull();
-      } finally {
-        if (is != null)
-          is.close();
-      }
+    try {
+      is = getInputStream(obj);
+    } catch (Exception e) {
+      log.log(Level.WARNING, e.toString(), e);
+    }
+
+    try {
+      if (is != null)
+        out.writeByteStream(is);
+      else
+        out.writeNull();
+    } finally {
+      if (is != null)
+        is.close();
     }
   }
 
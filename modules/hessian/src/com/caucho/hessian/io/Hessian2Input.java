@@ -1422,9 +1422,7 @@ public class Hessian2Input
 
       ByteArrayOutputStream bos = new ByteArrayOutputStream();
 
-      int data;
-      while ((data = parseByte()) >= 0)
-        bos.write(data);
+      copyBinaryChunks(bos);
 
       return bos.toByteArray();
 
@@ -1436,11 +1434,12 @@ public class Hessian2Input
         _isLastChunk = true;
         _chunkLength = tag - 0x20;
 
-        byte []buffer = new byte[_chunkLength];
+        int length = _chunkLength;
+        byte []buffer = new byte[length];
 
         int offset = 0;
-        while (offset < _chunkLength) {
-          int sublen = read(buffer, 0, _chunkLength - offset);
+        while (offset < length) {
+          int sublen = read(buffer, offset, length - offset);
 
           if (sublen <= 0)
             break;
@@ -1456,11 +1455,12 @@ public class Hessian2Input
         _isLastChunk = true;
         _chunkLength = (tag - 0x34) * 256 + read();
 
-        byte []buffer = new byte[_chunkLength];
+        int length = _chunkLength;
+        byte []buffer = new byte[length];
 
         int offset = 0;
-        while (offset < _chunkLength) {
-          int sublen = read(buffer, 0, _chunkLength - offset);
+        while (offset < length) {
+          int sublen = read(buffer, offset, length - offset);
 
           if (sublen <= 0)
             break;
@@ -2699,6 +2699,110 @@ public class Hessian2Input
     return read();
   }
 
+  /**
+   * Copies a binary value to the output stream directly from the input
+   * buffer, without materializing it.
+   *
+   * @return false if the value is null
+   */
+  @Override
+  public boolean readToOutputStream(OutputStream os)
+    throws IOException
+  {
+    int tag = read();
+
+    switch (tag) {
+    case 'N':
+      return false;
+
+    case BC_BINARY:
+    case BC_BINARY_CHUNK:
+      _isLastChunk = tag == BC_BINARY;
+      _chunkLength = (read() << 8) + read();
+      break;
+
+    case 0x20: case 0x21: case 0x22: case 0x23:
+    case 0x24: case 0x25: case 0x26: case 0x27:
+    case 0x28: case 0x29: case 0x2a: case 0x2b:
+    case 0x2c: case 0x2d: case 0x2e: case 0x2f:
+      _isLastChunk = true;
+      _chunkLength = tag - 0x20;
+      break;
+
+    case 0x34: case 0x35: case 0x36: case 0x37:
+      _isLastChunk = true;
+      _chunkLength = (tag - 0x34) * 256 + read();
+      break;
+
+    default:
+      throw expect("binary", tag);
+    }
+
+    copyBinaryChunks(os);
+
+    return true;
+  }
+
+  /**
+   * Copies the current and following binary chunks from the input
+   * buffer to the output stream.
+   */
+  private void copyBinaryChunks(OutputStream os)
+    throws IOException
+  {
+    while (true) {
+      while (_chunkLength <= 0) {
+        if (_isLastChunk) {
+          _chunkLength = 0;
+          return;
+        }
+
+        int code = read();
+
+        switch (code) {
+        case BC_BINARY_CHUNK:
+          _isLastChunk = false;
+          _chunkLength = (read() << 8) + read();
+          break;
+
+        case BC_BINARY:
+          _isLastChunk = true;
+          _chunkLength = (read() << 8) + read();
+          break;
+
+        case 0x20: case 0x21: case 0x22: case 0x23:
+        case 0x24: case 0x25: case 0x26: case 0x27:
+        case 0x28: case 0x29: case 0x2a: case 0x2b:
+        case 0x2c: case 0x2d: case 0x2e: case 0x2f:
+          _isLastChunk = true;
+          _chunkLength = code - 0x20;
+          break;
+
+        case 0x34: case 0x35: case 0x36: case 0x37:
+          _isLastChunk = true;
+          _chunkLength = (code - 0x34) * 256 + read();
+          break;
+
+        default:
+          throw expect("byte[]", code);
+        }
+      }
+
+      if (_length <= _offset && ! readBuffer())
+        throw new EOFException("unexpected end of file in binary data");
+
+      int sublen = _length - _offset;
+
+      if (_chunkLength < sublen)
+        sublen = _chunkLength;
+
+      os.write(_buffer, _offset, sublen);
+
+      _offset += sublen;
+      _chunkLength -= sublen;
+    }
+  }
+
   /**
    * Reads bytes based on an input stream.
    */
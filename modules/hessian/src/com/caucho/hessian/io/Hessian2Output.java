@@ -81,6 +81,10 @@ public class Hessian2Output
   // should match Resin buffer size for perf
   public final static int SIZE = 8 * 1024;
 
+  // binary parts at least this large are written directly to the stream
+  private final static int BINARY_DIRECT_WRITE_MIN = SIZE;
+  private final static int BINARY_DIRECT_CHUNK_MAX = 0x8000;
+
   // the output stream/
   protected OutputStream _os;
 
@@ -1159,6 +1163,15 @@ public class Hessian2Output
       _buffer[_offset++] = (byte) 'N';
     }
     else {
+      while (BINARY_DIRECT_WRITE_MIN <= length && isDirectWrite()) {
+        int sublen = Math.min(length, BINARY_DIRECT_CHUNK_MAX);
+
+        writeBinaryChunkDirect(buffer, offset, sublen);
+
+        length -= sublen;
+        offset += sublen;
+      }
+
       while (SIZE - _offset - 3 < length) {
         int sublen = SIZE - _offset - 3;
 
@@ -1228,9 +1241,20 @@ public class Hessian2Output
     throws IOException
   {
     while (length > 0) {
-      flushIfFull();
+      if (BINARY_DIRECT_WRITE_MIN <= length && isDirectWrite()) {
+        int sublen = Math.min(length, BINARY_DIRECT_CHUNK_MAX);
+
+        writeBinaryChunkDirect(buffer, offset, sublen);
+
+        length -= sublen;
+        offset += sublen;
+        continue;
+      }
+
+      if (SIZE - _offset - 3 < 16)
+        flushBuffer();
 
-      int sublen = _buffer.length - _offset;
+      int sublen = SIZE - _offset - 3;
 
       if (length < sublen)
         sublen = length;
@@ -1241,12 +1265,40 @@ public class Hessian2Output
 
       System.arraycopy(buffer, offset, _buffer, _offset, sublen);
 
-     _offset += sublen;
+      _offset += sublen;
       length -= sublen;
       offset += sublen;
     }
   }
 
+  /**
+   * Large binary chunks can bypass the buffer when the stream is not
+   * packetized.
+   */
+  private boolean isDirectWrite()
+  {
+    return ! _isPacket && _os != null;
+  }
+
+  /**
+   * Writes a non-final binary chunk header to the buffer and the chunk
+   * data directly to the stream, avoiding the copy into the buffer.
+   */
+  private void writeBinaryChunkDirect(byte []buffer, int offset, int length)
+    throws IOException
+  {
+    if (SIZE < _offset + 3)
+      flushBuffer();
+
+    _buffer[_offset++] = (byte) BC_BINARY_CHUNK;
+    _buffer[_offset++] = (byte) (length >> 8);
+    _buffer[_offset++] = (byte) length;
+
+    flushBuffer();
+
+    _os.write(buffer, offset, length);
+  }
+
   /**
    * Writes a byte buffer to the stream.
    *
@@ -1615,6 +1667,38 @@ public class Hessian2Output
       _os.flush();
   }
 
+  /**
+   * Writes pre-encoded Hessian data such as a cached class definition.
+   * Returns false in packet mode, where the packet boundaries must match
+   * the ones of the individual writes.
+   */
+  boolean writeRaw(byte []buffer, int offset, int length)
+    throws IOException
+  {
+    if (_isPacket)
+      return false;
+
+    while (length > 0) {
+      int sublen = SIZE - _offset;
+
+      if (sublen == 0) {
+        flushBuffer();
+        continue;
+      }
+
+      if (length < sublen)
+        sublen = length;
+
+      System.arraycopy(buffer, offset, _buffer, _offset, sublen);
+
+      _offset += sublen;
+      offset += sublen;
+      length -= sublen;
+    }
+
+    return true;
+  }
+
   public final void flushBuffer()
     throws IOException
   {
@@ -0,0 +1,113 @@
+/*
+ * The Apache Software License, Version 1.1
+ *
+ * Copyright (c) 2001-2004 Caucho Technology, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution, if
+ *    any, must include the following acknowlegement:
+ *       "This product includes software developed by the
+ *        Caucho Technology (http://www.caucho.com/)."
+ *    Alternately, this acknowlegement may appear in the software itself,
+ *    if and wherever such third-party acknowlegements normally appear.
+ *
+ * 4. The names "Hessian", "Resin", and "Caucho" must not be used to
+ *    endorse or promote products derived from this software without prior
+ *    written permission. For written permission, please contact
+ *    info@caucho.com.
+ *
+ * 5. Products derived from this software may not be called "Resin"
+ *    nor may "Resin" appear in their names without prior written
+ *    permission of Caucho Technology.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL CAUCHO TECHNOLOGY OR ITS CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @author Scott Ferguson
+ */
+package com.caucho.hessian.io;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+
+import sun.misc.Unsafe;
+
+/**
+ * Specialized writer for an object's fields, generated per class by an
+ * {@link InstanceSerializerGenerator}.  The generated writeInstance is a
+ * straight-line sequence of field reads and typed writes, replacing the
+ * field serializer loop.  Accessible fields are read directly, others
+ * with Unsafe at offsets fixed in the generated class.  The output is
+ * the same as the UnsafeSerializer field serializers.
+ */
+abstract public class InstanceSerializer {
+  protected static final Unsafe _unsafe = UnsafeSerializer.getUnsafe();
+
+  private Field []_fields;
+
+  /**
+   * Sets the serialized fields, in definition order.
+   */
+  public final void init(Field []fields)
+  {
+    _fields = fields;
+  }
+
+  /**
+   * Writes the object's field values in definition order.
+   */
+  abstract public void writeInstance(Object obj, AbstractHessianOutput out)
+    throws IOException;
+
+  /**
+   * Writes a date field, matching the DateFieldSerializer.
+   */
+  protected static void writeDate(AbstractHessianOutput out,
+                                  java.util.Date value)
+    throws IOException
+  {
+    if (value == null)
+      out.writeNull();
+    else
+      out.writeUTCDate(value.getTime());
+  }
+
+  /**
+   * Adds the field name to an exception thrown while writing the field.
+   */
+  protected final Throwable fieldError(Throwable e, int index)
+  {
+    Field field = _fields[index];
+
+    String msg = (e.getMessage() + "\n field: "
+                  + field.getDeclaringClass().getName()
+                  + '.' + field.getName());
+
+    if (e instanceof IOException)
+      return new IOExceptionWrapper(msg, e);
+    else if (e instanceof RuntimeException)
+      return new RuntimeException(msg, e);
+    else
+      return e;
+  }
+}
@@ -48,6 +48,7 @@
 
 package com.caucho.hessian.io;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.lang.ref.SoftReference;
 import java.lang.reflect.Field;
@@ -75,14 +76,63 @@ public class UnsafeSerializer extends AbstractSerializer
   private static final WeakHashMap<Class<?>,SoftReference<UnsafeSerializer>> _serializerMap
     = new WeakHashMap<Class<?>,SoftReference<UnsafeSerializer>>();
 
+  private static InstanceSerializerGenerator _generator;
+  private static boolean _isGeneratorInit;
+
   private Field []_fields;
   private FieldSerializer []_fieldSerializers;
+  private InstanceSerializer _instanceSerializer;
+  private byte []_definition20;
   
   public static boolean isEnabled()
   {
     return _isEnabled;
   }
 
+  static Unsafe getUnsafe()
+  {
+    return _unsafe;
+  }
+
+  /**
+   * Sets the generator for specialized instance serializers.  Serializers
+   * created afterwards use generated code instead of the field loop.
+   */
+  public static void setInstanceSerializerGenerator(InstanceSerializerGenerator generator)
+  {
+    synchronized (_serializerMap) {
+      _generator = generator;
+      _isGeneratorInit = true;
+      _serializerMap.clear();
+    }
+  }
+
+  private static InstanceSerializerGenerator getInstanceSerializerGenerator()
+  {
+    synchronized (_serializerMap) {
+      if (! _isGeneratorInit) {
+        _isGeneratorInit = true;
+
+        String className
+          = System.getProperty(InstanceSerializerGenerator.class.getName());
+
+        try {
+          if (className != null) {
+            ClassLoader loader = Thread.currentThread().getContextClassLoader();
+
+            Class<?> cl = Class.forName(className, false, loader);
+
+            _generator = (InstanceSerializerGenerator) cl.newInstance();
+          }
+        } catch (Exception e) {
+          log.log(Level.WARNING, e.toString(), e);
+        }
+      }
+
+      return _generator;
+    }
+  }
+
   public UnsafeSerializer(Class<?> cl)
   {
     introspect(cl);
@@ -112,6 +162,8 @@ public class UnsafeSerializer extends AbstractSerializer
 
   protected void introspect(Class<?> cl)
   {
+    Class<?> baseClass = cl;
+
     ArrayList<Field> primitiveFields = new ArrayList<Field>();
     ArrayList<Field> compoundFields = new ArrayList<Field>();
 
@@ -152,6 +204,40 @@ public class UnsafeSerializer extends AbstractSerializer
     for (int i = 0; i < _fields.length; i++) {
       _fieldSerializers[i] = getFieldSerializer(_fields[i]);
     }
+
+    _definition20 = createDefinition20();
+
+    InstanceSerializerGenerator generator = getInstanceSerializerGenerator();
+
+    if (generator != null) {
+      try {
+        _instanceSerializer = generator.generate(baseClass, _fields);
+      } catch (Exception e) {
+        log.log(Level.FINE, e.toString(), e);
+      }
+    }
+  }
+
+  /**
+   * Pre-encodes the field-length and field-name tail of the class
+   * definition, which is the same for every Hessian 2 stream.
+   */
+  private byte []createDefinition20()
+  {
+    try {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      Hessian2Output out = new Hessian2Output(bos);
+
+      writeDefinition20Fields(out);
+
+      out.flush();
+
+      return bos.toByteArray();
+    } catch (IOException e) {
+      log.log(Level.FINE, e.toString(), e);
+
+      return null;
+    }
   }
 
   @Override
@@ -195,6 +281,20 @@ public class UnsafeSerializer extends AbstractSerializer
 
   private void writeDefinition20(AbstractHessianOutput out)
     throws IOException
+  {
+    byte []definition = _definition20;
+
+    if (definition != null
+        && out.getClass() == Hessian2Output.class
+        && ((Hessian2Output) out).writeRaw(definition, 0, definition.length)) {
+      return;
+    }
+
+    writeDefinition20Fields(out);
+  }
+
+  private void writeDefinition20Fields(AbstractHessianOutput out)
+    throws IOException
   {
     out.writeClassFieldLength(_fields.length);
 
@@ -209,6 +309,13 @@ public class UnsafeSerializer extends AbstractSerializer
     throws IOException
   {
     try {
+      InstanceSerializer instanceSerializer = _instanceSerializer;
+
+      if (instanceSerializer != null) {
+        instanceSerializer.writeInstance(obj, out);
+        return;
+      }
+
       FieldSerializer []fieldSerializers = _fieldSerializers;
       int length = fieldSerializers.length;
       
@@ -167,6 +167,32 @@ public class CodeWriterAttribute extends CodeAttribute {
     }
   }
 
+  public void storeIntVar(int index)
+  {
+    _stack--;
+
+    if (index <= 3) {
+      write(CodeVisitor.ISTORE_0 + index);
+    }
+    else {
+      write(CodeVisitor.ISTORE);
+      write(index);
+    }
+  }
+
+  public void storeObjectVar(int index)
+  {
+    _stack--;
+
+    if (index <= 3) {
+      write(CodeVisitor.ASTORE_0 + index);
+    }
+    else {
+      write(CodeVisitor.ASTORE);
+      write(index);
+    }
+  }
+
   public void pushNull()
   {
     _stack += 1;
@@ -183,6 +209,60 @@ public class CodeWriterAttribute extends CodeAttribute {
     write(value);
   }
 
+  public void pushLong(long value)
+  {
+    _stack += 2;
+
+    int index = getConstantPool().addLong(value).getIndex();
+
+    write(CodeVisitor.LDC2_W);
+    write(index >> 8);
+    write(index);
+  }
+
+  public void pushString(String value)
+  {
+    _stack += 1;
+
+    int index = getConstantPool().addString(value).getIndex();
+
+    write(CodeVisitor.LDC_W);
+    write(index >> 8);
+    write(index);
+  }
+
+  public void pop()
+  {
+    _stack -= 1;
+
+    write(CodeVisitor.POP);
+  }
+
+  public void floatToDouble()
+  {
+    _stack += 1;
+
+    write(CodeVisitor.F2D);
+  }
+
+  /**
+   * Returns the current code offset, e.g. for an exception range.
+   */
+  public int getOffset()
+  {
+    return _bos.size();
+  }
+
+  /**
+   * Adds an exception handler for the code range.
+   */
+  public void addException(String className, int start, int end, int handler)
+  {
+    ClassConstant type = getConstantPool().addClass(className);
+
+    addException(type, start, end, handler);
+  }
+
   public void invoke(String className,
                      String methodName,
                      String signature,
@@ -217,6 +217,10 @@ public final class InjectManager
   
   private AtomicLong _version = new AtomicLong();
 
+  // bumped on any registration change in any manager, since a resolution
+  // can see beans from the parent and from visible modules
+  private static final AtomicLong _resolveVersion = new AtomicLong();
+
   private HashMap<Class<?>,Class<?>> _specializedMap
     = new HashMap<Class<?>,Class<?>>();
 
@@ -251,6 +255,9 @@ public final class InjectManager
   private HashMap<String,WebComponent> _beanMap
     = new HashMap<String,WebComponent>();
 
+  private ConcurrentHashMap<ResolveKey,ResolveEntry> _resolveCache
+    = new ConcurrentHashMap<ResolveKey,ResolveEntry>();
+
   private ConcurrentHashMap<String,ArrayList<Bean<?>>> _namedBeanMap
     = new ConcurrentHashMap<String,ArrayList<Bean<?>>>();
 
@@ -688,6 +695,8 @@ public final class InjectManager
     for (int i = deploymentList.size() - 1; i >= 0; i--) {
       _deploymentMap.put(deploymentList.get(i), priority);
     }
+
+    _resolveVersion.incrementAndGet();
   }
 
   /**
@@ -783,7 +792,7 @@ public final class InjectManager
       beanSet = new ArrayList<TypedBean>();
       _selfBeanMap.put(rawType, beanSet);
     }
-    _beanMap.remove(rawType);
+    _beanMap.remove(rawType.getName());
 
     TypedBean typedBean = new TypedBean(type, annotated, bean);
     
@@ -1528,7 +1537,7 @@ public final class InjectManager
       }
     }
     
-    Set<Bean<?>> set = resolve(type, qualifiers, null);
+    Set<Bean<?>> set = resolveCached(type, qualifiers);
 
     if (set != null)
       return (Set<Bean<?>>) set;
@@ -1536,6 +1545,36 @@ public final class InjectManager
       return new HashSet<Bean<?>>();
   }
 
+  /**
+   * Resolves a programmatic lookup, caching the result until the next
+   * bean registration. The returned set is a copy owned by the caller.
+   */
+  private Set<Bean<?>> resolveCached(Type type, Annotation []qualifiers)
+  {
+    ConcurrentHashMap<ResolveKey,ResolveEntry> cache = _resolveCache;
+
+    if (type == null || cache == null)
+      return resolve(type, qualifiers, null);
+
+    ResolveKey key = new ResolveKey(type, qualifiers);
+    long version = _resolveVersion.get();
+
+    ResolveEntry entry = cache.get(key);
+
+    if (entry != null && entry.getVersion() == version)
+      return new LinkedHashSet<Bean<?>>(entry.getBeans());
+
+    Set<Bean<?>> beans = resolve(type, qualifiers, null);
+
+    if (beans == null)
+      return null;
+
+    cache.put(key, new ResolveEntry(version,
+                                    new LinkedHashSet<Bean<?>>(beans)));
+
+    return beans;
+  }
+
   /**
    * Returns the beans matching a class and annotation set
    *
@@ -1757,8 +1796,11 @@ public final class InjectManager
   
   private void clearBeanCache()
   {
+    _resolveVersion.incrementAndGet();
+
     _namedRefFactoryMap.clear();
     _beanMap.clear();
+    _resolveCache.clear();
   }
 
   private void fillByType(BaseType baseType,
@@ -3352,6 +3394,8 @@ public final class InjectManager
                                     parentType.getName()));
     
     _specializedMap.put(parentType, specializedType);
+
+    _resolveVersion.incrementAndGet();
   }
 
   boolean isEnabled(Bean<?> bean)
@@ -4109,6 +4153,7 @@ public final class InjectManager
     _selfBeanMap = null;
     _selfNamedBeanMap = null;
     _beanMap = null;
+    _resolveCache = null;
     _namedBeanMap = null;
     _contextMap = null;
 
@@ -4389,6 +4434,99 @@ public final class InjectManager
     }
   }
 
+  /**
+   * Key for the resolution cache. Qualifier order is not significant.
+   */
+  static final class ResolveKey {
+    private static final Annotation []NULL = new Annotation[0];
+
+    private final Type _type;
+    private final Annotation []_ann;
+    private final int _hash;
+
+    ResolveKey(Type type, Annotation []ann)
+    {
+      _type = type;
+
+      if (ann != null)
+        _ann = ann.clone();
+      else
+        _ann = NULL;
+
+      int hash = type.hashCode();
+
+      for (Annotation qualifier : _ann) {
+        // sum, so the hash is independent of the qualifier order
+        hash += qualifier.hashCode();
+      }
+
+      _hash = hash;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return _hash;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+      if (! (obj instanceof ResolveKey))
+        return false;
+
+      ResolveKey key = (ResolveKey) obj;
+
+      if (_hash != key._hash)
+        return false;
+
+      if (! _type.equals(key._type))
+        return false;
+
+      if (_ann.length != key._ann.length)
+        return false;
+
+      // qualifiers are unique by type, so containment is sufficient
+      for (Annotation ann : _ann) {
+        if (! isContained(ann, key._ann))
+          return false;
+      }
+
+      return true;
+    }
+
+    private static boolean isContained(Annotation ann, Annotation []list)
+    {
+      for (Annotation testAnn : list) {
+        if (ann.equals(testAnn))
+          return true;
+      }
+
+      return false;
+    }
+  }
+
+  static final class ResolveEntry {
+    private final long _version;
+    private final Set<Bean<?>> _beans;
+
+    ResolveEntry(long version, Set<Bean<?>> beans)
+    {
+      _version = version;
+      _beans = beans;
+    }
+
+    long getVersion()
+    {
+      return _version;
+    }
+
+    Set<Bean<?>> getBeans()
+    {
+      return _beans;
+    }
+  }
+
   static class InjectBean<X> extends BeanWrapper<X>
     implements PassivationCapable, ScopeAdapterBean<X>
   {
@@ -33,12 +33,15 @@ import com.caucho.vfs.WriteStream;
 
 import javax.el.ELContext;
 import javax.el.ELException;
+import javax.el.ELResolver;
 import javax.el.MethodInfo;
 import javax.el.PropertyNotFoundException;
 import javax.el.ValueReference;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Represents an array reference:
@@ -52,10 +55,13 @@ public class ArrayResolverExpr extends Expr
   private Expr _left;
   private Expr _right;
   
-  // cached getter method
-  private transient Class _lastClass;
-  private transient String _lastField;
-  private transient Method _lastMethod;
+  // bean getters are only cached a few times before the expression
+  // is treated as polymorphic
+  private static final int PROPERTY_CACHE_MISS_MAX = 8;
+
+  // monomorphic cache for the bean getter
+  private transient volatile BeanPropertyCache _propertyCache;
+  private transient int _propertyCacheMiss;
 
   /**
    * Creates a new array expression.
@@ -146,7 +152,80 @@ public class ArrayResolverExpr extends Expr
     if (fieldObj == null)
       return null;
 
-    return env.getELResolver().getValue(env, aObj, fieldObj);
+    ELResolver resolver = env.getELResolver();
+
+    if (resolver instanceof CacheableELResolver
+        && ((CacheableELResolver) resolver).isStandardResolution(env)) {
+      return getCachedValue(env, resolver, aObj, fieldObj);
+    }
+
+    return resolver.getValue(env, aObj, fieldObj);
+  }
+
+  /**
+   * Evaluates the standard map, list and bean lookups without the
+   * resolver chain, caching the bean getter for the base's class.
+   */
+  private Object getCachedValue(ELContext env,
+                                ELResolver resolver,
+                                Object aObj,
+                                Object fieldObj)
+  {
+    if (aObj instanceof Map<?,?>) {
+      env.setPropertyResolved(true);
+
+      return ((Map<?,?>) aObj).get(fieldObj);
+    }
+    else if (aObj instanceof List<?>) {
+      List<?> list = (List<?>) aObj;
+
+      env.setPropertyResolved(true);
+
+      int index = getIndex(fieldObj);
+
+      if (0 <= index && index < list.size())
+        return list.get(index);
+      else
+        return null;
+    }
+
+    BeanPropertyCache cache = _propertyCache;
+
+    if (cache != null && cache.isMatch(aObj, fieldObj))
+      return cache.getValue(env, aObj);
+
+    if (fieldObj instanceof String
+        && _propertyCacheMiss < PROPERTY_CACHE_MISS_MAX) {
+      _propertyCacheMiss++;
+
+      cache = BeanPropertyCache.create(env, aObj, (String) fieldObj);
+
+      if (cache != null) {
+        _propertyCache = cache;
+
+        return cache.getValue(env, aObj);
+      }
+    }
+
+    return resolver.getValue(env, aObj, fieldObj);
+  }
+
+  /**
+   * Converts a list index like ListELResolver.
+   */
+  private static int getIndex(Object property)
+  {
+    if (property instanceof Number)
+      return ((Number) property).intValue();
+    else if (property instanceof String) {
+      try {
+        return Integer.parseInt((String) property);
+      } catch (Exception e) {
+        throw new IllegalArgumentException("can't convert '" + property + "' to long.");
+      }
+    }
+    else
+      throw new IllegalArgumentException("can't convert '" + property + "' to long.");
   }
   
   /**
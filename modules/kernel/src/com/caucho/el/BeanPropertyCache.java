@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.el;
+
+import java.beans.FeatureDescriptor;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PropertyResourceBundle;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.el.BeanELResolver;
+import javax.el.ELContext;
+import javax.el.ELException;
+
+/**
+ * Monomorphic inline cache for a bean property lookup. The getter is
+ * called by reflection until the cache is hot, and then through a
+ * generated accessor.
+ *
+ * Generation can be disabled with -Dcom.caucho.el.compile=false.
+ */
+final class BeanPropertyCache {
+  private static final Logger log
+    = Logger.getLogger(BeanPropertyCache.class.getName());
+
+  private static final BeanELResolver _beanResolver = new BeanELResolver();
+
+  private static final boolean _isCompile
+    = ! "false".equals(System.getProperty("com.caucho.el.compile"));
+
+  private static final int COMPILE_THRESHOLD = 64;
+
+  private final Class<?> _baseClass;
+  private final String _property;
+  private final Method _getter;
+
+  private volatile PropertyAccessor _accessor;
+  private int _hitCount;
+
+  private BeanPropertyCache(Class<?> baseClass, String property, Method getter)
+  {
+    _baseClass = baseClass;
+    _property = property;
+    _getter = getter;
+
+    _accessor = PropertyAccessor.create(getter);
+  }
+
+  /**
+   * Creates a cache for the base's property, or null if the standard
+   * resolvers don't treat it as a bean getter.
+   */
+  static BeanPropertyCache create(ELContext env, Object base, String property)
+  {
+    if (base instanceof Map
+        || base instanceof List
+        || base instanceof PropertyResourceBundle
+        || base.getClass().isArray()
+        || property.length() == 0) {
+      return null;
+    }
+
+    Class<?> cl = base.getClass();
+
+    Iterator<FeatureDescriptor> iter
+      = _beanResolver.getFeatureDescriptors(env, base);
+
+    while (iter != null && iter.hasNext()) {
+      FeatureDescriptor desc = iter.next();
+
+      if (! property.equals(desc.getName()))
+        continue;
+      else if (! (desc instanceof PropertyDescriptor))
+        return null;
+
+      Method readMethod = ((PropertyDescriptor) desc).getReadMethod();
+
+      if (readMethod == null)
+        return null;
+
+      try {
+        // the resolver uses the base class's copy of the method
+        Method getter = cl.getMethod(readMethod.getName(),
+                                     readMethod.getParameterTypes());
+
+        getter.setAccessible(true);
+
+        return new BeanPropertyCache(cl, property, getter);
+      } catch (Exception e) {
+        log.log(Level.FINEST, e.toString(), e);
+
+        return null;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Returns true if the cache matches the base and property.
+   */
+  boolean isMatch(Object base, Object property)
+  {
+    return (base.getClass() == _baseClass
+            && (_property == property || _property.equals(property)));
+  }
+
+  /**
+   * Returns the property value, wrapping getter exceptions like
+   * BeanELResolver.
+   */
+  Object getValue(ELContext env, Object base)
+  {
+    PropertyAccessor accessor = _accessor;
+
+    if (++_hitCount == COMPILE_THRESHOLD && _isCompile) {
+      PropertyAccessor compiled = PropertyAccessorGenerator.compile(_getter);
+
+      if (compiled != null)
+        _accessor = accessor = compiled;
+    }
+
+    env.setPropertyResolved(true);
+
+    try {
+      return accessor.getValue(base);
+    } catch (InvocationTargetException e) {
+      throw new ELException(e.getCause());
+    } catch (Throwable e) {
+      // the generated accessor throws the getter's exception directly
+      throw new ELException(e);
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[" + _baseClass.getSimpleName() + "." + _property + "]");
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.el;
+
+import javax.el.ELContext;
+
+/**
+ * An ELResolver which resolves non-null bases with only the standard
+ * map, list, array and bean resolvers. Expressions evaluated with such
+ * a resolver can cache bean getters instead of calling the resolver.
+ */
+public interface CacheableELResolver {
+  /**
+   * Returns true if the standard resolvers handle non-null bases,
+   * i.e. no custom resolvers are registered.
+   */
+  public boolean isStandardResolution(ELContext env);
+}
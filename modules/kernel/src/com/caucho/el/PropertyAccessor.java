@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.el;
+
+import java.lang.reflect.Method;
+
+/**
+ * Reads a single bean property. Hot properties use a generated subclass
+ * which calls the getter directly.
+ */
+public abstract class PropertyAccessor {
+  /**
+   * Returns the property value of the bean.
+   */
+  public abstract Object getValue(Object bean)
+    throws Exception;
+
+  /**
+   * Creates a reflection accessor for the getter.
+   */
+  static PropertyAccessor create(Method getter)
+  {
+    return new MethodPropertyAccessor(getter);
+  }
+
+  static final class MethodPropertyAccessor extends PropertyAccessor {
+    private final Method _getter;
+
+    MethodPropertyAccessor(Method getter)
+    {
+      _getter = getter;
+    }
+
+    @Override
+    public Object getValue(Object bean)
+      throws Exception
+    {
+      return _getter.invoke(bean);
+    }
+
+    @Override
+    public String toString()
+    {
+      return getClass().getSimpleName() + "[" + _getter + "]";
+    }
+  }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.el;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.bytecode.CodeWriterAttribute;
+import com.caucho.bytecode.JavaClass;
+import com.caucho.bytecode.JavaClassLoader;
+import com.caucho.bytecode.JavaMethod;
+import com.caucho.loader.ProxyClassLoader;
+import com.caucho.vfs.Vfs;
+import com.caucho.vfs.WriteStream;
+
+/**
+ * Generates a PropertyAccessor calling a bean getter directly, boxing
+ * primitive results.
+ */
+final class PropertyAccessorGenerator {
+  private static final Logger log
+    = Logger.getLogger(PropertyAccessorGenerator.class.getName());
+
+  private static final String BASE_CLASS = "com/caucho/el/PropertyAccessor";
+
+  private static final AtomicInteger _count = new AtomicInteger();
+
+  private static final WeakHashMap<Class<?>,SoftReference<HashMap<String,PropertyAccessor>>> _accessorMap
+    = new WeakHashMap<Class<?>,SoftReference<HashMap<String,PropertyAccessor>>>();
+
+  private PropertyAccessorGenerator()
+  {
+  }
+
+  /**
+   * Returns a generated accessor for the getter, or null if the getter
+   * can't be called directly.
+   */
+  static PropertyAccessor compile(Method getter)
+  {
+    Class<?> cl = getter.getDeclaringClass();
+
+    // the generated class can only link to public application classes
+    if (! Modifier.isPublic(cl.getModifiers())
+        || ! Modifier.isPublic(getter.getModifiers())
+        || Modifier.isStatic(getter.getModifiers())
+        || cl.getClassLoader() == null
+        || getter.getParameterTypes().length != 0
+        || void.class.equals(getter.getReturnType())) {
+      return null;
+    }
+
+    synchronized (_accessorMap) {
+      HashMap<String,PropertyAccessor> map = null;
+      SoftReference<HashMap<String,PropertyAccessor>> ref = _accessorMap.get(cl);
+
+      if (ref != null)
+        map = ref.get();
+
+      if (map == null) {
+        map = new HashMap<String,PropertyAccessor>();
+        _accessorMap.put(cl, new SoftReference<HashMap<String,PropertyAccessor>>(map));
+      }
+
+      PropertyAccessor accessor = map.get(getter.getName());
+
+      if (accessor == null) {
+        accessor = generate(getter);
+
+        if (accessor != null)
+          map.put(getter.getName(), accessor);
+      }
+
+      return accessor;
+    }
+  }
+
+  private static PropertyAccessor generate(Method getter)
+  {
+    Class<?> cl = getter.getDeclaringClass();
+
+    try {
+      String className = ("com/caucho/el/gen/"
+                          + cl.getName().replace('.', '_')
+                          + "__" + getter.getName()
+                          + "__" + _count.incrementAndGet());
+
+      byte []bytecode = generateClass(className, getter);
+
+      ClassLoader parent = cl.getClassLoader();
+
+      Class<?> genClass
+        = new ProxyClassLoader(parent).loadClass(className.replace('/', '.'),
+                                                 bytecode);
+
+      if (! PropertyAccessor.class.isAssignableFrom(genClass))
+        return null;
+
+      return (PropertyAccessor) genClass.newInstance();
+    } catch (Throwable e) {
+      log.log(Level.FINE, getter + " " + e.toString(), e);
+
+      return null;
+    }
+  }
+
+  private static byte []generateClass(String className, Method getter)
+    throws Exception
+  {
+    ClassLoader loader = getter.getDeclaringClass().getClassLoader();
+    JavaClassLoader jLoader = new JavaClassLoader(loader);
+
+    JavaClass jClass = new JavaClass(jLoader);
+    jClass.setAccessFlags(Modifier.PUBLIC | Modifier.FINAL);
+
+    jClass.setWrite(true);
+
+    jClass.setMajor(49);
+    jClass.setMinor(0);
+
+    jClass.setSuperClass(BASE_CLASS);
+    jClass.setThisClass(className);
+
+    generateConstructor(jClass);
+    generateGetValue(jClass, getter);
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    WriteStream out = Vfs.openWrite(bos);
+
+    jClass.write(out);
+
+    out.close();
+
+    return bos.toByteArray();
+  }
+
+  private static void generateConstructor(JavaClass jClass)
+  {
+    JavaMethod ctor = jClass.createMethod("<init>", "()V");
+    ctor.setAccessFlags(Modifier.PUBLIC);
+
+    CodeWriterAttribute code = ctor.createCodeWriter();
+    code.setMaxLocals(1);
+    code.setMaxStack(1);
+
+    code.pushObjectVar(0);
+    code.invokespecial(BASE_CLASS, "<init>", "()V", 1, 0);
+    code.addReturn();
+    code.close();
+  }
+
+  private static void generateGetValue(JavaClass jClass, Method getter)
+  {
+    JavaMethod method
+      = jClass.createMethod("getValue",
+                            "(Ljava/lang/Object;)Ljava/lang/Object;");
+    method.setAccessFlags(Modifier.PUBLIC);
+
+    CodeWriterAttribute code = method.createCodeWriter();
+    code.setMaxLocals(2);
+    code.setMaxStack(3);
+
+    Class<?> cl = getter.getDeclaringClass();
+    Class<?> type = getter.getReturnType();
+
+    String className = cl.getName().replace('.', '/');
+    String sig = "()" + getDescriptor(type);
+    int returnStack = (long.class.equals(type)
+                       || double.class.equals(type)) ? 2 : 1;
+
+    code.pushObjectVar(1);
+    code.cast(className);
+
+    if (cl.isInterface())
+      code.invokeInterface(className, getter.getName(), sig, 1, returnStack);
+    else
+      code.invoke(className, getter.getName(), sig, 1, returnStack);
+
+    if (type.isPrimitive()) {
+      Class<?> boxType = getBoxType(type);
+      String boxName = boxType.getName().replace('.', '/');
+
+      code.invokestatic(boxName, "valueOf",
+                        "(" + getDescriptor(type) + ")L" + boxName + ";",
+                        returnStack, 1);
+    }
+
+    code.addObjectReturn();
+    code.close();
+  }
+
+  private static Class<?> getBoxType(Class<?> type)
+  {
+    if (boolean.class.equals(type))
+      return Boolean.class;
+    else if (byte.class.equals(type))
+      return Byte.class;
+    else if (char.class.equals(type))
+      return Character.class;
+    else if (short.class.equals(type))
+      return Short.class;
+    else if (int.class.equals(type))
+      return Integer.class;
+    else if (long.class.equals(type))
+      return Long.class;
+    else if (float.class.equals(type))
+      return Float.class;
+    else
+      return Double.class;
+  }
+
+  private static String getDescriptor(Class<?> type)
+  {
+    if (boolean.class.equals(type))
+      return "Z";
+    else if (byte.class.equals(type))
+      return "B";
+    else if (char.class.equals(type))
+      return "C";
+    else if (short.class.equals(type))
+      return "S";
+    else if (int.class.equals(type))
+      return "I";
+    else if (long.class.equals(type))
+      return "J";
+    else if (float.class.equals(type))
+      return "F";
+    else if (double.class.equals(type))
+      return "D";
+    else if (type.isArray())
+      return type.getName().replace('.', '/');
+    else
+      return "L" + type.getName().replace('.', '/') + ";";
+  }
+}
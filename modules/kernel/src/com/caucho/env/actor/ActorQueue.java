@@ -54,6 +54,7 @@ public final class ActorQueue<T extends RingItem>
   private final T []_itemRing;
   
   private final ActorWorker<? super T> _firstWorker;
+  private final ActorWorker<?> []_workers;
   
   //private final AtomicBoolean _isHeadAlloc = new AtomicBoolean();
   private final AtomicLong _headAllocRef = new AtomicLong();
@@ -99,6 +100,7 @@ public final class ActorQueue<T extends RingItem>
     
     ActorConsumer<T> prevConsumer = null;
     ActorWorker<T> firstWorker = null;
+    ActorWorker<?> []workers = new ActorWorker<?>[processorsSize];
     
     AtomicLong []tails = new AtomicLong[processorsSize + 1];
     tails[0] = _headRef;
@@ -130,6 +132,7 @@ public final class ActorQueue<T extends RingItem>
                                isWaitRef);
       
       ActorWorker<T> worker = new ActorWorker<T>(consumer);
+      workers[i] = worker;
       
       if (prevConsumer != null) {
         prevConsumer.setNextWorker(worker);
@@ -144,6 +147,7 @@ public final class ActorQueue<T extends RingItem>
     
     _tailRef = tails[tails.length - 1];
     _firstWorker = firstWorker;
+    _workers = workers;
   }
   
   @SuppressWarnings("unchecked")
@@ -177,6 +181,16 @@ public final class ActorQueue<T extends RingItem>
     _firstWorker.wake();
   }
   
+  /**
+   * Stops the worker threads. Items still in the queue are not processed.
+   */
+  public final void close()
+  {
+    for (ActorWorker<?> worker : _workers) {
+      worker.close();
+    }
+  }
+  
   public final T startOffer(boolean isWait)
   {
     final AtomicLong headAllocRef = _headAllocRef;
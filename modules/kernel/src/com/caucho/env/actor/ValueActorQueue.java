@@ -119,7 +119,7 @@ public class ValueActorQueue<T> implements ActorQueueApi<T>
   
   public void close()
   {
-    // _disruptor.close();
+    _actorQueue.close();
   }
   
   public String toString()
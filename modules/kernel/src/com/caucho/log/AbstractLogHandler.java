@@ -30,12 +30,17 @@
 package com.caucho.log;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Filter;
+import java.util.logging.Formatter;
 import java.util.logging.Handler;
+import java.util.logging.Level;
 import java.util.logging.LogRecord;
 
 import com.caucho.env.actor.AbstractActorProcessor;
 import com.caucho.env.actor.ValueActorQueue;
+import com.caucho.loader.Environment;
+import com.caucho.util.CurrentTime;
 import com.caucho.util.L10N;
 import com.caucho.vfs.WriteStream;
 
@@ -43,11 +48,39 @@ import com.caucho.vfs.WriteStream;
  * Configures a log handler
  */
 abstract public class AbstractLogHandler extends Handler {
-  private final ValueActorQueue<LogRecord> _logQueue
-    = new ValueActorQueue<LogRecord>(256, new LogQueue());
+  private static final L10N L = new L10N(AbstractLogHandler.class);
+
+  private static final ThreadLocal<AsyncLogEntry> _asyncEntry
+    = new ThreadLocal<AsyncLogEntry>();
+
+  /**
+   * What an async publish does when the queue is full.
+   */
+  public enum Overflow {
+    // wait for the writer thread
+    BLOCK,
+    // discard the record
+    DROP,
+    // discard the record, and log a count of discarded records
+    SUMMARIZE;
+  }
+
+  private ValueActorQueue<AsyncLogEntry> _logQueue;
+  private volatile Thread _writerThread;
+  private volatile boolean _isClosed;
 
   private Filter _filter;
 
+  private boolean _isAsync;
+  private int _asyncQueueSize = 1024;
+  private Overflow _overflow = Overflow.BLOCK;
+  private boolean _isInferCaller;
+
+  private final AtomicLong _asyncCount = new AtomicLong();
+  private final AtomicLong _dropCount = new AtomicLong();
+  private final AtomicLong _blockCount = new AtomicLong();
+  private final AtomicLong _summaryDropCount = new AtomicLong();
+
   /**
    * Sets the filter.
    */
@@ -62,6 +95,144 @@ abstract public class AbstractLogHandler extends Handler {
     return _filter;
   }
 
+  /**
+   * Publishes records through a queue, formatting and writing them on
+   * the handler's writer thread. Flushes are batched per drained queue.
+   */
+  public void setAsync(boolean isAsync)
+  {
+    _isAsync = isAsync;
+  }
+
+  public boolean isAsync()
+  {
+    return _isAsync;
+  }
+
+  /**
+   * Sets the async queue capacity.
+   */
+  public void setAsyncQueueSize(int size)
+  {
+    if (size <= 0)
+      throw new IllegalArgumentException(L.l("async queue size '{0}' must be positive",
+                                             size));
+
+    if (_logQueue != null)
+      throw new IllegalStateException(L.l("{0} async queue size must be set before logging starts",
+                                          this));
+
+    _asyncQueueSize = size;
+  }
+
+  public int getAsyncQueueCapacity()
+  {
+    return _asyncQueueSize;
+  }
+
+  public void setAsyncOverflow(Overflow overflow)
+  {
+    if (overflow == null)
+      throw new NullPointerException();
+
+    _overflow = overflow;
+  }
+
+  public Overflow getAsyncOverflow()
+  {
+    return _overflow;
+  }
+
+  /**
+   * Captures the source class and method on the logging thread. Needed
+   * when the format uses them, because they're inferred from the stack.
+   */
+  public void setAsyncInferCaller(boolean isInferCaller)
+  {
+    _isInferCaller = isInferCaller;
+  }
+
+  /**
+   * Returns the number of records queued for the writer thread.
+   */
+  public long getAsyncCount()
+  {
+    return _asyncCount.get();
+  }
+
+  /**
+   * Returns the number of records dropped because the queue was full.
+   */
+  public long getAsyncDropCount()
+  {
+    return _dropCount.get();
+  }
+
+  /**
+   * Returns the number of times a logging thread waited for the queue.
+   */
+  public long getAsyncBlockCount()
+  {
+    return _blockCount.get();
+  }
+
+  /**
+   * Returns the current queue depth.
+   */
+  public int getAsyncQueueSize()
+  {
+    ValueActorQueue<AsyncLogEntry> queue = _logQueue;
+
+    return queue != null ? queue.getSize() : 0;
+  }
+
+  /**
+   * Returns the name of the thread which logged the record being
+   * formatted. For async handlers, that's the caller, not the writer.
+   */
+  static String getLogThreadName()
+  {
+    AsyncLogEntry entry = _asyncEntry.get();
+
+    if (entry != null)
+      return entry.getThreadName();
+    else
+      return Thread.currentThread().getName();
+  }
+
+  /**
+   * Returns the environment name of the thread which logged the record
+   * being formatted.
+   */
+  static String getLogEnvironmentName()
+  {
+    AsyncLogEntry entry = _asyncEntry.get();
+
+    if (entry != null)
+      return entry.getEnvironmentName();
+    else
+      return Environment.getEnvironmentName();
+  }
+
+  private ValueActorQueue<AsyncLogEntry> getLogQueue()
+  {
+    ValueActorQueue<AsyncLogEntry> queue = _logQueue;
+
+    if (queue == null) {
+      synchronized (this) {
+        queue = _logQueue;
+
+        if (queue == null) {
+          queue = new ValueActorQueue<AsyncLogEntry>(_asyncQueueSize,
+                                                     new LogQueue());
+          _logQueue = queue;
+        }
+      }
+    }
+
+    return queue;
+  }
+
   /**
    * Publishes the record.
    */
@@ -81,31 +252,135 @@ abstract public class AbstractLogHandler extends Handler {
       return;
     }
     
+    // the writer thread can't wait on its own queue, and a closed
+    // handler has no writer
+    if (_isAsync && ! _isClosed && Thread.currentThread() != _writerThread) {
+      publishAsync(record);
+
+      if (CurrentTime.isTest()) {
+        waitForEmpty(20);
+      }
+
+      return;
+    }
+
     //synchronized (this) {
       processPublish(record);
       processFlush();
     //}
-    
-    /*
-    _logQueue.offer(record);
-    
-    if (CurrentTime.isTest()) {
-      waitForEmpty();
+  }
+
+  private void publishAsync(LogRecord record)
+  {
+    ValueActorQueue<AsyncLogEntry> queue = getLogQueue();
+
+    if (_isInferCaller) {
+      // the caller is inferred from the current thread's stack
+      record.getSourceClassName();
+    }
+
+    AsyncLogEntry entry
+      = new AsyncLogEntry(fillParameters(record),
+                          Thread.currentThread().getName(),
+                          Environment.getEnvironmentName());
+
+    if (queue.offer(entry, false)) {
+      _asyncCount.incrementAndGet();
+      return;
+    }
+
+    switch (_overflow) {
+    case DROP:
+      _dropCount.incrementAndGet();
+      break;
+
+    case SUMMARIZE:
+      _dropCount.incrementAndGet();
+      _summaryDropCount.incrementAndGet();
+      queue.wake();
+      break;
+
+    default:
+      _blockCount.incrementAndGet();
+
+      while (! queue.offer(entry, true)) {
+      }
+
+      _asyncCount.incrementAndGet();
+      break;
     }
-    */
   }
-  
-  private void waitForEmpty()
+
+  /**
+   * Formats the message parameters on the logging thread, because the
+   * parameters may be mutable objects which change before the writer
+   * thread gets to them. The shared record is copied, not modified.
+   */
+  private LogRecord fillParameters(LogRecord record)
   {
-    _logQueue.wake();
-      
-    for (int i = 0; i < 20 && ! _logQueue.isEmpty(); i++) {
+    Object []parameters = record.getParameters();
+
+    if (parameters == null || parameters.length == 0)
+      return record;
+
+    Formatter formatter = getFormatter();
+    String message;
+
+    if (formatter != null)
+      message = formatter.formatMessage(record);
+    else
+      message = L10N.fillMessage(record.getMessage(), parameters);
+
+    LogRecord copy = new LogRecord(record.getLevel(), message);
+    copy.setLoggerName(record.getLoggerName());
+    copy.setMillis(record.getMillis());
+    copy.setSequenceNumber(record.getSequenceNumber());
+    copy.setThreadID(record.getThreadID());
+    copy.setThrown(record.getThrown());
+
+    if (_isInferCaller) {
+      copy.setSourceClassName(record.getSourceClassName());
+      copy.setSourceMethodName(record.getSourceMethodName());
+    }
+
+    return copy;
+  }
+
+  private void waitForEmpty(int timeout)
+  {
+    ValueActorQueue<AsyncLogEntry> queue = _logQueue;
+
+    if (queue == null)
+      return;
+
+    queue.wake();
+
+    for (int i = 0; i < timeout && ! queue.isEmpty(); i++) {
       try {
         Thread.sleep(1);
       } catch (Exception e) {
       }
     }
   }
+
+  /**
+   * Logs the number of records dropped since the last summary.
+   */
+  private void publishDropSummary()
+  {
+    long count = _summaryDropCount.getAndSet(0);
+
+    if (count <= 0)
+      return;
+
+    LogRecord record
+      = new LogRecord(Level.WARNING,
+                      L.l("{0} log records were dropped because the log queue was full",
+                          count));
+    record.setLoggerName(getClass().getName());
+
+    processPublish(record);
+  }
     
   abstract protected void processPublish(LogRecord record);
   
@@ -130,14 +405,35 @@ abstract public class AbstractLogHandler extends Handler {
   @Override
   public void flush()
   {
+    if (_isAsync && Thread.currentThread() != _writerThread)
+      waitForEmpty(1000);
   }
 
   /**
-   * Closes the handler.
+   * Closes the handler, writing any queued records and stopping the
+   * writer thread. Later records are written on the logging thread.
    */
   @Override
   public void close()
   {
+    _isClosed = true;
+
+    ValueActorQueue<AsyncLogEntry> queue;
+
+    synchronized (this) {
+      queue = _logQueue;
+    }
+
+    if (queue == null)
+      return;
+
+    if (Thread.currentThread() != _writerThread) {
+      while (! queue.isEmpty()) {
+        waitForEmpty(1000);
+      }
+    }
+
+    queue.close();
   }
 
   @Override
@@ -146,7 +442,35 @@ abstract public class AbstractLogHandler extends Handler {
     return getClass().getSimpleName() + "[]";
   }
   
-  private class LogQueue extends AbstractActorProcessor<LogRecord>
+  private static final class AsyncLogEntry {
+    private final LogRecord _record;
+    private final String _threadName;
+    private final String _environmentName;
+
+    AsyncLogEntry(LogRecord record, String threadName, String environmentName)
+    {
+      _record = record;
+      _threadName = threadName;
+      _environmentName = environmentName;
+    }
+
+    LogRecord getRecord()
+    {
+      return _record;
+    }
+
+    String getThreadName()
+    {
+      return _threadName;
+    }
+
+    String getEnvironmentName()
+    {
+      return _environmentName;
+    }
+  }
+  
+  private class LogQueue extends AbstractActorProcessor<AsyncLogEntry>
   {
     @Override
     public String getThreadName()
@@ -157,14 +481,23 @@ abstract public class AbstractLogHandler extends Handler {
     }
 
     @Override
-    public void process(LogRecord value) throws Exception
+    public void process(AsyncLogEntry entry) throws Exception
     {
-      processPublish(value);
+      _writerThread = Thread.currentThread();
+      _asyncEntry.set(entry);
+
+      try {
+        processPublish(entry.getRecord());
+      } finally {
+        _asyncEntry.set(null);
+      }
     }
 
     @Override
     public void onProcessComplete() throws Exception
     {
+      publishDropSummary();
+
       processFlush();
     }
   }
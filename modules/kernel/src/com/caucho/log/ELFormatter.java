@@ -183,7 +183,7 @@ public class ELFormatter extends MessageFormatter {
       else if ("thread".equals(property)) {
         env.setPropertyResolved(true);
 
-        return Thread.currentThread().getName();
+        return AbstractLogHandler.getLogThreadName();
       }
 
       return null;
@@ -68,6 +68,11 @@ public class LogHandlerConfig extends BeanConfig {
   
   private boolean _isSkipInit;
 
+  private boolean _isAsync;
+  private int _asyncQueueSize;
+  private AbstractLogHandler.Overflow _asyncOverflow;
+  private boolean _isAsyncInferCaller;
+
   public LogHandlerConfig()
   {
     setBeanConfigClass(Handler.class);
@@ -252,6 +257,47 @@ public class LogHandlerConfig extends BeanConfig {
     _filter = filter;
   }
 
+  /**
+   * Formats and writes records on a writer thread.
+   */
+  public void setAsync(boolean isAsync)
+  {
+    _isAsync = isAsync;
+  }
+
+  /**
+   * Sets the async queue capacity.
+   */
+  public void setAsyncQueueSize(int size)
+  {
+    if (size <= 0)
+      throw new ConfigException(L.l("async-queue-size '{0}' must be positive",
+                                    size));
+
+    _asyncQueueSize = size;
+  }
+
+  /**
+   * Sets the full-queue policy: block, drop or summarize.
+   */
+  public void setAsyncOverflow(String overflow)
+  {
+    try {
+      _asyncOverflow = AbstractLogHandler.Overflow.valueOf(overflow.toUpperCase());
+    } catch (IllegalArgumentException e) {
+      throw new ConfigException(L.l("'{0}' is an unknown async-overflow. Valid values are block, drop and summarize.",
+                                    overflow));
+    }
+  }
+
+  /**
+   * Captures the source class and method before queuing the record.
+   */
+  public void setAsyncInferCaller(boolean isInferCaller)
+  {
+    _isAsyncInferCaller = isInferCaller;
+  }
+
   /**
    * Returns the tag name.
    */
@@ -348,9 +394,31 @@ public class LogHandlerConfig extends BeanConfig {
     if (_filter != null)
       _handler.setFilter(_filter);
 
+    if (_isAsync)
+      initAsync();
+
     logger.addHandler(_handler);
   }
 
+  private void initAsync()
+  {
+    if (! (_handler instanceof AbstractLogHandler)) {
+      throw new ConfigException(L.l("<log-handler> async requires a Resin log handler, not '{0}'",
+                                    _handler));
+    }
+
+    AbstractLogHandler handler = (AbstractLogHandler) _handler;
+
+    if (_asyncQueueSize > 0)
+      handler.setAsyncQueueSize(_asyncQueueSize);
+
+    if (_asyncOverflow != null)
+      handler.setAsyncOverflow(_asyncOverflow);
+
+    handler.setAsyncInferCaller(_isAsyncInferCaller);
+    handler.setAsync(true);
+  }
+
   static Level toLevel(String level)
     throws ConfigException
   {
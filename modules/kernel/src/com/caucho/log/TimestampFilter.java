@@ -32,7 +32,6 @@ import java.io.IOException;
 import java.util.ArrayList;
 
 import com.caucho.inject.Module;
-import com.caucho.loader.Environment;
 import com.caucho.util.CurrentTime;
 import com.caucho.util.QDate;
 import com.caucho.vfs.Path;
@@ -483,7 +482,7 @@ public class TimestampFilter extends StreamImpl {
     public void print(WriteStream out, QDate cal)
       throws IOException
     {
-      out.print(Thread.currentThread().getName());
+      out.print(AbstractLogHandler.getLogThreadName());
     }
   }
 
@@ -491,7 +490,7 @@ public class TimestampFilter extends StreamImpl {
     public void print(WriteStream out, QDate cal)
       throws IOException
     {
-      out.print(Environment.getEnvironmentName());
+      out.print(AbstractLogHandler.getLogEnvironmentName());
     }
   }
 }
@@ -34,7 +34,6 @@ import java.util.logging.Formatter;
 import java.util.logging.LogRecord;
 
 import com.caucho.inject.Module;
-import com.caucho.loader.Environment;
 import com.caucho.server.util.CauchoSystem;
 import com.caucho.util.Alarm;
 import com.caucho.util.CurrentTime;
@@ -356,7 +355,7 @@ public class TimestampFormatter extends Formatter {
     @Override
     public void format(StringBuilder sb, QDate cal, LogRecord log)
     {
-      sb.append(Thread.currentThread().getName());
+      sb.append(AbstractLogHandler.getLogThreadName());
     }
   }
 
@@ -372,7 +371,7 @@ public class TimestampFormatter extends Formatter {
     @Override
     public void format(StringBuilder sb, QDate cal, LogRecord log)
     {
-      sb.append(Environment.getEnvironmentName());
+      sb.append(AbstractLogHandler.getLogEnvironmentName());
     }
   }
 }
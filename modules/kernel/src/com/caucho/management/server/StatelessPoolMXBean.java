@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.management.server;
+
+import com.caucho.jmx.Description;
+import com.caucho.jmx.Units;
+
+/**
+ * MBean API for a stateless session bean pool.
+ *
+ * <pre>
+ * resin:type=StatelessPool,name=MyBean/MyApi,...
+ * </pre>
+ */
+@Description("A pool of stateless session bean instances")
+public interface StatelessPoolMXBean extends ManagedObjectMXBean {
+  //
+  // Configuration
+  //
+
+  /**
+   * Returns the maximum number of idle instances.
+   */
+  @Description("The maximum number of idle instances")
+  public int getIdleMax();
+
+  /**
+   * Returns the maximum number of concurrent calls, or -1 for no limit.
+   */
+  @Description("The maximum number of concurrent calls, or -1 for no limit")
+  public int getConcurrentMax();
+
+  /**
+   * Returns the number of per-thread stripes in the idle pool.
+   */
+  @Description("The number of stripes in the idle pool")
+  public int getStripeCount();
+
+  //
+  // Statistics
+  //
+
+  /**
+   * Returns the current number of idle instances.
+   */
+  @Description("The current number of idle instances")
+  public int getIdleCount();
+
+  /**
+   * Returns the total number of instances created.
+   */
+  @Description("The total number of instances created")
+  public long getCreateCountTotal();
+
+  /**
+   * Returns the total number of idle instances destroyed by the idle timeout.
+   */
+  @Description("The total number of instances destroyed after the idle timeout")
+  public long getIdleDestroyCountTotal();
+
+  /**
+   * Returns the number of calls which waited for the concurrent max.
+   */
+  @Description("The total number of calls which waited for a concurrent slot")
+  public long getWaitCountTotal();
+
+  /**
+   * Returns the total time calls waited for the concurrent max.
+   */
+  @Description("The total time calls waited for a concurrent slot")
+  @Units("milliseconds")
+  public long getWaitTimeTotal();
+
+  /**
+   * Returns the longest time a call waited for the concurrent max.
+   */
+  @Description("The longest time a call waited for a concurrent slot")
+  @Units("milliseconds")
+  public long getWaitTimeMax();
+
+  /**
+   * Returns the number of calls which timed out waiting.
+   */
+  @Description("The total number of calls which timed out waiting for a concurrent slot")
+  public long getWaitTimeoutCountTotal();
+}
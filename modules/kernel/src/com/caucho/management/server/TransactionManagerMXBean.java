@@ -68,4 +68,33 @@ public interface TransactionManagerMXBean extends ManagedObjectMXBean {
    */
   @Description("The total number of rolledback transactions")
   public long getRollbackCountTotal();
+
+  //
+  // transaction log
+  //
+
+  /**
+   * Returns the number of commit records written to the transaction log.
+   */
+  @Description("The total number of commits written to the transaction log")
+  public long getLogCommitCountTotal();
+
+  /**
+   * Returns the number of transaction log disk syncs. Several commits
+   * share a sync when they arrive together.
+   */
+  @Description("The total number of transaction log disk syncs")
+  public long getLogSyncCountTotal();
+
+  /**
+   * Returns the total time commits waited for the log in microseconds.
+   */
+  @Description("The total time in microseconds commits waited for the transaction log")
+  public long getLogCommitTimeTotal();
+
+  /**
+   * Returns the maximum time a commit waited for the log in microseconds.
+   */
+  @Description("The maximum time in microseconds a commit waited for the transaction log")
+  public long getLogCommitTimeMax();
 }
@@ -76,4 +76,28 @@ class TransactionManagerAdmin extends AbstractManagedObject
   {
     return _tm.getRollbackCount();
   }
+
+  @Override
+  public long getLogCommitCountTotal()
+  {
+    return _tm.getLogCommitCount();
+  }
+
+  @Override
+  public long getLogSyncCountTotal()
+  {
+    return _tm.getLogSyncCount();
+  }
+
+  @Override
+  public long getLogCommitTimeTotal()
+  {
+    return _tm.getLogCommitTimeTotal();
+  }
+
+  @Override
+  public long getLogCommitTimeMax()
+  {
+    return _tm.getLogCommitTimeMax();
+  }
 }
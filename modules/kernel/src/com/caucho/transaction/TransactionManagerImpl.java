@@ -32,6 +32,7 @@ package com.caucho.transaction;
 import java.io.Serializable;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
@@ -97,6 +98,9 @@ public class TransactionManagerImpl
 
   private long _timeout = -1;
 
+  // resources which haven't yet run their recovery
+  private final HashSet<Object> _recoverResourceSet = new HashSet<Object>();
+
   // statistics and counters
   // private TransactionManagerAdmin _admin;
 
@@ -368,6 +372,47 @@ public class TransactionManagerImpl
     }
   }
 
+  /**
+   * Registers a resource which will run recovery. Recovered xids are
+   * kept until every registered resource has recovered.
+   */
+  public void addRecoverResource(Object resource)
+  {
+    synchronized (_recoverResourceSet) {
+      _recoverResourceSet.add(resource);
+    }
+  }
+
+  /**
+   * Marks a registered resource as recovered, or as closed without
+   * recovering. When no resources remain, the recovered xids are released.
+   */
+  public void endRecoverResource(Object resource)
+  {
+    boolean isComplete;
+
+    synchronized (_recoverResourceSet) {
+      isComplete = (_recoverResourceSet.remove(resource)
+                    && _recoverResourceSet.isEmpty());
+    }
+
+    AbstractXALogManager xaLogManager = _xaLogManager;
+
+    if (isComplete && xaLogManager != null)
+      xaLogManager.releaseRecoveredXids();
+  }
+
+  /**
+   * Releases a recovered xid whose branches were resolved manually.
+   */
+  public void releaseRecoveredXid(XidImpl xid)
+  {
+    AbstractXALogManager xaLogManager = _xaLogManager;
+
+    if (xaLogManager != null)
+      xaLogManager.releaseRecoveredXid(xid);
+  }
+
   /**
    * Returns the corresponding user transaction.
    */
@@ -501,7 +546,7 @@ public class TransactionManagerImpl
     _transactionCount.decrementAndGet();
 
     _commitCount.incrementAndGet();
-    _commitSensor.add(startTime);
+    _commitSensor.add(CurrentTime.getCurrentTime() - startTime);
   }
 
   long getRollbackCount()
@@ -514,7 +559,35 @@ public class TransactionManagerImpl
     _transactionCount.decrementAndGet();
 
     _rollbackCount.incrementAndGet();
-    _rollbackSensor.add(startTime);
+    _rollbackSensor.add(CurrentTime.getCurrentTime() - startTime);
+  }
+
+  long getLogCommitCount()
+  {
+    AbstractXALogManager xaLogManager = _xaLogManager;
+
+    return xaLogManager != null ? xaLogManager.getCommitCount() : 0;
+  }
+
+  long getLogSyncCount()
+  {
+    AbstractXALogManager xaLogManager = _xaLogManager;
+
+    return xaLogManager != null ? xaLogManager.getSyncCount() : 0;
+  }
+
+  long getLogCommitTimeTotal()
+  {
+    AbstractXALogManager xaLogManager = _xaLogManager;
+
+    return xaLogManager != null ? xaLogManager.getCommitTimeTotal() : 0;
+  }
+
+  long getLogCommitTimeMax()
+  {
+    AbstractXALogManager xaLogManager = _xaLogManager;
+
+    return xaLogManager != null ? xaLogManager.getCommitTimeMax() : 0;
   }
 
   void addUnclosedResource(String message)
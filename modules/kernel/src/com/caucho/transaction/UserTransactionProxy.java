@@ -194,6 +194,22 @@ public class UserTransactionProxy
     xa.abortTransaction();
   }
 
+  /**
+   * Registers a resource which will run recovery.
+   */
+  public void addRecoverResource(Object resource)
+  {
+    TransactionManagerImpl.getLocal().addRecoverResource(resource);
+  }
+
+  /**
+   * Marks a registered resource as recovered or closed.
+   */
+  public void endRecoverResource(Object resource)
+  {
+    TransactionManagerImpl.getLocal().endRecoverResource(resource);
+  }
+
   /**
    * Recovers an XAResource
    */
@@ -61,6 +61,21 @@ abstract public class AbstractXALogManager
    */
   abstract public boolean hasCommittedXid(XidImpl xid);
 
+  /**
+   * Releases a recovered committed xid once all its branches are resolved.
+   */
+  public void releaseRecoveredXid(XidImpl xid)
+  {
+  }
+
+  /**
+   * Releases the recovered committed xids after every registered
+   * resource has recovered.
+   */
+  public void releaseRecoveredXids()
+  {
+  }
+
   /**
    * Returns a stream for a new transaction.
    */
@@ -76,4 +91,36 @@ abstract public class AbstractXALogManager
    */
   abstract public void close();
 
+  /**
+   * Returns the number of commit records written.
+   */
+  public long getCommitCount()
+  {
+    return 0;
+  }
+
+  /**
+   * Returns the number of disk syncs of the log.
+   */
+  public long getSyncCount()
+  {
+    return 0;
+  }
+
+  /**
+   * Returns the total time commits waited for the log in microseconds.
+   */
+  public long getCommitTimeTotal()
+  {
+    return 0;
+  }
+
+  /**
+   * Returns the maximum time a commit waited for the log in microseconds.
+   */
+  public long getCommitTimeMax()
+  {
+    return 0;
+  }
+
 }
@@ -0,0 +1,697 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.transaction.xalog;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.transaction.TransactionRuntimeException;
+import com.caucho.transaction.XidImpl;
+import com.caucho.util.L10N;
+import com.caucho.vfs.Path;
+import com.caucho.vfs.ReadStream;
+
+/**
+ * File-based XA log. Commit records are group-committed: concurrent
+ * transactions append their records and a single thread writes and
+ * syncs the whole batch. The log is split into numbered segments,
+ * and the oldest segments are removed once their commits have finished.
+ */
+public class XALogManager extends AbstractXALogManager
+{
+  private static final L10N L = new L10N(XALogManager.class);
+  private static final Logger log
+    = Logger.getLogger(XALogManager.class.getName());
+
+  private static final int COMMIT = 'C';
+  private static final int FINISH = 'F';
+
+  private static final byte []LOCAL_ID = new byte[] { 1, 0, 0, 0 };
+
+  private static final long DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+
+  private Path _path;
+  private long _segmentSize = DEFAULT_SEGMENT_SIZE;
+
+  private final XALogStream _stream = new XALogStream(this);
+
+  private final Object _lock = new Object();
+
+  // records waiting for the next group write
+  private ArrayList<Record> _pendingList = new ArrayList<Record>();
+  private long _appendSequence;
+
+  private final Object _syncLock = new Object();
+  private long _syncSequence;
+  private boolean _isSyncing;
+
+  private final ArrayList<Segment> _segmentList = new ArrayList<Segment>();
+  private Segment _segment;
+  private long _segmentId;
+
+  // committed, unfinished xids and the segment holding their commit
+  private final HashMap<XidImpl,Segment> _commitMap
+    = new HashMap<XidImpl,Segment>();
+
+  // committed, unfinished xids read from the log on startup
+  private final LinkedHashSet<XidImpl> _recoverSet
+    = new LinkedHashSet<XidImpl>();
+  // the segment holding the current copy of the recovered xids
+  private Segment _recoverSegment;
+
+  private IOException _failure;
+  private boolean _isClosed;
+
+  private final AtomicLong _commitCount = new AtomicLong();
+  private final AtomicLong _syncCount = new AtomicLong();
+  private final AtomicLong _commitTimeTotal = new AtomicLong();
+  private volatile long _commitTimeMax;
+
+  /**
+   * Sets the log path. Segments are stored as path.0, path.1, ...
+   */
+  @Override
+  public void setPath(Path path)
+    throws IOException
+  {
+    _path = path;
+  }
+
+  /**
+   * Sets the size after which the log switches to a new segment.
+   */
+  public void setSegmentSize(long size)
+  {
+    if (size < 1024)
+      size = 1024;
+
+    _segmentSize = size;
+  }
+
+  @Override
+  public void init()
+  {
+  }
+
+  /**
+   * Starts the log manager, reading the committed xids of the old
+   * segments and carrying them forward into a new segment.
+   */
+  @Override
+  public void start()
+    throws IOException
+  {
+    if (_path == null)
+      throw new IllegalStateException(L.l("{0} requires a path", this));
+
+    Path parent = _path.getParent();
+    parent.mkdirs();
+
+    String prefix = _path.getTail() + ".";
+
+    ArrayList<Long> oldIds = new ArrayList<Long>();
+
+    String []list = parent.list();
+
+    for (int i = 0; list != null && i < list.length; i++) {
+      String name = list[i];
+
+      if (name.startsWith(prefix)) {
+        try {
+          oldIds.add(Long.parseLong(name.substring(prefix.length())));
+        } catch (NumberFormatException e) {
+          log.log(Level.FINEST, e.toString(), e);
+        }
+      }
+    }
+
+    Collections.sort(oldIds);
+
+    for (long id : oldIds) {
+      readSegment(getSegmentPath(id));
+
+      _segmentId = Math.max(_segmentId, id);
+    }
+
+    synchronized (_lock) {
+      _segment = openSegment(++_segmentId);
+      _segmentList.add(_segment);
+
+      writeRecoverSet(_segment);
+    }
+
+    for (long id : oldIds) {
+      getSegmentPath(id).remove();
+    }
+
+    if (_recoverSet.size() > 0)
+      log.info(L.l("{0} recovered {1} committed transactions",
+                   this, _recoverSet.size()));
+  }
+
+  /**
+   * True if the xid is an already-committed xid
+   */
+  @Override
+  public boolean hasCommittedXid(XidImpl xid)
+  {
+    synchronized (_lock) {
+      return _recoverSet.contains(xid) || _commitMap.containsKey(xid);
+    }
+  }
+
+  /**
+   * Releases a recovered xid once every branch is resolved. A finish
+   * record is written, so the xid isn't recovered again on restart.
+   */
+  @Override
+  public void releaseRecoveredXid(XidImpl xid)
+  {
+    synchronized (_lock) {
+      if (! _recoverSet.contains(xid))
+        return;
+    }
+
+    writeFinish(xid);
+    flush();
+  }
+
+  /**
+   * Releases all recovered xids, called after every registered resource
+   * has run its recovery.
+   */
+  @Override
+  public void releaseRecoveredXids()
+  {
+    ArrayList<XidImpl> list;
+
+    synchronized (_lock) {
+      list = new ArrayList<XidImpl>(_recoverSet);
+    }
+
+    if (list.size() == 0)
+      return;
+
+    if (log.isLoggable(Level.FINE))
+      log.fine(L.l("{0} releasing {1} recovered transactions",
+                   this, list.size()));
+
+    for (XidImpl xid : list) {
+      writeFinish(xid);
+    }
+
+    flush();
+  }
+
+  /**
+   * Returns the number of recovered xids not yet released.
+   */
+  public int getRecoveredCount()
+  {
+    synchronized (_lock) {
+      return _recoverSet.size();
+    }
+  }
+
+  /**
+   * Returns the stream shared by all transactions.
+   */
+  @Override
+  public AbstractXALogStream getStream()
+  {
+    return _stream;
+  }
+
+  /**
+   * Writes a commit record, returning after it is synced to disk.
+   */
+  void writeCommit(XidImpl xid)
+  {
+    long startTime = System.nanoTime();
+    long sequence;
+
+    synchronized (_lock) {
+      if (_isClosed)
+        throw new IllegalStateException(L.l("{0} is closed", this));
+
+      _pendingList.add(new Record(COMMIT, xid));
+      sequence = ++_appendSequence;
+    }
+
+    sync(sequence);
+
+    long time = (System.nanoTime() - startTime) / 1000;
+
+    _commitCount.incrementAndGet();
+    _commitTimeTotal.addAndGet(time);
+
+    if (_commitTimeMax < time)
+      _commitTimeMax = time;
+  }
+
+  /**
+   * Writes a finish record. The record is written with the next commit
+   * batch since a lost finish only causes a redundant recovery commit.
+   */
+  void writeFinish(XidImpl xid)
+  {
+    synchronized (_lock) {
+      if (_isClosed)
+        return;
+
+      _pendingList.add(new Record(FINISH, xid));
+      _appendSequence++;
+    }
+  }
+
+  /**
+   * Writes all pending records to the log.
+   */
+  @Override
+  public void flush()
+  {
+    long sequence;
+
+    synchronized (_lock) {
+      sequence = _appendSequence;
+    }
+
+    sync(sequence);
+  }
+
+  /**
+   * Waits until the records up to the sequence are synced. The first
+   * waiting thread writes the batch for all the others.
+   */
+  private void sync(long sequence)
+  {
+    while (true) {
+      synchronized (_syncLock) {
+        while (_isSyncing && _syncSequence < sequence) {
+          try {
+            _syncLock.wait();
+          } catch (InterruptedException e) {
+            log.log(Level.FINEST, e.toString(), e);
+          }
+        }
+
+        if (_failure != null)
+          throw new TransactionRuntimeException(_failure);
+
+        if (sequence <= _syncSequence)
+          return;
+
+        _isSyncing = true;
+      }
+
+      long syncSequence = 0;
+
+      try {
+        syncSequence = writePending();
+      } catch (IOException e) {
+        log.log(Level.SEVERE, L.l("{0} cannot write the transaction log: {1}",
+                                  this, e), e);
+
+        _failure = e;
+      } finally {
+        synchronized (_syncLock) {
+          if (_syncSequence < syncSequence)
+            _syncSequence = syncSequence;
+
+          _isSyncing = false;
+          _syncLock.notifyAll();
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes and syncs the pending records, returning the last sequence
+   * written.
+   */
+  private long writePending()
+    throws IOException
+  {
+    ArrayList<Record> list;
+    long sequence;
+    Segment segment;
+
+    synchronized (_lock) {
+      list = _pendingList;
+      _pendingList = new ArrayList<Record>();
+      sequence = _appendSequence;
+      segment = _segment;
+    }
+
+    if (list.size() == 0 || segment == null)
+      return sequence;
+
+    segment.write(list);
+
+    _syncCount.incrementAndGet();
+
+    synchronized (_lock) {
+      for (Record record : list) {
+        if (record.getType() == COMMIT) {
+          _commitMap.put(record.getXid(), segment);
+          segment.addCommit();
+        }
+        else {
+          Segment commitSegment = _commitMap.remove(record.getXid());
+
+          if (commitSegment != null)
+            commitSegment.removeCommit();
+          else if (_recoverSet.remove(record.getXid()))
+            _recoverSegment.removeCommit();
+        }
+      }
+
+      if (_segmentSize <= segment.getLength()) {
+        Segment newSegment = openSegment(++_segmentId);
+
+        // the recovered xids are only released explicitly, never by log
+        // volume, so they're carried into each new segment
+        writeRecoverSet(newSegment);
+
+        _segment = newSegment;
+        _segmentList.add(_segment);
+      }
+
+      removeFinishedSegments();
+    }
+
+    return sequence;
+  }
+
+  /**
+   * Removes the oldest segments whose commits have all finished. Segments
+   * are only removed in order, because a later segment may hold the
+   * finish records for the commits of an earlier one.
+   */
+  private void removeFinishedSegments()
+  {
+    while (_segmentList.size() > 0) {
+      Segment segment = _segmentList.get(0);
+
+      if (segment == _segment || segment.getCommitCount() > 0)
+        return;
+
+      _segmentList.remove(0);
+
+      segment.remove();
+    }
+  }
+
+  /**
+   * Copies the recovered commits into a new segment, so older
+   * segments can be removed. The new copy holds the recovered commit
+   * count, and the old copy's segment can be removed once its own
+   * commits finish.
+   */
+  private void writeRecoverSet(Segment segment)
+    throws IOException
+  {
+    if (_recoverSet.size() == 0)
+      return;
+
+    ArrayList<Record> list = new ArrayList<Record>();
+
+    for (XidImpl xid : _recoverSet) {
+      list.add(new Record(COMMIT, xid));
+    }
+
+    segment.write(list);
+
+    Segment oldSegment = _recoverSegment;
+    _recoverSegment = segment;
+
+    for (int i = 0; i < list.size(); i++) {
+      segment.addCommit();
+
+      if (oldSegment != null)
+        oldSegment.removeCommit();
+    }
+  }
+
+  /**
+   * Reads a segment on startup.
+   */
+  private void readSegment(Path path)
+    throws IOException
+  {
+    ReadStream is = path.openRead();
+
+    try {
+      int type;
+
+      while ((type = is.read()) >= 0) {
+        int len = is.read();
+
+        if (len < 0)
+          break;
+
+        byte []global = new byte[len];
+
+        if (is.readAll(global, 0, len) < len)
+          break;
+
+        XidImpl xid = new XidImpl(global, LOCAL_ID);
+
+        if (type == COMMIT)
+          _recoverSet.add(xid);
+        else if (type == FINISH)
+          _recoverSet.remove(xid);
+        else {
+          log.warning(L.l("{0} has a corrupted record in {1}", this, path));
+          break;
+        }
+      }
+    } finally {
+      is.close();
+    }
+  }
+
+  private Path getSegmentPath(long id)
+  {
+    return _path.getParent().lookup(_path.getTail() + "." + id);
+  }
+
+  private Segment openSegment(long id)
+    throws IOException
+  {
+    return new Segment(getSegmentPath(id));
+  }
+
+  /**
+   * Returns the number of commit records written.
+   */
+  @Override
+  public long getCommitCount()
+  {
+    return _commitCount.get();
+  }
+
+  /**
+   * Returns the number of disk syncs. The ratio of commits to syncs
+   * is the group commit batch size.
+   */
+  @Override
+  public long getSyncCount()
+  {
+    return _syncCount.get();
+  }
+
+  /**
+   * Returns the total time commits waited for the log in microseconds.
+   */
+  @Override
+  public long getCommitTimeTotal()
+  {
+    return _commitTimeTotal.get();
+  }
+
+  /**
+   * Returns the maximum time a commit waited for the log in microseconds.
+   */
+  @Override
+  public long getCommitTimeMax()
+  {
+    return _commitTimeMax;
+  }
+
+  /**
+   * Closes the log manager.
+   */
+  @Override
+  public void close()
+  {
+    try {
+      flush();
+    } catch (Exception e) {
+      log.log(Level.FINE, e.toString(), e);
+    }
+
+    synchronized (_lock) {
+      _isClosed = true;
+
+      for (Segment segment : _segmentList) {
+        segment.close();
+      }
+
+      _segmentList.clear();
+      _segment = null;
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _path + "]";
+  }
+
+  static final class Record {
+    private final int _type;
+    private final XidImpl _xid;
+
+    Record(int type, XidImpl xid)
+    {
+      _type = type;
+      _xid = xid;
+    }
+
+    int getType()
+    {
+      return _type;
+    }
+
+    XidImpl getXid()
+    {
+      return _xid;
+    }
+  }
+
+  static final class Segment {
+    private final Path _path;
+    private final RandomAccessFile _file;
+    private final FileChannel _channel;
+
+    private long _length;
+    private int _commitCount;
+
+    Segment(Path path)
+      throws IOException
+    {
+      _path = path;
+      _file = new RandomAccessFile(path.getNativePath(), "rw");
+      _file.setLength(0);
+      _channel = _file.getChannel();
+    }
+
+    long getLength()
+    {
+      return _length;
+    }
+
+    int getCommitCount()
+    {
+      return _commitCount;
+    }
+
+    void addCommit()
+    {
+      _commitCount++;
+    }
+
+    void removeCommit()
+    {
+      _commitCount--;
+    }
+
+    /**
+     * Writes the records and syncs the file.
+     */
+    void write(ArrayList<Record> list)
+      throws IOException
+    {
+      int size = 0;
+
+      for (Record record : list) {
+        size += 2 + record.getXid().getGlobalTransactionId().length;
+      }
+
+      ByteBuffer buffer = ByteBuffer.allocate(size);
+
+      for (Record record : list) {
+        byte []global = record.getXid().getGlobalTransactionId();
+
+        buffer.put((byte) record.getType());
+        buffer.put((byte) global.length);
+        buffer.put(global);
+      }
+
+      buffer.flip();
+
+      while (buffer.hasRemaining()) {
+        _length += _channel.write(buffer, _length);
+      }
+
+      _channel.force(false);
+    }
+
+    void close()
+    {
+      try {
+        _file.close();
+      } catch (IOException e) {
+        log.log(Level.FINER, e.toString(), e);
+      }
+    }
+
+    void remove()
+    {
+      close();
+
+      try {
+        _path.remove();
+      } catch (IOException e) {
+        log.log(Level.FINER, e.toString(), e);
+      }
+    }
+  }
+}
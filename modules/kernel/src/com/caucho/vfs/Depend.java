@@ -46,6 +46,10 @@ public class Depend implements PersistentDependency {
   private boolean _requireSource = true;
   private boolean _isDigestModified;
 
+  // file watch state, when the platform supports it
+  private final DependWatchService.WatchEntry _watch;
+  private volatile long _watchVersion = -1;
+
   /**
    * Create a new dependency with an already known modified time and length.
    *
@@ -56,6 +60,8 @@ public class Depend implements PersistentDependency {
     _source = source;
     _lastModified = lastModified;
     _length = length;
+
+    _watch = DependWatchService.watch(source);
   }
 
   /**
@@ -157,6 +163,9 @@ public class Depend implements PersistentDependency {
    * If the source modified date changes at all, treat it as a modification.
    * This protects against the case where multiple computers have
    * misaligned dates and a '<' comparison may fail.
+   *
+   * When the file is watched, the stat is skipped unless an event
+   * has arrived for the file since the last unmodified check.
    */
   public boolean isModified()
   {
@@ -167,6 +176,31 @@ public class Depend implements PersistentDependency {
       return true;
     }
 
+    DependWatchService.WatchEntry watch = _watch;
+
+    if (watch == null)
+      return isModifiedStat();
+
+    // the version is read before the stat so an event during the stat
+    // forces the next check to stat again
+    long version = watch.getVersion();
+
+    if (version >= 0 && version == _watchVersion) {
+      DependWatchService.addStatAvoided();
+
+      return false;
+    }
+
+    boolean isModified = isModifiedStat();
+
+    if (! isModified)
+      _watchVersion = version;
+
+    return isModified;
+  }
+
+  private boolean isModifiedStat()
+  {
     long sourceLastModified = _source.getLastModified();
     long sourceLength = _source.getLength();
 
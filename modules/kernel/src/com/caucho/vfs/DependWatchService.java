@@ -0,0 +1,624 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.vfs;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.env.meter.CountMeter;
+import com.caucho.env.meter.MeterService;
+
+/**
+ * Watches the directories of file dependencies with the platform
+ * WatchService, so an unchanged {@link Depend} can skip its stat.
+ *
+ * Each watched file has a version which is incremented on every event
+ * for that file. A Depend compares its saved version with the current one,
+ * and only stats the file when the version has changed. If the platform
+ * service is a polling implementation, the directory is on a network
+ * filesystem, or the directory can't be registered, the entry is invalid
+ * and Depend falls back to stat polling.
+ *
+ * The watch thread re-checks each directory's identity every few seconds,
+ * because a renamed or replaced directory sends no event. Directories
+ * whose entries have all been released are cancelled at the same time.
+ *
+ * The service can be disabled with -Dcom.caucho.vfs.watch=false.
+ */
+public class DependWatchService {
+  private static final Logger log
+    = Logger.getLogger(DependWatchService.class.getName());
+
+  private static final CountMeter _statAvoidedMeter
+    = MeterService.createCountMeter("Resin|Depend|Stat Avoided");
+
+  private static final WatchEntry INVALID = new WatchEntry(null, null, false);
+
+  private static final long VERIFY_INTERVAL = 2000L;
+
+  // inotify only sees changes made through the local kernel
+  private static final String []NETWORK_FS_TYPES = new String[] {
+    "nfs", "cifs", "smb", "afs", "ncpfs", "9p", "fuse", "glusterfs",
+    "ceph", "lustre", "gpfs", "davfs", "vboxsf", "vmhgfs",
+  };
+
+  private static volatile DependWatchService _service;
+  private static boolean _isInit;
+
+  private final WatchService _watchService;
+
+  private final ConcurrentHashMap<java.nio.file.Path,DirWatch> _dirMap
+    = new ConcurrentHashMap<java.nio.file.Path,DirWatch>();
+
+  private final ConcurrentHashMap<WatchKey,DirWatch> _keyMap
+    = new ConcurrentHashMap<WatchKey,DirWatch>();
+
+  private final AtomicLong _statAvoidedCount = new AtomicLong();
+  private final AtomicLong _eventCount = new AtomicLong();
+  private final AtomicLong _overflowCount = new AtomicLong();
+  private final AtomicLong _fileCount = new AtomicLong();
+
+  private DependWatchService(WatchService watchService)
+  {
+    _watchService = watchService;
+
+    Thread thread = new Thread(new WatchTask(), "resin-depend-watch");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Returns the service, or null if file watching is unavailable.
+   */
+  public static DependWatchService getCurrent()
+  {
+    synchronized (DependWatchService.class) {
+      if (! _isInit) {
+        _isInit = true;
+        _service = create();
+      }
+
+      return _service;
+    }
+  }
+
+  private static DependWatchService create()
+  {
+    if ("false".equals(System.getProperty("com.caucho.vfs.watch")))
+      return null;
+
+    try {
+      WatchService watchService = FileSystems.getDefault().newWatchService();
+
+      // the JDK's generic implementation polls with a 10s delay, which
+      // is both slower and less accurate than stat on demand
+      if (watchService.getClass().getName().contains("Polling")) {
+        watchService.close();
+
+        log.finer("WatchService is a polling implementation; "
+                  + "dependency checks will stat");
+
+        return null;
+      }
+
+      return new DependWatchService(watchService);
+    } catch (Throwable e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      return null;
+    }
+  }
+
+  /**
+   * Returns a watch entry for the source, or null if the source can't
+   * be watched.
+   */
+  static WatchEntry watch(Path source)
+  {
+    if (! (source instanceof FilePath))
+      return null;
+
+    DependWatchService service = getCurrent();
+
+    if (service == null)
+      return null;
+
+    WatchEntry entry = service.watchFile(source.getNativePath());
+
+    return entry != INVALID ? entry : null;
+  }
+
+  private WatchEntry watchFile(String nativePath)
+  {
+    try {
+      java.nio.file.Path file = Paths.get(nativePath);
+      java.nio.file.Path dir = file.getParent();
+      java.nio.file.Path name = file.getFileName();
+
+      if (dir == null || name == null)
+        return INVALID;
+
+      // events for a symlink target arrive on the target's directory
+      if (Files.isSymbolicLink(file))
+        return INVALID;
+
+      // a watch on a symlinked directory, e.g. current -> releases/N,
+      // stays on the old target when the link is swapped
+      if (! dir.toRealPath().equals(dir.toAbsolutePath()))
+        return INVALID;
+
+      while (true) {
+        DirWatch dirWatch = _dirMap.get(dir);
+
+        if (dirWatch == null)
+          dirWatch = registerDir(dir);
+
+        // null if the directory was released concurrently
+        WatchEntry entry = dirWatch.getEntry(name.toString());
+
+        if (entry != null)
+          return entry;
+      }
+    } catch (Exception e) {
+      log.log(Level.FINEST, e.toString(), e);
+
+      return INVALID;
+    }
+  }
+
+  private DirWatch registerDir(java.nio.file.Path dir)
+  {
+    synchronized (_dirMap) {
+      DirWatch dirWatch = _dirMap.get(dir);
+
+      if (dirWatch != null)
+        return dirWatch;
+
+      dirWatch = new DirWatch(dir);
+      dirWatch.register();
+
+      _dirMap.put(dir, dirWatch);
+
+      return dirWatch;
+    }
+  }
+
+  private static boolean isNetworkStore(java.nio.file.Path dir)
+    throws IOException
+  {
+    String type = Files.getFileStore(dir).type().toLowerCase();
+
+    for (String networkType : NETWORK_FS_TYPES) {
+      if (type.startsWith(networkType))
+        return true;
+    }
+
+    return false;
+  }
+
+  private static Object readFileKey(java.nio.file.Path dir)
+  {
+    try {
+      return Files.readAttributes(dir, BasicFileAttributes.class,
+                                  LinkOption.NOFOLLOW_LINKS).fileKey();
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  static void addStatAvoided()
+  {
+    _statAvoidedMeter.start();
+
+    DependWatchService service = _service;
+
+    if (service != null)
+      service._statAvoidedCount.incrementAndGet();
+  }
+
+  /**
+   * Returns the number of dependency stats avoided by the watch.
+   */
+  public long getStatAvoidedCount()
+  {
+    return _statAvoidedCount.get();
+  }
+
+  /**
+   * Returns the number of file events received.
+   */
+  public long getEventCount()
+  {
+    return _eventCount.get();
+  }
+
+  /**
+   * Returns the number of overflows, where all files in a directory
+   * are treated as changed.
+   */
+  public long getOverflowCount()
+  {
+    return _overflowCount.get();
+  }
+
+  /**
+   * Returns the number of watched directories.
+   */
+  public int getDirectoryCount()
+  {
+    return _keyMap.size();
+  }
+
+  /**
+   * Returns the number of watched files.
+   */
+  public long getFileCount()
+  {
+    return _fileCount.get();
+  }
+
+  private void handleKey(WatchKey key)
+  {
+    DirWatch dirWatch = _keyMap.get(key);
+    boolean isOverflow = false;
+
+    for (WatchEvent<?> event : key.pollEvents()) {
+      _eventCount.incrementAndGet();
+
+      if (dirWatch == null)
+        continue;
+
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+        _overflowCount.incrementAndGet();
+        isOverflow = true;
+      }
+      else if (event.context() != null) {
+        dirWatch.update(event.context().toString());
+      }
+    }
+
+    boolean isValid = key.reset();
+
+    // events were lost, or the directory was removed: register again,
+    // which also marks every file in the directory as changed
+    if (dirWatch != null && (isOverflow || ! isValid))
+      dirWatch.reregister(key);
+  }
+
+  /**
+   * Re-registers directories which were renamed, replaced or recreated,
+   * and releases directories with no remaining entries.
+   */
+  private void verify()
+  {
+    for (DirWatch dirWatch : _dirMap.values()) {
+      try {
+        if (! dirWatch.release())
+          dirWatch.verify();
+      } catch (Exception e) {
+        log.log(Level.FINER, e.toString(), e);
+      }
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[dirs=" + getDirectoryCount()
+            + ",files=" + getFileCount()
+            + ",avoided=" + getStatAvoidedCount() + "]");
+  }
+
+  /**
+   * The watched files of a single directory. Entries are weakly held,
+   * so the directory is released once no Depend refers to its files.
+   */
+  private final class DirWatch {
+    private final java.nio.file.Path _dir;
+
+    private final ConcurrentHashMap<String,WeakReference<WatchEntry>> _entryMap
+      = new ConcurrentHashMap<String,WeakReference<WatchEntry>>();
+
+    private volatile WatchKey _key;
+    private Object _fileKey;
+
+    private boolean _isNetwork;
+    private boolean _isReleased;
+
+    DirWatch(java.nio.file.Path dir)
+    {
+      _dir = dir;
+    }
+
+    /**
+     * Returns the entry for the file, or null if the directory has
+     * been released.
+     */
+    synchronized WatchEntry getEntry(String name)
+    {
+      if (_isReleased)
+        return null;
+
+      WeakReference<WatchEntry> ref = _entryMap.get(name);
+      WatchEntry entry = ref != null ? ref.get() : null;
+
+      if (entry == null) {
+        entry = new WatchEntry(this, name, _key != null);
+
+        if (ref == null)
+          _fileCount.incrementAndGet();
+
+        _entryMap.put(name, new WeakReference<WatchEntry>(entry));
+      }
+
+      return entry;
+    }
+
+    void update(String name)
+    {
+      WeakReference<WatchEntry> ref = _entryMap.get(name);
+      WatchEntry entry = ref != null ? ref.get() : null;
+
+      if (entry != null)
+        entry.update();
+    }
+
+    /**
+     * Registers the directory, replacing any old key. Every entry is
+     * marked as changed, since events may have been missed.
+     */
+    synchronized void register()
+    {
+      cancelKey();
+
+      WatchKey key = null;
+      Object fileKey = null;
+
+      if (! _isReleased && ! _isNetwork
+          && Files.isDirectory(_dir, LinkOption.NOFOLLOW_LINKS)) {
+        try {
+          if (isNetworkStore(_dir)) {
+            _isNetwork = true;
+
+            log.finer(_dir + ": network filesystem; dependency checks will stat");
+          }
+          else {
+            fileKey = readFileKey(_dir);
+
+            key = _dir.register(_watchService,
+                                StandardWatchEventKinds.ENTRY_CREATE,
+                                StandardWatchEventKinds.ENTRY_DELETE,
+                                StandardWatchEventKinds.ENTRY_MODIFY);
+          }
+        } catch (IOException e) {
+          // typically the inotify watch limit
+          log.log(Level.FINER, _dir + ": " + e, e);
+        } catch (ClosedWatchServiceException e) {
+          log.log(Level.FINEST, e.toString(), e);
+        }
+      }
+
+      _fileKey = fileKey;
+      _key = key;
+
+      if (key != null)
+        _keyMap.put(key, this);
+
+      for (WeakReference<WatchEntry> ref : _entryMap.values()) {
+        WatchEntry entry = ref.get();
+
+        if (entry != null)
+          entry.reset(key != null);
+      }
+    }
+
+    synchronized void reregister(WatchKey oldKey)
+    {
+      if (_key == oldKey)
+        register();
+    }
+
+    /**
+     * Registers again if the directory was replaced, or if an
+     * unwatched directory exists again.
+     */
+    synchronized void verify()
+    {
+      if (_isReleased || _isNetwork)
+        return;
+
+      if (_key == null) {
+        if (Files.isDirectory(_dir, LinkOption.NOFOLLOW_LINKS))
+          register();
+      }
+      else if (! Files.isDirectory(_dir, LinkOption.NOFOLLOW_LINKS)) {
+        register();
+      }
+      else if (_fileKey != null && ! _fileKey.equals(readFileKey(_dir))) {
+        register();
+      }
+    }
+
+    /**
+     * Drops collected entries, and releases the directory and its key
+     * when no entries remain.
+     */
+    synchronized boolean release()
+    {
+      for (java.util.Map.Entry<String,WeakReference<WatchEntry>> mapEntry
+             : _entryMap.entrySet()) {
+        if (mapEntry.getValue().get() == null
+            && _entryMap.remove(mapEntry.getKey(), mapEntry.getValue())) {
+          _fileCount.decrementAndGet();
+        }
+      }
+
+      if (! _entryMap.isEmpty())
+        return false;
+
+      _isReleased = true;
+
+      cancelKey();
+
+      _dirMap.remove(_dir, this);
+
+      return true;
+    }
+
+    synchronized void close()
+    {
+      cancelKey();
+
+      for (WeakReference<WatchEntry> ref : _entryMap.values()) {
+        WatchEntry entry = ref.get();
+
+        if (entry != null)
+          entry.reset(false);
+      }
+    }
+
+    private void cancelKey()
+    {
+      WatchKey key = _key;
+      _key = null;
+
+      if (key != null) {
+        _keyMap.remove(key, this);
+        key.cancel();
+      }
+    }
+
+    @Override
+    public String toString()
+    {
+      return getClass().getSimpleName() + "[" + _dir + "]";
+    }
+  }
+
+  /**
+   * The watch state for a single file. The version changes on any event
+   * and is negative while the watch is not valid.
+   */
+  static final class WatchEntry {
+    private final DirWatch _dir;
+    private final String _name;
+
+    private final AtomicLong _version = new AtomicLong();
+    private volatile boolean _isValid;
+
+    WatchEntry(DirWatch dir, String name, boolean isValid)
+    {
+      _dir = dir;
+      _name = name;
+      _isValid = isValid;
+    }
+
+    long getVersion()
+    {
+      return _isValid ? _version.get() : -1;
+    }
+
+    void update()
+    {
+      _version.incrementAndGet();
+    }
+
+    /**
+     * Marks the file as changed. The version is incremented before the
+     * entry becomes valid, so a stale saved version can't match.
+     */
+    void reset(boolean isValid)
+    {
+      _version.incrementAndGet();
+      _isValid = isValid;
+    }
+
+    @Override
+    public String toString()
+    {
+      return getClass().getSimpleName() + "[" + _dir + "," + _name + "]";
+    }
+  }
+
+  private class WatchTask implements Runnable {
+    public void run()
+    {
+      long nextVerify = System.currentTimeMillis() + VERIFY_INTERVAL;
+
+      try {
+        while (true) {
+          WatchKey key = _watchService.poll(VERIFY_INTERVAL,
+                                            TimeUnit.MILLISECONDS);
+
+          try {
+            if (key != null)
+              handleKey(key);
+
+            long now = System.currentTimeMillis();
+
+            if (nextVerify <= now) {
+              nextVerify = now + VERIFY_INTERVAL;
+
+              verify();
+            }
+          } catch (Exception e) {
+            log.log(Level.WARNING, e.toString(), e);
+          }
+        }
+      } catch (InterruptedException e) {
+        log.log(Level.FINEST, e.toString(), e);
+      } catch (ClosedWatchServiceException e) {
+        log.log(Level.FINEST, e.toString(), e);
+      }
+
+      // any remaining entries no longer receive events
+      for (DirWatch dirWatch : _dirMap.values()) {
+        dirWatch.close();
+      }
+    }
+  }
+}
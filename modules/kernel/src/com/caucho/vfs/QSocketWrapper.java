@@ -338,6 +338,23 @@ public class QSocketWrapper extends QSocket {
     return _s == null;
   }
 
+  /**
+   * Closes the socket from another thread, failing a blocked read or write.
+   */
+  @Override
+  public void forceShutdown()
+  {
+    Socket s = _s;
+
+    if (s != null) {
+      try {
+        s.close();
+      } catch (Exception e) {
+        log.log(Level.FINEST, e.toString(), e);
+      }
+    }
+  }
+
   /**
    * Closes the underlying socket.
    */
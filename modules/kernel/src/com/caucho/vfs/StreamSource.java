@@ -105,6 +105,26 @@ public class StreamSource
     }
   }
 
+  /**
+   * Removes and returns the buffered data, or null if the source is not
+   * backed by temp buffers.  The caller owns and frees the buffers.
+   */
+  TempBuffer removeTempBuffers()
+  {
+    if (_indirectSource != null)
+      return _indirectSource.removeTempBuffers();
+    else if (_out != null) {
+      TempOutputStream out = _out;
+
+      TempBuffer head = out.getHead();
+      out.clear();
+
+      return head;
+    }
+    else
+      return null;
+  }
+
   /**
    * Close the stream.
    */
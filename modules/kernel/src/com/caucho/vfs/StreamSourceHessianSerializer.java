@@ -38,6 +38,43 @@ import java.io.*;
  */
 public class StreamSourceHessianSerializer extends AbstractStreamSerializer
 {
+  private static final byte []EMPTY = new byte[0];
+
+  /**
+   * Writes a buffered stream source directly from its temp buffer chain,
+   * freeing the buffers as they're written.
+   */
+  @Override
+  protected void writeValue(Object obj, AbstractHessianOutput out)
+    throws IOException
+  {
+    StreamSource stream = (StreamSource) obj;
+
+    if (stream.getClass() != StreamSource.class) {
+      super.writeValue(obj, out);
+      return;
+    }
+
+    TempBuffer head = stream.removeTempBuffers();
+
+    if (head == null) {
+      super.writeValue(obj, out);
+      return;
+    }
+
+    try {
+      out.writeByteBufferStart();
+
+      for (TempBuffer ptr = head; ptr != null; ptr = ptr.getNext()) {
+        out.writeByteBufferPart(ptr.getBuffer(), 0, ptr.getLength());
+      }
+
+      out.writeByteBufferEnd(EMPTY, 0, 0);
+    } finally {
+      TempBuffer.freeAll(head);
+    }
+  }
+
   @Override
   protected InputStream getInputStream(Object obj)
     throws IOException
@@ -119,6 +119,15 @@ public class JDKWriter extends EncodingWriter {
       }
     }
 
+    /**
+     * Returns the encoding for the writer.
+     */
+    @Override
+    public String getJavaEncoding()
+    {
+      return _encoding;
+    }
+
     /**
      * Writes a char.
      */
@@ -114,6 +114,8 @@ public class QuercusContext
   private static IniDefinitions _ini = new IniDefinitions();
 
   private final PageManager _pageManager;
+  private final ArrayList<String> _pagePreloadList = new ArrayList<String>();
+  private int _pagePreloadThreads = Runtime.getRuntime().availableProcessors();
   private final ClassLoader _loader;
   private final QuercusSessionManager _sessionManager;
 
@@ -779,6 +781,31 @@ public class QuercusContext
     _pageManager.setPageCacheSize(size);
   }
 
+  /**
+   * Adds a page or directory, relative to the pwd, to parse on start.
+   */
+  public void addPagePreload(String path)
+  {
+    _pagePreloadList.add(path);
+  }
+
+  /**
+   * Sets the number of threads used to preload pages.
+   */
+  public void setPagePreloadThreads(int threads)
+  {
+    if (threads > 0)
+      _pagePreloadThreads = threads;
+  }
+
+  /**
+   * Returns the page manager, e.g. for the page cache statistics.
+   */
+  public PageManager getPageManager()
+  {
+    return _pageManager;
+  }
+
   /**
    * Gets the max size of the regexp cache.
    */
@@ -2094,6 +2121,14 @@ public class QuercusContext
     _sessionManager.saveSession(env, session);
   }
 
+  /**
+   * Releases a read-only session without saving it.
+   */
+  public void releaseSession(Env env, SessionArrayValue session)
+  {
+    _sessionManager.releaseSession(env, session);
+  }
+
   /**
    * Removes the session from the backing.
    */
@@ -2173,6 +2208,16 @@ public class QuercusContext
     } catch (Exception e) {
       log.log(Level.FINE, e.getMessage(), e);
     }
+
+    if (_pagePreloadList.size() > 0) {
+      ArrayList<Path> pathList = new ArrayList<Path>();
+
+      for (String path : _pagePreloadList) {
+        pathList.add(getPwd().lookup(path));
+      }
+
+      _pageManager.preload(pathList, _pagePreloadThreads);
+    }
   }
 
   public Env createEnv(QuercusPage page,
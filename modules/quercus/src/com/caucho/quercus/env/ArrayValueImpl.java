@@ -57,6 +57,9 @@ public class ArrayValueImpl extends ArrayValue
   private Entry []_entries;
   private int _hashMask;
 
+  // packed list: the keys are exactly 0.._size-1 in insertion order
+  private Entry []_packed;
+
   private int _size;
   private long _nextAvailableIndex;
   private boolean _isDirty;
@@ -120,6 +123,7 @@ public class ArrayValueImpl extends ArrayValue
     _size = source._size;
     _entries = source._entries;
     _hashMask = source._hashMask;
+    _packed = source._packed;
 
     _head = source._head;
     setCurrent(source.getCurrent());
@@ -137,6 +141,7 @@ public class ArrayValueImpl extends ArrayValue
     _size = source.getSize();
     _entries = source.getEntries();
     _hashMask = source.getHashMask();
+    _packed = source.getPacked();
 
     _head = source.getHead();
     setCurrent(source.getCurrent());
@@ -226,6 +231,11 @@ public class ArrayValueImpl extends ArrayValue
     return _hashMask;
   }
 
+  protected Entry []getPacked()
+  {
+    return _packed;
+  }
+
   protected long getNextAvailableIndex()
   {
     return _nextAvailableIndex;
@@ -247,11 +257,20 @@ public class ArrayValueImpl extends ArrayValue
     else
       entries = null;
 
+    Entry []packed = _packed;
+
+    if (packed != null)
+      packed = new Entry[packed.length];
+
+    int index = 0;
     Entry prev = null;
     for (Entry ptr = _head; ptr != null; ptr = ptr.getNext()) {
       Entry ptrCopy = new Entry(ptr);
 
-      if (entries != null) {
+      if (packed != null) {
+        packed[index++] = ptrCopy;
+      }
+      else if (entries != null) {
         int hash = ptr.getKey().hashCode() & _hashMask;
 
         Entry head = entries[hash];
@@ -282,6 +301,7 @@ public class ArrayValueImpl extends ArrayValue
     _tail = prev;
 
     _entries = entries;
+    _packed = packed;
   }
 
   /**
@@ -441,6 +461,7 @@ public class ArrayValueImpl extends ArrayValue
     }
 
     _entries = null;
+    _packed = null;
 
     _size = 0;
     _head = _tail = null;
@@ -487,6 +508,9 @@ public class ArrayValueImpl extends ArrayValue
     if (_isDirty)
       copyOnWrite();
 
+    if (_packed != null)
+      unpack();
+
     _size++;
 
     Entry []entries = _entries;
@@ -521,6 +545,9 @@ public class ArrayValueImpl extends ArrayValue
     if (_isDirty)
       copyOnWrite();
 
+    if (_packed != null)
+      unpack();
+
     int index = 0;
 
     ArrayValueImpl result = new ArrayValueImpl();
@@ -786,6 +813,12 @@ public class ArrayValueImpl extends ArrayValue
   {
     key = key.toKey();
 
+    if (_packed != null) {
+      Entry entry = getPackedEntry(key);
+
+      return entry != null ? entry.toValue() : UnsetValue.UNSET;
+    }
+
     Entry []entries = _entries;
     Entry entry;
 
@@ -825,6 +858,12 @@ public class ArrayValueImpl extends ArrayValue
   {
     key = key.toKey();
 
+    if (_packed != null) {
+      Entry entry = getPackedEntry(key);
+
+      return entry != null ? entry.getRawValue() : UnsetValue.UNSET;
+    }
+
     Entry []entries = _entries;
     Entry entry;
 
@@ -914,6 +953,9 @@ public class ArrayValueImpl extends ArrayValue
   {
     key = key.toKey();
 
+    if (_packed != null)
+      return getPackedEntry(key);
+
     Entry []entries = _entries;
     Entry entry;
 
@@ -946,6 +988,25 @@ public class ArrayValueImpl extends ArrayValue
 
     key = key.toKey();
 
+    if (_packed != null) {
+      Entry entry = getPackedEntry(key);
+
+      if (entry == null)
+        return UnsetValue.UNSET;
+      else if (entry == _tail) {
+        // popping the tail keeps the list packed
+        _packed[_size - 1] = null;
+
+        Value value = removeEntry(key, entry);
+
+        _nextAvailableIndex = _size;
+
+        return value;
+      }
+
+      unpack();
+    }
+
     Entry []entries = _entries;
     Entry entry;
 
@@ -1054,6 +1115,16 @@ public class ArrayValueImpl extends ArrayValue
 
     key = key.toKey();
 
+    if (_packed != null) {
+      Entry entry = getPackedEntry(key);
+
+      if (entry != null)
+        return entry;
+    }
+
+    if (isPackedTail(key))
+      return addPackedEntry(key);
+
     int hash = key.hashCode();
 
     int hashMask = _hashMask;
@@ -1125,6 +1196,9 @@ public class ArrayValueImpl extends ArrayValue
   {
     key = key.toKey();
 
+    if (isPackedTail(key))
+      return addPackedEntry(key);
+
     int hashMask = _hashMask;
     int hash = key.hashCode() & hashMask;
 
@@ -1169,6 +1243,108 @@ public class ArrayValueImpl extends ArrayValue
     return newEntry;
   }
 
+  /**
+   * Returns the entry of a packed list.
+   */
+  private Entry getPackedEntry(Value key)
+  {
+    if (! (key instanceof LongValue))
+      return null;
+
+    long index = key.toLong();
+
+    if (0 <= index && index < _size)
+      return _packed[(int) index];
+    else
+      return null;
+  }
+
+  /**
+   * Returns true if the new key can be appended to the packed list,
+   * converting the list to a hash if the key would make it sparse.
+   */
+  private boolean isPackedTail(Value key)
+  {
+    if (_packed == null) {
+      return (_size == 0 && _entries == null
+              && key instanceof LongValue && key.toLong() == 0);
+    }
+    else if (key instanceof LongValue && key.toLong() == _size) {
+      return true;
+    }
+    else {
+      unpack();
+
+      return false;
+    }
+  }
+
+  /**
+   * Appends a new entry to the packed list.
+   */
+  private Entry addPackedEntry(Value key)
+  {
+    Entry []packed = _packed;
+
+    if (packed == null) {
+      packed = new Entry[DEFAULT_SIZE];
+      _packed = packed;
+    }
+    else if (packed.length <= _size) {
+      packed = new Entry[2 * packed.length];
+      System.arraycopy(_packed, 0, packed, 0, _size);
+      _packed = packed;
+    }
+
+    Entry newEntry = new Entry(key);
+
+    packed[_size++] = newEntry;
+
+    _nextAvailableIndex = _size;
+
+    if (_head == null) {
+      _head = newEntry;
+      _tail = newEntry;
+      setCurrent(newEntry);
+    }
+    else {
+      newEntry.setPrev(_tail);
+
+      _tail.setNext(newEntry);
+      _tail = newEntry;
+    }
+
+    return newEntry;
+  }
+
+  /**
+   * Converts a packed list to the hash form.
+   */
+  private void unpack()
+  {
+    _packed = null;
+
+    if (_size < MIN_HASH) {
+      for (Entry ptr = _head; ptr != null; ptr = ptr.getNext()) {
+        ptr.setNextHash(ptr.getNext());
+      }
+
+      return;
+    }
+
+    int capacity = 8;
+
+    while (capacity <= 2 * _size)
+      capacity *= 2;
+
+    _entries = new Entry[capacity];
+    _hashMask = capacity - 1;
+
+    for (Entry ptr = _head; ptr != null; ptr = ptr.getNext()) {
+      addEntry(ptr);
+    }
+  }
+
   private void expand()
   {
     Entry []entries = _entries;
@@ -1250,6 +1426,9 @@ public class ArrayValueImpl extends ArrayValue
     if (_isDirty)
       copyOnWrite();
 
+    if (_packed != null)
+      unpack();
+
     Entry []values = new Entry[size()];
 
     int length = values.length;
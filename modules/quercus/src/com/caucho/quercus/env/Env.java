@@ -7670,6 +7670,30 @@ public class Env
     }
   }
 
+  /**
+   * Closes the session without writing it, keeping $_SESSION readable.
+   */
+  public void sessionReadClose()
+  {
+    SessionArrayValue session = _session;
+
+    _session = null;
+
+    if (session != null) {
+      SessionCallback callback = getSessionCallback();
+
+      if (callback != null)
+        callback.close(this);
+      else
+        _quercus.releaseSession(this, session);
+
+      Value sessionCopy = session.copy(this);
+
+      setGlobalValue("_SESSION", sessionCopy);
+      setGlobalValue("HTTP_SESSION_VARS", sessionCopy);
+    }
+  }
+
   public String dbgId()
   {
     return getClass().getSimpleName() + "[" + _selfPath + "] ";
@@ -42,6 +42,12 @@ import java.util.Locale;
 /**
  * Represents a 8-bit PHP 5 style binary builder (unicode.semantics = off),
  * used for large data like file reads.
+ *
+ * The data is a list of SIZE chunks. Converting to a new builder shares
+ * the chunks instead of copying them, so repeated concatenation only
+ * copies the partial tail chunk. Chunks are only shared between large
+ * builders: appending to a StringBuilderValue or writing to an output
+ * buffer still copies the bytes.
  */
 public class LargeStringBuilderValue
   extends StringValue
@@ -53,6 +59,9 @@ public class LargeStringBuilderValue
   protected byte [][]_bufferList;
   protected int _length;
 
+  // true if the tail chunk is shared and must be copied before a write
+  private boolean _isCopy;
+
   private int _hashCode;
 
   public LargeStringBuilderValue()
@@ -74,6 +83,27 @@ public class LargeStringBuilderValue
     s.appendTo(this);
   }
 
+  /**
+   * Creates a builder sharing the chunks of another builder.
+   */
+  private LargeStringBuilderValue(LargeStringBuilderValue v)
+  {
+    int length = v._length;
+    int chunkCount = (length + SIZE - 1) / SIZE;
+
+    byte [][]bufferList = new byte[chunkCount + 32][];
+    System.arraycopy(v._bufferList, 0, bufferList, 0, chunkCount);
+
+    _bufferList = bufferList;
+    _length = length;
+
+    // only one builder may own the shared tail chunk, the others copy
+    if (v._isCopy)
+      _isCopy = true;
+    else
+      v._isCopy = true;
+  }
+
   /**
    * Creates an empty string builder of the same type.
    */
@@ -215,9 +245,7 @@ public class LargeStringBuilderValue
   @Override
   public StringValue toStringBuilder()
   {
-    // XXX: can this just return this, or does it need to return a copy?
-
-    return new LargeStringBuilderValue(_bufferList, _length);
+    return new LargeStringBuilderValue(this);
   }
 
   /**
@@ -315,7 +343,18 @@ public class LargeStringBuilderValue
   @Override
   public final void setLength(int len)
   {
+    if (len < _length) {
+      // the chunks past the new tail may be shared with another builder
+      byte [][]bufferList = _bufferList;
+
+      for (int i = len / SIZE + 1; i < bufferList.length; i++)
+        bufferList[i] = null;
+
+      _isCopy = true;
+    }
+
     _length = len;
+    _hashCode = 0;
   }
 
   //
@@ -465,7 +504,7 @@ public class LargeStringBuilderValue
   @Override
   public StringValue toStringBuilder(Env env)
   {
-    return new LargeStringBuilderValue(_bufferList, _length);
+    return new LargeStringBuilderValue(this);
   }
 
   /**
@@ -483,17 +522,7 @@ public class LargeStringBuilderValue
   @Override
   public StringValue append(String s)
   {
-    int len = s.length();
-
-    ensureCapacity(_length + len);
-
-    for (int i = 0; i < len; i++) {
-      _bufferList[_length / SIZE][_length % SIZE] = (byte) s.charAt(i);
-
-      _length++;
-    }
-
-    return this;
+    return append((CharSequence) s, 0, s.length());
   }
 
   /**
@@ -501,14 +530,21 @@ public class LargeStringBuilderValue
    */
   public StringValue append(CharSequence buf, int head, int tail)
   {
-    int len = tail - head;
+    ensureCapacity(_length + tail - head);
 
-    ensureCapacity(_length + len);
+    while (head < tail) {
+      byte []buffer = _bufferList[_length / SIZE];
+      int offset = _length % SIZE;
+
+      int sublen = SIZE - offset;
+      if (tail - head < sublen)
+        sublen = tail - head;
 
-    for (int i = 0; i < len; i++) {
-      _bufferList[_length / SIZE][_length % SIZE] = (byte) buf.charAt(i);
+      for (int i = 0; i < sublen; i++)
+        buffer[offset + i] = (byte) buf.charAt(head + i);
 
-      _length++;
+      head += sublen;
+      _length += sublen;
     }
 
     return this;
@@ -522,10 +558,20 @@ public class LargeStringBuilderValue
   {
     ensureCapacity(_length + length);
 
-    for (int i = offset; i < length + offset; i++) {
-      _bufferList[_length / SIZE][_length % SIZE] = (byte) buf[i];
+    while (length > 0) {
+      byte []buffer = _bufferList[_length / SIZE];
+      int chunkOffset = _length % SIZE;
 
-      _length++;
+      int sublen = SIZE - chunkOffset;
+      if (length < sublen)
+        sublen = length;
+
+      for (int i = 0; i < sublen; i++)
+        buffer[chunkOffset + i] = (byte) buf[offset + i];
+
+      offset += sublen;
+      length -= sublen;
+      _length += sublen;
     }
 
     return this;
@@ -570,7 +616,7 @@ public class LargeStringBuilderValue
   @Override
   public final StringValue append(char v)
   {
-    if (_length % SIZE == 0)
+    if (_length % SIZE == 0 || _isCopy)
       ensureCapacity(_length + 1);
 
     _bufferList[_length / SIZE][_length % SIZE] = (byte) v;
@@ -585,7 +631,7 @@ public class LargeStringBuilderValue
    */
   public final StringValue append(byte v)
   {
-    if (_length % SIZE == 0)
+    if (_length % SIZE == 0 || _isCopy)
       ensureCapacity(_length + 1);
 
     _bufferList[_length / SIZE][_length % SIZE] = (byte) v;
@@ -644,7 +690,7 @@ public class LargeStringBuilderValue
     try {
       int offset = _length % SIZE;
 
-      if (offset == 0) {
+      if (offset == 0 || _isCopy) {
         ensureCapacity(_length + SIZE);
       }
 
@@ -792,6 +838,19 @@ public class LargeStringBuilderValue
       _bufferList = bufferList;
     }
 
+    if (_isCopy) {
+      // copy-on-write of the shared tail chunk
+      _isCopy = false;
+
+      byte []tail = _bufferList[chunk];
+
+      if (tail != null) {
+        byte []buffer = new byte[SIZE];
+        System.arraycopy(tail, 0, buffer, 0, _length % SIZE);
+        _bufferList[chunk] = buffer;
+      }
+    }
+
     for (; chunk <= endChunk; chunk++) {
       if (_bufferList[chunk] == null)
         _bufferList[chunk] = new byte[SIZE];
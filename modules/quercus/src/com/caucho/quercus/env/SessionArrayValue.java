@@ -58,6 +58,9 @@ public class SessionArrayValue extends ArrayValueWrapper
   protected long _accessTime;
   private long _maxInactiveInterval;
 
+  // encoded value last read from or written to the persistent store
+  private String _storeEncoding;
+
   private boolean _isValid;
 
   public SessionArrayValue(String id, long now, 
@@ -112,6 +115,8 @@ public class SessionArrayValue extends ArrayValueWrapper
       new SessionArrayValue(_id, accessTime, _maxInactiveInterval,
                             (ArrayValue) getArray().copy(env, map));
 
+    copy.setStoreEncoding(_storeEncoding);
+
     return copy;
   }
 
@@ -168,6 +173,23 @@ public class SessionArrayValue extends ArrayValueWrapper
     }
   }
 
+  /**
+   * Returns the encoded value last read from or written to the
+   * persistent store, used as the version for an optimistic update.
+   */
+  public String getStoreEncoding()
+  {
+    return _storeEncoding;
+  }
+
+  /**
+   * Sets the encoded value of the persistent store.
+   */
+  public void setStoreEncoding(String encoding)
+  {
+    _storeEncoding = encoding;
+  }
+
   public boolean inUse()
   {
     return _useCount.get() > 0;
@@ -68,6 +68,9 @@ public class Regexp {
   boolean []_firstSet;
   boolean _isAnchorBegin;
 
+  // linear-time filters, null for unsupported patterns
+  RegexpDfa _dfa;
+
   StringValue []_groupNames;
 
   boolean _isUnicode;
@@ -92,6 +95,8 @@ public class Regexp {
       _prog = comp.parse(peekString);
 
       compile(_prog, comp);
+
+      _dfa = RegexpDfa.create(_pattern, _flags);
     }
     catch (IllegalRegexpException e) {
       _exception = e;
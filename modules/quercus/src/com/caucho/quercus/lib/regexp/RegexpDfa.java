@@ -0,0 +1,1700 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.quercus.lib.regexp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.quercus.env.StringValue;
+
+/**
+ * Linear-time filters for a regexp: a required literal found with a
+ * Horspool scan, a lazily built DFA which decides whether the
+ * subject can match at all, and a reverse DFA which finds every offset
+ * where a match can start in one backward pass.
+ *
+ * The backtracking matcher still produces the match and its groups.
+ * The filters only reject subjects or start offsets, so their language
+ * is a superset of the backtracker's: case folding, the character
+ * escapes and surrogate pairs are all matched generously.
+ *
+ * Only patterns without backreferences, lookaround, conditionals,
+ * recursion, inline options or anchors other than a leading '^' and
+ * trailing '$' are supported. Disable with
+ * -Dcom.caucho.quercus.regexp.dfa=false.
+ */
+final class RegexpDfa {
+  private static final Logger log
+    = Logger.getLogger(RegexpDfa.class.getName());
+
+  static final int NO_MATCH = 0;
+  static final int MATCH = 1;
+  static final int UNKNOWN = -1;
+
+  private static final boolean _isEnabled
+    = ! "false".equals(System.getProperty("com.caucho.quercus.regexp.dfa"));
+
+  private static final int INFINITY = Integer.MAX_VALUE;
+  private static final int REPEAT_MAX = 1000;
+  private static final int NFA_MAX = 4096;
+  private static final int DFA_STATE_MAX = 2048;
+  private static final int DFA_RESET_MAX = 8;
+  private static final int UNICODE_TRANSITION_MAX = 1024;
+
+  private static final CharPredicate HIGH_SURROGATE = new CharPredicate() {
+      boolean match(char ch) { return Character.isHighSurrogate(ch); }
+    };
+
+  private static final CharPredicate LOW_SURROGATE = new CharPredicate() {
+      boolean match(char ch) { return Character.isLowSurrogate(ch); }
+    };
+
+  // nfa states: a char state has a predicate and a single out,
+  // an epsilon state has up to two outs
+  private final CharPredicate []_pred;
+  private final int []_out1;
+  private final int []_out2;
+
+  private final int _start;
+  private final int _match;
+  private final int _endAnchor;
+
+  private final boolean _isAnchorBegin;
+
+  private final char []_literal;
+  private final int []_literalSkip;
+
+  private final ForwardDfa _anchoredDfa = new ForwardDfa(false);
+  private final ForwardDfa _unanchoredDfa = new ForwardDfa(true);
+  private final ReverseDfa _reverseDfa = new ReverseDfa();
+
+  private RegexpDfa(NfaBuilder nfa, int start, Parser parser)
+  {
+    int size = nfa._pred.size();
+
+    _pred = nfa._pred.toArray(new CharPredicate[size]);
+    _out1 = toIntArray(nfa._out1);
+    _out2 = toIntArray(nfa._out2);
+
+    _start = start;
+    _match = nfa._match;
+    _endAnchor = nfa._endAnchor;
+
+    _isAnchorBegin = parser._isAnchorBegin;
+
+    char []literal = parser.getRequiredLiteral();
+
+    if (literal != null) {
+      _literal = literal;
+      _literalSkip = createSkipTable(literal);
+    }
+    else {
+      _literal = null;
+      _literalSkip = null;
+    }
+  }
+
+  /**
+   * Returns the filters for the pattern, or null if the pattern uses
+   * features the DFA doesn't support.
+   */
+  static RegexpDfa create(StringValue pattern, int flags)
+  {
+    if (! _isEnabled)
+      return null;
+
+    try {
+      Parser parser = new Parser(pattern, flags);
+
+      Node node = parser.parse();
+
+      NfaBuilder nfa = new NfaBuilder();
+
+      int next;
+      if (parser._isAnchorEnd)
+        next = nfa._endAnchor = nfa.addEpsilon(-1, -1);
+      else
+        next = nfa._match;
+
+      int start = node.compile(nfa, next);
+
+      return new RegexpDfa(nfa, start, parser);
+    } catch (UnsupportedOperationException e) {
+      if (log.isLoggable(Level.FINEST))
+        log.finest("regexp '" + pattern + "' uses the backtracker: " + e.getMessage());
+
+      return null;
+    }
+  }
+
+  /**
+   * Returns true if the pattern has a required literal.
+   */
+  boolean hasLiteral()
+  {
+    return _literal != null;
+  }
+
+  /**
+   * Returns the next offset of the required literal, or -1.
+   */
+  int findLiteral(StringValue subject, int length, int offset)
+  {
+    char []literal = _literal;
+    int last = literal.length - 1;
+    char lastCh = literal[last];
+
+    if (last == 0) {
+      for (; offset < length; offset++) {
+        if (subject.charAt(offset) == lastCh)
+          return offset;
+      }
+
+      return -1;
+    }
+
+    int []skip = _literalSkip;
+
+    for (int i = offset + last; i < length;) {
+      char ch = subject.charAt(i);
+
+      if (ch == lastCh) {
+        int j = last - 1;
+        int k = i - 1;
+
+        while (j >= 0 && subject.charAt(k) == literal[j]) {
+          j--;
+          k--;
+        }
+
+        if (j < 0)
+          return k + 1;
+      }
+
+      i += skip[ch & 0xff];
+    }
+
+    return -1;
+  }
+
+  /**
+   * Returns MATCH if some match starts at or after the offset,
+   * NO_MATCH if none does, or UNKNOWN if the DFA gave up.
+   */
+  int find(StringValue subject, int length, int offset)
+  {
+    if (_isAnchorBegin)
+      return offset == 0 ? matchAt(subject, length, 0) : NO_MATCH;
+
+    return scan(_unanchoredDfa, subject, length, offset);
+  }
+
+  /**
+   * Returns MATCH if a match can start at the offset.
+   */
+  int matchAt(StringValue subject, int length, int offset)
+  {
+    if (_isAnchorBegin && offset != 0)
+      return NO_MATCH;
+
+    return scan(_anchoredDfa, subject, length, offset);
+  }
+
+  private int scan(ForwardDfa dfa, StringValue subject, int length, int offset)
+  {
+    DfaState state = dfa.getStart();
+
+    for (int i = offset; state != null; i++) {
+      if (state._isMatch)
+        return MATCH;
+      else if (state._isEndMatch
+               && (i == length
+                   || i + 1 == length && subject.charAt(i) == '\n'))
+        return MATCH;
+      else if (state._set.length == 0 || length <= i)
+        return NO_MATCH;
+
+      char ch = subject.charAt(i);
+
+      DfaState next = state.get(ch);
+
+      if (next == null)
+        next = dfa.next(state, ch);
+
+      state = next;
+    }
+
+    return UNKNOWN;
+  }
+
+  /**
+   * Returns the offsets at or after first where a match can start,
+   * or null if the DFA gave up. The reverse DFA reads the subject
+   * backward from the end, so the whole set costs a single pass.
+   */
+  BitSet findStarts(StringValue subject, int length, int first)
+  {
+    BitSet starts = new BitSet(length + 1);
+
+    if (_isAnchorBegin) {
+      if (first == 0 && matchAt(subject, length, 0) != NO_MATCH)
+        starts.set(0);
+
+      return starts;
+    }
+
+    ReverseDfa dfa = _reverseDfa;
+    DfaState state = dfa.getStart();
+
+    if (state == null)
+      return null;
+
+    if (state._isMatch)
+      starts.set(length);
+
+    for (int i = length - 1; first <= i; i--) {
+      char ch = subject.charAt(i);
+
+      DfaState next = state.get(ch);
+
+      if (next == null)
+        next = dfa.next(state, ch);
+
+      if (next == null)
+        return null;
+
+      // '$' also matches before a trailing newline
+      if (i == length - 1 && ch == '\n' && _endAnchor >= 0)
+        next = dfa.addEndAnchor(next);
+
+      state = next;
+
+      if (state._isMatch)
+        starts.set(i);
+    }
+
+    return starts;
+  }
+
+  /**
+   * Adds the epsilon closure of the nfa state to the set.
+   */
+  private void addClosure(int state, boolean []isMarked, IntList set)
+  {
+    if (state < 0 || isMarked[state])
+      return;
+
+    isMarked[state] = true;
+
+    if (_pred[state] != null || state == _match || state == _endAnchor) {
+      set.add(state);
+    }
+    else {
+      addClosure(_out1[state], isMarked, set);
+      addClosure(_out2[state], isMarked, set);
+    }
+  }
+
+  private static int []createSkipTable(char []literal)
+  {
+    int last = literal.length - 1;
+    int []skip = new int[256];
+
+    Arrays.fill(skip, literal.length);
+
+    for (int j = 0; j < last; j++) {
+      skip[literal[j] & 0xff] = last - j;
+    }
+
+    return skip;
+  }
+
+  private static int []toIntArray(IntList list)
+  {
+    return Arrays.copyOf(list._data, list._size);
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName() + "[nfa=" + _pred.length
+            + (_literal != null ? ",literal=" + new String(_literal) : "")
+            + "]");
+  }
+
+  /**
+   * Lazily built DFA. Transitions are computed on first use and the
+   * state cache is cleared when it grows too large.
+   */
+  private abstract class Dfa {
+    private HashMap<StateKey,DfaState> _stateMap
+      = new HashMap<StateKey,DfaState>();
+
+    private int _resetCount;
+    protected boolean _isDisabled;
+
+    /**
+     * Returns the nfa states for the transition from the state on ch.
+     */
+    abstract int []nextSet(DfaState state, char ch);
+
+    abstract boolean isMatch(int []set);
+
+    /**
+     * Called when the state cache is cleared.
+     */
+    abstract void onReset();
+
+    synchronized DfaState next(DfaState state, char ch)
+    {
+      DfaState next = state.get(ch);
+
+      if (next != null || _isDisabled)
+        return next;
+
+      int []set = nextSet(state, ch);
+
+      if (DFA_STATE_MAX <= _stateMap.size()) {
+        // states already linked stay valid, but are no longer shared
+        _stateMap = new HashMap<StateKey,DfaState>();
+        onReset();
+
+        if (DFA_RESET_MAX <= ++_resetCount) {
+          log.fine(RegexpDfa.this + " DFA is too large, using the backtracker");
+
+          _isDisabled = true;
+
+          return null;
+        }
+      }
+
+      next = getState(set);
+
+      state.put(ch, next);
+
+      return next;
+    }
+
+    DfaState getState(int []set)
+    {
+      StateKey key = new StateKey(set);
+
+      DfaState state = _stateMap.get(key);
+
+      if (state == null) {
+        boolean isEndMatch = false;
+
+        for (int nfaState : set) {
+          if (nfaState == _endAnchor)
+            isEndMatch = true;
+        }
+
+        state = new DfaState(set, isMatch(set), isEndMatch);
+
+        _stateMap.put(key, state);
+      }
+
+      return state;
+    }
+  }
+
+  /**
+   * DFA over the subject read forward, from a start offset.
+   */
+  private final class ForwardDfa extends Dfa {
+    private final boolean _isUnanchored;
+
+    private int []_startSet;
+    private DfaState _startState;
+
+    ForwardDfa(boolean isUnanchored)
+    {
+      _isUnanchored = isUnanchored;
+    }
+
+    synchronized DfaState getStart()
+    {
+      if (_isDisabled)
+        return null;
+
+      if (_startState == null) {
+        IntList set = new IntList();
+        addClosure(_start, new boolean[_pred.length], set);
+
+        _startSet = set.toSortedArray();
+        _startState = getState(_startSet);
+      }
+
+      return _startState;
+    }
+
+    @Override
+    int []nextSet(DfaState state, char ch)
+    {
+      boolean []isMarked = new boolean[_pred.length];
+      IntList set = new IntList();
+
+      for (int nfaState : state._set) {
+        CharPredicate pred = _pred[nfaState];
+
+        if (pred != null && pred.match(ch))
+          addClosure(_out1[nfaState], isMarked, set);
+      }
+
+      if (_isUnanchored) {
+        for (int nfaState : _startSet) {
+          if (! isMarked[nfaState]) {
+            isMarked[nfaState] = true;
+            set.add(nfaState);
+          }
+        }
+      }
+
+      return set.toSortedArray();
+    }
+
+    @Override
+    boolean isMatch(int []set)
+    {
+      for (int nfaState : set) {
+        if (nfaState == _match)
+          return true;
+      }
+
+      return false;
+    }
+
+    @Override
+    void onReset()
+    {
+      _startState = null;
+    }
+  }
+
+  /**
+   * DFA over the subject read backward from its end. A state is the
+   * set of nfa states from which the text already read can complete a
+   * match, so a state is a match when it contains a start state.
+   */
+  private final class ReverseDfa extends Dfa {
+    private boolean []_isStart;
+    private int [][]_follow;
+
+    private DfaState _startState;
+
+    synchronized DfaState getStart()
+    {
+      if (_isDisabled)
+        return null;
+
+      if (_startState == null) {
+        if (_isStart == null) {
+          IntList startSet = new IntList();
+          _isStart = new boolean[_pred.length];
+          addClosure(_start, _isStart, startSet);
+
+          // addClosure marks the epsilon states too
+          Arrays.fill(_isStart, false);
+
+          for (int i = 0; i < startSet._size; i++) {
+            _isStart[startSet._data[i]] = true;
+          }
+
+          _follow = new int[_pred.length][];
+        }
+
+        // a match may end anywhere, and '$' matches at the end
+        IntList set = new IntList();
+        set.add(_match);
+
+        if (_endAnchor >= 0)
+          set.add(_endAnchor);
+
+        _startState = getState(set.toSortedArray());
+      }
+
+      return _startState;
+    }
+
+    synchronized DfaState addEndAnchor(DfaState state)
+    {
+      if (Arrays.binarySearch(state._set, _endAnchor) >= 0)
+        return state;
+
+      int []set = Arrays.copyOf(state._set, state._set.length + 1);
+      set[set.length - 1] = _endAnchor;
+      Arrays.sort(set);
+
+      return getState(set);
+    }
+
+    @Override
+    int []nextSet(DfaState state, char ch)
+    {
+      boolean []isMember = new boolean[_pred.length];
+
+      for (int nfaState : state._set) {
+        isMember[nfaState] = true;
+      }
+
+      IntList set = new IntList();
+
+      for (int nfaState = 0; nfaState < _pred.length; nfaState++) {
+        CharPredicate pred = _pred[nfaState];
+
+        if (pred != null && pred.match(ch)
+            && isAnyMember(getFollow(nfaState), isMember)) {
+          set.add(nfaState);
+        }
+      }
+
+      // the match state is an epsilon state, so it's never added above
+      set.add(_match);
+
+      return set.toSortedArray();
+    }
+
+    private int []getFollow(int nfaState)
+    {
+      int []follow = _follow[nfaState];
+
+      if (follow == null) {
+        IntList set = new IntList();
+        addClosure(_out1[nfaState], new boolean[_pred.length], set);
+
+        follow = set.toSortedArray();
+        _follow[nfaState] = follow;
+      }
+
+      return follow;
+    }
+
+    private boolean isAnyMember(int []follow, boolean []isMember)
+    {
+      for (int nfaState : follow) {
+        if (isMember[nfaState])
+          return true;
+      }
+
+      return false;
+    }
+
+    @Override
+    boolean isMatch(int []set)
+    {
+      for (int nfaState : set) {
+        if (_isStart[nfaState])
+          return true;
+      }
+
+      return false;
+    }
+
+    @Override
+    void onReset()
+    {
+      _startState = null;
+    }
+  }
+
+  static final class DfaState {
+    final int []_set;
+    final boolean _isMatch;
+    final boolean _isEndMatch;
+
+    // transitions for chars below 256, then a copy-on-write map, so
+    // lookups never lock
+    private final DfaState []_latin = new DfaState[256];
+    private volatile UnicodeTransitions _unicode;
+
+    DfaState(int []set, boolean isMatch, boolean isEndMatch)
+    {
+      _set = set;
+      _isMatch = isMatch;
+      _isEndMatch = isEndMatch;
+    }
+
+    DfaState get(char ch)
+    {
+      if (ch < 256)
+        return _latin[ch];
+
+      UnicodeTransitions unicode = _unicode;
+
+      return unicode != null ? unicode.get(ch) : null;
+    }
+
+    /**
+     * Adds a transition. Called with the Dfa lock held.
+     */
+    void put(char ch, DfaState next)
+    {
+      if (ch < 256) {
+        _latin[ch] = next;
+        return;
+      }
+
+      UnicodeTransitions unicode = _unicode;
+
+      if (unicode == null)
+        _unicode = new UnicodeTransitions(ch, next);
+      else if (unicode.size() < UNICODE_TRANSITION_MAX)
+        _unicode = unicode.add(ch, next);
+    }
+  }
+
+  /**
+   * Immutable sorted transitions for chars above 255.
+   */
+  static final class UnicodeTransitions {
+    private final char []_chars;
+    private final DfaState []_states;
+
+    UnicodeTransitions(char ch, DfaState state)
+    {
+      this(new char[] { ch }, new DfaState[] { state });
+    }
+
+    private UnicodeTransitions(char []chars, DfaState []states)
+    {
+      _chars = chars;
+      _states = states;
+    }
+
+    int size()
+    {
+      return _chars.length;
+    }
+
+    DfaState get(char ch)
+    {
+      int index = Arrays.binarySearch(_chars, ch);
+
+      return index >= 0 ? _states[index] : null;
+    }
+
+    UnicodeTransitions add(char ch, DfaState state)
+    {
+      int index = Arrays.binarySearch(_chars, ch);
+
+      if (index >= 0)
+        return this;
+
+      index = -(index + 1);
+
+      int size = _chars.length;
+
+      char []chars = new char[size + 1];
+      DfaState []states = new DfaState[size + 1];
+
+      System.arraycopy(_chars, 0, chars, 0, index);
+      System.arraycopy(_states, 0, states, 0, index);
+
+      chars[index] = ch;
+      states[index] = state;
+
+      System.arraycopy(_chars, index, chars, index + 1, size - index);
+      System.arraycopy(_states, index, states, index + 1, size - index);
+
+      return new UnicodeTransitions(chars, states);
+    }
+  }
+
+  static final class StateKey {
+    private final int []_set;
+    private final int _hash;
+
+    StateKey(int []set)
+    {
+      _set = set;
+      _hash = Arrays.hashCode(set);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return _hash;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      return (o instanceof StateKey
+              && Arrays.equals(_set, ((StateKey) o)._set));
+    }
+  }
+
+  static final class IntList {
+    int []_data = new int[16];
+    int _size;
+
+    void add(int value)
+    {
+      if (_data.length <= _size)
+        _data = Arrays.copyOf(_data, 2 * _data.length);
+
+      _data[_size++] = value;
+    }
+
+    void set(int index, int value)
+    {
+      _data[index] = value;
+    }
+
+    int []toSortedArray()
+    {
+      int []array = Arrays.copyOf(_data, _size);
+      Arrays.sort(array);
+
+      return array;
+    }
+  }
+
+  static final class NfaBuilder {
+    final ArrayList<CharPredicate> _pred = new ArrayList<CharPredicate>();
+    final IntList _out1 = new IntList();
+    final IntList _out2 = new IntList();
+
+    final int _match;
+    int _endAnchor = -1;
+
+    NfaBuilder()
+    {
+      _match = addEpsilon(-1, -1);
+    }
+
+    int addChar(CharPredicate pred, int next)
+    {
+      return add(pred, next, -1);
+    }
+
+    int addEpsilon(int out1, int out2)
+    {
+      return add(null, out1, out2);
+    }
+
+    void setOut1(int state, int out1)
+    {
+      _out1.set(state, out1);
+    }
+
+    private int add(CharPredicate pred, int out1, int out2)
+    {
+      if (NFA_MAX <= _pred.size())
+        throw new UnsupportedOperationException("too many states");
+
+      _pred.add(pred);
+      _out1.add(out1);
+      _out2.add(out2);
+
+      return _pred.size() - 1;
+    }
+  }
+
+  //
+  // pattern tree
+  //
+
+  abstract static class Node {
+    /**
+     * Compiles the node followed by the next state, returning the
+     * node's start state.
+     */
+    abstract int compile(NfaBuilder nfa, int next);
+  }
+
+  static final class CharNode extends Node {
+    private final CharPredicate _pred;
+
+    CharNode(CharPredicate pred)
+    {
+      _pred = pred;
+    }
+
+    char getLiteral()
+    {
+      return _pred.getLiteral();
+    }
+
+    @Override
+    int compile(NfaBuilder nfa, int next)
+    {
+      int state = nfa.addChar(_pred, next);
+
+      if (! _pred.isNegated())
+        return state;
+
+      // the backtracker's negated sets consume a surrogate pair as
+      // a single character
+      int low = nfa.addChar(LOW_SURROGATE, next);
+      int high = nfa.addChar(HIGH_SURROGATE, low);
+
+      return nfa.addEpsilon(state, high);
+    }
+  }
+
+  static final class SeqNode extends Node {
+    private final ArrayList<Node> _list = new ArrayList<Node>();
+
+    void add(Node node)
+    {
+      if (node instanceof SeqNode)
+        _list.addAll(((SeqNode) node)._list);
+      else
+        _list.add(node);
+    }
+
+    ArrayList<Node> getList()
+    {
+      return _list;
+    }
+
+    @Override
+    int compile(NfaBuilder nfa, int next)
+    {
+      for (int i = _list.size() - 1; i >= 0; i--) {
+        next = _list.get(i).compile(nfa, next);
+      }
+
+      return next;
+    }
+  }
+
+  static final class AltNode extends Node {
+    private final ArrayList<Node> _list = new ArrayList<Node>();
+
+    void add(Node node)
+    {
+      _list.add(node);
+    }
+
+    @Override
+    int compile(NfaBuilder nfa, int next)
+    {
+      int state = _list.get(_list.size() - 1).compile(nfa, next);
+
+      for (int i = _list.size() - 2; i >= 0; i--) {
+        int head = _list.get(i).compile(nfa, next);
+
+        state = nfa.addEpsilon(head, state);
+      }
+
+      return state;
+    }
+  }
+
+  static final class RepeatNode extends Node {
+    private final Node _node;
+    private final int _min;
+    private final int _max;
+
+    RepeatNode(Node node, int min, int max)
+    {
+      _node = node;
+      _min = min;
+      _max = max;
+    }
+
+    @Override
+    int compile(NfaBuilder nfa, int next)
+    {
+      int state;
+
+      if (_max == INFINITY) {
+        state = nfa.addEpsilon(-1, next);
+        int body = _node.compile(nfa, state);
+        nfa.setOut1(state, body);
+      }
+      else {
+        state = next;
+
+        for (int i = _min; i < _max; i++) {
+          int body = _node.compile(nfa, state);
+
+          state = nfa.addEpsilon(body, next);
+        }
+      }
+
+      for (int i = 0; i < _min; i++) {
+        state = _node.compile(nfa, state);
+      }
+
+      return state;
+    }
+  }
+
+  //
+  // character predicates
+  //
+
+  abstract static class CharPredicate {
+    abstract boolean match(char ch);
+
+    /**
+     * True for negated sets, which the backtracker lets match a
+     * surrogate pair.
+     */
+    boolean isNegated()
+    {
+      return false;
+    }
+
+    /**
+     * Returns the exact character, or 0 if the predicate isn't
+     * a single case-sensitive character.
+     */
+    char getLiteral()
+    {
+      return 0;
+    }
+  }
+
+  static final class LiteralPredicate extends CharPredicate {
+    private final char _ch;
+
+    LiteralPredicate(char ch)
+    {
+      _ch = ch;
+    }
+
+    @Override
+    boolean match(char ch)
+    {
+      return ch == _ch;
+    }
+
+    @Override
+    char getLiteral()
+    {
+      return _ch;
+    }
+  }
+
+  static final class FoldPredicate extends CharPredicate {
+    private final char _lower;
+    private final char _upper;
+
+    FoldPredicate(char ch)
+    {
+      _lower = Character.toLowerCase(ch);
+      _upper = Character.toUpperCase(ch);
+    }
+
+    @Override
+    boolean match(char ch)
+    {
+      return (Character.toLowerCase(ch) == _lower
+              || Character.toUpperCase(ch) == _upper);
+    }
+  }
+
+  static final class NotNewlinePredicate extends CharPredicate {
+    @Override
+    boolean match(char ch)
+    {
+      return ch != '\n';
+    }
+
+    @Override
+    boolean isNegated()
+    {
+      return true;
+    }
+  }
+
+  static final class AnyPredicate extends CharPredicate {
+    @Override
+    boolean match(char ch)
+    {
+      return true;
+    }
+
+    @Override
+    boolean isNegated()
+    {
+      return true;
+    }
+  }
+
+  /**
+   * A backslash class like \d. The wide form accepts everything the
+   * backtracker might, the narrow form only what it must.
+   */
+  static final class EscapePredicate extends CharPredicate {
+    private final char _code;
+    private final boolean _isWide;
+
+    EscapePredicate(char code, boolean isWide)
+    {
+      _code = code;
+      _isWide = isWide;
+    }
+
+    @Override
+    boolean match(char ch)
+    {
+      return match(_code, ch, _isWide);
+    }
+
+    @Override
+    boolean isNegated()
+    {
+      return Character.isUpperCase(_code);
+    }
+
+    static boolean match(char code, char ch, boolean isWide)
+    {
+      switch (code) {
+      case 'd':
+        return isWide ? Character.isDigit(ch) : ('0' <= ch && ch <= '9');
+      case 'D':
+        return ! match('d', ch, ! isWide);
+      case 'w':
+        if (isWide)
+          return Character.isLetterOrDigit(ch) || ch == '_';
+        else
+          return (('a' <= ch && ch <= 'z') || ('A' <= ch && ch <= 'Z')
+                  || ('0' <= ch && ch <= '9') || ch == '_');
+      case 'W':
+        return ! match('w', ch, ! isWide);
+      case 's':
+        if (isWide)
+          return (Character.isWhitespace(ch) || Character.isSpaceChar(ch)
+                  || ch == 0x0b || ch == 0x85 || ch == 0xa0);
+        else
+          return (ch == ' ' || ch == '\t' || ch == '\n'
+                  || ch == '\r' || ch == '\f');
+      case 'S':
+        return ! match('s', ch, ! isWide);
+      default:
+        throw new IllegalStateException(String.valueOf(code));
+      }
+    }
+  }
+
+  static final class SetPredicate extends CharPredicate {
+    private final char []_ranges;
+    private final char []_escapes;
+    private final boolean _isNegated;
+    private final boolean _isIgnoreCase;
+
+    SetPredicate(char []ranges, char []escapes,
+                 boolean isNegated, boolean isIgnoreCase)
+    {
+      _ranges = ranges;
+      _escapes = escapes;
+      _isNegated = isNegated;
+      _isIgnoreCase = isIgnoreCase;
+    }
+
+    @Override
+    boolean match(char ch)
+    {
+      if (_isNegated)
+        return ! contains(ch, false);
+      else
+        return contains(ch, true);
+    }
+
+    private boolean contains(char ch, boolean isWide)
+    {
+      if (inRange(ch))
+        return true;
+
+      if (isWide && _isIgnoreCase
+          && (inRange(Character.toLowerCase(ch))
+              || inRange(Character.toUpperCase(ch)))) {
+        return true;
+      }
+
+      for (char code : _escapes) {
+        if (EscapePredicate.match(code, ch, isWide))
+          return true;
+      }
+
+      return false;
+    }
+
+    private boolean inRange(char ch)
+    {
+      char []ranges = _ranges;
+
+      for (int i = 0; i < ranges.length; i += 2) {
+        if (ranges[i] <= ch && ch <= ranges[i + 1])
+          return true;
+      }
+
+      return false;
+    }
+
+    @Override
+    boolean isNegated()
+    {
+      return _isNegated;
+    }
+  }
+
+  //
+  // parser for the supported subset
+  //
+
+  static final class Parser {
+    private final StringValue _pattern;
+    private final int _length;
+    private final boolean _isIgnoreCase;
+    private final boolean _isSingleLine;
+    private final boolean _isMultiline;
+
+    private int _offset;
+    private int _depth;
+
+    boolean _isAnchorBegin;
+    boolean _isAnchorEnd;
+
+    private Node _root;
+
+    Parser(StringValue pattern, int flags)
+    {
+      if ((flags & Regcomp.IGNORE_WS) != 0)
+        throw unsupported("x flag");
+
+      _pattern = pattern;
+      _length = pattern.length();
+      _isIgnoreCase = (flags & Regcomp.IGNORE_CASE) != 0;
+      _isSingleLine = (flags & Regcomp.SINGLE_LINE) != 0;
+      _isMultiline = (flags & Regcomp.MULTILINE) != 0;
+    }
+
+    Node parse()
+    {
+      if (_length > 0 && _pattern.charAt(0) == '^') {
+        if (_isMultiline)
+          throw unsupported("multiline ^");
+
+        _isAnchorBegin = true;
+        _offset = 1;
+      }
+
+      int length = _length;
+
+      if (_offset < length && _pattern.charAt(length - 1) == '$'
+          && ! isEscaped(length - 1)) {
+        if (_isMultiline)
+          throw unsupported("multiline $");
+
+        _isAnchorEnd = true;
+      }
+
+      Node node = parseAlt();
+
+      if (_offset < endOffset())
+        throw unsupported("unbalanced ')'");
+
+      _root = node;
+
+      return node;
+    }
+
+    /**
+     * Returns the longest run of literal characters every match must
+     * contain, or null.
+     */
+    char []getRequiredLiteral()
+    {
+      ArrayList<Node> list;
+
+      if (_root instanceof SeqNode)
+        list = ((SeqNode) _root).getList();
+      else if (_root instanceof CharNode) {
+        list = new ArrayList<Node>();
+        list.add(_root);
+      }
+      else
+        return null;
+
+      int bestStart = 0;
+      int bestLength = 0;
+
+      for (int i = 0; i < list.size(); i++) {
+        int j = i;
+
+        while (j < list.size()
+               && list.get(j) instanceof CharNode
+               && ((CharNode) list.get(j)).getLiteral() != 0) {
+          j++;
+        }
+
+        if (bestLength < j - i) {
+          bestStart = i;
+          bestLength = j - i;
+        }
+
+        i = j;
+      }
+
+      if (bestLength == 0)
+        return null;
+
+      char []literal = new char[bestLength];
+
+      for (int i = 0; i < bestLength; i++) {
+        literal[i] = ((CharNode) list.get(bestStart + i)).getLiteral();
+      }
+
+      return literal;
+    }
+
+    private boolean isEscaped(int offset)
+    {
+      int count = 0;
+
+      for (offset--; offset >= 0 && _pattern.charAt(offset) == '\\'; offset--)
+        count++;
+
+      return count % 2 == 1;
+    }
+
+    private int endOffset()
+    {
+      return _isAnchorEnd ? _length - 1 : _length;
+    }
+
+    private int peek()
+    {
+      return _offset < endOffset() ? _pattern.charAt(_offset) : -1;
+    }
+
+    private int read()
+    {
+      return _offset < endOffset() ? _pattern.charAt(_offset++) : -1;
+    }
+
+    private Node parseAlt()
+    {
+      Node node = parseSeq();
+
+      if (peek() != '|')
+        return node;
+
+      // anchors bind to the first and last alternatives only
+      if (_depth == 0 && (_isAnchorBegin || _isAnchorEnd))
+        throw unsupported("anchored alternation");
+
+      AltNode alt = new AltNode();
+      alt.add(node);
+
+      while (peek() == '|') {
+        read();
+        alt.add(parseSeq());
+      }
+
+      return alt;
+    }
+
+    private Node parseSeq()
+    {
+      SeqNode seq = new SeqNode();
+
+      while (true) {
+        int ch = peek();
+
+        if (ch < 0 || ch == '|' || ch == ')' && _depth > 0)
+          return seq;
+
+        Node atom = parseAtom();
+
+        seq.add(parseQuantifier(atom));
+      }
+    }
+
+    private Node parseAtom()
+    {
+      int ch = read();
+
+      switch (ch) {
+      case '(':
+        return parseGroup();
+
+      case ')':
+        throw unsupported("unbalanced ')'");
+
+      case '[':
+        return parseSet();
+
+      case '.':
+        if (_isSingleLine)
+          return new CharNode(new AnyPredicate());
+        else
+          return new CharNode(new NotNewlinePredicate());
+
+      case '^': case '$':
+        throw unsupported("embedded anchor");
+
+      case '*': case '+': case '?':
+        throw unsupported("quantifier without atom");
+
+      case '{':
+        if ('0' <= peek() && peek() <= '9')
+          throw unsupported("quantifier without atom");
+
+        return createChar('{');
+
+      case '\\':
+        return parseEscape();
+
+      default:
+        return createChar((char) ch);
+      }
+    }
+
+    private Node parseGroup()
+    {
+      if (peek() == '?') {
+        read();
+
+        int ch = read();
+
+        if (ch == ':') {
+        }
+        else if (ch == 'P' && peek() == '<') {
+          read();
+          skipName('>');
+        }
+        else if (ch == '<' && peek() != '=' && peek() != '!') {
+          skipName('>');
+        }
+        else if (ch == '\'') {
+          skipName('\'');
+        }
+        else
+          throw unsupported("(?" + (char) ch);
+      }
+
+      _depth++;
+      Node node = parseAlt();
+      _depth--;
+
+      if (read() != ')')
+        throw unsupported("unbalanced '('");
+
+      return node;
+    }
+
+    private void skipName(char end)
+    {
+      int ch;
+
+      while ((ch = read()) >= 0 && ch != end) {
+        if (! Character.isLetterOrDigit(ch) && ch != '_')
+          throw unsupported("group name");
+      }
+
+      if (ch != end)
+        throw unsupported("group name");
+    }
+
+    private Node parseQuantifier(Node atom)
+    {
+      int min;
+      int max;
+
+      switch (peek()) {
+      case '*':
+        read();
+        min = 0;
+        max = INFINITY;
+        break;
+
+      case '+':
+        read();
+        min = 1;
+        max = INFINITY;
+        break;
+
+      case '?':
+        read();
+        min = 0;
+        max = 1;
+        break;
+
+      case '{':
+        if (_offset + 1 >= endOffset()) {
+          return atom;
+        }
+
+        char next = _pattern.charAt(_offset + 1);
+
+        if (! ('0' <= next && next <= '9'))
+          return atom;
+
+        read();
+
+        min = parseInt();
+        max = min;
+
+        if (peek() == ',') {
+          read();
+
+          if (peek() == '}')
+            max = INFINITY;
+          else
+            max = parseInt();
+        }
+
+        if (read() != '}' || max < min)
+          throw unsupported("bad {n,m}");
+
+        if (REPEAT_MAX < min || max != INFINITY && REPEAT_MAX < max)
+          throw unsupported("large {n,m}");
+
+        break;
+
+      default:
+        return atom;
+      }
+
+      if (peek() == '?')
+        read();
+      else if (peek() == '+')
+        throw unsupported("possessive");
+
+      if (peek() == '*' || peek() == '+' || peek() == '?'
+          || peek() == '{')
+        return parseQuantifier(new RepeatNode(atom, min, max));
+
+      return new RepeatNode(atom, min, max);
+    }
+
+    private int parseInt()
+    {
+      int value = 0;
+      int ch;
+      int count = 0;
+
+      while ('0' <= (ch = peek()) && ch <= '9') {
+        read();
+        value = 10 * value + ch - '0';
+
+        if (++count > 6)
+          throw unsupported("large {n,m}");
+      }
+
+      if (count == 0)
+        throw unsupported("bad {n,m}");
+
+      return value;
+    }
+
+    private Node parseEscape()
+    {
+      int ch = read();
+
+      switch (ch) {
+      case 'd': case 'D': case 'w': case 'W': case 's': case 'S':
+        return new CharNode(new EscapePredicate((char) ch, true));
+
+      default:
+        return createChar(parseEscapeChar(ch));
+      }
+    }
+
+    /**
+     * Parses an escaped character, shared with sets.
+     */
+    private char parseEscapeChar(int ch)
+    {
+      switch (ch) {
+      case 't': return '\t';
+      case 'n': return '\n';
+      case 'r': return '\r';
+      case 'f': return '\f';
+      case 'e': return 0x1b;
+      case 'a': return 0x07;
+
+      case 'x':
+        return parseHex();
+
+      case -1:
+        throw unsupported("trailing backslash");
+
+      default:
+        if (Character.isLetterOrDigit(ch) || ch >= 0x80)
+          throw unsupported("\\" + (char) ch);
+
+        return (char) ch;
+      }
+    }
+
+    private char parseHex()
+    {
+      int value = 0;
+
+      if (peek() == '{') {
+        read();
+
+        int ch;
+        int count = 0;
+
+        while ((ch = read()) != '}') {
+          int digit = Character.digit(ch, 16);
+
+          if (ch < 0 || digit < 0 || ++count > 4)
+            throw unsupported("bad \\x{}");
+
+          value = 16 * value + digit;
+        }
+
+        if (count == 0)
+          throw unsupported("bad \\x{}");
+      }
+      else {
+        for (int i = 0; i < 2; i++) {
+          int digit = peek() >= 0 ? Character.digit(peek(), 16) : -1;
+
+          if (digit < 0)
+            break;
+
+          read();
+          value = 16 * value + digit;
+        }
+      }
+
+      if (Character.isSurrogate((char) value))
+        throw unsupported("surrogate");
+
+      return (char) value;
+    }
+
+    private Node parseSet()
+    {
+      boolean isNegated = false;
+
+      if (peek() == '^') {
+        read();
+        isNegated = true;
+      }
+
+      StringBuilder ranges = new StringBuilder();
+      StringBuilder escapes = new StringBuilder();
+
+      boolean isFirst = true;
+
+      while (true) {
+        int ch = read();
+
+        if (ch < 0)
+          throw unsupported("unterminated set");
+        else if (ch == ']' && ! isFirst)
+          break;
+
+        isFirst = false;
+
+        int low;
+
+        if (ch == '[' && peek() == ':')
+          throw unsupported("posix class");
+        else if (ch == '\\') {
+          int code = read();
+
+          if (code == 'd' || code == 'D' || code == 'w' || code == 'W'
+              || code == 's' || code == 'S') {
+            escapes.append((char) code);
+            continue;
+          }
+          else if (code == 'b')
+            throw unsupported("\\b in set");
+
+          low = parseEscapeChar(code);
+        }
+        else
+          low = ch;
+
+        int high = low;
+
+        if (peek() == '-' && _offset + 1 < endOffset()
+            && _pattern.charAt(_offset + 1) != ']') {
+          read();
+
+          int ch2 = read();
+
+          if (ch2 == '\\') {
+            int code = read();
+
+            if (Character.isLetter(code) && "tnrfeax".indexOf(code) < 0)
+              throw unsupported("class range");
+
+            high = parseEscapeChar(code);
+          }
+          else if (ch2 == '[')
+            throw unsupported("class range");
+          else
+            high = ch2;
+
+          if (high < low)
+            throw unsupported("reversed range");
+        }
+
+        if (Character.isSurrogate((char) low)
+            || Character.isSurrogate((char) high)
+            || low < 0xd800 && 0xdfff < high)
+          throw unsupported("surrogate in set");
+
+        ranges.append((char) low).append((char) high);
+      }
+
+      char []rangeArray = ranges.toString().toCharArray();
+      char []escapeArray = escapes.toString().toCharArray();
+
+      return new CharNode(new SetPredicate(rangeArray, escapeArray,
+                                           isNegated, _isIgnoreCase));
+    }
+
+    private Node createChar(char ch)
+    {
+      if (_isIgnoreCase
+          && (Character.toLowerCase(ch) != ch
+              || Character.toUpperCase(ch) != ch)) {
+        return new CharNode(new FoldPredicate(ch));
+      }
+      else
+        return new CharNode(new LiteralPredicate(ch));
+    }
+
+    private UnsupportedOperationException unsupported(String msg)
+    {
+      return new UnsupportedOperationException(msg);
+    }
+  }
+}
@@ -29,6 +29,7 @@
 
 package com.caucho.quercus.lib.regexp;
 
+import java.util.BitSet;
 import java.util.logging.*;
 
 import com.caucho.quercus.QuercusException;
@@ -51,6 +52,12 @@ public class RegexpState {
   private StringValue _subject;
   private int _subjectLength;
 
+  // match starts found by the reverse DFA, cached for repeated finds
+  private BitSet _dfaStarts;
+  private StringValue _dfaSubject;
+  private int _dfaLength;
+  private int _dfaFirst;
+
   boolean _isGlobal;
 
   int _first;
@@ -123,6 +130,9 @@ public class RegexpState {
     _subjectLength = 0;
     _isGlobal = false;
 
+    _dfaStarts = null;
+    _dfaSubject = null;
+
     _first = 0;
     _start = 0;
 
@@ -203,6 +213,14 @@ public class RegexpState {
       }
       */
 
+      RegexpDfa dfa = _regexp._dfa;
+
+      if (dfa != null && ! isDfaMatch(dfa, subject, length, _first)) {
+        _first = length + 1;
+
+        return false;
+      }
+
       for (; _first + minLength <= length; _first++) {
         if (firstSet != null && _first < length) {
           char firstChar = subject.charAt(_first);
@@ -211,6 +229,13 @@ public class RegexpState {
             continue;
         }
 
+        if (dfa != null) {
+          _first = nextDfaStart(dfa, subject, length, _first);
+
+          if (_first < 0 || length < _first + minLength)
+            break;
+        }
+
         clearGroup();
         int offset = _regexp._prog.match(subject, length, _first, this);
 
@@ -324,6 +349,13 @@ public class RegexpState {
       if (_regexp._isAnchorBegin)
         end = start;
 
+      RegexpDfa dfa = _regexp._dfa;
+
+      if (dfa != null && start <= end
+          && ! isDfaMatch(dfa, subject, subjectLength, start)) {
+        return -1;
+      }
+
       for (; start <= end; start++) {
         if (firstSet != null && (start < end || minLength > 0)) {
           char firstChar = subject.charAt(start);
@@ -332,6 +364,13 @@ public class RegexpState {
             continue;
         }
 
+        if (dfa != null) {
+          start = nextDfaStart(dfa, subject, subjectLength, start);
+
+          if (start < 0 || end < start)
+            break;
+        }
+
         int value = prog.match(subject, subjectLength, start, this);
 
         if (value >= 0) {
@@ -352,6 +391,50 @@ public class RegexpState {
     }
   }
 
+  /**
+   * Returns false if the DFA proves there's no match at or after first.
+   */
+  private static boolean isDfaMatch(RegexpDfa dfa,
+                                    StringValue subject,
+                                    int length,
+                                    int first)
+  {
+    if (dfa.hasLiteral() && dfa.findLiteral(subject, length, first) < 0)
+      return false;
+
+    return dfa.find(subject, length, first) != RegexpDfa.NO_MATCH;
+  }
+
+  /**
+   * Returns the first start offset at or after first where a match is
+   * still possible, or -1 if none is.
+   */
+  private int nextDfaStart(RegexpDfa dfa,
+                           StringValue subject,
+                           int length,
+                           int first)
+  {
+    BitSet starts = _dfaStarts;
+
+    if (starts == null
+        || _dfaSubject != subject
+        || _dfaLength != length
+        || first < _dfaFirst) {
+      starts = dfa.findStarts(subject, length, first);
+
+      // the DFA gave up, so every offset is a candidate
+      if (starts == null)
+        return first;
+
+      _dfaStarts = starts;
+      _dfaSubject = subject;
+      _dfaLength = length;
+      _dfaFirst = first;
+    }
+
+    return starts.nextSetBit(first);
+  }
+
   private void clearGroup()
   {
     _groupLength = 0;
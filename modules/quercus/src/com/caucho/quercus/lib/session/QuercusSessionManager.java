@@ -34,6 +34,7 @@ import java.io.ObjectInputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -41,9 +42,12 @@ import javax.cache.Cache;
 
 import com.caucho.config.ConfigException;
 import com.caucho.quercus.QuercusContext;
+import com.caucho.quercus.env.ArrayValue;
 import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.SerializeMap;
 import com.caucho.quercus.env.SessionArrayValue;
 import com.caucho.quercus.env.StringBuilderValue;
+import com.caucho.quercus.env.Value;
 import com.caucho.util.Alarm;
 import com.caucho.util.AlarmListener;
 import com.caucho.util.Base64;
@@ -71,6 +75,9 @@ public class QuercusSessionManager
   private static int UNSET = 0;
   private static int SET_TRUE = 1;
   private static int SET_FALSE = 2;
+
+  // optimistic store attempts before overwriting a concurrent update
+  private static final int STORE_RETRY_MAX = 8;
   
   // active sessions
   protected LruCache<String,SessionArrayValue> _sessions;
@@ -108,6 +115,9 @@ public class QuercusSessionManager
   protected Object _statisticsLock = new Object();
   protected long _sessionCreateCount;
   protected long _sessionTimeoutCount;
+  protected long _sessionStoreCount;
+  protected long _sessionStoreSkipCount;
+  protected long _sessionStoreConflictCount;
 
   /**
    * Creates and initializes a new session manager.
@@ -223,6 +233,30 @@ public class QuercusSessionManager
     return _sessionTimeoutCount;
   }
 
+  /**
+   * Returns the number of sessions written to the persistent store.
+   */
+  public long getSessionStoreCount()
+  {
+    return _sessionStoreCount;
+  }
+
+  /**
+   * Returns the number of unchanged sessions which skipped the write.
+   */
+  public long getSessionStoreSkipCount()
+  {
+    return _sessionStoreSkipCount;
+  }
+
+  /**
+   * Returns the number of writes which were merged with a concurrent update.
+   */
+  public long getSessionStoreConflictCount()
+  {
+    return _sessionStoreConflictCount;
+  }
+
   /**
    * True if the server should reuse the current session id if the
    * session doesn't exist.
@@ -442,10 +476,157 @@ public class QuercusSessionManager
     session.finish();
 
     if (_persistentStore != null) {
-      _persistentStore.put(session.getId(), copy.encode(env));
+      String oldEncoding = session.getStoreEncoding();
+      String encoding = copy.encode(env);
+
+      if (encoding.equals(oldEncoding) && ! _alwaysSaveSession) {
+        synchronized (_statisticsLock) {
+          _sessionStoreSkipCount++;
+        }
+
+        return;
+      }
+
+      String storeEncoding = store(env, session.getId(), oldEncoding, encoding);
+
+      if (storeEncoding == null) {
+        // the update was dropped, so the next request must load the
+        // stored value instead of this request's copy
+        _sessions.remove(session.getId());
+        return;
+      }
+      else if (storeEncoding.equals(encoding)) {
+        copy.setStoreEncoding(storeEncoding);
+        return;
+      }
+
+      // the store merged a concurrent update, so the cached copy must
+      // hold the merged values to match its store encoding
+      SessionArrayValue merged
+        = createSessionValue(session.getId(), copy.getAccessTime(),
+                             _sessionTimeout);
+
+      merged.decode(env, new StringBuilderValue(storeEncoding));
+      merged.setStoreEncoding(storeEncoding);
+
+      // if a later save already replaced the copy, it has its own encoding
+      _sessions.compareAndPut(copy, session.getId(), merged);
     }
   }
 
+  /**
+   * Releases a session opened with read_and_close, without a write.
+   */
+  public void releaseSession(Env env, SessionArrayValue session)
+  {
+    session.finish();
+  }
+
+  /**
+   * Writes the session to the persistent store with an optimistic
+   * update, merging with a concurrent update from another request.
+   *
+   * @param oldEncoding the stored value when the session was loaded
+   * @param encoding the new value
+   *
+   * @return the value written to the store, or null if the update
+   * still conflicted after STORE_RETRY_MAX merges and was dropped
+   */
+  private String store(Env env, String id, String oldEncoding, String encoding)
+  {
+    synchronized (_statisticsLock) {
+      _sessionStoreCount++;
+    }
+
+    Cache store = _persistentStore;
+
+    for (int i = 0; i < STORE_RETRY_MAX; i++) {
+      boolean isUpdate;
+
+      if (oldEncoding == null)
+        isUpdate = store.putIfAbsent(id, encoding);
+      else
+        isUpdate = store.replace(id, oldEncoding, encoding);
+
+      if (isUpdate)
+        return encoding;
+
+      synchronized (_statisticsLock) {
+        _sessionStoreConflictCount++;
+      }
+
+      String currentEncoding = (String) store.get(id);
+
+      encoding = merge(env, oldEncoding, currentEncoding, encoding);
+      oldEncoding = currentEncoding;
+    }
+
+    // an unconditional put would discard the concurrent updates, so
+    // this request's changes are the ones lost
+    log.warning(L.l("session {0} update dropped after {1} conflicting updates",
+                    id, STORE_RETRY_MAX));
+
+    return null;
+  }
+
+  /**
+   * Three-way merge of the top-level session values: values this request
+   * changed or removed are applied on top of the current stored value.
+   */
+  private String merge(Env env,
+                       String oldEncoding,
+                       String currentEncoding,
+                       String encoding)
+  {
+    ArrayValue oldArray = decode(env, oldEncoding);
+    ArrayValue newArray = decode(env, encoding);
+
+    SessionArrayValue merge = createSessionValue("", 0, _sessionTimeout);
+
+    if (currentEncoding != null)
+      merge.decode(env, new StringBuilderValue(currentEncoding));
+
+    for (Map.Entry<Value,Value> entry : newArray.entrySet()) {
+      Value key = entry.getKey();
+      Value value = entry.getValue();
+
+      Value oldValue = oldArray.get(key);
+
+      if (! oldValue.isset()
+          || ! serialize(env, oldValue).equals(serialize(env, value))) {
+        merge.put(key, value);
+      }
+    }
+
+    for (Map.Entry<Value,Value> entry : oldArray.entrySet()) {
+      Value key = entry.getKey();
+
+      if (! newArray.get(key).isset())
+        merge.remove(key);
+    }
+
+    return merge.encode(env);
+  }
+
+  private ArrayValue decode(Env env, String encoding)
+  {
+    SessionArrayValue session = createSessionValue("", 0, _sessionTimeout);
+
+    if (encoding != null)
+      session.decode(env, new StringBuilderValue(encoding));
+
+    return session.getArray();
+  }
+
+  private static String serialize(Env env, Value value)
+  {
+    StringBuilder sb = new StringBuilder();
+
+    value.serialize(env, sb, new SerializeMap());
+
+    return sb.toString();
+  }
+
   /**
    * Creates a session.  It's already been established that the
    * key does not currently have a session.
@@ -501,6 +682,8 @@ public class QuercusSessionManager
         if (encoded != null) {
           session.decode(env, new StringBuilderValue(encoded));
         }
+
+        session.setStoreEncoding(encoded);
       }
       
       if (session.load()) {
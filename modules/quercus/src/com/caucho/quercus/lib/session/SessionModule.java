@@ -44,6 +44,7 @@ import com.caucho.util.L10N;
 
 import java.util.logging.Logger;
 import java.util.Iterator;
+import java.util.Map;
 
 /**
  * Quercus session handling
@@ -77,13 +78,13 @@ public class SessionModule extends AbstractQuercusModule
   public void startup(Env env)
   {
     if (env.getConfigVar("session.auto_start").toBoolean())
-      session_start(env);
+      session_start(env, null);
   }
 
   /**
    * Returns and/or sets the value of session.cache_limiter, affecting the
    * cache related headers that are sent as a result of a call to
-   * {@link #session_start(Env)}.
+   * {@link #session_start(Env, ArrayValue)}.
    *
    * If the optional parameter is not supplied, this function
    * simply returns the existing value.
@@ -304,7 +305,7 @@ public class SessionModule extends AbstractQuercusModule
     SessionArrayValue session = env.getSession();
 
     if (session == null) {
-      session_start(env);
+      session_start(env, null);
       session = env.getSession();
     }
 
@@ -424,9 +425,13 @@ public class SessionModule extends AbstractQuercusModule
   }
 
   /**
-   * Start the session
+   * Start the session.
+   *
+   * @param options session ini overrides, and "read_and_close" to read
+   * the session and release it immediately without writing it back
    */
-  public static boolean session_start(Env env)
+  public static boolean session_start(Env env,
+                                      @Optional ArrayValue options)
   {
     if (env.getRequest() == null) {
       env.notice(L.l("cannot start session without a request context"));
@@ -439,6 +444,19 @@ public class SessionModule extends AbstractQuercusModule
       return true;
     }
 
+    boolean isReadAndClose = false;
+
+    if (options != null) {
+      for (Map.Entry<Value,Value> entry : options.entrySet()) {
+        String name = entry.getKey().toString();
+
+        if (name.equals("read_and_close"))
+          isReadAndClose = entry.getValue().toBoolean();
+        else
+          env.setIni("session." + name, entry.getValue());
+      }
+    }
+
     SessionCallback callback = env.getSessionCallback();
 
     Value sessionIdValue = (Value) env.getSpecialValue("caucho.session_id");
@@ -567,6 +585,9 @@ public class SessionModule extends AbstractQuercusModule
     }
     env.setSpecialValue("caucho.session_id", env.createString(sessionId));
 
+    if (isReadAndClose)
+      env.sessionReadClose();
+
     return true;
   }
 
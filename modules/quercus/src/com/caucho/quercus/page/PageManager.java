@@ -39,8 +39,15 @@ import com.caucho.vfs.IOExceptionWrapper;
 import com.caucho.vfs.Path;
 
 import java.io.IOException;
-import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.*;
 
 /**
@@ -65,8 +72,14 @@ public class PageManager
   private ConcurrentHashMap<String,Object> _programLockMap
     = new ConcurrentHashMap<String,Object>();
 
-  protected LruCache<Path,SoftReference<QuercusProgram>> _programCache
-    = new LruCache<Path,SoftReference<QuercusProgram>>(1024);
+  // programs are held strongly; the LRU's two queues keep frequently
+  // used pages over ones seen only once
+  protected LruCache<Path,QuercusProgram> _programCache
+    = new LruCache<Path,QuercusProgram>(1024, true);
+
+  private final AtomicLong _parseCount = new AtomicLong();
+  private final AtomicLong _parseTimeNanos = new AtomicLong();
+  private final AtomicLong _preloadCount = new AtomicLong();
 
   private boolean _isClosed;
 
@@ -169,7 +182,55 @@ public class PageManager
   public void setPageCacheSize(int size)
   {
     if (size >= 0 && size != _programCache.getCapacity())
-      _programCache = new LruCache<Path,SoftReference<QuercusProgram>>(size);
+      _programCache = new LruCache<Path,QuercusProgram>(size, true);
+  }
+
+  /**
+   * Returns the number of programs in the page cache.
+   */
+  public int getPageCacheEntries()
+  {
+    return _programCache.size();
+  }
+
+  /**
+   * Returns the number of page cache hits.
+   */
+  public long getPageCacheHitCount()
+  {
+    return _programCache.getHitCount();
+  }
+
+  /**
+   * Returns the number of page cache misses.
+   */
+  public long getPageCacheMissCount()
+  {
+    return _programCache.getMissCount();
+  }
+
+  /**
+   * Returns the number of pages parsed.
+   */
+  public long getParseCount()
+  {
+    return _parseCount.get();
+  }
+
+  /**
+   * Returns the total time spent parsing pages in milliseconds.
+   */
+  public long getParseTimeTotal()
+  {
+    return _parseTimeNanos.get() / 1000000L;
+  }
+
+  /**
+   * Returns the number of pages loaded by preload.
+   */
+  public long getPreloadCount()
+  {
+    return _preloadCount.get();
   }
 
   /**
@@ -254,9 +315,7 @@ public class PageManager
     throws IOException
   {
     try {
-      SoftReference<QuercusProgram> programRef = _programCache.get(path);
-
-      QuercusProgram  program = programRef != null ? programRef.get() : null;
+      QuercusProgram program = _programCache.get(path);
 
       boolean isModified = false;
 
@@ -284,14 +343,19 @@ public class PageManager
           if (log.isLoggable(Level.FINE))
             log.fine(L.l("Quercus[{0}] parsing page", path));
 
+          long startTime = System.nanoTime();
+
           program = QuercusParser.parse(_quercus,
                                         path,
                                         _quercus.getScriptEncoding(),
                                         fileName,
                                         line);
+
+          _parseCount.incrementAndGet();
+          _parseTimeNanos.addAndGet(System.nanoTime() - startTime);
         }
 
-        _programCache.put(path, new SoftReference<QuercusProgram>(program));
+        _programCache.put(path, program);
       }
 
       if (program.getCompiledPage() != null)
@@ -307,6 +371,85 @@ public class PageManager
     }
   }
 
+  /**
+   * Parses the pages in parallel so the first requests don't pay the
+   * parse cost. Directories are searched for .php files.
+   *
+   * @param paths the pages or directories to load
+   * @param threads the number of parsing threads
+   */
+  public void preload(Collection<Path> paths, int threads)
+  {
+    final ArrayList<Path> pageList = new ArrayList<Path>();
+
+    for (Path path : paths) {
+      addPreloadPages(pageList, path);
+    }
+
+    int capacity = _programCache.getCapacity();
+
+    if (capacity < pageList.size()) {
+      log.warning(L.l("Quercus preload of {0} pages exceeds the page cache size {1}",
+                      pageList.size(), capacity));
+    }
+
+    if (pageList.size() == 0)
+      return;
+
+    long start = CurrentTime.getCurrentTime();
+
+    threads = Math.max(1, Math.min(threads, pageList.size()));
+
+    ExecutorService executor
+      = Executors.newFixedThreadPool(threads, new PreloadThreadFactory());
+
+    try {
+      for (final Path path : pageList) {
+        executor.execute(new Runnable() {
+            public void run()
+            {
+              try {
+                parse(path);
+
+                _preloadCount.incrementAndGet();
+              } catch (Exception e) {
+                log.log(Level.FINE, L.l("Quercus[{0}] preload failed: {1}",
+                                        path, e.toString()), e);
+              }
+            }
+          });
+      }
+
+      executor.shutdown();
+
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      log.log(Level.FINE, e.toString(), e);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    log.info(L.l("Quercus preloaded {0} pages in {1}ms",
+                 _preloadCount.get(),
+                 CurrentTime.getCurrentTime() - start));
+  }
+
+  private void addPreloadPages(ArrayList<Path> pageList, Path path)
+  {
+    if (path.isDirectory()) {
+      try {
+        for (String name : path.list()) {
+          if (! name.startsWith("."))
+            addPreloadPages(pageList, path.lookup(name));
+        }
+      } catch (IOException e) {
+        log.log(Level.FINE, e.toString(), e);
+      }
+    }
+    else if (path.getTail().endsWith(".php") && path.canRead())
+      pageList.add(path);
+  }
+
   public boolean precompileExists(Path path)
   {
     return false;
@@ -338,5 +481,20 @@ public class PageManager
   {
     _isClosed = true;
   }
+
+  static class PreloadThreadFactory implements ThreadFactory {
+    private final AtomicInteger _count = new AtomicInteger();
+
+    public Thread newThread(Runnable task)
+    {
+      Thread thread = new Thread(task, "quercus-preload-" + _count.incrementAndGet());
+      thread.setDaemon(true);
+
+      // parsing happens in the webapp's context
+      thread.setContextClassLoader(Thread.currentThread().getContextClassLoader());
+
+      return thread;
+    }
+  }
 }
 
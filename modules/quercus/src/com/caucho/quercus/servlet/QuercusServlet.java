@@ -83,6 +83,8 @@ public class QuercusServlet
   private boolean _isStrict;
   private boolean _isLooseParse = true;
   private int _pageCacheSize = -1;
+  private ArrayList<String> _pagePreloadList = new ArrayList<String>();
+  private int _pagePreloadThreads = -1;
   private int _regexpCacheSize = -1;
   private boolean _isConnectionPool = true;
   private String _iniPath;
@@ -263,6 +265,26 @@ public class QuercusServlet
     _pageCacheSize = size;
   }
 
+  /**
+   * Sets the pages or directories to parse on start, separated by
+   * commas or whitespace.
+   */
+  public void setPagePreload(String paths)
+  {
+    for (String path : paths.split("[,\\s]+")) {
+      if (path.length() > 0)
+        _pagePreloadList.add(path);
+    }
+  }
+
+  /**
+   * Sets the number of threads used to preload pages.
+   */
+  public void setPagePreloadThreads(int threads)
+  {
+    _pagePreloadThreads = threads;
+  }
+
   /**
    * Sets the max size of the regexp cache.
    */
@@ -448,6 +470,12 @@ public class QuercusServlet
              || "page-cache-size".equals(paramName)) {
       setPageCacheSize(Integer.parseInt(paramValue));
     }
+    else if ("page-preload".equals(paramName)) {
+      setPagePreload(paramValue);
+    }
+    else if ("page-preload-threads".equals(paramName)) {
+      setPagePreloadThreads(Integer.parseInt(paramValue));
+    }
     else if ("regexp-cache-size".equals(paramName)) {
       setRegexpCacheSize(Integer.parseInt(paramValue));
     }
@@ -520,6 +548,12 @@ public class QuercusServlet
     quercus.setStrict(_isStrict);
     quercus.setLooseParse(_isLooseParse);
     quercus.setPageCacheSize(_pageCacheSize);
+
+    for (String path : _pagePreloadList) {
+      quercus.addPagePreload(path);
+    }
+
+    quercus.setPagePreloadThreads(_pagePreloadThreads);
     quercus.setRegexpCacheSize(_regexpCacheSize);
     quercus.setConnectionPool(_isConnectionPool);
 
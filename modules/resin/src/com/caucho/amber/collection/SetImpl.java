@@ -41,6 +41,7 @@ import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * Represents a lazy collection.
@@ -54,6 +55,11 @@ public class SetImpl<E> extends AbstractSet<E>
   private ArrayList<E> _values = new ArrayList<E>();
   private long _expireTime;
 
+  // owner for the batch sub-select fetch
+  private transient String _batchOwnerName;
+  private transient String _batchFieldName;
+  private transient Object _batchOwnerKey;
+
   public SetImpl(AmberConnection aConn, String query)
   {
     _aConn = aConn;
@@ -112,6 +118,25 @@ public class SetImpl<E> extends AbstractSet<E>
     return _query;
   }
 
+  /**
+   * Registers the collection's owner for a batch sub-select fetch.
+   */
+  public void setBatchFetch(String ownerName,
+                            String fieldName,
+                            String ownerIdName,
+                            String orderBy,
+                            Object ownerKey)
+  {
+    _batchOwnerName = ownerName;
+    _batchFieldName = fieldName;
+    _batchOwnerKey = ownerKey;
+
+    if (_aConn != null) {
+      _aConn.addBatchCollection(ownerName, fieldName,
+                                ownerIdName, orderBy, ownerKey);
+    }
+  }
+
   /**
    * Returns the number of items in the collection.
    */
@@ -198,8 +223,20 @@ public class SetImpl<E> extends AbstractSet<E>
     try {
       _expireTime = CurrentTime.getCurrentTime();
 
-      ((UserQuery) _query).setSession(_aConn);
       _values.clear();
+
+      if (_batchOwnerName != null) {
+        List batchValues = _aConn.loadBatchCollection(_batchOwnerName,
+                                                      _batchFieldName,
+                                                      _batchOwnerKey);
+
+        if (batchValues != null) {
+          _values.addAll(batchValues);
+          return;
+        }
+      }
+
+      ((UserQuery) _query).setSession(_aConn);
       _query.list((ArrayList) _values);
     } catch (SQLException e) {
       throw new AmberRuntimeException(e);
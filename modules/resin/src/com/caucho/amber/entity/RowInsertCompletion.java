@@ -53,6 +53,14 @@ public class RowInsertCompletion implements AmberCompletion {
     _table = table;
   }
 
+  /**
+   * Returns the invalidated table.
+   */
+  public String getTable()
+  {
+    return _table;
+  }
+
   /**
    * Code when the transaction completes.
    *
@@ -58,6 +58,22 @@ public class RowInvalidateCompletion implements AmberCompletion {
     _key = key;
   }
 
+  /**
+   * Returns the invalidated table.
+   */
+  public String getTable()
+  {
+    return _table;
+  }
+
+  /**
+   * Returns the invalidated row's key.
+   */
+  public Object getKey()
+  {
+    return _key;
+  }
+
   /**
    * Code when the transaction completes.
    *
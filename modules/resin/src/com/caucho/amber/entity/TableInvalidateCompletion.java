@@ -52,6 +52,14 @@ public class TableInvalidateCompletion implements AmberCompletion {
     _table = table;
   }
 
+  /**
+   * Returns the invalidated table.
+   */
+  public String getTable()
+  {
+    return _table;
+  }
+
   /**
    * Code when the transaction completes.
    *
@@ -565,6 +565,15 @@ public class ManyToOneField extends CascadableField {
 
     out.println(";");
 
+    // registers the key for batch fetching of the lazy relation
+    if (isLazy() && getRelatedType().getPersistenceUnit().isJPA()) {
+      // the loading connection, which may differ from the item's session
+      out.println("if (aConn != null)");
+      out.println("  aConn.addBatchKey("
+                  + _targetType.getInstanceClassName() + ".class, "
+                  + "__caucho_field_" + getName() + ");");
+    }
+
     /*
     // ejb/0a06
     String proxy = "aConn.loadProxy(\"" + getEntityTargetType().getName() + "\", __caucho_field_" + getName() + ")";
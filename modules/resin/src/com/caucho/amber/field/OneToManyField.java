@@ -520,6 +520,49 @@ public class OneToManyField extends CollectionField {
     out.print(var);
     out.print(" = " + newEmptyCollection + ";");
 
+    ArrayList<IdField> ownerKeys = getEntitySourceType().getId().getKeys();
+
+    // registers the owner for a sub-select fetch of the lazy collection
+    if (! isMap && ownerKeys.size() == 1
+        && getEntitySourceType().getPersistenceUnit().isJPA()) {
+      String orderBy = null;
+
+      if (_orderByFields != null && _orderByFields.size() > 0) {
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < _orderByFields.size(); i++) {
+          if (i != 0)
+            sb.append(", ");
+
+          sb.append("c." + _orderByFields.get(i));
+
+          if (Boolean.FALSE.equals(_orderByAscending.get(i)))
+            sb.append(" DESC");
+        }
+
+        orderBy = sb.toString();
+      }
+
+      out.println();
+      out.print(var + ".setBatchFetch(\"");
+      out.printJavaString(getEntitySourceType().getName());
+      out.print("\", \"");
+      out.printJavaString(getName());
+      out.print("\", \"");
+      out.printJavaString(ownerKeys.get(0).getName());
+      out.print("\", ");
+
+      if (orderBy != null) {
+        out.print("\"");
+        out.printJavaString(orderBy);
+        out.print("\"");
+      }
+      else
+        out.print("null");
+
+      out.println(", __caucho_getPrimaryKey());");
+    }
+
     /*
       out.pushDepth();
 
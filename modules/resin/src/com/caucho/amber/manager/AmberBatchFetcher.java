@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.amber.manager;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.amber.AmberQuery;
+import com.caucho.amber.entity.AmberEntityHome;
+import com.caucho.amber.entity.EntityKey;
+import com.caucho.amber.field.IdField;
+import com.caucho.amber.type.EntityType;
+import com.caucho.util.CharBuffer;
+
+/**
+ * Batch fetching of lazy relations for an AmberConnection.
+ *
+ * Loading an entity registers the foreign keys of its lazy many-to-one
+ * fields.  When the first of those relations is touched, the pending keys
+ * of the same target class are loaded with a single "IN (...)" query.
+ * Lazy collections work the same way: the first collection to be filled
+ * loads the collections of the other pending owners with a single
+ * sub-select on the owner keys.
+ */
+class AmberBatchFetcher {
+  private static final Logger log
+    = Logger.getLogger(AmberBatchFetcher.class.getName());
+
+  // bound on the registered keys per target to avoid growth on large scans
+  private static final int PENDING_MAX = 1024;
+
+  private final AmberConnection _aConn;
+  private final int _batchSize;
+
+  private final HashMap<Class<?>,LinkedHashSet<Object>> _pendingKeyMap
+    = new HashMap<Class<?>,LinkedHashSet<Object>>();
+
+  private final HashMap<String,PendingCollection> _pendingCollectionMap
+    = new HashMap<String,PendingCollection>();
+
+  private final EntityKey _entityKey = new EntityKey();
+
+  private int _batchQueryCount;
+
+  AmberBatchFetcher(AmberConnection aConn, int batchSize)
+  {
+    _aConn = aConn;
+    _batchSize = batchSize;
+  }
+
+  /**
+   * Returns the number of batch queries issued.
+   */
+  int getBatchQueryCount()
+  {
+    return _batchQueryCount;
+  }
+
+  /**
+   * Registers the key of a lazy many-to-one target.
+   */
+  void addKey(Class<?> cl, Object key)
+  {
+    LinkedHashSet<Object> keys = _pendingKeyMap.get(cl);
+
+    if (keys == null) {
+      keys = new LinkedHashSet<Object>();
+      _pendingKeyMap.put(cl, keys);
+    }
+
+    if (keys.size() < PENDING_MAX)
+      keys.add(key);
+  }
+
+  /**
+   * Loads the entity's key with any pending keys of the same class.
+   */
+  void loadBatch(Class<?> cl, Object key)
+  {
+    LinkedHashSet<Object> pendingKeys = _pendingKeyMap.get(cl);
+
+    if (pendingKeys == null)
+      return;
+
+    pendingKeys.remove(key);
+
+    if (pendingKeys.size() == 0)
+      return;
+
+    AmberEntityHome home
+      = _aConn.getPersistenceUnit().getEntityHome(cl.getName());
+
+    if (home == null)
+      return;
+
+    EntityType entityType = home.getEntityType();
+    ArrayList<IdField> idKeys = entityType.getId().getKeys();
+
+    if (idKeys.size() != 1)
+      return;
+
+    ArrayList<Object> keys = new ArrayList<Object>();
+    keys.add(key);
+
+    Iterator<Object> iter = pendingKeys.iterator();
+
+    while (keys.size() < _batchSize && iter.hasNext()) {
+      Object pendingKey = iter.next();
+      iter.remove();
+
+      if (! isLoaded(cl, pendingKey))
+        keys.add(pendingKey);
+    }
+
+    if (keys.size() < 2)
+      return;
+
+    CharBuffer sql = CharBuffer.allocate();
+    sql.append("SELECT o FROM ");
+    sql.append(entityType.getName());
+    sql.append(" o WHERE o.");
+    sql.append(idKeys.get(0).getName());
+    sql.append(" IN (");
+    appendArgs(sql, keys.size());
+    sql.append(")");
+
+    try {
+      AmberQuery query = _aConn.prepareQuery(sql.close());
+
+      for (int i = 0; i < keys.size(); i++)
+        query.setObject(i + 1, keys.get(i));
+
+      _batchQueryCount++;
+
+      query.list();
+    } catch (SQLException e) {
+      // the caller falls back to the single-entity load
+      log.log(Level.FINE, e.toString(), e);
+    }
+  }
+
+  private boolean isLoaded(Class<?> cl, Object key)
+  {
+    if (_aConn.getEntity(cl, key) != null)
+      return true;
+
+    _entityKey.init(cl, key);
+
+    return _aConn.getPersistenceUnit().getEntity(_entityKey) != null;
+  }
+
+  /**
+   * Registers the owner of a lazy collection for a sub-select fetch.
+   */
+  void addCollectionOwner(String ownerName,
+                          String fieldName,
+                          String ownerIdName,
+                          String orderBy,
+                          Object ownerKey)
+  {
+    String name = ownerName + "." + fieldName;
+
+    PendingCollection pending = _pendingCollectionMap.get(name);
+
+    if (pending == null) {
+      pending = new PendingCollection(ownerName, fieldName,
+                                      ownerIdName, orderBy);
+      _pendingCollectionMap.put(name, pending);
+    }
+
+    if (pending._ownerKeys.size() < PENDING_MAX)
+      pending._ownerKeys.add(ownerKey);
+  }
+
+  /**
+   * Returns the collection values for the owner, fetching the pending
+   * owners' collections with the same query, or null if the collection
+   * must be loaded individually.
+   */
+  List<Object> loadCollection(String ownerName,
+                              String fieldName,
+                              Object ownerKey)
+  {
+    PendingCollection pending
+      = _pendingCollectionMap.get(ownerName + "." + fieldName);
+
+    if (pending == null)
+      return null;
+
+    ArrayList<Object> values = pending._valueMap.remove(ownerKey);
+
+    if (values != null)
+      return values;
+
+    pending._ownerKeys.remove(ownerKey);
+
+    if (pending._ownerKeys.size() == 0)
+      return null;
+
+    ArrayList<Object> keys = new ArrayList<Object>();
+    keys.add(ownerKey);
+
+    Iterator<Object> iter = pending._ownerKeys.iterator();
+
+    while (keys.size() < _batchSize && iter.hasNext()) {
+      keys.add(iter.next());
+      iter.remove();
+    }
+
+    CharBuffer sql = CharBuffer.allocate();
+    sql.append("SELECT o.");
+    sql.append(pending._ownerIdName);
+    sql.append(", c FROM ");
+    sql.append(ownerName);
+    sql.append(" o, o.");
+    sql.append(fieldName);
+    sql.append(" c WHERE o.");
+    sql.append(pending._ownerIdName);
+    sql.append(" IN (");
+    appendArgs(sql, keys.size());
+    sql.append(")");
+
+    if (pending._orderBy != null) {
+      sql.append(" ORDER BY ");
+      sql.append(pending._orderBy);
+    }
+
+    List<Object> rows;
+
+    try {
+      AmberQuery query = _aConn.prepareQuery(sql.close());
+
+      for (int i = 0; i < keys.size(); i++)
+        query.setObject(i + 1, keys.get(i));
+
+      _batchQueryCount++;
+
+      rows = query.list();
+    } catch (SQLException e) {
+      log.log(Level.FINE, e.toString(), e);
+
+      pending._ownerKeys.addAll(keys.subList(1, keys.size()));
+
+      return null;
+    }
+
+    for (int i = 0; i < keys.size(); i++)
+      pending._valueMap.put(keys.get(i), new ArrayList<Object>());
+
+    for (Object row : rows) {
+      Object []tuple = (Object []) row;
+
+      ArrayList<Object> ownerValues = pending._valueMap.get(tuple[0]);
+
+      if (ownerValues != null)
+        ownerValues.add(tuple[1]);
+    }
+
+    values = pending._valueMap.remove(ownerKey);
+
+    return values != null ? values : new ArrayList<Object>();
+  }
+
+  private static void appendArgs(CharBuffer sql, int count)
+  {
+    for (int i = 0; i < count; i++) {
+      if (i != 0)
+        sql.append(", ");
+
+      sql.append("?");
+      sql.append(i + 1);
+    }
+  }
+
+  /**
+   * Clears the pending keys when the persistence context is cleared.
+   */
+  void clear()
+  {
+    _pendingKeyMap.clear();
+    _pendingCollectionMap.clear();
+  }
+
+  static class PendingCollection {
+    final String _ownerName;
+    final String _fieldName;
+    final String _ownerIdName;
+    final String _orderBy;
+
+    final LinkedHashSet<Object> _ownerKeys = new LinkedHashSet<Object>();
+
+    final HashMap<Object,ArrayList<Object>> _valueMap
+      = new HashMap<Object,ArrayList<Object>>();
+
+    PendingCollection(String ownerName,
+                      String fieldName,
+                      String ownerIdName,
+                      String orderBy)
+    {
+      _ownerName = ownerName;
+      _fieldName = fieldName;
+      _ownerIdName = ownerIdName;
+      _orderBy = orderBy;
+    }
+  }
+}
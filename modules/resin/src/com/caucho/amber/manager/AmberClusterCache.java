@@ -0,0 +1,418 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.amber.manager;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.amber.entity.AmberCompletion;
+import com.caucho.amber.entity.RowInsertCompletion;
+import com.caucho.amber.entity.RowInvalidateCompletion;
+import com.caucho.amber.entity.TableInvalidateCompletion;
+import com.caucho.distcache.ClusterCache;
+import com.caucho.distcache.ResinCacheBuilder.Scope;
+import com.caucho.env.actor.AbstractActorProcessor;
+import com.caucho.env.actor.ValueActorQueue;
+import com.caucho.server.distcache.CacheImpl;
+import com.caucho.util.Alarm;
+import com.caucho.util.AlarmListener;
+import com.caucho.util.RandomUtil;
+
+/**
+ * Cluster-coherent invalidation for the persistence unit's entity and
+ * query caches.
+ *
+ * Each table has a version stamp in a distcache entry.  A committing
+ * server replaces the stamp, recording the previous stamp and the
+ * invalidated row.  Other servers compare the stamp with their last seen
+ * value: if exactly one update happened since, only the row is expired,
+ * otherwise the entire table is invalidated.
+ *
+ * Neither direction runs on a request thread: the stamps are checked by
+ * an alarm every check interval, and committed invalidations are
+ * published by a queue after the commit returns.
+ */
+class AmberClusterCache implements AlarmListener {
+  private static final Logger log
+    = Logger.getLogger(AmberClusterCache.class.getName());
+
+  private static final int REPLACE_RETRY_MAX = 8;
+  private static final int PUBLISH_QUEUE_SIZE = 256;
+  private static final long CLOSE_TIMEOUT = 1000L;
+
+  private final AmberPersistenceUnit _persistenceUnit;
+
+  private volatile ClusterCache _cache;
+  private CacheImpl<?,?> _cacheImpl;
+
+  private final ConcurrentHashMap<String,Long> _stampMap
+    = new ConcurrentHashMap<String,Long>();
+
+  private long _checkInterval;
+  private final Alarm _alarm;
+
+  private final ValueActorQueue<ArrayList<AmberCompletion>> _publishQueue;
+
+  private final AtomicLong _publishCount = new AtomicLong();
+  private final AtomicLong _remoteRowCount = new AtomicLong();
+  private final AtomicLong _remoteTableCount = new AtomicLong();
+
+  AmberClusterCache(AmberPersistenceUnit persistenceUnit,
+                    long checkInterval)
+  {
+    _persistenceUnit = persistenceUnit;
+    _checkInterval = checkInterval;
+
+    ClusterCache cache = new ClusterCache();
+
+    cache.setName("resin:amber:" + persistenceUnit.getName());
+    cache.setScopeMode(Scope.CLUSTER);
+    cache.setLocalExpireTimeoutMillis(checkInterval);
+
+    _cacheImpl = cache.createIfAbsent();
+    _cache = cache;
+
+    _publishQueue
+      = new ValueActorQueue<ArrayList<AmberCompletion>>(PUBLISH_QUEUE_SIZE,
+                                                        new PublishProcessor());
+
+    _alarm = new Alarm(this);
+    _alarm.queue(checkInterval);
+  }
+
+  /**
+   * Registers a table, capturing its current cluster stamp.
+   */
+  void addTable(String table)
+  {
+    if (_stampMap.get(table) == null)
+      _stampMap.put(table, getStamp(table));
+  }
+
+  /**
+   * Queues the committed invalidations to be published to the cluster.
+   * The list is copied, because the connection reuses it.
+   */
+  void publish(ArrayList<AmberCompletion> completions)
+  {
+    _publishQueue.offer(new ArrayList<AmberCompletion>(completions));
+  }
+
+  private void publishQueued(ArrayList<AmberCompletion> completions)
+  {
+    for (int i = 0; i < completions.size(); i++) {
+      AmberCompletion completion = completions.get(i);
+
+      if (completion instanceof RowInvalidateCompletion) {
+        RowInvalidateCompletion row = (RowInvalidateCompletion) completion;
+
+        publish(row.getTable(), TableStamp.ROW, row.getKey());
+      }
+      else if (completion instanceof RowInsertCompletion) {
+        RowInsertCompletion insert = (RowInsertCompletion) completion;
+
+        publish(insert.getTable(), TableStamp.INSERT, null);
+      }
+      else if (completion instanceof TableInvalidateCompletion) {
+        TableInvalidateCompletion table
+          = (TableInvalidateCompletion) completion;
+
+        publish(table.getTable(), TableStamp.TABLE, null);
+      }
+    }
+  }
+
+  private void publish(String table, int type, Object key)
+  {
+    ClusterCache cache = _cache;
+
+    if (cache == null)
+      return;
+
+    if (! (key instanceof Serializable)) {
+      key = null;
+
+      if (type == TableStamp.ROW)
+        type = TableStamp.TABLE;
+    }
+
+    _publishCount.incrementAndGet();
+
+    try {
+      for (int i = 0; i < REPLACE_RETRY_MAX; i++) {
+        TableStamp oldStamp = (TableStamp) cache.get(table);
+        long prevStamp = oldStamp != null ? oldStamp.getStamp() : 0;
+
+        TableStamp stamp = new TableStamp(nextStamp(), prevStamp, type, key);
+
+        boolean isUpdate;
+
+        if (oldStamp == null)
+          isUpdate = cache.putIfAbsent(table, stamp);
+        else
+          isUpdate = cache.replace(table, oldStamp, stamp);
+
+        if (isUpdate) {
+          Long lastStamp = _stampMap.get(table);
+
+          // only skip our own update if no concurrent update was missed
+          if (lastStamp != null && lastStamp == prevStamp)
+            _stampMap.put(table, stamp.getStamp());
+
+          return;
+        }
+      }
+
+      // contention: force a table-wide invalidation on the other servers
+      cache.put(table, new TableStamp(nextStamp(), -1, TableStamp.TABLE, null));
+    } catch (RuntimeException e) {
+      log.log(Level.WARNING, e.toString(), e);
+    }
+  }
+
+  /**
+   * Checks the remote stamps every check interval.
+   */
+  @Override
+  public void handleAlarm(Alarm alarm)
+  {
+    if (_cache == null)
+      return;
+
+    try {
+      checkRemote();
+    } finally {
+      if (_cache != null)
+        alarm.queue(_checkInterval);
+    }
+  }
+
+  /**
+   * Applies invalidations from other servers.
+   */
+  private void checkRemote()
+  {
+    ClusterCache cache = _cache;
+
+    if (cache == null)
+      return;
+
+    ArrayList<AmberCompletion> completions = null;
+
+    for (String table : _stampMap.keySet()) {
+      Long lastStamp = _stampMap.get(table);
+      TableStamp stamp;
+
+      try {
+        stamp = (TableStamp) cache.get(table);
+      } catch (RuntimeException e) {
+        log.log(Level.FINE, e.toString(), e);
+        continue;
+      }
+
+      long currentStamp = stamp != null ? stamp.getStamp() : 0;
+
+      if (lastStamp != null && lastStamp == currentStamp)
+        continue;
+
+      _stampMap.put(table, currentStamp);
+
+      if (completions == null)
+        completions = new ArrayList<AmberCompletion>();
+
+      if (stamp != null
+          && lastStamp != null
+          && stamp.getPrevStamp() == lastStamp) {
+        _remoteRowCount.incrementAndGet();
+
+        if (stamp.getType() == TableStamp.ROW)
+          completions.add(new RowInvalidateCompletion(table, stamp.getKey()));
+        else if (stamp.getType() == TableStamp.INSERT)
+          completions.add(new RowInsertCompletion(table));
+        else
+          completions.add(new TableInvalidateCompletion(table));
+      }
+      else {
+        _remoteTableCount.incrementAndGet();
+
+        completions.add(new TableInvalidateCompletion(table));
+      }
+    }
+
+    if (completions != null) {
+      if (log.isLoggable(Level.FINER))
+        log.finer(this + " remote invalidate " + completions);
+
+      _persistenceUnit.completeLocal(completions);
+    }
+  }
+
+  private long getStamp(String table)
+  {
+    try {
+      TableStamp stamp = (TableStamp) _cache.get(table);
+
+      return stamp != null ? stamp.getStamp() : 0;
+    } catch (RuntimeException e) {
+      log.log(Level.FINE, e.toString(), e);
+
+      return 0;
+    }
+  }
+
+  private static long nextStamp()
+  {
+    long stamp;
+
+    do {
+      stamp = RandomUtil.getRandomLong() & Long.MAX_VALUE;
+    } while (stamp == 0);
+
+    return stamp;
+  }
+
+  long getPublishCount()
+  {
+    return _publishCount.get();
+  }
+
+  long getRemoteRowInvalidateCount()
+  {
+    return _remoteRowCount.get();
+  }
+
+  long getRemoteTableInvalidateCount()
+  {
+    return _remoteTableCount.get();
+  }
+
+  void close()
+  {
+    _alarm.dequeue();
+
+    // give queued invalidations a chance to reach the cluster
+    _publishQueue.wake();
+
+    long expires = System.currentTimeMillis() + CLOSE_TIMEOUT;
+
+    while (! _publishQueue.isEmpty()
+           && System.currentTimeMillis() < expires) {
+      try {
+        Thread.sleep(10);
+      } catch (Exception e) {
+      }
+    }
+
+    _publishQueue.close();
+
+    CacheImpl<?,?> cache = _cacheImpl;
+    _cacheImpl = null;
+    _cache = null;
+
+    if (cache != null)
+      cache.close();
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _persistenceUnit.getName() + "]";
+  }
+
+  private class PublishProcessor
+    extends AbstractActorProcessor<ArrayList<AmberCompletion>>
+  {
+    @Override
+    public void process(ArrayList<AmberCompletion> completions)
+    {
+      publishQueued(completions);
+    }
+  }
+
+  /**
+   * The distributed version stamp of a table.
+   */
+  @SuppressWarnings("serial")
+  static class TableStamp implements Serializable {
+    static final int TABLE = 0;
+    static final int ROW = 1;
+    static final int INSERT = 2;
+
+    private long _stamp;
+    private long _prevStamp;
+    private int _type;
+    private Object _key;
+
+    TableStamp()
+    {
+    }
+
+    TableStamp(long stamp, long prevStamp, int type, Object key)
+    {
+      _stamp = stamp;
+      _prevStamp = prevStamp;
+      _type = type;
+      _key = key;
+    }
+
+    long getStamp()
+    {
+      return _stamp;
+    }
+
+    long getPrevStamp()
+    {
+      return _prevStamp;
+    }
+
+    int getType()
+    {
+      return _type;
+    }
+
+    Object getKey()
+    {
+      return _key;
+    }
+
+    @Override
+    public String toString()
+    {
+      return (getClass().getSimpleName()
+              + "[" + Long.toHexString(_stamp)
+              + "," + _type + "," + _key + "]");
+    }
+  }
+}
@@ -151,6 +151,8 @@ public class AmberConnection
 
   private boolean _isFlushAllowed = true;
 
+  private AmberBatchFetcher _batchFetcher;
+
   /**
    * Creates a manager instance.
    */
@@ -161,6 +163,11 @@ public class AmberConnection
     _persistenceUnit = persistenceUnit;
     _isExtended = isExtended;
     _isAppManaged = isAppManaged;
+
+    int batchFetchSize = persistenceUnit.getBatchFetchSize();
+
+    if (batchFetchSize > 1)
+      _batchFetcher = new AmberBatchFetcher(this, batchFetchSize);
   }
 
   /**
@@ -508,6 +515,8 @@ public class AmberConnection
   {
     _entitiesTop = 0;
     _txEntitiesTop = 0;
+
+    clearBatchFetch();
   }
 
   /**
@@ -1528,6 +1537,16 @@ public class AmberConnection
       return entity;
 
     if (_persistenceUnit.isJPA()) {
+      // loads any pending keys of the same class with a single query
+      if (_batchFetcher != null) {
+        _batchFetcher.loadBatch(cl, key);
+
+        entity = getSubEntity(cl, key);
+
+        if (entity != null)
+          return entity;
+      }
+
       // XXX: needs to create based on the discriminator with inheritance.
       // Create a new entity for the given class and primary key.
       try {
@@ -1577,6 +1596,61 @@ public class AmberConnection
     return entity;
   }
 
+  /**
+   * Registers the key of a lazy many-to-one relation for batch fetching.
+   */
+  public void addBatchKey(Class cl, Object key)
+  {
+    if (_batchFetcher != null && key != null)
+      _batchFetcher.addKey(cl, key);
+  }
+
+  /**
+   * Registers the owner of a lazy collection for sub-select fetching.
+   */
+  public void addBatchCollection(String ownerName,
+                                 String fieldName,
+                                 String ownerIdName,
+                                 String orderBy,
+                                 Object ownerKey)
+  {
+    if (_batchFetcher != null && ownerKey != null) {
+      _batchFetcher.addCollectionOwner(ownerName, fieldName,
+                                       ownerIdName, orderBy, ownerKey);
+    }
+  }
+
+  /**
+   * Returns the lazy collection's values if they were loaded with a
+   * sub-select, or null if the collection must be queried.
+   */
+  public List<Object> loadBatchCollection(String ownerName,
+                                          String fieldName,
+                                          Object ownerKey)
+  {
+    if (_batchFetcher != null)
+      return _batchFetcher.loadCollection(ownerName, fieldName, ownerKey);
+    else
+      return null;
+  }
+
+  /**
+   * Returns the number of batch fetch queries issued by the connection.
+   */
+  public int getBatchQueryCount()
+  {
+    if (_batchFetcher != null)
+      return _batchFetcher.getBatchQueryCount();
+    else
+      return 0;
+  }
+
+  private void clearBatchFetch()
+  {
+    if (_batchFetcher != null)
+      _batchFetcher.clear();
+  }
+
   /**
    * Removes an entity.
    */
@@ -1841,6 +1915,8 @@ public class AmberConnection
       // jpa/0h60
       _entitiesTop = 0;
 
+      clearBatchFetch();
+
       // if (! isCommit) {
       // jpa/0j5c
 
@@ -2473,6 +2549,8 @@ public class AmberConnection
       _txEntitiesTop = 0;
       _completionList.clear();
 
+      clearBatchFetch();
+
       freeConnection();
     }
   }
@@ -2824,6 +2902,8 @@ public class AmberConnection
 
     // jpa/0o0d
     _entitiesTop = 0;
+
+    clearBatchFetch();
   }
 
   /**
@@ -902,6 +902,21 @@ public class AmberContainer implements ScanListener, EnvironmentListener {
     if (info.getNonJtaDataSource() != null)
       unit.setNonJtaDataSource(info.getNonJtaDataSource());
 
+    Properties props = info.getProperties();
+
+    if (props != null
+        && "true".equals(props.getProperty("resin.amber.cluster-cache"))) {
+      unit.setClusterCache(true);
+    }
+
+    String batchFetchSize = null;
+
+    if (props != null)
+      batchFetchSize = props.getProperty("resin.amber.batch-fetch-size");
+
+    if (batchFetchSize != null)
+      unit.setBatchFetchSize(Integer.parseInt(batchFetchSize.trim()));
+
     // unit.setEntityMappingsList(entityMappings);
 
     unit.init();
@@ -58,6 +58,7 @@ import com.caucho.config.inject.BeanBuilder;
 import com.caucho.config.inject.InjectManager;
 import com.caucho.java.gen.JavaClassGenerator;
 import com.caucho.jdbc.JdbcMetaData;
+import com.caucho.management.server.CacheItem;
 import com.caucho.naming.Jndi;
 import com.caucho.util.L10N;
 import com.caucho.util.LruCache;
@@ -70,6 +71,8 @@ import java.lang.ref.SoftReference;
 import java.lang.reflect.Method;
 import java.sql.ResultSetMetaData;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -119,6 +122,9 @@ public class AmberPersistenceUnit {
   // private long _tableCacheTimeout = 250;
   private long _tableCacheTimeout = 2000;
 
+  // lazy relations loaded with a single query, 1 disables batching
+  private int _batchFetchSize = 1;
+
   private TypeManager _typeManager = new TypeManager();
 
   // loader override for ejb
@@ -150,6 +156,18 @@ public class AmberPersistenceUnit {
 
   private EntityKey _entityKey = new EntityKey();
 
+  // cluster-coherent invalidation of the entity and query caches
+  private boolean _isClusterCache;
+  private AmberClusterCache _clusterCache;
+
+  private AmberPersistenceUnitAdmin _admin;
+
+  private final AtomicLong _queryCacheHitCount = new AtomicLong();
+  private final AtomicLong _queryCacheMissCount = new AtomicLong();
+
+  private final ConcurrentHashMap<Class<?>,EntityCacheStat> _entityStatMap
+    = new ConcurrentHashMap<Class<?>,EntityCacheStat>();
+
   private ArrayList<EntityType> _lazyConfigure = new ArrayList<EntityType>();
 
   private ArrayList<EntityType> _lazyGenerate = new ArrayList<EntityType>();
@@ -452,6 +470,43 @@ public class AmberPersistenceUnit {
     return _tableCacheTimeout;
   }
 
+  /**
+   * Sets the number of lazy relations to load with a single query.
+   */
+  public void setBatchFetchSize(int size)
+  {
+    _batchFetchSize = size;
+  }
+
+  /**
+   * Returns the number of lazy relations to load with a single query.
+   */
+  public int getBatchFetchSize()
+  {
+    return _batchFetchSize;
+  }
+
+  /**
+   * Set true to share cache invalidations with the cluster.
+   */
+  public void setClusterCache(boolean isClusterCache)
+  {
+    _isClusterCache = isClusterCache;
+  }
+
+  /**
+   * Returns true if cache invalidations are shared with the cluster.
+   */
+  public boolean isClusterCache()
+  {
+    return _clusterCache != null;
+  }
+
+  AmberClusterCache getClusterCacheImpl()
+  {
+    return _clusterCache;
+  }
+
   /**
    * Set false for EJB-style generation.
    */
@@ -499,6 +554,9 @@ public class AmberPersistenceUnit {
       _tableMap.put(tableName, table);
 
       _lazyTable.add(table);
+
+      if (_clusterCache != null)
+        _clusterCache.addTable(tableName);
     }
 
     return table;
@@ -1415,6 +1473,8 @@ public class AmberPersistenceUnit {
 
     initTables();
 
+    initCache();
+
     // for QA consistency
     Collections.sort(homeList);
 
@@ -1447,6 +1507,31 @@ public class AmberPersistenceUnit {
     }
   }
 
+  /**
+   * Starts the cluster invalidation and the cache administration.
+   */
+  private void initCache()
+  {
+    if (_isClusterCache && _clusterCache == null) {
+      try {
+        _clusterCache = new AmberClusterCache(this, getTableCacheTimeout());
+
+        for (String tableName : _tableMap.keySet())
+          _clusterCache.addTable(tableName);
+      } catch (ConfigException e) {
+        log.warning(L.l("{0}: cluster-cache is unavailable, using a local cache.\n{1}",
+                        this, e.getMessage()));
+        log.log(Level.FINE, e.toString(), e);
+      }
+    }
+
+    // the cache statistics are collected with or without the cluster
+    if (_admin == null) {
+      _admin = new AmberPersistenceUnitAdmin(this);
+      _admin.register();
+    }
+  }
+
   /**
    * Returns the cache connection.
    */
@@ -1526,15 +1611,17 @@ public class AmberPersistenceUnit {
   {
     SoftReference<ResultSetCacheChunk> ref = _queryCache.get(key);
 
-    if (ref == null)
-      return null;
+    ResultSetCacheChunk chunk = ref != null ? ref.get() : null;
+
+    if (chunk != null && chunk.isValid()) {
+      _queryCacheHitCount.incrementAndGet();
+
+      return chunk;
+    }
     else {
-      ResultSetCacheChunk chunk = ref.get();
+      _queryCacheMissCount.incrementAndGet();
 
-      if (chunk != null && chunk.isValid())
-        return chunk;
-      else
-        return null;
+      return null;
     }
   }
 
@@ -1637,10 +1724,11 @@ public class AmberPersistenceUnit {
       ref = _entityCache.get(_entityKey);
     }
 
-    if (ref != null)
-      return ref.get();
-    else
-      return null;
+    EntityItem item = ref != null ? ref.get() : null;
+
+    updateEntityStat(rootType.getInstanceClass(), item != null);
+
+    return item;
   }
 
   /**
@@ -1652,10 +1740,80 @@ public class AmberPersistenceUnit {
 
     ref = _entityCache.get(entityKey);
 
-    if (ref != null)
-      return ref.get();
+    EntityItem item = ref != null ? ref.get() : null;
+
+    updateEntityStat(entityKey.getType(), item != null);
+
+    return item;
+  }
+
+  private void updateEntityStat(Class<?> cl, boolean isHit)
+  {
+    EntityCacheStat stat = _entityStatMap.get(cl);
+
+    if (stat == null) {
+      _entityStatMap.putIfAbsent(cl, new EntityCacheStat());
+      stat = _entityStatMap.get(cl);
+    }
+
+    if (isHit)
+      stat._hitCount.incrementAndGet();
     else
-      return null;
+      stat._missCount.incrementAndGet();
+  }
+
+  public long getEntityCacheHitCount()
+  {
+    long count = 0;
+
+    for (EntityCacheStat stat : _entityStatMap.values())
+      count += stat._hitCount.get();
+
+    return count;
+  }
+
+  public long getEntityCacheMissCount()
+  {
+    long count = 0;
+
+    for (EntityCacheStat stat : _entityStatMap.values())
+      count += stat._missCount.get();
+
+    return count;
+  }
+
+  public long getQueryCacheHitCount()
+  {
+    return _queryCacheHitCount.get();
+  }
+
+  public long getQueryCacheMissCount()
+  {
+    return _queryCacheMissCount.get();
+  }
+
+  /**
+   * Returns the per-entity cache statistics.
+   */
+  public CacheItem []getEntityCacheItems()
+  {
+    ArrayList<CacheItem> items = new ArrayList<CacheItem>();
+
+    for (Map.Entry<Class<?>,EntityCacheStat> entry : _entityStatMap.entrySet()) {
+      CacheItem item = new CacheItem();
+
+      item.setUrl(entry.getKey().getName());
+      item.setCacheable(true);
+      item.setHitCount(entry.getValue()._hitCount.get());
+      item.setMissCount(entry.getValue()._missCount.get());
+
+      items.add(item);
+    }
+
+    CacheItem []itemArray = new CacheItem[items.size()];
+    items.toArray(itemArray);
+
+    return itemArray;
   }
 
   /**
@@ -1744,6 +1902,22 @@ public class AmberPersistenceUnit {
    * Completions affecting the cache.
    */
   public void complete(ArrayList<AmberCompletion> completions)
+  {
+    if (completions.size() == 0)
+      return;
+
+    completeLocal(completions);
+
+    AmberClusterCache clusterCache = _clusterCache;
+
+    if (clusterCache != null)
+      clusterCache.publish(completions);
+  }
+
+  /**
+   * Completions affecting the local cache only.
+   */
+  void completeLocal(ArrayList<AmberCompletion> completions)
   {
     int size = completions.size();
     if (size == 0)
@@ -1801,6 +1975,18 @@ public class AmberPersistenceUnit {
    */
   public void destroy()
   {
+    AmberClusterCache clusterCache = _clusterCache;
+    _clusterCache = null;
+
+    if (clusterCache != null)
+      clusterCache.close();
+
+    AmberPersistenceUnitAdmin admin = _admin;
+    _admin = null;
+
+    if (admin != null)
+      admin.unregister();
+
     _typeManager = null;
     _queryCache = null;
     _entityCache = null;
@@ -1820,4 +2006,9 @@ public class AmberPersistenceUnit {
   {
     return getClass().getSimpleName() + "[" + _name + "]";
   }
+
+  static class EntityCacheStat {
+    final AtomicLong _hitCount = new AtomicLong();
+    final AtomicLong _missCount = new AtomicLong();
+  }
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.amber.manager;
+
+import com.caucho.management.server.AbstractManagedObject;
+import com.caucho.management.server.AmberPersistenceUnitMXBean;
+import com.caucho.management.server.CacheItem;
+
+/**
+ * Administration for the persistence unit's caches.
+ */
+class AmberPersistenceUnitAdmin extends AbstractManagedObject
+  implements AmberPersistenceUnitMXBean
+{
+  private AmberPersistenceUnit _unit;
+
+  AmberPersistenceUnitAdmin(AmberPersistenceUnit unit)
+  {
+    _unit = unit;
+  }
+
+  void register()
+  {
+    registerSelf();
+  }
+
+  void unregister()
+  {
+    unregisterSelf();
+  }
+
+  @Override
+  public String getName()
+  {
+    return _unit.getName();
+  }
+
+  @Override
+  public boolean isClusterCache()
+  {
+    return _unit.isClusterCache();
+  }
+
+  @Override
+  public long getEntityCacheHitCountTotal()
+  {
+    return _unit.getEntityCacheHitCount();
+  }
+
+  @Override
+  public long getEntityCacheMissCountTotal()
+  {
+    return _unit.getEntityCacheMissCount();
+  }
+
+  @Override
+  public long getQueryCacheHitCountTotal()
+  {
+    return _unit.getQueryCacheHitCount();
+  }
+
+  @Override
+  public long getQueryCacheMissCountTotal()
+  {
+    return _unit.getQueryCacheMissCount();
+  }
+
+  @Override
+  public long getInvalidatePublishCountTotal()
+  {
+    AmberClusterCache cache = _unit.getClusterCacheImpl();
+
+    return cache != null ? cache.getPublishCount() : 0;
+  }
+
+  @Override
+  public long getInvalidateRowReceiveCountTotal()
+  {
+    AmberClusterCache cache = _unit.getClusterCacheImpl();
+
+    return cache != null ? cache.getRemoteRowInvalidateCount() : 0;
+  }
+
+  @Override
+  public long getInvalidateTableReceiveCountTotal()
+  {
+    AmberClusterCache cache = _unit.getClusterCacheImpl();
+
+    return cache != null ? cache.getRemoteTableInvalidateCount() : 0;
+  }
+
+  @Override
+  public CacheItem []getEntityCacheItems()
+  {
+    return _unit.getEntityCacheItems();
+  }
+}
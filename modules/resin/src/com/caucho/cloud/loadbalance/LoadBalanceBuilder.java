@@ -46,6 +46,7 @@ public class LoadBalanceBuilder
   
   private LoadBalanceStrategy _strategy = LoadBalanceStrategy.ADAPTIVE;
   private String _meterCategory = null;
+  private StickyRequestHashGenerator _stickyGenerator;
   
   private LoadBalanceBackend _defaults = new LoadBalanceBackend();
   
@@ -76,7 +77,15 @@ public class LoadBalanceBuilder
    */
   public void setStickyRequestHashGenerator(StickyRequestHashGenerator gen)
   {
-    
+    _stickyGenerator = gen;
+  }
+
+  /**
+   * The request-sticky generator
+   */
+  public StickyRequestHashGenerator getStickyRequestHashGenerator()
+  {
+    return _stickyGenerator;
   }
   
   public void setTargetCluster(String clusterId)
@@ -179,6 +188,13 @@ public class LoadBalanceBuilder
    */
   public LoadBalanceManager create()
   {
+    if (getClientList().size() > 1) {
+      return new MultiLoadBalanceManager(getClientList(),
+                                         getMeterCategory(),
+                                         getStrategy(),
+                                         getStickyRequestHashGenerator());
+    }
+
     ClientSocketFactory socketFactory = null;
     if (getClientList().size() > 0)
       socketFactory = getClientList().get(0);
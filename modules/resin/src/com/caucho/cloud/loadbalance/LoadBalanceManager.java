@@ -51,6 +51,16 @@ abstract public class LoadBalanceManager {
                                           Object requestInfo,
                                           ClientSocketFactory oldClient);
 
+  /**
+   * Returns the backend a sticky request would prefer, or null if the
+   * manager has no preference. Used to batch keys by server.
+   */
+  public ClientSocketFactory getStickyClient(String sessionId,
+                                             Object requestInfo)
+  {
+    return null;
+  }
+
   public void close()
   {
   }
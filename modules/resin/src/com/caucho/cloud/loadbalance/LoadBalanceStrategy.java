@@ -33,6 +33,13 @@ package com.caucho.cloud.loadbalance;
  * Manages a load balancer.
  */
 public enum LoadBalanceStrategy {
+  /** weighs active connections, latency and cpu load together */
   ADAPTIVE,
-  ROUND_ROBIN;
+  ROUND_ROBIN,
+  /** fewest in-flight requests, scaled by weight */
+  LEAST_OUTSTANDING,
+  /** lowest decayed latency factor */
+  LEAST_LATENCY,
+  /** better of two randomly chosen backends */
+  POWER_OF_TWO;
 }
@@ -0,0 +1,614 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.cloud.loadbalance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.caucho.config.ConfigException;
+import com.caucho.env.meter.CountMeter;
+import com.caucho.env.meter.MeterService;
+import com.caucho.network.balance.ClientSocket;
+import com.caucho.network.balance.ClientSocketFactory;
+import com.caucho.util.CurrentTime;
+import com.caucho.util.Crc64;
+import com.caucho.util.L10N;
+import com.caucho.util.RandomUtil;
+
+/**
+ * Balances requests across several backends.
+ *
+ * Sticky requests, either by session id or by the hash from the
+ * StickyRequestHashGenerator, use a consistent-hash ring so adding or
+ * removing a backend only moves the keys of that backend. Other requests
+ * are assigned by the configured strategy, skipping backends which are
+ * failed, busy or still warming up.
+ */
+public class MultiLoadBalanceManager extends CustomLoadBalanceManager {
+  private static final L10N L = new L10N(MultiLoadBalanceManager.class);
+
+  // virtual ring nodes for a backend with the default weight of 100
+  private static final int RING_NODES = 64;
+
+  private final LoadBalanceStrategy _strategy;
+  private final StickyRequestHashGenerator _stickyGenerator;
+
+  private volatile Backend []_backends = new Backend[0];
+  private volatile Ring _ring = new Ring(new Backend[0]);
+
+  private final AtomicInteger _roundRobin = new AtomicInteger();
+
+  private final AtomicLong _stickyHitCount = new AtomicLong();
+  private final AtomicLong _stickyMissCount = new AtomicLong();
+  private final AtomicLong _unavailableCount = new AtomicLong();
+
+  public MultiLoadBalanceManager(List<ClientSocketFactory> clients,
+                                 String meterCategory,
+                                 LoadBalanceStrategy strategy,
+                                 StickyRequestHashGenerator stickyGenerator)
+  {
+    super(meterCategory);
+
+    if (strategy == null)
+      strategy = LoadBalanceStrategy.ADAPTIVE;
+
+    _strategy = strategy;
+    _stickyGenerator = stickyGenerator;
+
+    for (ClientSocketFactory client : clients) {
+      addClient(client);
+    }
+  }
+
+  public MultiLoadBalanceManager(String meterCategory,
+                                 LoadBalanceStrategy strategy)
+  {
+    this(new ArrayList<ClientSocketFactory>(), meterCategory, strategy, null);
+  }
+
+  /**
+   * Returns the load balance strategy.
+   */
+  public LoadBalanceStrategy getStrategy()
+  {
+    return _strategy;
+  }
+
+  @Override
+  public void addAddress(String address)
+  {
+    ClientSocketFactory client = createServerPool(address);
+
+    client.init();
+    client.start();
+
+    addClient(client);
+  }
+
+  private synchronized void addClient(ClientSocketFactory client)
+  {
+    Backend []backends = Arrays.copyOf(_backends, _backends.length + 1);
+    backends[backends.length - 1] = new Backend(client, getProbeCategory());
+
+    _ring = new Ring(backends);
+    _backends = backends;
+  }
+
+  public void init()
+  {
+    if (_backends.length == 0)
+      throw new ConfigException(L.l("Load-balancing requires at least one server address."));
+  }
+
+  /**
+   * Returns the backend pools in configuration order.
+   */
+  public ArrayList<ClientSocketFactory> getClientList()
+  {
+    ArrayList<ClientSocketFactory> list = new ArrayList<ClientSocketFactory>();
+
+    for (Backend backend : _backends) {
+      list.add(backend.getClient());
+    }
+
+    return list;
+  }
+
+  /**
+   * Returns the number of times the backend was selected.
+   */
+  public long getSelectCount(ClientSocketFactory client)
+  {
+    for (Backend backend : _backends) {
+      if (backend.getClient() == client)
+        return backend.getSelectCount();
+    }
+
+    return 0;
+  }
+
+  /**
+   * Returns the number of sticky requests sent to their home backend.
+   */
+  public long getStickyHitCount()
+  {
+    return _stickyHitCount.get();
+  }
+
+  /**
+   * Returns the number of sticky requests moved off their home backend.
+   */
+  public long getStickyMissCount()
+  {
+    return _stickyMissCount.get();
+  }
+
+  /**
+   * Returns the number of requests with no available backend.
+   */
+  public long getUnavailableCount()
+  {
+    return _unavailableCount.get();
+  }
+
+  /**
+   * Opens the next available server, using a sticky session if available.
+   */
+  @Override
+  public ClientSocket openSticky(String sessionId,
+                                 Object requestInfo,
+                                 ClientSocketFactory oldClient)
+  {
+    String hash = sessionId;
+
+    if (hash == null && requestInfo != null && _stickyGenerator != null)
+      hash = _stickyGenerator.getHash(requestInfo);
+
+    if (hash != null) {
+      ClientSocket stream = openConsistent(hash, oldClient);
+
+      if (stream != null)
+        return stream;
+    }
+
+    return openBalanced(oldClient);
+  }
+
+  @Override
+  public ClientSocketFactory getStickyClient(String sessionId,
+                                             Object requestInfo)
+  {
+    String hash = sessionId;
+
+    if (hash == null && requestInfo != null && _stickyGenerator != null)
+      hash = _stickyGenerator.getHash(requestInfo);
+
+    Ring ring = _ring;
+
+    if (hash == null || ring.getSize() == 0)
+      return null;
+
+    int index = ring.getIndex(ring.find(hash(hash)));
+
+    return ring.getBackends()[index].getClient();
+  }
+
+  /**
+   * Walks the ring from the key's position, opening the first backend
+   * that will accept a sticky connection.
+   */
+  private ClientSocket openConsistent(String hash, ClientSocketFactory oldClient)
+  {
+    Ring ring = _ring;
+    Backend []backends = ring.getBackends();
+
+    int size = ring.getSize();
+
+    if (size == 0)
+      return null;
+
+    boolean []isVisited = new boolean[backends.length];
+    int visitCount = 0;
+    boolean isHome = true;
+
+    int offset = ring.find(hash(hash));
+
+    for (int i = 0; i < size && visitCount < backends.length; i++) {
+      int index = ring.getIndex((offset + i) % size);
+
+      if (isVisited[index])
+        continue;
+
+      isVisited[index] = true;
+      visitCount++;
+
+      Backend backend = backends[index];
+      ClientSocketFactory client = backend.getClient();
+
+      if (client != oldClient) {
+        ClientSocket stream = client.openSticky();
+
+        if (stream != null) {
+          if (isHome)
+            _stickyHitCount.incrementAndGet();
+          else
+            _stickyMissCount.incrementAndGet();
+
+          backend.select();
+
+          return stream;
+        }
+      }
+
+      isHome = false;
+    }
+
+    return null;
+  }
+
+  /**
+   * Opens a backend chosen by the strategy, falling back to the next
+   * choice when the backend refuses the connection.
+   */
+  private ClientSocket openBalanced(ClientSocketFactory oldClient)
+  {
+    Backend []backends = _backends;
+    boolean []isTried = new boolean[backends.length];
+    long now = CurrentTime.getCurrentTime();
+
+    for (int i = 0; i < backends.length; i++) {
+      int index = select(backends, isTried, oldClient, now);
+
+      if (index < 0)
+        break;
+
+      isTried[index] = true;
+
+      Backend backend = backends[index];
+      ClientSocket stream = backend.getClient().openWarm();
+
+      if (stream != null) {
+        backend.select();
+
+        return stream;
+      }
+    }
+
+    // every backend is busy or warming, so take any live one
+    int start = (_roundRobin.getAndIncrement() & Integer.MAX_VALUE);
+
+    for (int i = 0; i < backends.length; i++) {
+      Backend backend = backends[(start + i) % backends.length];
+      ClientSocketFactory client = backend.getClient();
+
+      if (client == oldClient)
+        continue;
+
+      ClientSocket stream = client.openIfLive();
+
+      if (stream != null) {
+        backend.select();
+
+        return stream;
+      }
+    }
+
+    _unavailableCount.incrementAndGet();
+
+    return null;
+  }
+
+  private int select(Backend []backends,
+                     boolean []isTried,
+                     ClientSocketFactory oldClient,
+                     long now)
+  {
+    int length = backends.length;
+
+    switch (_strategy) {
+    case ROUND_ROBIN:
+    {
+      int start = (_roundRobin.getAndIncrement() & Integer.MAX_VALUE) % length;
+
+      for (int i = 0; i < length; i++) {
+        int index = (start + i) % length;
+
+        if (isAvailable(backends, isTried, index, oldClient, now))
+          return index;
+      }
+
+      return -1;
+    }
+
+    case POWER_OF_TWO:
+    {
+      int []available = new int[length];
+      int count = 0;
+
+      for (int i = 0; i < length; i++) {
+        if (isAvailable(backends, isTried, i, oldClient, now))
+          available[count++] = i;
+      }
+
+      if (count <= 1)
+        return count == 1 ? available[0] : -1;
+
+      int a = RandomUtil.nextInt(count);
+      int b = RandomUtil.nextInt(count - 1);
+
+      if (a <= b)
+        b++;
+
+      ClientSocketFactory clientA = backends[available[a]].getClient();
+      ClientSocketFactory clientB = backends[available[b]].getClient();
+
+      double scoreA = getOutstandingScore(clientA);
+      double scoreB = getOutstandingScore(clientB);
+
+      if (scoreA < scoreB)
+        return available[a];
+      else if (scoreB < scoreA)
+        return available[b];
+      else if (clientB.getLatencyFactor() < clientA.getLatencyFactor())
+        return available[b];
+      else
+        return available[a];
+    }
+
+    default:
+    {
+      int bestIndex = -1;
+      double bestScore = Double.MAX_VALUE;
+
+      for (int i = 0; i < length; i++) {
+        if (! isAvailable(backends, isTried, i, oldClient, now))
+          continue;
+
+        double score = getScore(backends[i].getClient());
+
+        if (score < bestScore) {
+          bestIndex = i;
+          bestScore = score;
+        }
+      }
+
+      return bestIndex;
+    }
+    }
+  }
+
+  private boolean isAvailable(Backend []backends,
+                              boolean []isTried,
+                              int index,
+                              ClientSocketFactory oldClient,
+                              long now)
+  {
+    if (isTried[index])
+      return false;
+
+    ClientSocketFactory client = backends[index].getClient();
+
+    return (client != oldClient
+            && ! client.isBusy(now)
+            && client.canOpenWarmOrRecycle());
+  }
+
+  /**
+   * Returns the cost of sending the next request to the client, where
+   * lower is better.
+   */
+  private double getScore(ClientSocketFactory client)
+  {
+    switch (_strategy) {
+    case LEAST_OUTSTANDING:
+      return getOutstandingScore(client);
+
+    case LEAST_LATENCY:
+      // the active count keeps a fast backend from taking every request
+      // before its latency factor catches up
+      return getOutstandingScore(client) * (1.0 + client.getLatencyFactor());
+
+    default:
+      return (getOutstandingScore(client)
+              * (1.0 + client.getLatencyFactor() / 1000.0)
+              * (1.0 + Math.max(0, client.getCpuLoadAvg())));
+    }
+  }
+
+  private double getOutstandingScore(ClientSocketFactory client)
+  {
+    int weight = Math.max(1, client.getLoadBalanceWeight());
+
+    return 100.0 * (client.getActiveCount() + 1) / weight;
+  }
+
+  /**
+   * Spreads the crc over the ring. The crc alone is linear, so similar
+   * keys land on neighbouring ring positions.
+   */
+  private static long hash(String value)
+  {
+    long h = Crc64.generate(value);
+
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+
+    return h;
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[" + _strategy + "," + _backends.length + "]");
+  }
+
+  static class Backend {
+    private final ClientSocketFactory _client;
+    private final AtomicLong _selectCount = new AtomicLong();
+    private final CountMeter _selectMeter;
+
+    Backend(ClientSocketFactory client, String category)
+    {
+      _client = client;
+
+      if (category != null) {
+        String name = (category + "|Load Balance Select|"
+                       + client.getAddress() + ":" + client.getPort());
+        _selectMeter = MeterService.createCountMeter(name);
+      }
+      else
+        _selectMeter = null;
+    }
+
+    ClientSocketFactory getClient()
+    {
+      return _client;
+    }
+
+    long getSelectCount()
+    {
+      return _selectCount.get();
+    }
+
+    void select()
+    {
+      _selectCount.incrementAndGet();
+
+      if (_selectMeter != null)
+        _selectMeter.start();
+    }
+  }
+
+  /**
+   * Consistent-hash ring with virtual nodes proportional to the weight.
+   */
+  static class Ring {
+    private final Backend []_backends;
+    private final long []_hashes;
+    private final int []_indexes;
+
+    Ring(Backend []backends)
+    {
+      _backends = backends;
+
+      int size = 0;
+      for (Backend backend : backends) {
+        size += getNodeCount(backend.getClient());
+      }
+
+      RingNode []nodes = new RingNode[size];
+      int k = 0;
+
+      for (int i = 0; i < backends.length; i++) {
+        ClientSocketFactory client = backends[i].getClient();
+        String key = client.getAddress() + ":" + client.getPort();
+        int count = getNodeCount(client);
+
+        for (int j = 0; j < count; j++) {
+          nodes[k++] = new RingNode(hash(key + "#" + j), i);
+        }
+      }
+
+      Arrays.sort(nodes);
+
+      _hashes = new long[size];
+      _indexes = new int[size];
+
+      for (int i = 0; i < size; i++) {
+        _hashes[i] = nodes[i]._hash;
+        _indexes[i] = nodes[i]._index;
+      }
+    }
+
+    private static int getNodeCount(ClientSocketFactory client)
+    {
+      int weight = Math.max(1, client.getLoadBalanceWeight());
+
+      return Math.max(1, RING_NODES * weight / 100);
+    }
+
+    Backend []getBackends()
+    {
+      return _backends;
+    }
+
+    int getSize()
+    {
+      return _hashes.length;
+    }
+
+    int getIndex(int node)
+    {
+      return _indexes[node];
+    }
+
+    /**
+     * Returns the first node at or after the hash, wrapping to 0.
+     */
+    int find(long hash)
+    {
+      int p = Arrays.binarySearch(_hashes, hash);
+
+      if (p < 0)
+        p = -(p + 1);
+
+      return p < _hashes.length ? p : 0;
+    }
+  }
+
+  static class RingNode implements Comparable<RingNode> {
+    private final long _hash;
+    private final int _index;
+
+    RingNode(long hash, int index)
+    {
+      _hash = hash;
+      _index = index;
+    }
+
+    @Override
+    public int compareTo(RingNode node)
+    {
+      if (_hash < node._hash)
+        return -1;
+      else if (node._hash < _hash)
+        return 1;
+      else
+        return _index - node._index;
+    }
+  }
+}
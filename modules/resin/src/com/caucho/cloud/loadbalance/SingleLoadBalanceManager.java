@@ -81,4 +81,11 @@ public class SingleLoadBalanceManager extends CustomLoadBalanceManager {
 
     return _serverPool.open();
   }
+
+  @Override
+  public ClientSocketFactory getStickyClient(String sessionId,
+                                             Object requestInfo)
+  {
+    return _serverPool;
+  }
 }
@@ -57,4 +57,11 @@ public @interface SessionPool {
    * Timeout for concurrent instances.
    */
   public long maxConcurrentTimeout() default -1;
+
+  /**
+   * Time in milliseconds an idle instance is kept before it's destroyed.
+   * By default, or when zero, idle instances are kept until the pool is
+   * destroyed.
+   */
+  public long maxIdleTime() default -1;
 }
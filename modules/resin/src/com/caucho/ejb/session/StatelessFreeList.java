@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.ejb.session;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.caucho.ejb.session.StatelessPool.Item;
+
+/**
+ * Idle stateless instances, striped by thread so request threads on
+ * different cores don't contend for the same slots.
+ *
+ * A thread first uses its own stripe. When that stripe is empty on
+ * allocate or full on free, it steals from or spills to the others.
+ * The total number of slots across all stripes is the idle max.
+ */
+class StatelessFreeList<X> {
+  private final AtomicReferenceArray<Item<X>> []_stripes;
+  private final int _mask;
+
+  @SuppressWarnings("unchecked")
+  StatelessFreeList(int idleMax)
+  {
+    int stripeCount = 1;
+
+    int cpuCount = Runtime.getRuntime().availableProcessors();
+
+    while (stripeCount < cpuCount && 2 * stripeCount <= idleMax) {
+      stripeCount *= 2;
+    }
+
+    if (idleMax <= 0)
+      stripeCount = 0;
+
+    _stripes = new AtomicReferenceArray[stripeCount];
+    _mask = stripeCount - 1;
+
+    for (int i = 0; i < stripeCount; i++) {
+      int size = idleMax / stripeCount;
+
+      if (i < idleMax % stripeCount)
+        size++;
+
+      _stripes[i] = new AtomicReferenceArray<Item<X>>(size);
+    }
+  }
+
+  /**
+   * Returns an idle instance, or null if there are none.
+   */
+  Item<X> allocate()
+  {
+    AtomicReferenceArray<Item<X>> []stripes = _stripes;
+    int length = stripes.length;
+
+    if (length == 0)
+      return null;
+
+    int start = getStripe();
+
+    for (int i = 0; i < length; i++) {
+      AtomicReferenceArray<Item<X>> stripe = stripes[(start + i) & _mask];
+
+      for (int j = stripe.length() - 1; j >= 0; j--) {
+        Item<X> item = stripe.get(j);
+
+        if (item != null && stripe.compareAndSet(j, item, null))
+          return item;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Returns the instance to the list, or false if every slot is full.
+   */
+  boolean free(Item<X> item)
+  {
+    AtomicReferenceArray<Item<X>> []stripes = _stripes;
+    int length = stripes.length;
+
+    int start = getStripe();
+
+    for (int i = 0; i < length; i++) {
+      AtomicReferenceArray<Item<X>> stripe = stripes[(start + i) & _mask];
+
+      for (int j = 0; j < stripe.length(); j++) {
+        if (stripe.get(j) == null && stripe.compareAndSet(j, null, item))
+          return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Removes instances idle since before the expire time.
+   */
+  void trim(long expireTime, List<Item<X>> expiredList)
+  {
+    for (AtomicReferenceArray<Item<X>> stripe : _stripes) {
+      for (int j = 0; j < stripe.length(); j++) {
+        Item<X> item = stripe.get(j);
+
+        if (item != null
+            && item.getIdleStartTime() < expireTime
+            && stripe.compareAndSet(j, item, null)) {
+          expiredList.add(item);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the current number of idle instances.
+   */
+  int getIdleCount()
+  {
+    int count = 0;
+
+    for (AtomicReferenceArray<Item<X>> stripe : _stripes) {
+      for (int j = 0; j < stripe.length(); j++) {
+        if (stripe.get(j) != null)
+          count++;
+      }
+    }
+
+    return count;
+  }
+
+  int getStripeCount()
+  {
+    return _stripes.length;
+  }
+
+  private int getStripe()
+  {
+    long id = Thread.currentThread().getId();
+
+    return (int) (id ^ (id >>> 16)) & _mask;
+  }
+}
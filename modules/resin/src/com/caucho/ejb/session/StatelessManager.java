@@ -78,6 +78,7 @@ public class StatelessManager<X> extends AbstractSessionManager<X> {
   private int _sessionIdleMax = 16;
   private int _sessionConcurrentMax = -1;
   private long _sessionConcurrentTimeout = -1;
+  private long _sessionIdleTimeout = -1;
   
   private ThreadLocal<StatelessPool<X,?>> _localSessionPool
     = new ThreadLocal<StatelessPool<X,?>>();
@@ -134,6 +135,15 @@ public class StatelessManager<X> extends AbstractSessionManager<X> {
   {
     return _sessionConcurrentTimeout;
   }
+
+  /**
+   * Returns the time an idle instance is kept before it's destroyed,
+   * or -1 if idle instances are kept until the pool is destroyed.
+   */
+  public long getSessionIdleTimeout()
+  {
+    return _sessionIdleTimeout;
+  }
   
   @Override
   protected <T> StatelessContext<X,T> getSessionContext(Class<T> api)
@@ -216,7 +226,12 @@ public class StatelessManager<X> extends AbstractSessionManager<X> {
                                                     StatelessContext<X,T> context,
                                                     List<Interceptor<?>> interceptorBeans)
   {
-    return new StatelessPool<X,T>(this, proxy, context, interceptorBeans);
+    StatelessPool<X,T> pool
+      = new StatelessPool<X,T>(this, proxy, context, interceptorBeans);
+
+    pool.start();
+
+    return pool;
   }
   
   @Override
@@ -266,6 +281,9 @@ public class StatelessManager<X> extends AbstractSessionManager<X> {
       
       if (sessionPool.maxConcurrentTimeout() >= 0)
         _sessionConcurrentTimeout = sessionPool.maxConcurrentTimeout();
+
+      if (sessionPool.maxIdleTime() >= 0)
+        _sessionIdleTimeout = sessionPool.maxIdleTime();
     }
   }
 
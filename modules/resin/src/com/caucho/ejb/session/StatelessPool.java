@@ -29,9 +29,11 @@
 
 package com.caucho.ejb.session;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -42,14 +44,17 @@ import com.caucho.config.gen.CandiUtil;
 import com.caucho.config.inject.CreationalContextImpl;
 import com.caucho.config.inject.OwnerCreationalContext;
 import com.caucho.inject.Module;
-import com.caucho.util.FreeList;
+import com.caucho.util.Alarm;
+import com.caucho.util.AlarmListener;
+import com.caucho.util.CurrentTime;
 import com.caucho.util.L10N;
+import com.caucho.util.WeakAlarm;
 
 /**
  * Pool of stateless session beans.
  */
 @Module
-public class StatelessPool<X,T> {
+public class StatelessPool<X,T> implements AlarmListener {
   private static final Logger log
     = Logger.getLogger(StatelessPool.class.getName());
   private static final L10N L = new L10N(StatelessPool.class);
@@ -58,7 +63,10 @@ public class StatelessPool<X,T> {
   private final StatelessContext<X,T> _context;
   private final List<Interceptor<?>> _interceptorBeans;
   
-  private final FreeList<Item<X>> _freeList;
+  private final StatelessFreeList<X> _freeList;
+  private final int _idleMax;
+  private final int _concurrentMax;
+  private final long _idleTimeout;
   
   private final ThreadLocal<Item<X>> _lifecycleInstanceLocal
     = new ThreadLocal<Item<X>>();
@@ -67,6 +75,18 @@ public class StatelessPool<X,T> {
   private final Semaphore _concurrentSemaphore;
   private final long _concurrentTimeout;
 
+  private final Alarm _alarm;
+  private volatile boolean _isClosed;
+
+  private final AtomicLong _createCount = new AtomicLong();
+  private final AtomicLong _idleDestroyCount = new AtomicLong();
+  private final AtomicLong _waitCount = new AtomicLong();
+  private final AtomicLong _waitTimeTotal = new AtomicLong();
+  private final AtomicLong _waitTimeMax = new AtomicLong();
+  private final AtomicLong _waitTimeoutCount = new AtomicLong();
+
+  private final StatelessPoolAdmin _admin;
+
   StatelessPool(StatelessManager<X> manager,
                 StatelessProxyFactory proxy,
                 StatelessContext<X,T> context,
@@ -86,7 +106,9 @@ public class StatelessPool<X,T> {
     if (idleMax < 0)
       idleMax = 16;
     
-    _freeList = new FreeList<Item<X>>(idleMax);
+    _idleMax = idleMax;
+    _concurrentMax = concurrentMax;
+    _freeList = new StatelessFreeList<X>(idleMax);
     
     if (concurrentMax == 0)
       throw new IllegalArgumentException(L.l("maxConcurrent may not be zero")); 
@@ -102,21 +124,93 @@ public class StatelessPool<X,T> {
       _concurrentSemaphore = new Semaphore(concurrentMax);
     else
       _concurrentSemaphore = null;
+
+    _idleTimeout = manager.getSessionIdleTimeout();
+
+    if (_idleTimeout > 0 && idleMax > 0)
+      _alarm = new WeakAlarm(this);
+    else
+      _alarm = null;
+
+    _admin = new StatelessPoolAdmin(this);
+  }
+
+  /**
+   * Starts the idle sweep and registers the admin, after the pool is
+   * fully constructed.
+   */
+  void start()
+  {
+    if (_alarm != null)
+      _alarm.queue(_idleTimeout);
+
+    _admin.register();
+  }
+
+  /**
+   * The pool name, the ejb name and its api.
+   */
+  public String getName()
+  {
+    return _manager.getEJBName() + "/" + _context.getApi().getSimpleName();
+  }
+
+  public int getIdleCount()
+  {
+    return _freeList.getIdleCount();
+  }
+
+  public int getIdleMax()
+  {
+    return _idleMax;
+  }
+
+  public int getConcurrentMax()
+  {
+    return _concurrentMax;
+  }
+
+  public int getStripeCount()
+  {
+    return _freeList.getStripeCount();
+  }
+
+  public long getCreateCount()
+  {
+    return _createCount.get();
+  }
+
+  public long getIdleDestroyCount()
+  {
+    return _idleDestroyCount.get();
+  }
+
+  public long getWaitCount()
+  {
+    return _waitCount.get();
+  }
+
+  public long getWaitTimeTotal()
+  {
+    return _waitTimeTotal.get();
+  }
+
+  public long getWaitTimeMax()
+  {
+    return _waitTimeMax.get();
+  }
+
+  public long getWaitTimeoutCount()
+  {
+    return _waitTimeoutCount.get();
   }
   
   public Item<X> allocate()
   {
     Semaphore semaphore = _concurrentSemaphore;
     
-    if (semaphore != null) {
-      try {
-        Thread.interrupted();
-        if (! semaphore.tryAcquire(_concurrentTimeout, TimeUnit.MILLISECONDS))
-          throw new RuntimeException(L.l("{0} concurrent max exceeded", this));
-      } catch (Exception e) {
-        throw new RuntimeException(e);
-      }
-    }
+    if (semaphore != null && ! semaphore.tryAcquire())
+      acquireWait(semaphore);
     
     boolean isValid = false;
     
@@ -142,6 +236,8 @@ public class StatelessPool<X,T> {
         Object []delegates = _manager.createDelegates(env);
 
         beanItem = new Item<X>(instance, bindings, delegates);
+
+        _createCount.incrementAndGet();
         
         Item<X> oldInstance = _lifecycleInstanceLocal.get();
         try {
@@ -169,6 +265,39 @@ public class StatelessPool<X,T> {
     }
   }
   
+  /**
+   * Waits for a concurrent slot, recording the wait time.
+   */
+  private void acquireWait(Semaphore semaphore)
+  {
+    long startTime = CurrentTime.getCurrentTimeActual();
+    boolean isAcquired;
+
+    try {
+      Thread.interrupted();
+      isAcquired = semaphore.tryAcquire(_concurrentTimeout,
+                                        TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    } finally {
+      long waitTime = CurrentTime.getCurrentTimeActual() - startTime;
+
+      _waitCount.incrementAndGet();
+      _waitTimeTotal.addAndGet(waitTime);
+
+      long max;
+      while ((max = _waitTimeMax.get()) < waitTime
+             && ! _waitTimeMax.compareAndSet(max, waitTime)) {
+      }
+    }
+
+    if (! isAcquired) {
+      _waitTimeoutCount.incrementAndGet();
+
+      throw new RuntimeException(L.l("{0} concurrent max exceeded", this));
+    }
+  }
+  
   public X getLifecycleInstance()
   {
     Item<X> item = _lifecycleInstanceLocal.get();
@@ -191,8 +320,10 @@ public class StatelessPool<X,T> {
       semaphore.release();
     
     _manager.setLocalStatelessPool(null);
+
+    beanItem.setIdleStartTime(CurrentTime.getCurrentTime());
     
-    if (! _freeList.free(beanItem)) {
+    if (_isClosed || ! _freeList.free(beanItem)) {
       destroyImpl(beanItem);
     }
   }
@@ -231,8 +362,41 @@ public class StatelessPool<X,T> {
     _manager.destroyInstance(beanItem.getValue());
   }
   
+  /**
+   * Destroys instances idle longer than the idle timeout.
+   */
+  @Override
+  public void handleAlarm(Alarm alarm)
+  {
+    try {
+      ArrayList<Item<X>> expiredList = new ArrayList<Item<X>>();
+
+      long now = CurrentTime.getCurrentTime();
+
+      _freeList.trim(now - _idleTimeout, expiredList);
+
+      for (Item<X> beanItem : expiredList) {
+        _idleDestroyCount.incrementAndGet();
+
+        destroyImpl(beanItem);
+      }
+    } catch (Exception e) {
+      log.log(Level.FINE, e.toString(), e);
+    } finally {
+      if (! _isClosed)
+        alarm.queue(_idleTimeout);
+    }
+  }
+  
   public void destroy()
   {
+    _isClosed = true;
+
+    if (_alarm != null)
+      _alarm.dequeue();
+
+    _admin.unregister();
+
     Item<X> beanItem;
     
     while ((beanItem = _freeList.allocate()) != null) {
@@ -250,6 +414,7 @@ public class StatelessPool<X,T> {
     private X _value;
     private Object []_interceptorObjects;
     private Object []_delegates;
+    private volatile long _idleStartTime;
     
     Item(X value, 
          Object []interceptorObjects,
@@ -274,5 +439,15 @@ public class StatelessPool<X,T> {
     {
       return _delegates;
     }
+
+    long getIdleStartTime()
+    {
+      return _idleStartTime;
+    }
+
+    void setIdleStartTime(long time)
+    {
+      _idleStartTime = time;
+    }
   }
 }
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.ejb.session;
+
+import com.caucho.management.server.AbstractManagedObject;
+import com.caucho.management.server.StatelessPoolMXBean;
+
+/**
+ * Administration for a stateless session bean pool.
+ */
+class StatelessPoolAdmin extends AbstractManagedObject
+  implements StatelessPoolMXBean
+{
+  private final StatelessPool<?,?> _pool;
+
+  StatelessPoolAdmin(StatelessPool<?,?> pool)
+  {
+    _pool = pool;
+  }
+
+  @Override
+  public String getName()
+  {
+    return _pool.getName();
+  }
+
+  @Override
+  public int getIdleCount()
+  {
+    return _pool.getIdleCount();
+  }
+
+  @Override
+  public int getIdleMax()
+  {
+    return _pool.getIdleMax();
+  }
+
+  @Override
+  public int getConcurrentMax()
+  {
+    return _pool.getConcurrentMax();
+  }
+
+  @Override
+  public int getStripeCount()
+  {
+    return _pool.getStripeCount();
+  }
+
+  @Override
+  public long getCreateCountTotal()
+  {
+    return _pool.getCreateCount();
+  }
+
+  @Override
+  public long getIdleDestroyCountTotal()
+  {
+    return _pool.getIdleDestroyCount();
+  }
+
+  @Override
+  public long getWaitCountTotal()
+  {
+    return _pool.getWaitCount();
+  }
+
+  @Override
+  public long getWaitTimeTotal()
+  {
+    return _pool.getWaitTimeTotal();
+  }
+
+  @Override
+  public long getWaitTimeMax()
+  {
+    return _pool.getWaitTimeMax();
+  }
+
+  @Override
+  public long getWaitTimeoutCountTotal()
+  {
+    return _pool.getWaitTimeoutCount();
+  }
+
+  void register()
+  {
+    registerSelf();
+  }
+
+  void unregister()
+  {
+    unregisterSelf();
+  }
+}
@@ -192,6 +192,10 @@ public class ConnectionPool extends AbstractManagedObject
   public void setTransactionManager(UserTransactionProxy tm)
   {
     _tm = tm;
+
+    // the log keeps its recovered xids until this pool has recovered
+    if (tm != null)
+      tm.addRecoverResource(this);
   }
 
   /**
@@ -664,6 +668,8 @@ public class ConnectionPool extends AbstractManagedObject
       }
     }
 
+    _tm.endRecoverResource(this);
+
     return mcf.createConnectionFactory(this);
   }
 
@@ -1362,6 +1368,9 @@ public class ConnectionPool extends AbstractManagedObject
     if (! _lifecycle.toDestroy())
       return;
 
+    if (_tm != null)
+      _tm.endRecoverResource(this);
+
     ArrayList<ManagedPoolItem> pool;
 
     synchronized (_connectionPool) {
@@ -0,0 +1,543 @@
+/*
+ * The Apache Software License, Version 1.1
+ *
+ * Copyright (c) 2001-2004 Caucho Technology, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution, if
+ *    any, must include the following acknowlegement:
+ *       "This product includes software developed by the
+ *        Caucho Technology (http://www.caucho.com/)."
+ *    Alternately, this acknowlegement may appear in the software itself,
+ *    if and wherever such third-party acknowlegements normally appear.
+ *
+ * 4. The names "Hessian", "Resin", and "Caucho" must not be used to
+ *    endorse or promote products derived from this software without prior
+ *    written permission. For written permission, please contact
+ *    info@caucho.com.
+ *
+ * 5. Products derived from this software may not be called "Resin"
+ *    nor may "Resin" appear in their names without prior written
+ *    permission of Caucho Technology.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL CAUCHO TECHNOLOGY OR ITS CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.hessian.client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.network.balance.ClientSocketFactory;
+import com.caucho.util.CurrentTime;
+import com.caucho.vfs.ReadStream;
+import com.caucho.vfs.TempOutputStream;
+
+/**
+ * Hessian connection over a pooled keepalive socket.  The request is
+ * buffered and sent with a Content-Length, and the reply is read from the
+ * socket directly, so the socket can return to the pool once the reply
+ * has been consumed.
+ */
+public class HessianSocketConnection extends AbstractHessianConnection {
+  private static final Logger log
+    = Logger.getLogger(HessianSocketConnection.class.getName());
+
+  private final URL _url;
+  private final HessianSocketPipeline _pipeline;
+  private final long _readTimeout;
+
+  private final StringBuilder _headers = new StringBuilder();
+  private TempOutputStream _body;
+
+  private long _ticket = -1;
+  private boolean _isDone;
+
+  private int _statusCode;
+  private String _statusMessage;
+  private String _contentEncoding;
+
+  private boolean _isKeepalive;
+  private boolean _isChunked;
+  private long _contentLength = -1;
+
+  private ReplyInputStream _replyIs;
+
+  HessianSocketConnection(URL url,
+                          HessianSocketPipeline pipeline,
+                          long readTimeout)
+  {
+    _url = url;
+    _pipeline = pipeline;
+    _readTimeout = readTimeout;
+  }
+
+  /**
+   * Adds a HTTP header.
+   */
+  @Override
+  public void addHeader(String key, String value)
+  {
+    _headers.append(key).append(": ").append(value).append("\r\n");
+  }
+
+  /**
+   * Returns the output stream for the request.
+   */
+  @Override
+  public OutputStream getOutputStream()
+    throws IOException
+  {
+    if (_body == null)
+      _body = new TempOutputStream();
+
+    return _body;
+  }
+
+  /**
+   * Sends the request and reads the reply headers.
+   */
+  @Override
+  public void sendRequest()
+    throws IOException
+  {
+    byte []header = createRequestHeader();
+
+    try {
+      _ticket = _pipeline.write(header, header.length, _body);
+    } catch (IOException e) {
+      _isDone = true;
+      _pipeline.fail();
+
+      throw e;
+    } finally {
+      if (_body != null) {
+        _body.destroy();
+        _body = null;
+      }
+    }
+
+    try {
+      _pipeline.startRead(_ticket, _readTimeout);
+
+      parseReplyHeaders(_pipeline.getInputStream());
+    } catch (IOException e) {
+      _isDone = true;
+      _pipeline.fail();
+
+      throw e;
+    }
+
+    _replyIs = new ReplyInputStream(_pipeline.getInputStream());
+
+    ClientSocketFactory pool = _pipeline.getSocket().getPool();
+
+    if (_statusCode == 200) {
+      pool.success();
+      return;
+    }
+
+    if (_statusCode == 503)
+      pool.busy(CurrentTime.getCurrentTime());
+
+    StringBuilder sb = new StringBuilder();
+
+    try {
+      int ch;
+
+      while ((ch = _replyIs.read()) >= 0)
+        sb.append((char) ch);
+    } catch (IOException e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      _isKeepalive = false;
+    }
+
+    _statusMessage = sb.toString();
+
+    close();
+
+    throw new HessianConnectionException(_statusCode + ": " + _statusMessage);
+  }
+
+  private byte []createRequestHeader()
+    throws IOException
+  {
+    StringBuilder sb = new StringBuilder();
+
+    String path = _url.getFile();
+
+    if (path == null || path.length() == 0)
+      path = "/";
+
+    sb.append("POST ").append(path).append(" HTTP/1.1\r\n");
+
+    sb.append("Host: ").append(_url.getHost());
+
+    if (_url.getPort() > 0)
+      sb.append(':').append(_url.getPort());
+
+    sb.append("\r\n");
+
+    sb.append(_headers);
+
+    int length = _body != null ? _body.getLength() : 0;
+
+    sb.append("Content-Length: ").append(length).append("\r\n");
+    sb.append("\r\n");
+
+    return sb.toString().getBytes("ISO-8859-1");
+  }
+
+  private void parseReplyHeaders(ReadStream is)
+    throws IOException
+  {
+    String line = parseStatus(is);
+
+    if (line.length() == 0)
+      throw new EOFException(_url + " unexpected end of reply");
+
+    _isKeepalive = line.startsWith("HTTP/1.1");
+
+    _statusCode = parseStatusCode(line);
+
+    while (true) {
+      line = is.readLine();
+      if (line == null)
+        break;
+
+      int p = line.indexOf(':');
+      if (p < 0)
+        break;
+
+      String name = line.substring(0, p);
+      String value = line.substring(p + 1).trim();
+
+      if (name.equalsIgnoreCase("transfer-encoding")) {
+        _isChunked = "chunked".equalsIgnoreCase(value);
+      } else if (name.equalsIgnoreCase("content-length")) {
+        _contentLength = Long.parseLong(value);
+      } else if (name.equalsIgnoreCase("content-encoding")) {
+        _contentEncoding = value;
+      } else if (name.equalsIgnoreCase("connection")) {
+        if ("close".equalsIgnoreCase(value))
+          _isKeepalive = false;
+      }
+    }
+
+    if (! _isChunked && _contentLength < 0)
+      _isKeepalive = false;
+  }
+
+  private String parseStatus(ReadStream is)
+    throws IOException
+  {
+    int ch;
+
+    for (ch = is.read(); Character.isWhitespace(ch); ch = is.read()) {
+    }
+
+    StringBuilder sb = new StringBuilder();
+    for (; ch >= 0 && ch != '\n'; ch = is.read()) {
+      if (ch != '\r')
+        sb.append((char) ch);
+    }
+
+    return sb.toString();
+  }
+
+  private int parseStatusCode(String line)
+  {
+    int len = line.length();
+
+    int i = 0;
+    int ch;
+
+    for (; i < len && (ch = line.charAt(i)) != ' '; i++) {
+    }
+
+    for (; i < len && (ch = line.charAt(i)) == ' '; i++) {
+    }
+
+    int statusCode = 0;
+
+    for (; i < len && '0' <= (ch = line.charAt(i)) && ch <= '9'; i++) {
+      statusCode = 10 * statusCode + ch - '0';
+    }
+
+    if (statusCode == 0)
+      return 400;
+    else
+      return statusCode;
+  }
+
+  /**
+   * Returns the status code.
+   */
+  @Override
+  public int getStatusCode()
+  {
+    return _statusCode;
+  }
+
+  /**
+   * Returns the status string.
+   */
+  @Override
+  public String getStatusMessage()
+  {
+    return _statusMessage;
+  }
+
+  /**
+   * Returns the InputStream to the result
+   */
+  @Override
+  public InputStream getInputStream()
+    throws IOException
+  {
+    return _replyIs;
+  }
+
+  @Override
+  public String getContentEncoding()
+  {
+    return _contentEncoding;
+  }
+
+  /**
+   * Consumes any remaining reply and returns the socket to the pipeline.
+   */
+  @Override
+  public void close()
+  {
+    if (_isDone)
+      return;
+
+    _isDone = true;
+
+    if (_ticket < 0) {
+      _pipeline.releaseUnused();
+      return;
+    }
+
+    try {
+      if (_isKeepalive && _replyIs != null)
+        _replyIs.skipAll();
+    } catch (IOException e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      _pipeline.fail();
+      return;
+    }
+
+    _pipeline.endRead(_isKeepalive);
+  }
+
+  /**
+   * Disconnect the connection
+   */
+  @Override
+  public void destroy()
+  {
+    if (_isDone)
+      return;
+
+    _isDone = true;
+
+    if (_body != null) {
+      _body.destroy();
+      _body = null;
+    }
+
+    if (_ticket < 0)
+      _pipeline.releaseUnused();
+    else
+      _pipeline.fail();
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _url + "]";
+  }
+
+  /**
+   * Reply body, bounded by the content-length or the chunked encoding.
+   * Closing the stream does not close the socket.
+   */
+  class ReplyInputStream extends InputStream {
+    private final ReadStream _is;
+
+    private long _length;
+    private boolean _isEnd;
+
+    ReplyInputStream(ReadStream is)
+    {
+      _is = is;
+
+      if (_isChunked)
+        _length = 0;
+      else
+        _length = _contentLength;
+    }
+
+    @Override
+    public int read()
+      throws IOException
+    {
+      if (! fill())
+        return -1;
+
+      int ch = _is.read();
+
+      if (ch < 0) {
+        if (_length < 0 && ! _isChunked) {
+          _isEnd = true;
+          return -1;
+        }
+
+        throw new EOFException(_url + " unexpected end of reply");
+      }
+
+      if (_length > 0)
+        _length--;
+
+      return ch;
+    }
+
+    @Override
+    public int read(byte []buffer, int offset, int length)
+      throws IOException
+    {
+      if (! fill())
+        return -1;
+
+      if (_length > 0 && _length < length)
+        length = (int) _length;
+
+      int sublen = _is.read(buffer, offset, length);
+
+      if (sublen < 0) {
+        if (_length < 0 && ! _isChunked) {
+          _isEnd = true;
+          return -1;
+        }
+
+        throw new EOFException(_url + " unexpected end of reply");
+      }
+
+      if (_length > 0)
+        _length -= sublen;
+
+      return sublen;
+    }
+
+    /**
+     * Returns true if more data is available, reading the next chunk
+     * header if necessary.
+     */
+    private boolean fill()
+      throws IOException
+    {
+      if (_isEnd)
+        return false;
+      else if (_length != 0)
+        return true;
+      else if (! _isChunked) {
+        _isEnd = true;
+        return false;
+      }
+
+      _length = readChunkLength();
+
+      if (_length == 0) {
+        _isEnd = true;
+        return false;
+      }
+
+      return true;
+    }
+
+    private long readChunkLength()
+      throws IOException
+    {
+      ReadStream is = _is;
+      int ch;
+
+      for (ch = is.read(); Character.isWhitespace(ch); ch = is.read()) {
+      }
+
+      long len = 0;
+      for (; ch >= 0; ch = is.read()) {
+        if ('0' <= ch && ch <= '9')
+          len = 16 * len + ch - '0';
+        else if ('a' <= ch && ch <= 'f')
+          len = 16 * len + ch - 'a' + 10;
+        else if ('A' <= ch && ch <= 'F')
+          len = 16 * len + ch - 'A' + 10;
+        else
+          break;
+      }
+
+      // chunk extensions
+      for (; ch >= 0 && ch != '\n'; ch = is.read()) {
+      }
+
+      if (ch < 0)
+        throw new EOFException(_url + " unexpected end of chunked reply");
+
+      if (len == 0) {
+        // trailer
+        String line;
+
+        while ((line = is.readLine()) != null && line.length() > 0) {
+        }
+      }
+
+      return len;
+    }
+
+    void skipAll()
+      throws IOException
+    {
+      byte []buffer = new byte[256];
+
+      while (read(buffer, 0, buffer.length) > 0) {
+      }
+    }
+
+    @Override
+    public void close()
+    {
+    }
+  }
+}
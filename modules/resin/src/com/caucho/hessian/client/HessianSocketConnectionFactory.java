@@ -0,0 +1,277 @@
+/*
+ * The Apache Software License, Version 1.1
+ *
+ * Copyright (c) 2001-2004 Caucho Technology, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution, if
+ *    any, must include the following acknowlegement:
+ *       "This product includes software developed by the
+ *        Caucho Technology (http://www.caucho.com/)."
+ *    Alternately, this acknowlegement may appear in the software itself,
+ *    if and wherever such third-party acknowlegements normally appear.
+ *
+ * 4. The names "Hessian", "Resin", and "Caucho" must not be used to
+ *    endorse or promote products derived from this software without prior
+ *    written permission. For written permission, please contact
+ *    info@caucho.com.
+ *
+ * 5. Products derived from this software may not be called "Resin"
+ *    nor may "Resin" appear in their names without prior written
+ *    permission of Caucho Technology.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL CAUCHO TECHNOLOGY OR ITS CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.hessian.client;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.network.balance.ClientSocket;
+import com.caucho.network.balance.ClientSocketFactory;
+
+/**
+ * Connection factory using pooled keepalive sockets from a
+ * ClientSocketFactory per host, so Hessian calls share the load-balancer's
+ * idle pool, connection limits and fail/busy health state.
+ *
+ * With pipeline-max greater than one, concurrent calls to the same host
+ * share a socket, writing requests back to back and reading the replies
+ * in order.
+ *
+ * <pre>
+ * HessianProxyFactory factory = new HessianProxyFactory();
+ * factory.setConnectionFactory(new HessianSocketConnectionFactory());
+ * </pre>
+ */
+public class HessianSocketConnectionFactory
+  extends AbstractHessianConnectionFactory
+{
+  private static final Logger log
+    = Logger.getLogger(HessianSocketConnectionFactory.class.getName());
+
+  private final ConcurrentHashMap<String,HostPool> _hostMap
+    = new ConcurrentHashMap<String,HostPool>();
+
+  private int _pipelineMax = 1;
+  private long _idleTime = -1;
+
+  /**
+   * Sets the maximum number of requests in flight on a single socket.
+   * The default of 1 disables pipelining.
+   */
+  public void setPipelineMax(int pipelineMax)
+  {
+    if (pipelineMax < 1)
+      throw new IllegalArgumentException("pipeline-max must be positive: " + pipelineMax);
+
+    _pipelineMax = pipelineMax;
+  }
+
+  public int getPipelineMax()
+  {
+    return _pipelineMax;
+  }
+
+  /**
+   * Sets the maximum idle time for a keepalive socket.
+   */
+  public void setIdleTime(long idleTime)
+  {
+    _idleTime = idleTime;
+  }
+
+  /**
+   * Returns the socket pool for the URL's host, e.g. for statistics.
+   */
+  public ClientSocketFactory getClientSocketFactory(URL url)
+  {
+    return getHostPool(url).getClientFactory();
+  }
+
+  /**
+   * Opens a new or recycled connection to the HTTP server.
+   */
+  @Override
+  public HessianConnection open(URL url)
+    throws IOException
+  {
+    if (! "http".equals(url.getProtocol())
+        && ! "https".equals(url.getProtocol()))
+      throw new HessianConnectionException(url + " is an unsupported protocol for " + this);
+
+    HostPool hostPool = getHostPool(url);
+
+    HessianSocketPipeline pipeline = hostPool.allocate();
+
+    if (log.isLoggable(Level.FINER))
+      log.finer(this + " open(" + url + ") " + pipeline);
+
+    return new HessianSocketConnection(url, pipeline, getReadTimeout());
+  }
+
+  /**
+   * Closes the idle sockets.
+   */
+  public void close()
+  {
+    for (HostPool hostPool : _hostMap.values()) {
+      hostPool.getClientFactory().close();
+    }
+
+    _hostMap.clear();
+  }
+
+  private HostPool getHostPool(URL url)
+  {
+    boolean isSecure = "https".equals(url.getProtocol());
+    int port = url.getPort();
+
+    if (port <= 0)
+      port = url.getDefaultPort();
+
+    String key = url.getProtocol() + "://" + url.getHost() + ":" + port;
+
+    HostPool hostPool = _hostMap.get(key);
+
+    if (hostPool == null) {
+      hostPool = new HostPool(createClientFactory(url.getHost(), port, isSecure));
+
+      HostPool oldPool = _hostMap.putIfAbsent(key, hostPool);
+
+      if (oldPool != null) {
+        hostPool.getClientFactory().close();
+        hostPool = oldPool;
+      }
+    }
+
+    return hostPool;
+  }
+
+  private ClientSocketFactory createClientFactory(String host,
+                                                  int port,
+                                                  boolean isSecure)
+  {
+    String address = host + ":" + port;
+
+    ClientSocketFactory factory
+      = new ClientSocketFactory("hessian",
+                                address,
+                                "Resin|Hessian",
+                                address,
+                                host,
+                                port,
+                                isSecure);
+
+    HessianProxyFactory proxyFactory = getHessianProxyFactory();
+
+    if (proxyFactory != null) {
+      if (proxyFactory.getConnectTimeout() > 0)
+        factory.setLoadBalanceConnectTimeout(proxyFactory.getConnectTimeout());
+
+      if (proxyFactory.getReadTimeout() > 0)
+        factory.setLoadBalanceSocketTimeout(proxyFactory.getReadTimeout());
+    }
+
+    if (_idleTime > 0)
+      factory.setLoadBalanceIdleTime(_idleTime);
+
+    factory.init();
+    factory.start();
+
+    return factory;
+  }
+
+  private long getReadTimeout()
+  {
+    HessianProxyFactory proxyFactory = getHessianProxyFactory();
+
+    if (proxyFactory != null)
+      return proxyFactory.getReadTimeout();
+    else
+      return -1;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[pipeline-max=" + _pipelineMax + "]";
+  }
+
+  /**
+   * Per-host socket pool and the currently shared pipeline.
+   */
+  class HostPool {
+    private final ClientSocketFactory _clientFactory;
+
+    private HessianSocketPipeline _pipeline;
+
+    HostPool(ClientSocketFactory clientFactory)
+    {
+      _clientFactory = clientFactory;
+    }
+
+    ClientSocketFactory getClientFactory()
+    {
+      return _clientFactory;
+    }
+
+    HessianSocketPipeline allocate()
+      throws IOException
+    {
+      if (_pipelineMax > 1) {
+        synchronized (this) {
+          HessianSocketPipeline pipeline = _pipeline;
+
+          if (pipeline != null && pipeline.allocate())
+            return pipeline;
+        }
+      }
+
+      ClientSocket socket = _clientFactory.open();
+
+      if (socket == null)
+        throw new HessianConnectionException(_clientFactory + " cannot open a connection");
+
+      HessianSocketPipeline pipeline
+        = new HessianSocketPipeline(socket, _pipelineMax);
+
+      pipeline.allocate();
+
+      if (_pipelineMax > 1) {
+        synchronized (this) {
+          _pipeline = pipeline;
+        }
+      }
+
+      return pipeline;
+    }
+  }
+}
@@ -0,0 +1,265 @@
+/*
+ * The Apache Software License, Version 1.1
+ *
+ * Copyright (c) 2001-2004 Caucho Technology, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution, if
+ *    any, must include the following acknowlegement:
+ *       "This product includes software developed by the
+ *        Caucho Technology (http://www.caucho.com/)."
+ *    Alternately, this acknowlegement may appear in the software itself,
+ *    if and wherever such third-party acknowlegements normally appear.
+ *
+ * 4. The names "Hessian", "Resin", and "Caucho" must not be used to
+ *    endorse or promote products derived from this software without prior
+ *    written permission. For written permission, please contact
+ *    info@caucho.com.
+ *
+ * 5. Products derived from this software may not be called "Resin"
+ *    nor may "Resin" appear in their names without prior written
+ *    permission of Caucho Technology.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL CAUCHO TECHNOLOGY OR ITS CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.hessian.client;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.network.balance.ClientSocket;
+import com.caucho.util.CurrentTime;
+import com.caucho.vfs.ReadStream;
+import com.caucho.vfs.TempOutputStream;
+import com.caucho.vfs.WriteStream;
+
+/**
+ * A keepalive socket shared by up to pipeline-max requests.  Requests
+ * are written in ticket order and the replies are read in the same order,
+ * so a reader waits until all earlier replies have been consumed.
+ *
+ * When the last request completes, the socket returns to the
+ * ClientSocketFactory idle pool.
+ */
+class HessianSocketPipeline {
+  private static final Logger log
+    = Logger.getLogger(HessianSocketPipeline.class.getName());
+
+  private final ClientSocket _socket;
+  private final int _pipelineMax;
+
+  private final Object _writeLock = new Object();
+  private volatile long _writeTicket;
+
+  private long _readTicket;
+  private int _allocateCount;
+
+  private boolean _isKeepalive = true;
+  private boolean _isClosed;
+  private boolean _isSocketClosed;
+
+  HessianSocketPipeline(ClientSocket socket, int pipelineMax)
+  {
+    _socket = socket;
+    _pipelineMax = pipelineMax;
+  }
+
+  ClientSocket getSocket()
+  {
+    return _socket;
+  }
+
+  ReadStream getInputStream()
+  {
+    return _socket.getInputStream();
+  }
+
+  /**
+   * Allocates a request slot, returning false if the pipeline is full
+   * or no longer accepts requests.
+   */
+  synchronized boolean allocate()
+  {
+    if (_isClosed || ! _isKeepalive || _pipelineMax <= _allocateCount)
+      return false;
+
+    _allocateCount++;
+
+    return true;
+  }
+
+  /**
+   * Writes the request header and body, returning the read ticket
+   * for the reply.
+   */
+  long write(byte []header, int headerLength, TempOutputStream body)
+    throws IOException
+  {
+    synchronized (_writeLock) {
+      long ticket = _writeTicket++;
+
+      WriteStream os = _socket.getOutputStream();
+
+      os.write(header, 0, headerLength);
+
+      if (body != null)
+        body.writeToStream(os);
+
+      os.flush();
+
+      return ticket;
+    }
+  }
+
+  /**
+   * Waits until all earlier replies have been read.
+   */
+  synchronized void startRead(long ticket, long timeout)
+    throws IOException
+  {
+    long expire = timeout > 0 ? CurrentTime.getCurrentTime() + timeout : 0;
+
+    while (! _isSocketClosed && _readTicket != ticket) {
+      long delta;
+
+      if (expire > 0) {
+        delta = expire - CurrentTime.getCurrentTime();
+
+        if (delta <= 0)
+          throw new IOException(this + " timeout waiting for pipelined reply");
+      }
+      else
+        delta = 0;
+
+      try {
+        wait(delta);
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+    }
+
+    if (_isSocketClosed)
+      throw new IOException(this + " pipeline closed before reply");
+  }
+
+  /**
+   * Completes a reply, passing the read turn to the next request.
+   */
+  void endRead(boolean isKeepalive)
+  {
+    boolean isFree = false;
+
+    synchronized (this) {
+      _readTicket++;
+
+      if (! isKeepalive)
+        _isKeepalive = false;
+
+      isFree = release();
+
+      notifyAll();
+    }
+
+    if (isFree)
+      freeSocket();
+  }
+
+  /**
+   * Releases an allocated slot that never wrote a request.
+   */
+  void releaseUnused()
+  {
+    boolean isFree;
+
+    synchronized (this) {
+      isFree = release();
+    }
+
+    if (isFree)
+      freeSocket();
+  }
+
+  /**
+   * Closes the socket after a failure, failing any pending readers.
+   */
+  void fail()
+  {
+    boolean isClose = false;
+
+    synchronized (this) {
+      _isClosed = true;
+      _allocateCount--;
+
+      if (! _isSocketClosed) {
+        _isSocketClosed = true;
+        isClose = true;
+      }
+
+      notifyAll();
+    }
+
+    if (isClose) {
+      try {
+        _socket.getPool().failSocket(CurrentTime.getCurrentTime());
+      } finally {
+        _socket.close();
+      }
+    }
+  }
+
+  private boolean release()
+  {
+    _allocateCount--;
+
+    if (_allocateCount > 0 || _isSocketClosed)
+      return false;
+
+    _isClosed = true;
+    _isSocketClosed = true;
+
+    return true;
+  }
+
+  private void freeSocket()
+  {
+    try {
+      if (_isKeepalive && _writeTicket == _readTicket)
+        _socket.free(CurrentTime.getCurrentTime());
+      else
+        _socket.close();
+    } catch (Exception e) {
+      log.log(Level.FINE, e.toString(), e);
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _socket + "]";
+  }
+}
@@ -0,0 +1,405 @@
+/*
+ * The Apache Software License, Version 1.1
+ *
+ * Copyright (c) 2001-2004 Caucho Technology, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution, if
+ *    any, must include the following acknowlegement:
+ *       "This product includes software developed by the
+ *        Caucho Technology (http://www.caucho.com/)."
+ *    Alternately, this acknowlegement may appear in the software itself,
+ *    if and wherever such third-party acknowlegements normally appear.
+ *
+ * 4. The names "Hessian", "Resin", and "Caucho" must not be used to
+ *    endorse or promote products derived from this software without prior
+ *    written permission. For written permission, please contact
+ *    info@caucho.com.
+ *
+ * 5. Products derived from this software may not be called "Resin"
+ *    nor may "Resin" appear in their names without prior written
+ *    permission of Caucho Technology.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL CAUCHO TECHNOLOGY OR ITS CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.hessian.io;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import sun.misc.Unsafe;
+
+import com.caucho.bytecode.CodeWriterAttribute;
+import com.caucho.bytecode.JavaClass;
+import com.caucho.bytecode.JavaClassLoader;
+import com.caucho.bytecode.JavaMethod;
+import com.caucho.loader.ProxyClassLoader;
+import com.caucho.vfs.Vfs;
+import com.caucho.vfs.WriteStream;
+
+/**
+ * Generates an InstanceSerializer class per type with one straight-line
+ * field read and typed write per field.  Public fields of public classes
+ * are read with getfield, other fields with Unsafe at a constant offset.
+ * Enable with
+ *
+ * <pre>
+ * -Dcom.caucho.hessian.io.InstanceSerializerGenerator=com.caucho.hessian.io.ByteCodeSerializerGenerator
+ * </pre>
+ */
+public class ByteCodeSerializerGenerator extends InstanceSerializerGenerator {
+  private static final Logger log
+    = Logger.getLogger(ByteCodeSerializerGenerator.class.getName());
+
+  private static final String GEN_PACKAGE = "com/caucho/hessian/io/gen/";
+
+  private static final String BASE_CLASS
+    = "com/caucho/hessian/io/InstanceSerializer";
+  private static final String OUT_CLASS
+    = "com/caucho/hessian/io/AbstractHessianOutput";
+  private static final String UNSAFE_CLASS = "sun/misc/Unsafe";
+
+  private static final String OUT_SIG = "L" + OUT_CLASS + ";";
+  private static final String UNSAFE_SIG = "L" + UNSAFE_CLASS + ";";
+
+  // writeInstance locals
+  private static final int OBJ_VAR = 1;
+  private static final int OUT_VAR = 2;
+  private static final int INDEX_VAR = 3;
+  private static final int EXN_VAR = 4;
+
+  @Override
+  public InstanceSerializer generate(Class<?> cl, Field []fields)
+  {
+    try {
+      ClassLoader parent = getParentLoader(cl);
+      Unsafe unsafe = InstanceSerializer._unsafe;
+
+      long []offsets = new long[fields.length];
+
+      for (int i = 0; i < fields.length; i++) {
+        if (isDirect(fields[i], parent))
+          offsets[i] = -1;
+        else if (unsafe != null)
+          offsets[i] = unsafe.objectFieldOffset(fields[i]);
+        else
+          return null;
+      }
+
+      String className = GEN_PACKAGE + cl.getName().replace('.', '_')
+                         + "__HessianSerializer";
+
+      byte []bytecode = generateClass(className, fields, offsets);
+
+      Class<?> genClass
+        = new ProxyClassLoader(parent).loadClass(className.replace('/', '.'),
+                                                 bytecode);
+
+      if (! InstanceSerializer.class.isAssignableFrom(genClass))
+        return null;
+
+      InstanceSerializer serializer
+        = (InstanceSerializer) genClass.newInstance();
+
+      serializer.init(fields);
+
+      return serializer;
+    } catch (Throwable e) {
+      log.log(Level.FINE, cl + " " + e.toString(), e);
+
+      return null;
+    }
+  }
+
+  /**
+   * Returns the class's own loader when it can see the serializer
+   * classes, so getfield can link against the class.
+   */
+  private ClassLoader getParentLoader(Class<?> cl)
+  {
+    ClassLoader loader = cl.getClassLoader();
+
+    try {
+      if (loader != null
+          && Class.forName(InstanceSerializer.class.getName(), false, loader)
+             == InstanceSerializer.class) {
+        return loader;
+      }
+    } catch (ClassNotFoundException e) {
+      log.log(Level.FINEST, e.toString(), e);
+    }
+
+    return getClass().getClassLoader();
+  }
+
+  /**
+   * True if the generated class can read the field with getfield.
+   */
+  private boolean isDirect(Field field, ClassLoader loader)
+  {
+    if (! Modifier.isPublic(field.getModifiers()))
+      return false;
+
+    Class<?> declClass = field.getDeclaringClass();
+
+    for (Class<?> ptr = declClass; ptr != null; ptr = ptr.getDeclaringClass()) {
+      if (! Modifier.isPublic(ptr.getModifiers()))
+        return false;
+    }
+
+    try {
+      return Class.forName(declClass.getName(), false, loader) == declClass;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+
+  private byte []generateClass(String className,
+                               Field []fields,
+                               long []offsets)
+    throws Exception
+  {
+    JavaClassLoader jLoader = new JavaClassLoader(getClass().getClassLoader());
+
+    JavaClass jClass = new JavaClass(jLoader);
+    jClass.setAccessFlags(Modifier.PUBLIC | Modifier.FINAL);
+
+    jClass.setWrite(true);
+
+    jClass.setMajor(49);
+    jClass.setMinor(0);
+
+    jClass.setSuperClass(BASE_CLASS);
+    jClass.setThisClass(className);
+
+    generateConstructor(jClass);
+    generateWriteInstance(jClass, fields, offsets);
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    WriteStream out = Vfs.openWrite(bos);
+
+    jClass.write(out);
+
+    out.close();
+
+    return bos.toByteArray();
+  }
+
+  private void generateConstructor(JavaClass jClass)
+  {
+    JavaMethod ctor = jClass.createMethod("<init>", "()V");
+    ctor.setAccessFlags(Modifier.PUBLIC);
+
+    CodeWriterAttribute code = ctor.createCodeWriter();
+    code.setMaxLocals(1);
+    code.setMaxStack(1);
+
+    code.pushObjectVar(0);
+    code.invokespecial(BASE_CLASS, "<init>", "()V", 1, 0);
+    code.addReturn();
+    code.close();
+  }
+
+  /**
+   * Generates writeInstance(obj, out).  The current field index is kept
+   * in a local, so a single handler can add the field to an exception.
+   */
+  private void generateWriteInstance(JavaClass jClass,
+                                     Field []fields,
+                                     long []offsets)
+  {
+    JavaMethod method
+      = jClass.createMethod("writeInstance",
+                            "(Ljava/lang/Object;" + OUT_SIG + ")V");
+    method.setAccessFlags(Modifier.PUBLIC);
+
+    CodeWriterAttribute code = method.createCodeWriter();
+    code.setMaxLocals(5);
+    code.setMaxStack(8);
+
+    code.pushInt(0);
+    code.storeIntVar(INDEX_VAR);
+
+    int start = code.getOffset();
+
+    for (int i = 0; i < fields.length; i++) {
+      code.pushInt(i);
+      code.storeIntVar(INDEX_VAR);
+
+      generateField(code, fields[i], offsets[i]);
+    }
+
+    int end = code.getOffset();
+
+    code.addReturn();
+
+    if (start < end) {
+      int handler = code.getOffset();
+
+      code.addException("java/lang/Throwable", start, end, handler);
+
+      code.storeObjectVar(EXN_VAR);
+      code.pushObjectVar(0);
+      code.pushObjectVar(EXN_VAR);
+      code.pushIntVar(INDEX_VAR);
+      code.invoke(BASE_CLASS, "fieldError",
+                  "(Ljava/lang/Throwable;I)Ljava/lang/Throwable;", 3, 1);
+      code.addThrow();
+    }
+
+    code.close();
+  }
+
+  /**
+   * Generates the read and write of a single field, matching the
+   * UnsafeSerializer field serializer for the field's type.
+   */
+  private void generateField(CodeWriterAttribute code,
+                             Field field,
+                             long offset)
+  {
+    Class<?> type = field.getType();
+
+    code.pushObjectVar(OUT_VAR);
+
+    if (boolean.class.equals(type)) {
+      loadField(code, field, offset, "Z", "getBoolean");
+      writeOut(code, "writeBoolean", "Z");
+    }
+    else if (byte.class.equals(type)) {
+      loadField(code, field, offset, "B", "getByte");
+      writeOut(code, "writeInt", "I");
+    }
+    else if (short.class.equals(type)) {
+      loadField(code, field, offset, "S", "getShort");
+      writeOut(code, "writeInt", "I");
+    }
+    else if (int.class.equals(type)) {
+      loadField(code, field, offset, "I", "getInt");
+      writeOut(code, "writeInt", "I");
+    }
+    else if (char.class.equals(type)) {
+      loadField(code, field, offset, "C", "getChar");
+      code.invokestatic("java/lang/String", "valueOf",
+                        "(C)Ljava/lang/String;", 1, 1);
+      writeOut(code, "writeString", "Ljava/lang/String;");
+    }
+    else if (long.class.equals(type)) {
+      loadField(code, field, offset, "J", "getLong");
+      writeOut(code, "writeLong", "J");
+    }
+    else if (float.class.equals(type)) {
+      loadField(code, field, offset, "F", "getFloat");
+      code.floatToDouble();
+      writeOut(code, "writeDouble", "D");
+    }
+    else if (double.class.equals(type)) {
+      loadField(code, field, offset, "D", "getDouble");
+      writeOut(code, "writeDouble", "D");
+    }
+    else if (String.class.equals(type)) {
+      loadObjectField(code, field, offset, "java/lang/String");
+      writeOut(code, "writeString", "Ljava/lang/String;");
+    }
+    else if (java.util.Date.class.equals(type)
+             || java.sql.Date.class.equals(type)
+             || java.sql.Timestamp.class.equals(type)
+             || java.sql.Time.class.equals(type)) {
+      loadObjectField(code, field, offset, "java/util/Date");
+      code.invokestatic(BASE_CLASS, "writeDate",
+                        "(" + OUT_SIG + "Ljava/util/Date;)V", 2, 0);
+    }
+    else {
+      loadObjectField(code, field, offset, null);
+      writeOut(code, "writeObject", "Ljava/lang/Object;");
+    }
+  }
+
+  /**
+   * Pushes a primitive field value, with getfield when the offset is
+   * negative and Unsafe otherwise.
+   */
+  private void loadField(CodeWriterAttribute code,
+                         Field field,
+                         long offset,
+                         String sig,
+                         String unsafeMethod)
+  {
+    if (offset < 0) {
+      Class<?> declClass = field.getDeclaringClass();
+      String declName = declClass.getName().replace('.', '/');
+
+      code.pushObjectVar(OBJ_VAR);
+      code.cast(declName);
+      code.getField(declName, field.getName(), sig);
+    }
+    else {
+      code.getStatic(BASE_CLASS, "_unsafe", UNSAFE_SIG);
+      code.pushObjectVar(OBJ_VAR);
+      code.pushLong(offset);
+      code.invoke(UNSAFE_CLASS, unsafeMethod,
+                  "(Ljava/lang/Object;J)" + sig, 4, 1);
+    }
+  }
+
+  /**
+   * Pushes an object field value, cast to the type when it's not null.
+   */
+  private void loadObjectField(CodeWriterAttribute code,
+                               Field field,
+                               long offset,
+                               String castType)
+  {
+    if (offset < 0) {
+      String sig = getSignature(field.getType());
+
+      loadField(code, field, offset, sig, null);
+    }
+    else {
+      loadField(code, field, offset, "Ljava/lang/Object;", "getObject");
+
+      if (castType != null)
+        code.cast(castType);
+    }
+  }
+
+  private void writeOut(CodeWriterAttribute code, String method, String sig)
+  {
+    code.invoke(OUT_CLASS, method, "(" + sig + ")V", 2, 0);
+  }
+
+  private static String getSignature(Class<?> type)
+  {
+    if (type.isArray())
+      return type.getName().replace('.', '/');
+    else
+      return "L" + type.getName().replace('.', '/') + ";";
+  }
+}
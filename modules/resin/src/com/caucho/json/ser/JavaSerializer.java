@@ -44,12 +44,34 @@ public class JavaSerializer extends AbstractJsonSerializer {
 
   private Class _type;
   private JsonField []_fields;
+  private JsonInstanceWriter _writer;
 
   JavaSerializer(Class type, boolean annotated)
+  {
+    this(type, annotated, false);
+  }
+
+  JavaSerializer(Class type, boolean annotated, boolean isGenerate)
   {
     _type = type;
 
     introspect(annotated);
+
+    if (isGenerate)
+      _writer = generateWriter();
+  }
+
+  private JsonInstanceWriter generateWriter()
+  {
+    Field []fields = new Field[_fields.length];
+    String []names = new String[_fields.length];
+
+    for (int i = 0; i < _fields.length; i++) {
+      fields[i] = _fields[i].getField();
+      names[i] = _fields[i].getName();
+    }
+
+    return JsonWriterGenerator.generate(_type, fields, names);
   }
 
   void introspect(boolean annotated)
@@ -92,6 +114,13 @@ public class JavaSerializer extends AbstractJsonSerializer {
   public void write(JsonOutput out, Object value, boolean annotated)
     throws IOException
   {
+    JsonInstanceWriter writer = _writer;
+
+    if (writer != null) {
+      writer.write(out, value, annotated);
+      return;
+    }
+
     int i = 0;
     out.writeMapBegin();
     for (JsonField field : _fields) {
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.json.ser;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import sun.misc.Unsafe;
+
+import com.caucho.json.JsonOutput;
+
+/**
+ * Base class for the generated JSON writers of a Java bean.  The generated
+ * write reads each field directly, or with Unsafe at a constant offset,
+ * and calls writeEntry once per field in sorted field order, replacing
+ * the JavaSerializer field loop.
+ */
+abstract public class JsonInstanceWriter {
+  private static final Logger log
+    = Logger.getLogger(JsonInstanceWriter.class.getName());
+
+  protected static final Unsafe _unsafe;
+
+  private String []_names;
+
+  abstract public void write(JsonOutput out, Object value, boolean annotated)
+    throws IOException;
+
+  /**
+   * Sets the JSON names of the serialized fields.
+   */
+  final void init(String []names)
+  {
+    _names = names;
+  }
+
+  /**
+   * Writes a non-null field value as a map entry, returning the updated
+   * count of written entries.
+   */
+  protected static int writeEntry(int count,
+                                  JsonInstanceWriter writer,
+                                  JsonOutput out,
+                                  Object fieldValue,
+                                  int index,
+                                  boolean annotated)
+    throws IOException
+  {
+    if (fieldValue == null)
+      return count;
+
+    if (count > 0)
+      out.writeMapComma();
+
+    out.writeMapEntry(writer._names[index], fieldValue, annotated);
+
+    return count + 1;
+  }
+
+  static {
+    Unsafe unsafe = null;
+
+    try {
+      Field theUnsafe = Unsafe.class.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+
+      unsafe = (Unsafe) theUnsafe.get(null);
+    } catch (Throwable e) {
+      log.log(Level.FINEST, e.toString(), e);
+    }
+
+    _unsafe = unsafe;
+  }
+}
@@ -50,6 +50,23 @@ public class JsonSerializerFactory {
   private final ConcurrentHashMap<Class,JsonDeserializer> _deserMap
     = new ConcurrentHashMap<Class,JsonDeserializer>();
 
+  private boolean _isGenerate
+    = Boolean.getBoolean("com.caucho.json.generate");
+
+  /**
+   * Generates bytecode writers for Java beans instead of reading the
+   * fields by reflection.
+   */
+  public void setGenerate(boolean isGenerate)
+  {
+    _isGenerate = isGenerate;
+  }
+
+  public boolean isGenerate()
+  {
+    return _isGenerate;
+  }
+
   //
   // serializers
   //
@@ -93,7 +110,7 @@ public class JsonSerializerFactory {
     if(Enum.class.isAssignableFrom(cl))
       return EnumSerializer.SER;
 
-    return new JavaSerializer(cl, annotated);
+    return new JavaSerializer(cl, annotated, _isGenerate);
   }
 
   //
@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.json.ser;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import sun.misc.Unsafe;
+
+import com.caucho.bytecode.CodeWriterAttribute;
+import com.caucho.bytecode.JavaClass;
+import com.caucho.bytecode.JavaClassLoader;
+import com.caucho.bytecode.JavaMethod;
+import com.caucho.loader.ProxyClassLoader;
+import com.caucho.vfs.Vfs;
+import com.caucho.vfs.WriteStream;
+
+/**
+ * Generates a JsonInstanceWriter per bean class, replacing the reflective
+ * field loop in JavaSerializer with straight-line field reads.  Public
+ * fields of public classes are read with getfield, other fields with
+ * Unsafe at a constant offset.
+ */
+class JsonWriterGenerator {
+  private static final Logger log
+    = Logger.getLogger(JsonWriterGenerator.class.getName());
+
+  private static final String BASE_CLASS
+    = "com/caucho/json/ser/JsonInstanceWriter";
+  private static final String OUT_CLASS = "com/caucho/json/JsonOutput";
+  private static final String UNSAFE_CLASS = "sun/misc/Unsafe";
+
+  private static final String OUT_SIG = "L" + OUT_CLASS + ";";
+
+  private JsonWriterGenerator()
+  {
+  }
+
+  /**
+   * Returns the generated writer, or null if the class can't be generated.
+   */
+  static JsonInstanceWriter generate(Class<?> cl,
+                                     Field []fields,
+                                     String []names)
+  {
+    try {
+      ClassLoader parent = getParentLoader(cl);
+      Unsafe unsafe = JsonInstanceWriter._unsafe;
+
+      long []offsets = new long[fields.length];
+
+      for (int i = 0; i < fields.length; i++) {
+        if (isDirect(fields[i], parent))
+          offsets[i] = -1;
+        else if (unsafe != null)
+          offsets[i] = unsafe.objectFieldOffset(fields[i]);
+        else
+          return null;
+      }
+
+      String className = "com/caucho/json/ser/gen/"
+                         + cl.getName().replace('.', '_') + "__JsonWriter";
+
+      byte []bytecode = generateClass(className, fields, offsets);
+
+      Class<?> genClass
+        = new ProxyClassLoader(parent).loadClass(className.replace('/', '.'),
+                                                 bytecode);
+
+      JsonInstanceWriter writer = (JsonInstanceWriter) genClass.newInstance();
+
+      writer.init(names);
+
+      return writer;
+    } catch (Throwable e) {
+      log.log(Level.FINE, cl + " " + e.toString(), e);
+
+      return null;
+    }
+  }
+
+  /**
+   * Returns the bean's own loader when it can see the writer classes,
+   * so getfield can link against the bean.
+   */
+  private static ClassLoader getParentLoader(Class<?> cl)
+  {
+    ClassLoader loader = cl.getClassLoader();
+
+    try {
+      if (loader != null
+          && Class.forName(JsonInstanceWriter.class.getName(), false, loader)
+             == JsonInstanceWriter.class) {
+        return loader;
+      }
+    } catch (ClassNotFoundException e) {
+      log.log(Level.FINEST, e.toString(), e);
+    }
+
+    return JsonWriterGenerator.class.getClassLoader();
+  }
+
+  /**
+   * True if the generated class can read the field with getfield.
+   */
+  private static boolean isDirect(Field field, ClassLoader loader)
+  {
+    if (! Modifier.isPublic(field.getModifiers()))
+      return false;
+
+    Class<?> declClass = field.getDeclaringClass();
+
+    for (Class<?> ptr = declClass; ptr != null; ptr = ptr.getDeclaringClass()) {
+      if (! Modifier.isPublic(ptr.getModifiers()))
+        return false;
+    }
+
+    try {
+      return Class.forName(declClass.getName(), false, loader) == declClass;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+
+  private static byte []generateClass(String className,
+                                      Field []fields,
+                                      long []offsets)
+    throws Exception
+  {
+    ClassLoader loader = JsonWriterGenerator.class.getClassLoader();
+    JavaClassLoader jLoader = new JavaClassLoader(loader);
+
+    JavaClass jClass = new JavaClass(jLoader);
+    jClass.setAccessFlags(Modifier.PUBLIC | Modifier.FINAL);
+
+    jClass.setWrite(true);
+
+    jClass.setMajor(49);
+    jClass.setMinor(0);
+
+    jClass.setSuperClass(BASE_CLASS);
+    jClass.setThisClass(className);
+
+    generateConstructor(jClass);
+    generateWrite(jClass, fields, offsets);
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    WriteStream out = Vfs.openWrite(bos);
+
+    jClass.write(out);
+
+    out.close();
+
+    return bos.toByteArray();
+  }
+
+  private static void generateConstructor(JavaClass jClass)
+  {
+    JavaMethod ctor = jClass.createMethod("<init>", "()V");
+    ctor.setAccessFlags(Modifier.PUBLIC);
+
+    CodeWriterAttribute code = ctor.createCodeWriter();
+    code.setMaxLocals(1);
+    code.setMaxStack(1);
+
+    code.pushObjectVar(0);
+    code.invokespecial(BASE_CLASS, "<init>", "()V", 1, 0);
+    code.addReturn();
+    code.close();
+  }
+
+  /**
+   * Generates write(out, value, annotated).  The count of written entries
+   * stays on the operand stack between the writeEntry calls.
+   */
+  private static void generateWrite(JavaClass jClass,
+                                    Field []fields,
+                                    long []offsets)
+  {
+    JavaMethod method
+      = jClass.createMethod("write",
+                            "(" + OUT_SIG + "Ljava/lang/Object;Z)V");
+    method.setAccessFlags(Modifier.PUBLIC);
+
+    CodeWriterAttribute code = method.createCodeWriter();
+    code.setMaxLocals(4);
+    code.setMaxStack(10);
+
+    code.pushObjectVar(1);
+    code.invoke(OUT_CLASS, "writeMapBegin", "()V", 1, 0);
+
+    code.pushInt(0);
+
+    for (int i = 0; i < fields.length; i++) {
+      // count, this, out, fieldValue, index, annotated
+      code.pushObjectVar(0);
+      code.pushObjectVar(1);
+      loadField(code, fields[i], offsets[i]);
+      code.pushInt(i);
+      code.pushIntVar(3);
+
+      code.invokestatic(BASE_CLASS, "writeEntry",
+                        "(IL" + BASE_CLASS + ";" + OUT_SIG
+                        + "Ljava/lang/Object;IZ)I",
+                        6, 1);
+    }
+
+    code.pop();
+
+    code.pushObjectVar(1);
+    code.invoke(OUT_CLASS, "writeMapEnd", "()V", 1, 0);
+
+    code.addReturn();
+    code.close();
+  }
+
+  /**
+   * Pushes the field value as an object, boxing primitives.
+   */
+  private static void loadField(CodeWriterAttribute code,
+                                Field field,
+                                long offset)
+  {
+    Class<?> type = field.getType();
+
+    String sig;
+    String unsafeMethod;
+    String boxClass;
+
+    if (boolean.class.equals(type)) {
+      sig = "Z";
+      unsafeMethod = "getBoolean";
+      boxClass = "java/lang/Boolean";
+    }
+    else if (byte.class.equals(type)) {
+      sig = "B";
+      unsafeMethod = "getByte";
+      boxClass = "java/lang/Byte";
+    }
+    else if (short.class.equals(type)) {
+      sig = "S";
+      unsafeMethod = "getShort";
+      boxClass = "java/lang/Short";
+    }
+    else if (int.class.equals(type)) {
+      sig = "I";
+      unsafeMethod = "getInt";
+      boxClass = "java/lang/Integer";
+    }
+    else if (char.class.equals(type)) {
+      sig = "C";
+      unsafeMethod = "getChar";
+      boxClass = "java/lang/Character";
+    }
+    else if (long.class.equals(type)) {
+      sig = "J";
+      unsafeMethod = "getLong";
+      boxClass = "java/lang/Long";
+    }
+    else if (float.class.equals(type)) {
+      sig = "F";
+      unsafeMethod = "getFloat";
+      boxClass = "java/lang/Float";
+    }
+    else if (double.class.equals(type)) {
+      sig = "D";
+      unsafeMethod = "getDouble";
+      boxClass = "java/lang/Double";
+    }
+    else {
+      sig = getSignature(type);
+      unsafeMethod = "getObject";
+      boxClass = null;
+    }
+
+    if (offset < 0) {
+      String declName = field.getDeclaringClass().getName().replace('.', '/');
+
+      code.pushObjectVar(2);
+      code.cast(declName);
+      code.getField(declName, field.getName(), sig);
+    }
+    else {
+      if (boxClass == null)
+        sig = "Ljava/lang/Object;";
+
+      code.getStatic(BASE_CLASS, "_unsafe", "L" + UNSAFE_CLASS + ";");
+      code.pushObjectVar(2);
+      code.pushLong(offset);
+      code.invoke(UNSAFE_CLASS, unsafeMethod,
+                  "(Ljava/lang/Object;J)" + sig, 4, 1);
+    }
+
+    if (boxClass != null) {
+      code.invokestatic(boxClass, "valueOf",
+                        "(" + sig + ")L" + boxClass + ";", 1, 1);
+    }
+  }
+
+  private static String getSignature(Class<?> type)
+  {
+    if (type.isArray())
+      return type.getName().replace('.', '/');
+    else
+      return "L" + type.getName().replace('.', '/') + ";";
+  }
+}
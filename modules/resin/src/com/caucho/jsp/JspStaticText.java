@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.jsp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.vfs.OutputStreamWithBuffer;
+import com.caucho.vfs.i18n.EncodingWriter;
+
+/**
+ * Template text of a generated JSP page. The encoded bytes are saved
+ * for each response encoding, so a page writing directly to the response
+ * can skip the char to byte conversion for its static text.
+ */
+public final class JspStaticText {
+  private static final Logger log
+    = Logger.getLogger(JspStaticText.class.getName());
+
+  // pages rarely use more than one or two response encodings
+  private static final int ENCODING_MAX = 4;
+
+  private final char []_chars;
+
+  private volatile Encoded []_encodedList = new Encoded[0];
+
+  public JspStaticText(char []chars)
+  {
+    _chars = chars;
+  }
+
+  /**
+   * Returns the template characters.
+   */
+  public char []getChars()
+  {
+    return _chars;
+  }
+
+  /**
+   * Returns the length in characters.
+   */
+  public int length()
+  {
+    return _chars.length;
+  }
+
+  /**
+   * Writes the text to the page's writer.
+   */
+  public void write(Writer out)
+    throws IOException
+  {
+    if (out instanceof JspWriterAdapter)
+      ((JspWriterAdapter) out).write(this);
+    else
+      out.write(_chars, 0, _chars.length);
+  }
+
+  /**
+   * Returns the text encoded by the writer's encoding, or null if
+   * the text can't be pre-encoded.
+   */
+  byte []getBytes(EncodingWriter encoder)
+  {
+    String encoding = encoder.getJavaEncoding();
+
+    if (encoding == null)
+      return null;
+
+    Encoded []encodedList = _encodedList;
+
+    for (Encoded encoded : encodedList) {
+      if (encoded._encoding.equals(encoding))
+        return encoded._bytes;
+    }
+
+    if (ENCODING_MAX <= encodedList.length)
+      return null;
+
+    byte []bytes = encode(encoder);
+
+    Encoded []newList = new Encoded[encodedList.length + 1];
+    System.arraycopy(encodedList, 0, newList, 0, encodedList.length);
+    newList[encodedList.length] = new Encoded(encoding, bytes);
+
+    // a lost update only costs another encoding
+    _encodedList = newList;
+
+    return bytes;
+  }
+
+  private byte []encode(EncodingWriter encoder)
+  {
+    int length = _chars.length;
+
+    // a trailing high surrogate would be joined with the following text
+    if (length > 0 && Character.isHighSurrogate(_chars[length - 1]))
+      return null;
+
+    try {
+      EncodingWriter writer;
+
+      try {
+        // a fresh writer, since encoders may keep state
+        writer = encoder.create();
+      } catch (UnsupportedOperationException e) {
+        // the JDK writers are bound to their stream
+        Charset charset = Charset.forName(encoder.getJavaEncoding());
+
+        return new String(_chars).getBytes(charset);
+      }
+
+      ByteBuilder os = new ByteBuilder(length);
+
+      if (writer.write(os, _chars, 0, length) < length)
+        return null;
+
+      return os.toByteArray();
+    } catch (Exception e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      return null;
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _chars.length + "]";
+  }
+
+  static final class Encoded {
+    private final String _encoding;
+    private final byte []_bytes;
+
+    Encoded(String encoding, byte []bytes)
+    {
+      _encoding = encoding;
+      _bytes = bytes;
+    }
+  }
+
+  /**
+   * Byte buffer for the encoders. Like the response stream, nextBuffer
+   * returns an empty buffer of the same size.
+   */
+  static final class ByteBuilder extends OutputStreamWithBuffer {
+    private final ByteArrayOutputStream _out;
+    private final byte []_buffer = new byte[256];
+    private int _offset;
+
+    ByteBuilder(int capacity)
+    {
+      _out = new ByteArrayOutputStream(capacity);
+    }
+
+    @Override
+    public byte []getBuffer()
+    {
+      return _buffer;
+    }
+
+    @Override
+    public int getBufferOffset()
+    {
+      return _offset;
+    }
+
+    @Override
+    public void setBufferOffset(int offset)
+    {
+      _offset = offset;
+    }
+
+    @Override
+    public byte []nextBuffer(int offset)
+    {
+      _out.write(_buffer, 0, offset);
+      _offset = 0;
+
+      return _buffer;
+    }
+
+    @Override
+    public boolean isClosed()
+    {
+      return false;
+    }
+
+    @Override
+    public void write(int value)
+    {
+      if (_buffer.length <= _offset)
+        nextBuffer(_offset);
+
+      _buffer[_offset++] = (byte) value;
+    }
+
+    @Override
+    public void write(byte []buffer, int offset, int length)
+    {
+      nextBuffer(_offset);
+
+      _out.write(buffer, offset, length);
+    }
+
+    byte []toByteArray()
+    {
+      nextBuffer(_offset);
+
+      return _out.toByteArray();
+    }
+  }
+}
@@ -38,6 +38,7 @@ import javax.servlet.jsp.JspWriter;
 
 import com.caucho.server.http.AbstractResponseStream;
 import com.caucho.server.http.CauchoResponse;
+import com.caucho.vfs.i18n.EncodingWriter;
 
 /**
  * A buffered JSP writer encapsulating a Writer.
@@ -106,6 +107,31 @@ public class JspWriterAdapter extends AbstractBodyContent {
     _out.print(buf, offset, length);
   }
   
+  /**
+   * Writes static template text, using the pre-encoded bytes when the
+   * response stream can accept them.
+   */
+  final void write(JspStaticText text)
+    throws IOException
+  {
+    AbstractResponseStream out = _out;
+
+    if (! _isClosed && out != null) {
+      EncodingWriter encoder = out.getPrintEncoder();
+
+      if (encoder != null) {
+        byte []bytes = text.getBytes(encoder);
+
+        if (bytes != null && out.printEncoded(bytes, 0, bytes.length))
+          return;
+      }
+    }
+
+    char []chars = text.getChars();
+
+    write(chars, 0, chars.length);
+  }
+
   /**
    * Writes a character to the output.
    *
@@ -30,6 +30,7 @@
 package com.caucho.jsp.el;
 
 import com.caucho.el.AbstractVariableResolver;
+import com.caucho.el.CacheableELResolver;
 import com.caucho.jsp.PageContextImpl;
 
 import javax.el.*;
@@ -47,7 +48,9 @@ import java.util.logging.Level;
 /**
  * Variable resolution for JSP variables
  */
-public class PageContextELResolver extends AbstractVariableResolver {
+public class PageContextELResolver extends AbstractVariableResolver
+  implements CacheableELResolver
+{
   private final static Logger log
     = Logger.getLogger(PageContextELResolver.class.getName());
   
@@ -79,6 +82,16 @@ public class PageContextELResolver extends AbstractVariableResolver {
     return _customResolvers;
   }
 
+  /**
+   * Non-null bases use the standard resolvers unless the application
+   * has added custom resolvers.
+   */
+  @Override
+  public boolean isStandardResolution(ELContext env)
+  {
+    return _customResolvers.length == 0;
+  }
+
   @Override
   public Class<?> getCommonPropertyType(ELContext env,
                                         Object base)
@@ -2306,9 +2306,9 @@ public class JavaJspGenerator extends JspGenerator {
       int j = _strings.get(key);
 
       if (_ideHack)
-        out.println("private final char []_jsp_string" + j + ";");
+        out.println("private final com.caucho.jsp.JspStaticText _jsp_string" + j + ";");
       else
-        out.println("private final static char []_jsp_string" + j + ";");
+        out.println("private final static com.caucho.jsp.JspStaticText _jsp_string" + j + ";");
     }
 
     if (_ideHack) {
@@ -2334,7 +2334,7 @@ public class JavaJspGenerator extends JspGenerator {
       String text = (String) iter.next();
       int j = _strings.get(text);
 
-      out.print("_jsp_string" + j + " = \"");
+      out.print("_jsp_string" + j + " = new com.caucho.jsp.JspStaticText(\"");
 
       for (int i = 0; i < text.length(); i++) {
         char ch = text.charAt(i);
@@ -2356,7 +2356,7 @@ public class JavaJspGenerator extends JspGenerator {
         }
       }
 
-      out.println("\".toCharArray();");
+      out.println("\".toCharArray());");
     }
     if (_config.isStaticEncoding() && enc != null) {
       out.popDepth();
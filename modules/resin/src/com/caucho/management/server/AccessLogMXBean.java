@@ -41,6 +41,34 @@ import com.caucho.jmx.Name;
  */
 @Description("Resin's access-log")
 public interface AccessLogMXBean extends ManagedObjectMXBean {
+  //
+  // Statistics
+  //
+
+  /**
+   * Returns the entries queued in async-format mode.
+   */
+  @Description("The number of entries queued by async-format")
+  public long getAsyncLogCount();
+
+  /**
+   * Returns the entries dropped because the async-format ring was full.
+   */
+  @Description("The number of entries dropped because the async-format queue was full")
+  public long getAsyncDropCount();
+
+  /**
+   * Returns the number of times a request waited for the async ring.
+   */
+  @Description("The number of times a request waited for the async-format queue")
+  public long getAsyncBlockCount();
+
+  /**
+   * Returns the current async-format queue size.
+   */
+  @Description("The current async-format queue size")
+  public int getAsyncQueueSize();
+
   //
   // Operations
   //
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.management.server;
+
+import com.caucho.jmx.Description;
+
+/**
+ * Management interface for an Amber persistence unit's caches.
+ *
+ * <pre>
+ * resin:type=AmberPersistenceUnit,name=...
+ * </pre>
+ */
+@Description("An Amber persistence unit")
+public interface AmberPersistenceUnitMXBean extends ManagedObjectMXBean {
+  //
+  // Configuration
+  //
+
+  /**
+   * Returns true if invalidations are shared with the cluster.
+   */
+  @Description("True if cache invalidations are shared with the cluster")
+  public boolean isClusterCache();
+
+  //
+  // Statistics
+  //
+
+  /**
+   * Returns the entity cache hit count.
+   */
+  @Description("The total number of entity lookups that hit the cache")
+  public long getEntityCacheHitCountTotal();
+
+  /**
+   * Returns the entity cache miss count.
+   */
+  @Description("The total number of entity lookups that missed the cache")
+  public long getEntityCacheMissCountTotal();
+
+  /**
+   * Returns the query cache hit count.
+   */
+  @Description("The total number of query lookups that hit the cache")
+  public long getQueryCacheHitCountTotal();
+
+  /**
+   * Returns the query cache miss count.
+   */
+  @Description("The total number of query lookups that missed the cache")
+  public long getQueryCacheMissCountTotal();
+
+  /**
+   * Returns the number of invalidations sent to the cluster.
+   */
+  @Description("The total number of invalidations published to the cluster")
+  public long getInvalidatePublishCountTotal();
+
+  /**
+   * Returns the number of precise row invalidations from the cluster.
+   */
+  @Description("The total number of row invalidations received from the cluster")
+  public long getInvalidateRowReceiveCountTotal();
+
+  /**
+   * Returns the number of table-wide invalidations from the cluster.
+   */
+  @Description("The total number of table invalidations received from the cluster")
+  public long getInvalidateTableReceiveCountTotal();
+
+  /**
+   * Returns the per-entity cache statistics.
+   */
+  @Description("The per-entity cache statistics")
+  public CacheItem []getEntityCacheItems();
+}
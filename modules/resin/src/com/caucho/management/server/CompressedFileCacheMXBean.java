@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.management.server;
+
+import com.caucho.jmx.Description;
+
+/**
+ * Management interface for the FileServlet's compressed variant cache.
+ *
+ * <pre>
+ * resin:type=CompressedFileCache
+ * </pre>
+ */
+@Description("The FileServlet's cache of gzip/brotli file variants")
+public interface CompressedFileCacheMXBean extends ManagedObjectMXBean {
+  //
+  // Configuration
+  //
+
+  /**
+   * Returns the maximum memory for in-memory variants.
+   */
+  @Description("The maximum memory used by in-memory variants")
+  public long getMemoryMax();
+
+  //
+  // Statistics
+  //
+
+  /**
+   * Returns the number of cached entries.
+   */
+  @Description("The number of cached entries")
+  public int getEntryCount();
+
+  /**
+   * Returns the memory used by in-memory variants.
+   */
+  @Description("The memory used by in-memory variants")
+  public long getMemorySize();
+
+  /**
+   * Returns the number of requests served from a cached variant.
+   */
+  @Description("The number of compressible requests served from a cached variant")
+  public long getHitCountTotal();
+
+  /**
+   * Returns the number of requests served from a precompressed sibling.
+   */
+  @Description("The number of requests served from a precompressed .gz/.br sibling")
+  public long getSiblingHitCountTotal();
+
+  /**
+   * Returns the number of requests which missed the cache.
+   */
+  @Description("The number of compressible requests which missed the cache")
+  public long getMissCountTotal();
+
+  /**
+   * Returns the hit ratio.
+   */
+  @Description("The ratio of cache hits to compressible requests")
+  public double getHitRatio();
+
+  /**
+   * Returns the number of files compressed.
+   */
+  @Description("The number of files compressed on demand")
+  public long getCompressCountTotal();
+
+  /**
+   * Returns the number of variants evicted.
+   */
+  @Description("The number of variants evicted from the cache")
+  public long getEvictCountTotal();
+
+  //
+  // Operations
+  //
+
+  /**
+   * Clears the cache.
+   */
+  @Description("Clear the cache")
+  public void clearCache();
+}
@@ -0,0 +1,511 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.memcached;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import com.caucho.distcache.ClusterCache;
+import com.caucho.distcache.ExtCacheEntry;
+import com.caucho.memcached.MemcachedConnection.StoreCommand;
+import com.caucho.memcached.MemcachedConnection.StoreResult;
+import com.caucho.util.CurrentTime;
+import com.caucho.vfs.ReadStream;
+import com.caucho.vfs.WriteStream;
+
+/**
+ * Memcached binary protocol, selected per request by the 0x80 magic byte.
+ *
+ * The quiet commands (getq, setq, ...) only reply on a miss or error, so
+ * a client can pipeline a batch and end it with a noop.
+ */
+class MemcachedBinaryHandler
+{
+  static final int MAGIC_REQUEST = 0x80;
+  static final int MAGIC_RESPONSE = 0x81;
+
+  static final int OP_GET = 0x00;
+  static final int OP_SET = 0x01;
+  static final int OP_ADD = 0x02;
+  static final int OP_REPLACE = 0x03;
+  static final int OP_DELETE = 0x04;
+  static final int OP_INCREMENT = 0x05;
+  static final int OP_DECREMENT = 0x06;
+  static final int OP_QUIT = 0x07;
+  static final int OP_GETQ = 0x09;
+  static final int OP_NOOP = 0x0a;
+  static final int OP_VERSION = 0x0b;
+  static final int OP_GETK = 0x0c;
+  static final int OP_GETKQ = 0x0d;
+  static final int OP_APPEND = 0x0e;
+  static final int OP_PREPEND = 0x0f;
+  static final int OP_SETQ = 0x11;
+  static final int OP_ADDQ = 0x12;
+  static final int OP_REPLACEQ = 0x13;
+  static final int OP_DELETEQ = 0x14;
+  static final int OP_INCREMENTQ = 0x15;
+  static final int OP_DECREMENTQ = 0x16;
+  static final int OP_QUITQ = 0x17;
+  static final int OP_APPENDQ = 0x19;
+  static final int OP_PREPENDQ = 0x1a;
+
+  static final int STATUS_OK = 0x00;
+  static final int STATUS_KEY_NOT_FOUND = 0x01;
+  static final int STATUS_KEY_EXISTS = 0x02;
+  static final int STATUS_INVALID_ARGUMENTS = 0x04;
+  static final int STATUS_NOT_STORED = 0x05;
+  static final int STATUS_NON_NUMERIC = 0x06;
+  static final int STATUS_UNKNOWN_COMMAND = 0x81;
+
+  static final int HEADER_LENGTH = 24;
+
+  private static final byte []VERSION = "1.4.0".getBytes();
+
+  private static final StoreCommand SET = new MemcachedConnection.SetCommand();
+  private static final StoreCommand ADD = new MemcachedConnection.AddCommand();
+  private static final StoreCommand REPLACE
+    = new MemcachedConnection.ReplaceCommand();
+  private static final StoreCommand APPEND
+    = new MemcachedConnection.AppendCommand();
+  private static final StoreCommand PREPEND
+    = new MemcachedConnection.PrependCommand();
+
+  private static final MemcachedConnection.IncrementCommand INCREMENT
+    = new MemcachedConnection.IncrementCommand();
+  private static final MemcachedConnection.DeleteCommand DELETE
+    = new MemcachedConnection.DeleteCommand();
+
+  private final MemcachedConnection _conn;
+
+  private final byte []_header = new byte[HEADER_LENGTH];
+  private final byte []_extras = new byte[255];
+  private final StringBuilder _key = new StringBuilder();
+
+  MemcachedBinaryHandler(MemcachedConnection conn)
+  {
+    _conn = conn;
+  }
+
+  /**
+   * Handles a request whose magic byte has already been read.
+   */
+  boolean handleRequest(ReadStream is)
+    throws IOException
+  {
+    byte []header = _header;
+
+    header[0] = (byte) MAGIC_REQUEST;
+
+    if (is.readAll(header, 1, HEADER_LENGTH - 1) != HEADER_LENGTH - 1)
+      return false;
+
+    int opcode = header[1] & 0xff;
+    int keyLength = getShort(header, 2);
+    int extLength = header[4] & 0xff;
+    long bodyLength = getInt(header, 8) & 0xffffffffL;
+    int opaque = getInt(header, 12);
+    long cas = getLong(header, 16);
+
+    long valueLength = bodyLength - extLength - keyLength;
+
+    if (valueLength < 0)
+      return false;
+
+    if (extLength > 0 && is.readAll(_extras, 0, extLength) != extLength)
+      return false;
+
+    _key.setLength(0);
+    for (int i = 0; i < keyLength; i++) {
+      int ch = is.read();
+
+      if (ch < 0)
+        return false;
+
+      _key.append((char) ch);
+    }
+
+    String key = _key.toString();
+
+    switch (opcode) {
+    case OP_GET:
+    case OP_GETQ:
+    case OP_GETK:
+    case OP_GETKQ:
+      is.skip(valueLength);
+      get(opcode, key, opaque);
+      return true;
+
+    case OP_SET:
+    case OP_SETQ:
+      store(SET, opcode, key, extLength, valueLength, opaque, cas);
+      return true;
+
+    case OP_ADD:
+    case OP_ADDQ:
+      store(ADD, opcode, key, extLength, valueLength, opaque, 0);
+      return true;
+
+    case OP_REPLACE:
+    case OP_REPLACEQ:
+      store(REPLACE, opcode, key, extLength, valueLength, opaque, cas);
+      return true;
+
+    case OP_APPEND:
+    case OP_APPENDQ:
+      store(APPEND, opcode, key, extLength, valueLength, opaque, cas);
+      return true;
+
+    case OP_PREPEND:
+    case OP_PREPENDQ:
+      store(PREPEND, opcode, key, extLength, valueLength, opaque, cas);
+      return true;
+
+    case OP_DELETE:
+    case OP_DELETEQ:
+      is.skip(valueLength);
+      delete(opcode, key, opaque, cas);
+      return true;
+
+    case OP_INCREMENT:
+    case OP_INCREMENTQ:
+    case OP_DECREMENT:
+    case OP_DECREMENTQ:
+      is.skip(valueLength);
+      increment(opcode, key, extLength, opaque);
+      return true;
+
+    case OP_NOOP:
+      is.skip(valueLength);
+      writeStatus(opcode, STATUS_OK, opaque, 0);
+      return true;
+
+    case OP_VERSION:
+      is.skip(valueLength);
+      writeHeader(opcode, 0, 0, STATUS_OK, VERSION.length, opaque, 0);
+      _conn.getWriteStream().write(VERSION, 0, VERSION.length);
+      return true;
+
+    case OP_QUIT:
+      writeStatus(opcode, STATUS_OK, opaque, 0);
+      _conn.getWriteStream().flush();
+      return false;
+
+    case OP_QUITQ:
+      return false;
+
+    default:
+      is.skip(valueLength);
+      writeStatus(opcode, STATUS_UNKNOWN_COMMAND, opaque, 0);
+      return true;
+    }
+  }
+
+  private void get(int opcode, String key, int opaque)
+    throws IOException
+  {
+    boolean isQuiet = opcode == OP_GETQ || opcode == OP_GETKQ;
+    boolean isKey = opcode == OP_GETK || opcode == OP_GETKQ;
+
+    ClusterCache cache = _conn.getCache();
+    ExtCacheEntry entry = cache.getLiveCacheEntry(key);
+
+    if (entry == null
+        || entry.getValueHash() == 0
+        || entry.isExpired(CurrentTime.getCurrentTime())) {
+      if (! isQuiet)
+        writeStatus(opcode, STATUS_KEY_NOT_FOUND, opaque, 0);
+
+      return;
+    }
+
+    WriteStream out = _conn.getWriteStream();
+
+    int keyLength = isKey ? key.length() : 0;
+    long valueLength = entry.getValueLength();
+
+    writeHeader(opcode, keyLength, 4, STATUS_OK,
+                4 + keyLength + valueLength,
+                opaque, MemcachedConnection.getCasUnique(entry));
+
+    writeInt(out, entry.getUserFlags());
+
+    if (isKey)
+      writeKey(out, key);
+
+    out.setDisableClose(true);
+    entry.readData(out, cache.getConfig());
+  }
+
+  private void store(StoreCommand command,
+                     int opcode,
+                     String key,
+                     int extLength,
+                     long valueLength,
+                     int opaque,
+                     long cas)
+    throws IOException
+  {
+    int flags = 0;
+    long expTime = 0;
+
+    if (extLength >= 8) {
+      flags = getInt(_extras, 0);
+      expTime = getInt(_extras, 4) & 0xffffffffL;
+    }
+
+    long timeout = MemcachedConnection.getExpireTimeout(expTime);
+
+    StoreResult result = command.store(_conn, key, valueLength,
+                                       timeout, flags, cas, cas != 0);
+
+    int status;
+
+    switch (result) {
+    case STORED:
+      status = STATUS_OK;
+      break;
+    case EXISTS:
+      status = STATUS_KEY_EXISTS;
+      break;
+    case NOT_FOUND:
+      status = STATUS_KEY_NOT_FOUND;
+      break;
+    default:
+      status = STATUS_NOT_STORED;
+      break;
+    }
+
+    if (status == STATUS_OK && isQuiet(opcode))
+      return;
+
+    long newCas = 0;
+
+    if (status == STATUS_OK) {
+      ExtCacheEntry entry = _conn.getCache().getExtCacheEntry(key);
+      newCas = MemcachedConnection.getCasUnique(entry);
+    }
+
+    writeStatus(opcode, status, opaque, newCas);
+  }
+
+  private void delete(int opcode, String key, int opaque, long cas)
+    throws IOException
+  {
+    ClusterCache cache = _conn.getCache();
+    int status;
+
+    synchronized (_conn.getKeyLock(key)) {
+      ExtCacheEntry entry = cache.getExtCacheEntry(key);
+      long version = MemcachedConnection.getCasUnique(entry);
+
+      if (version == 0)
+        status = STATUS_KEY_NOT_FOUND;
+      else if (cas != 0 && cas != version)
+        status = STATUS_KEY_EXISTS;
+      else if (DELETE.deleteCache(cache, 0, key))
+        status = STATUS_OK;
+      else
+        status = STATUS_KEY_NOT_FOUND;
+    }
+
+    if (status != STATUS_OK || ! isQuiet(opcode))
+      writeStatus(opcode, status, opaque, 0);
+  }
+
+  private void increment(int opcode, String key, int extLength, int opaque)
+    throws IOException
+  {
+    if (extLength < 20) {
+      writeStatus(opcode, STATUS_INVALID_ARGUMENTS, opaque, 0);
+      return;
+    }
+
+    long delta = getLong(_extras, 0);
+    long initial = getLong(_extras, 8);
+    long expTime = getInt(_extras, 16) & 0xffffffffL;
+
+    if (opcode == OP_DECREMENT || opcode == OP_DECREMENTQ)
+      delta = -delta;
+
+    ClusterCache cache = _conn.getCache();
+    long value;
+
+    synchronized (_conn.getKeyLock(key)) {
+      value = INCREMENT.incrementCache(cache, key, delta);
+
+      // 0xffffffff means the counter must already exist
+      if (value == Long.MIN_VALUE && expTime != 0xffffffffL) {
+        long timeout = MemcachedConnection.getExpireTimeout(expTime);
+        byte []data = String.valueOf(initial).getBytes();
+
+        cache.put(key, new ByteArrayInputStream(data), timeout, timeout, 0);
+
+        value = initial;
+      }
+    }
+
+    if (value == Long.MIN_VALUE) {
+      writeStatus(opcode, STATUS_KEY_NOT_FOUND, opaque, 0);
+      return;
+    }
+
+    if (isQuiet(opcode))
+      return;
+
+    ExtCacheEntry entry = cache.getExtCacheEntry(key);
+
+    writeHeader(opcode, 0, 0, STATUS_OK, 8, opaque,
+                MemcachedConnection.getCasUnique(entry));
+    writeLong(_conn.getWriteStream(), value);
+  }
+
+  private static boolean isQuiet(int opcode)
+  {
+    switch (opcode) {
+    case OP_GETQ:
+    case OP_GETKQ:
+    case OP_SETQ:
+    case OP_ADDQ:
+    case OP_REPLACEQ:
+    case OP_DELETEQ:
+    case OP_INCREMENTQ:
+    case OP_DECREMENTQ:
+    case OP_QUITQ:
+    case OP_APPENDQ:
+    case OP_PREPENDQ:
+      return true;
+
+    default:
+      return false;
+    }
+  }
+
+  private void writeStatus(int opcode, int status, int opaque, long cas)
+    throws IOException
+  {
+    writeHeader(opcode, 0, 0, status, 0, opaque, cas);
+  }
+
+  private void writeHeader(int opcode,
+                           int keyLength,
+                           int extLength,
+                           int status,
+                           long bodyLength,
+                           int opaque,
+                           long cas)
+    throws IOException
+  {
+    writeHeader(_conn.getWriteStream(), MAGIC_RESPONSE, opcode,
+                keyLength, extLength, status, bodyLength, opaque, cas);
+  }
+
+  /**
+   * Writes a request or response header.
+   */
+  static void writeHeader(WriteStream out,
+                          int magic,
+                          int opcode,
+                          int keyLength,
+                          int extLength,
+                          int status,
+                          long bodyLength,
+                          int opaque,
+                          long cas)
+    throws IOException
+  {
+    out.write(magic);
+    out.write(opcode);
+    writeShort(out, keyLength);
+    out.write(extLength);
+    out.write(0);
+    writeShort(out, status);
+    writeInt(out, (int) bodyLength);
+    writeInt(out, opaque);
+    writeLong(out, cas);
+  }
+
+  static void writeKey(WriteStream out, String key)
+    throws IOException
+  {
+    int length = key.length();
+
+    for (int i = 0; i < length; i++) {
+      out.write(key.charAt(i));
+    }
+  }
+
+  static void writeShort(WriteStream out, int value)
+    throws IOException
+  {
+    out.write(value >> 8);
+    out.write(value);
+  }
+
+  static void writeInt(WriteStream out, int value)
+    throws IOException
+  {
+    out.write(value >> 24);
+    out.write(value >> 16);
+    out.write(value >> 8);
+    out.write(value);
+  }
+
+  static void writeLong(WriteStream out, long value)
+    throws IOException
+  {
+    writeInt(out, (int) (value >> 32));
+    writeInt(out, (int) value);
+  }
+
+  static int getShort(byte []buffer, int offset)
+  {
+    return ((buffer[offset] & 0xff) << 8) | (buffer[offset + 1] & 0xff);
+  }
+
+  static int getInt(byte []buffer, int offset)
+  {
+    return (((buffer[offset] & 0xff) << 24)
+            | ((buffer[offset + 1] & 0xff) << 16)
+            | ((buffer[offset + 2] & 0xff) << 8)
+            | (buffer[offset + 3] & 0xff));
+  }
+
+  static long getLong(byte []buffer, int offset)
+  {
+    return (((getInt(buffer, offset) & 0xffffffffL) << 32)
+            | (getInt(buffer, offset + 4) & 0xffffffffL));
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _conn + "]";
+  }
+}
@@ -31,10 +31,16 @@ package com.caucho.memcached;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -60,6 +66,7 @@ import com.caucho.distcache.LocalCache;
 import com.caucho.hessian.io.Hessian2Input;
 import com.caucho.hessian.io.Hessian2Output;
 import com.caucho.network.balance.ClientSocket;
+import com.caucho.network.balance.ClientSocketFactory;
 import com.caucho.server.distcache.CacheConfig;
 import com.caucho.server.distcache.CacheImpl;
 import com.caucho.server.distcache.DistCacheEntry;
@@ -91,11 +98,12 @@ public class MemcachedClient implements Cache
   private Hessian2Input _hIn = new Hessian2Input();
   
   private Boolean _isResin;
+  private boolean _isBinary;
   
   private long _modifiedExpireTimeout = 3600 * 1000L;
   
-  private AtomicReference<CacheImpl> _localCache
-    = new AtomicReference<CacheImpl>();
+  private AtomicReference<CacheImpl<Object,Object>> _localCache
+    = new AtomicReference<CacheImpl<Object,Object>>();
   
   private MemcachedCacheEngine _cacheEngine;
   
@@ -158,6 +166,17 @@ public class MemcachedClient implements Cache
     _modifiedExpireTimeout = timeout.getPeriod();
   }
 
+  /**
+   * Uses the binary protocol for getAll and putAll, pipelining quiet
+   * commands ended by a noop. The server must accept binary requests on
+   * connections also used for text commands, as Resin's memcached does.
+   */
+  @Configurable
+  public void setBinary(boolean isBinary)
+  {
+    _isBinary = isBinary;
+  }
+
   @Override
   public boolean containsKey(Object key) throws CacheException
   {
@@ -461,7 +480,7 @@ public class MemcachedClient implements Cache
       out.print(" ");
       out.print(flags);
       out.print(" ");
-      long expTime = _modifiedExpireTimeout;
+      long expTime = _modifiedExpireTimeout / 1000L;
       out.print(expTime);
       out.print(" ");
       // out.print(ts.getLength());
@@ -665,9 +684,465 @@ public class MemcachedClient implements Cache
         | ((valueHash[7] & 0xffL)));
   }
   
-  private CacheImpl getLocalCache()
+  /**
+   * Returns the value and its cas unique, or null if the key is missing.
+   */
+  public CasValue gets(Object key)
+    throws CacheException
+  {
+    init();
+
+    String keyString = String.valueOf(key);
+
+    ClientSocket client = _loadBalancer.openSticky(null, keyString, null);
+    
+    if (client == null)
+      throw new CacheException("Cannot open client");
+
+    boolean isValid = false;
+    long idleStartTime = CurrentTime.getCurrentTime();
+    
+    try {
+      WriteStream out = client.getOutputStream();
+      ReadStream is = client.getInputStream();
+      
+      out.print("gets ");
+      out.print(keyString);
+      out.print("\r\n");
+      out.flush();
+
+      CharBuffer cb = new CharBuffer();
+
+      readString(is, cb);
+      
+      if (cb.matches("END")) {
+        if (skipToEndOfLine(is))
+          isValid = true;
+        
+        return null;
+      }
+      
+      if (! cb.matches("VALUE"))
+        return null;
+      
+      readString(is, cb);
+
+      long flags = readInt(is);
+      long length = readInt(is);
+      long cas = readInt(is);
+      
+      if (! skipToEndOfLine(is))
+        return null;
+
+      Object value = readValue(is, length, new Hessian2Input());
+
+      if (! skipToEndOfLine(is)
+          || ! readString(is, cb)
+          || ! cb.matches("END")
+          || ! skipToEndOfLine(is)) {
+        return null;
+      }
+      
+      isValid = true;
+      
+      return new CasValue(value, cas);
+    } catch (IOException e) {
+      log.log(Level.FINER, e.toString(), e);
+    } finally {
+      if (isValid)
+        client.free(idleStartTime);
+      else
+        client.close();
+    }
+
+    return null;
+  }
+
+  /**
+   * Stores the value only if the key's cas unique, returned by gets,
+   * still matches.
+   */
+  public boolean cas(Object key, Object value, long cas)
+    throws CacheException
+  {
+    init();
+
+    String keyString = String.valueOf(key);
+
+    ClientSocket client = _loadBalancer.openSticky(null, keyString, null);
+    
+    if (client == null)
+      throw new CacheException("Cannot open client");
+
+    boolean isValid = false;
+    long idleStartTime = CurrentTime.getCurrentTime();
+    
+    try {
+      WriteStream out = client.getOutputStream();
+      ReadStream is = client.getInputStream();
+
+      TempStream ts = serialize(value);
+      
+      out.print("cas ");
+      out.print(keyString);
+      out.print(" 0 ");
+      out.print(_modifiedExpireTimeout / 1000L);
+      out.print(" ");
+      out.print(ts.getLength());
+      out.print(" ");
+      out.print(cas);
+      out.print("\r\n");
+      ts.writeToStream(out);
+      ts.destroy();
+      out.print("\r\n");
+      out.flush();
+
+      String line = is.readLine();
+
+      if ("STORED".equals(line)) {
+        isValid = true;
+        return true;
+      }
+      else if ("EXISTS".equals(line) || "NOT_FOUND".equals(line)) {
+        isValid = true;
+        return false;
+      }
+      else
+        throw new CacheException(L.l("unexpected cas response '{0}'", line));
+    } catch (IOException e) {
+      throw new CacheException(e);
+    } finally {
+      if (isValid)
+        client.free(idleStartTime);
+      else
+        client.close();
+    }
+  }
+
+  /**
+   * Groups the keys by their sticky server so each server gets one batch.
+   */
+  private Collection<ArrayList<String>> groupByServer(Collection<String> keys)
+  {
+    init();
+
+    LinkedHashMap<ClientSocketFactory,ArrayList<String>> groups
+      = new LinkedHashMap<ClientSocketFactory,ArrayList<String>>();
+
+    for (String key : keys) {
+      ClientSocketFactory server = _loadBalancer.getStickyClient(null, key);
+
+      ArrayList<String> group = groups.get(server);
+
+      if (group == null) {
+        group = new ArrayList<String>();
+        groups.put(server, group);
+      }
+
+      group.add(key);
+    }
+
+    return groups.values();
+  }
+
+  private void getGroup(ArrayList<String> keys, Map<String,Object> values)
+    throws CacheException
+  {
+    ClientSocket client = _loadBalancer.openSticky(null, keys.get(0), null);
+    
+    if (client == null)
+      throw new CacheException("Cannot open client");
+
+    boolean isValid = false;
+    long idleStartTime = CurrentTime.getCurrentTime();
+    
+    try {
+      WriteStream out = client.getOutputStream();
+      ReadStream is = client.getInputStream();
+
+      if (_isBinary)
+        isValid = getBinary(out, is, keys, values);
+      else
+        isValid = getText(out, is, keys, values);
+    } catch (IOException e) {
+      log.log(Level.FINER, e.toString(), e);
+    } finally {
+      if (isValid)
+        client.free(idleStartTime);
+      else
+        client.close();
+    }
+  }
+
+  /**
+   * Sends one multi-key get.
+   */
+  private boolean getText(WriteStream out,
+                          ReadStream is,
+                          ArrayList<String> keys,
+                          Map<String,Object> values)
+    throws IOException
+  {
+    out.print("get");
+
+    for (String key : keys) {
+      out.print(" ");
+      out.print(key);
+    }
+
+    out.print("\r\n");
+    out.flush();
+
+    CharBuffer cb = new CharBuffer();
+    Hessian2Input hIn = new Hessian2Input();
+
+    while (readString(is, cb)) {
+      if (cb.matches("END"))
+        return skipToEndOfLine(is);
+      else if (! cb.matches("VALUE"))
+        return false;
+
+      readString(is, cb);
+      String key = cb.toString();
+
+      long flags = readInt(is);
+      long length = readInt(is);
+
+      if (! skipToEndOfLine(is))
+        return false;
+
+      values.put(key, readValue(is, length, hIn));
+
+      if (! skipToEndOfLine(is))
+        return false;
+    }
+
+    return false;
+  }
+
+  /**
+   * Pipelines a getkq for each key, ended by a noop. Misses are silent.
+   */
+  private boolean getBinary(WriteStream out,
+                            ReadStream is,
+                            ArrayList<String> keys,
+                            Map<String,Object> values)
+    throws IOException
+  {
+    int size = keys.size();
+
+    for (int i = 0; i < size; i++) {
+      String key = keys.get(i);
+
+      MemcachedBinaryHandler.writeHeader(out,
+                                         MemcachedBinaryHandler.MAGIC_REQUEST,
+                                         MemcachedBinaryHandler.OP_GETKQ,
+                                         key.length(), 0, 0,
+                                         key.length(), i, 0);
+      MemcachedBinaryHandler.writeKey(out, key);
+    }
+
+    writeNoop(out, size);
+    out.flush();
+
+    byte []header = new byte[MemcachedBinaryHandler.HEADER_LENGTH];
+    Hessian2Input hIn = new Hessian2Input();
+
+    while (true) {
+      int opcode = readBinaryHeader(is, header);
+
+      if (opcode < 0)
+        return false;
+      else if (opcode == MemcachedBinaryHandler.OP_NOOP)
+        return true;
+
+      int keyLength = MemcachedBinaryHandler.getShort(header, 2);
+      int extLength = header[4] & 0xff;
+      int status = MemcachedBinaryHandler.getShort(header, 6);
+      long bodyLength = MemcachedBinaryHandler.getInt(header, 8) & 0xffffffffL;
+      int opaque = MemcachedBinaryHandler.getInt(header, 12);
+
+      long valueLength = bodyLength - extLength - keyLength;
+
+      is.skip(extLength + keyLength);
+
+      if (status != MemcachedBinaryHandler.STATUS_OK
+          || opaque < 0 || size <= opaque) {
+        is.skip(valueLength);
+        continue;
+      }
+
+      values.put(keys.get(opaque), readValue(is, valueLength, hIn));
+    }
+  }
+
+  private void putGroup(ArrayList<String> keys, Map<String,Object> values)
+    throws CacheException
+  {
+    ClientSocket client = _loadBalancer.openSticky(null, keys.get(0), null);
+    
+    if (client == null)
+      throw new CacheException("Cannot put memcache");
+
+    boolean isValid = false;
+    long idleStartTime = CurrentTime.getCurrentTime();
+    
+    try {
+      WriteStream out = client.getOutputStream();
+      ReadStream is = client.getInputStream();
+
+      if (_isBinary)
+        isValid = putBinary(out, is, keys, values);
+      else
+        isValid = putText(out, is, keys, values);
+    } catch (IOException e) {
+      log.log(Level.FINER, e.toString(), e);
+    } finally {
+      if (isValid)
+        client.free(idleStartTime);
+      else
+        client.close();
+    }
+  }
+
+  /**
+   * Writes all the sets before reading any of the replies.
+   */
+  private boolean putText(WriteStream out,
+                          ReadStream is,
+                          ArrayList<String> keys,
+                          Map<String,Object> values)
+    throws IOException
+  {
+    long expTime = _modifiedExpireTimeout / 1000L;
+
+    for (String key : keys) {
+      TempStream ts = serialize(values.get(key));
+
+      out.print("set ");
+      out.print(key);
+      out.print(" 0 ");
+      out.print(expTime);
+      out.print(" ");
+      out.print(ts.getLength());
+      out.print("\r\n");
+      ts.writeToStream(out);
+      ts.destroy();
+      out.print("\r\n");
+    }
+
+    out.flush();
+
+    for (String key : keys) {
+      String line = is.readLine();
+
+      if (line == null)
+        return false;
+      else if (! "STORED".equals(line)) {
+        log.fine(this + " set " + key + " failed: " + line);
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Pipelines a setq for each key, ended by a noop. Only failures reply.
+   */
+  private boolean putBinary(WriteStream out,
+                            ReadStream is,
+                            ArrayList<String> keys,
+                            Map<String,Object> values)
+    throws IOException
+  {
+    int expTime = (int) (_modifiedExpireTimeout / 1000L);
+    int size = keys.size();
+
+    for (int i = 0; i < size; i++) {
+      String key = keys.get(i);
+      TempStream ts = serialize(values.get(key));
+
+      MemcachedBinaryHandler.writeHeader(out,
+                                         MemcachedBinaryHandler.MAGIC_REQUEST,
+                                         MemcachedBinaryHandler.OP_SETQ,
+                                         key.length(), 8, 0,
+                                         8 + key.length() + ts.getLength(),
+                                         i, 0);
+      MemcachedBinaryHandler.writeInt(out, 0);
+      MemcachedBinaryHandler.writeInt(out, expTime);
+      MemcachedBinaryHandler.writeKey(out, key);
+      ts.writeToStream(out);
+      ts.destroy();
+    }
+
+    writeNoop(out, size);
+    out.flush();
+
+    byte []header = new byte[MemcachedBinaryHandler.HEADER_LENGTH];
+
+    while (true) {
+      int opcode = readBinaryHeader(is, header);
+
+      if (opcode < 0)
+        return false;
+      else if (opcode == MemcachedBinaryHandler.OP_NOOP)
+        return true;
+
+      int status = MemcachedBinaryHandler.getShort(header, 6);
+      long bodyLength = MemcachedBinaryHandler.getInt(header, 8) & 0xffffffffL;
+      int opaque = MemcachedBinaryHandler.getInt(header, 12);
+
+      is.skip(bodyLength);
+
+      if (0 <= opaque && opaque < size) {
+        log.fine(this + " set " + keys.get(opaque)
+                 + " failed: status 0x" + Integer.toHexString(status));
+      }
+    }
+  }
+
+  private void writeNoop(WriteStream out, int opaque)
+    throws IOException
+  {
+    MemcachedBinaryHandler.writeHeader(out,
+                                       MemcachedBinaryHandler.MAGIC_REQUEST,
+                                       MemcachedBinaryHandler.OP_NOOP,
+                                       0, 0, 0, 0, opaque, 0);
+  }
+
+  /**
+   * Reads a response header, returning the opcode or -1 on a bad frame.
+   */
+  private int readBinaryHeader(ReadStream is, byte []header)
+    throws IOException
+  {
+    if (is.readAll(header, 0, header.length) != header.length)
+      return -1;
+
+    if ((header[0] & 0xff) != MemcachedBinaryHandler.MAGIC_RESPONSE)
+      return -1;
+
+    return header[1] & 0xff;
+  }
+
+  private Object readValue(ReadStream is, long length, Hessian2Input hIn)
+    throws IOException
+  {
+    GetInputStream gis = new GetInputStream(is, length);
+
+    hIn.init(gis);
+
+    Object value = hIn.readObject();
+
+    gis.skipRemaining();
+
+    return value;
+  }
+  
+  @SuppressWarnings("unchecked")
+  private CacheImpl<Object,Object> getLocalCache()
   {
-    CacheImpl cache = _localCache.get();
+    CacheImpl<Object,Object> cache = _localCache.get();
     
     if (cache == null) {
       LocalCache localCache = new LocalCache();
@@ -779,7 +1254,7 @@ public class MemcachedClient implements Cache
   private boolean readString(ReadStream is, CharBuffer cb)
     throws IOException
   {
-    _cb.clear();
+    cb.clear();
     
     int ch = is.read();
   
@@ -893,8 +1368,19 @@ public class MemcachedClient implements Cache
   @Override
   public Future loadAll(Set keys) throws CacheException
   {
-    // TODO Auto-generated method stub
-    return null;
+    final Map values = getAll(keys);
+
+    FutureTask<Map> future = new FutureTask<Map>(new Callable<Map>() {
+      @Override
+      public Map call()
+      {
+        return values;
+      }
+    });
+
+    future.run();
+
+    return future;
   }
   
   private TempStream serialize(Object value)
@@ -920,8 +1406,32 @@ public class MemcachedClient implements Cache
   @Override
   public void putAll(Map map) throws CacheException
   {
-    // TODO Auto-generated method stub
+    if (_isResin == null)
+      initResin();
+    
+    boolean isResin = _isResin != null && _isResin;
     
+    if (isResin) {
+      CacheImpl<Object,Object> cache = getLocalCache();
+
+      for (Object entryObj : map.entrySet()) {
+        Map.Entry<?,?> entry = (Map.Entry<?,?>) entryObj;
+
+        cache.put(entry.getKey(), entry.getValue());
+      }
+    }
+
+    LinkedHashMap<String,Object> values = new LinkedHashMap<String,Object>();
+
+    for (Object entryObj : map.entrySet()) {
+      Map.Entry<?,?> entry = (Map.Entry<?,?>) entryObj;
+
+      values.put(String.valueOf(entry.getKey()), entry.getValue());
+    }
+
+    for (ArrayList<String> keys : groupByServer(values.keySet())) {
+      putGroup(keys, values);
+    }
   }
 
   /* (non-Javadoc)
@@ -961,8 +1471,12 @@ public class MemcachedClient implements Cache
   public boolean replace(Object key, Object oldValue, Object newValue)
       throws CacheException
   {
-    // TODO Auto-generated method stub
-    return false;
+    CasValue casValue = gets(key);
+
+    if (casValue == null || ! oldValue.equals(casValue.getValue()))
+      return false;
+
+    return cas(key, newValue, casValue.getCas());
   }
 
   /* (non-Javadoc)
@@ -1079,6 +1593,15 @@ public class MemcachedClient implements Cache
       
       return sublen;
     }
+
+    void skipRemaining()
+      throws IOException
+    {
+      if (_length > 0) {
+        _is.skip(_length);
+        _length = 0;
+      }
+    }
   }
 
   /* (non-Javadoc)
@@ -1091,6 +1614,36 @@ public class MemcachedClient implements Cache
     return null;
   }
   
+  /**
+   * A value with its cas unique from gets.
+   */
+  public static class CasValue {
+    private final Object _value;
+    private final long _cas;
+
+    CasValue(Object value, long cas)
+    {
+      _value = value;
+      _cas = cas;
+    }
+
+    public Object getValue()
+    {
+      return _value;
+    }
+
+    public long getCas()
+    {
+      return _cas;
+    }
+
+    @Override
+    public String toString()
+    {
+      return getClass().getSimpleName() + "[" + _value + "," + _cas + "]";
+    }
+  }
+  
   static class StickyGenerator implements StickyRequestHashGenerator {
     @Override
     public String getHash(Object requestInfo)
@@ -1106,8 +1659,44 @@ public class MemcachedClient implements Cache
   @Override
   public Map getAll(Set keys)
   {
-    // TODO Auto-generated method stub
-    return null;
+    if (_isResin == null)
+      initResin();
+    
+    boolean isResin = _isResin != null && _isResin;
+    
+    CacheImpl<Object,Object> cache = isResin ? getLocalCache() : null;
+
+    HashMap<Object,Object> result = new HashMap<Object,Object>();
+    LinkedHashMap<String,Object> missKeys = new LinkedHashMap<String,Object>();
+
+    for (Object key : keys) {
+      Object value = cache != null ? cache.get(key) : null;
+
+      if (value != null)
+        result.put(key, value);
+      else
+        missKeys.put(String.valueOf(key), key);
+    }
+
+    if (missKeys.size() == 0)
+      return result;
+
+    HashMap<String,Object> values = new HashMap<String,Object>();
+
+    for (ArrayList<String> group : groupByServer(missKeys.keySet())) {
+      getGroup(group, values);
+    }
+
+    for (Map.Entry<String,Object> entry : values.entrySet()) {
+      Object key = missKeys.get(entry.getKey());
+
+      result.put(key, entry.getValue());
+
+      if (cache != null)
+        cache.put(key, entry.getValue());
+    }
+
+    return result;
   }
 
   /* (non-Javadoc)
@@ -61,6 +61,7 @@ public class MemcachedConnection extends AbstractProtocolConnection
   private SetInputStream _setInputStream = new SetInputStream();
   private GetOutputStream _getOutputStream = new GetOutputStream();
   private StringBuilder _sb = new StringBuilder();
+  private MemcachedBinaryHandler _binary;
   
   MemcachedConnection(MemcachedProtocol memcache, SocketLink link)
   {
@@ -111,6 +112,11 @@ public class MemcachedConnection extends AbstractProtocolConnection
     return _cache;
   }
 
+  Object getKeyLock(String key)
+  {
+    return _memcache.getKeyLock(key);
+  }
+
   @Override
   public boolean handleRequest() throws IOException
   {
@@ -137,6 +143,13 @@ public class MemcachedConnection extends AbstractProtocolConnection
     
     if (ch < 0)
       return false;
+
+    if (ch == MemcachedBinaryHandler.MAGIC_REQUEST) {
+      if (_binary == null)
+        _binary = new MemcachedBinaryHandler(this);
+
+      return _binary.handleRequest(is);
+    }
     
     do {
       _method.append((char) ch);
@@ -201,6 +214,30 @@ public class MemcachedConnection extends AbstractProtocolConnection
         | ((valueHash[7] & 0xffL)));
   }
   
+  /**
+   * Returns the cas unique for an entry, which is the distcache version.
+   */
+  static long getCasUnique(ExtCacheEntry entry)
+  {
+    if (entry == null || entry.isValueNull())
+      return 0;
+
+    return entry.getVersion();
+  }
+
+  /**
+   * Converts a memcached expiration to a timeout in milliseconds.
+   */
+  static long getExpireTimeout(long expTime)
+  {
+    if (expTime <= 0)
+      return 365 * 24 * 60 * 60 * 1000L;
+    else if (expTime <= 60 * 60 * 24 * 30)
+      return 1000L * expTime;
+    else
+      return expTime * 1000L - CurrentTime.getCurrentTime();
+  }
+
   static void addCommand(String name, Command command)
   {
     CharBuffer sb = new CharBuffer();
@@ -215,6 +252,13 @@ public class MemcachedConnection extends AbstractProtocolConnection
     return getClass().getSimpleName() + "[" + _link + "]"; 
   }
   
+  enum StoreResult {
+    STORED,
+    NOT_STORED,
+    EXISTS,
+    NOT_FOUND;
+  }
+
   abstract static class Command {
     abstract public boolean execute(MemcachedConnection conn)
       throws IOException;
@@ -279,6 +323,17 @@ public class MemcachedConnection extends AbstractProtocolConnection
       
       for (; ch >= 0 && ch == ' '; ch = rs.read()) {
       }
+
+      long cas = 0;
+
+      if (isCas()) {
+        for (; '0' <= ch && ch <= '9'; ch = rs.read()) {
+          cas = 10 * cas + ch - '0';
+        }
+
+        for (; ch >= 0 && ch == ' '; ch = rs.read()) {
+        }
+      }
       
       sb.setLength(0);
       
@@ -293,19 +348,10 @@ public class MemcachedConnection extends AbstractProtocolConnection
         throw new IOException("PROTOCOL: " + ch);
       }
       
-      long timeout = 60 * 1000;
-      
-      if (expTime <= 0) {
-        timeout = 365 * 24 * 60 * 60 * 1000L;
-      }
-      else if (expTime <= 60 * 60 * 24 * 30) {
-        timeout = 1000L * expTime;
-      }
-      else {
-        timeout = expTime * 1000L - CurrentTime.getCurrentTime();
-      }
+      long timeout = getExpireTimeout(expTime);
 
-      boolean isStored = doCommand(conn, key, bytes, timeout, flags);
+      StoreResult result = store(conn, key, bytes, timeout, flags,
+                                 cas, isCas());
       
       ch = rs.read();
       if (ch != '\r') {
@@ -319,21 +365,80 @@ public class MemcachedConnection extends AbstractProtocolConnection
         throw new IOException("PROTOCOL: " + ch);
       }
 
-      if (isNoReply) {
-        
-      }
-      else if (isStored) {
-        out.print("STORED\r\n");
-      }
-      else {
-        out.print("NOT_STORED\r\n");
+      if (! isNoReply) {
+        out.print(result.name());
+        out.print("\r\n");
       }
       
       return true;
     }
+
+    protected boolean isCas()
+    {
+      return false;
+    }
+
+    /**
+     * Stores the value under the key lock. For cas, the entry's version
+     * must match or the value is skipped.
+     *
+     * Values already in the read buffer are streamed directly, larger
+     * ones are buffered first so the lock isn't held on a socket read.
+     */
+    StoreResult store(MemcachedConnection conn,
+                      String key,
+                      long bytes,
+                      long timeout,
+                      int flags,
+                      long cas,
+                      boolean isCas)
+      throws IOException
+    {
+      ReadStream rs = conn.getReadStream();
+      SetInputStream setIs = conn.getSetInputStream();
+
+      setIs.init(rs, bytes);
+
+      TempStream ts = null;
+      InputStream is = setIs;
+
+      if (rs.getBufferAvailable() < bytes) {
+        ts = new TempStream();
+
+        WriteStream os = new WriteStream(ts);
+        os.writeStream(setIs);
+        os.close();
+
+        is = ts.openRead();
+      }
+
+      try {
+        synchronized (conn.getKeyLock(key)) {
+          if (isCas) {
+            ExtCacheEntry entry = conn.getCache().getExtCacheEntry(key);
+            long version = getCasUnique(entry);
+
+            if (version == 0 || version != cas) {
+              is.skip(bytes);
+
+              return version == 0 ? StoreResult.NOT_FOUND : StoreResult.EXISTS;
+            }
+          }
+
+          if (doCommand(conn, key, is, bytes, timeout, flags))
+            return StoreResult.STORED;
+          else
+            return StoreResult.NOT_STORED;
+        }
+      } finally {
+        if (ts != null)
+          is.close();
+      }
+    }
     
     abstract protected boolean doCommand(MemcachedConnection conn,
                                          String key,
+                                         InputStream is,
                                          long bytes,
                                          long timeout,
                                          int flags)
@@ -344,20 +449,15 @@ public class MemcachedConnection extends AbstractProtocolConnection
     @Override
     public boolean doCommand(MemcachedConnection conn,
                              String key,
+                             InputStream is,
                              long bytes,
                              long expireTimeout,
                              int flags)
       throws IOException
     {
-      ReadStream rs = conn.getReadStream();
-      
-      SetInputStream setIs = conn.getSetInputStream();
-
-      setIs.init(rs, bytes);
-      
       ClusterCache cache = conn.getCache();
 
-      cache.put(key, setIs, expireTimeout, expireTimeout, flags);
+      cache.put(key, is, expireTimeout, expireTimeout, flags);
       
       // ExtCacheEntry entry = cache.peekExtCacheEntry(key);
 
@@ -365,10 +465,19 @@ public class MemcachedConnection extends AbstractProtocolConnection
     }
   }
   
+  static class CasCommand extends SetCommand {
+    @Override
+    protected boolean isCas()
+    {
+      return true;
+    }
+  }
+  
   static class AddCommand extends StoreCommand {
     @Override
     public boolean doCommand(MemcachedConnection conn,
                              String key,
+                             InputStream is,
                              long bytes,
                              long timeout,
                              int flags)
@@ -378,21 +487,14 @@ public class MemcachedConnection extends AbstractProtocolConnection
       
       ExtCacheEntry entry = cache.getExtCacheEntry(key);
       
-      ReadStream rs = conn.getReadStream();
-      
       if (entry != null && ! entry.isValueNull()) {
-        rs.skip(bytes);
+        is.skip(bytes);
         
         return false;
       }
       
       
-      SetInputStream setIs = conn.getSetInputStream();
-
-      setIs.init(rs, bytes);
-      
-      
-      cache.put(key, setIs, timeout, flags);
+      cache.put(key, is, timeout, flags);
       
       WriteStream out = conn.getWriteStream();
       out.setDisableClose(true);
@@ -405,6 +507,7 @@ public class MemcachedConnection extends AbstractProtocolConnection
     @Override
     public boolean doCommand(MemcachedConnection conn,
                              String key,
+                             InputStream is,
                              long bytes,
                              long timeout,
                              int flags)
@@ -414,21 +517,14 @@ public class MemcachedConnection extends AbstractProtocolConnection
       
       ExtCacheEntry entry = cache.getExtCacheEntry(key);
       
-      ReadStream rs = conn.getReadStream();
-      
       if (entry == null || entry.isValueNull()) {
-        rs.skip(bytes);
+        is.skip(bytes);
         
         return false;
       }
       
       
-      SetInputStream setIs = conn.getSetInputStream();
-
-      setIs.init(rs, bytes);
-      
-      
-      cache.put(key, setIs, timeout, flags);
+      cache.put(key, is, timeout, flags);
       
       WriteStream out = conn.getWriteStream();
       out.setDisableClose(true);
@@ -441,6 +537,7 @@ public class MemcachedConnection extends AbstractProtocolConnection
     @Override
     public boolean doCommand(MemcachedConnection conn,
                              String key,
+                             InputStream is,
                              long bytes,
                              long timeout,
                              int flags)
@@ -450,10 +547,8 @@ public class MemcachedConnection extends AbstractProtocolConnection
       
       ExtCacheEntry entry = cache.getExtCacheEntry(key);
       
-      ReadStream rs = conn.getReadStream();
-      
       if (entry == null || entry.isValueNull()) {
-        rs.skip(bytes);
+        is.skip(bytes);
         
         return false;
       }
@@ -465,11 +560,7 @@ public class MemcachedConnection extends AbstractProtocolConnection
       
       cache.get(key, os);
       
-      SetInputStream setIs = conn.getSetInputStream();
-
-      setIs.init(rs, bytes);
-      
-      os.writeStream(setIs);
+      os.writeStream(is);
       os.setDisableClose(false);
       os.close();
       
@@ -486,6 +577,7 @@ public class MemcachedConnection extends AbstractProtocolConnection
     @Override
     public boolean doCommand(MemcachedConnection conn,
                              String key,
+                             InputStream is,
                              long bytes,
                              long timeout,
                              int flags)
@@ -495,10 +587,8 @@ public class MemcachedConnection extends AbstractProtocolConnection
       
       ExtCacheEntry entry = cache.getExtCacheEntry(key);
       
-      ReadStream rs = conn.getReadStream();
-      
       if (entry == null || entry.isValueNull()) {
-        rs.skip(bytes);
+        is.skip(bytes);
         
         return false;
       }
@@ -508,11 +598,7 @@ public class MemcachedConnection extends AbstractProtocolConnection
       WriteStream os = new WriteStream(ts);
       os.setDisableClose(true);
       
-      SetInputStream setIs = conn.getSetInputStream();
-
-      setIs.init(rs, bytes);
-      
-      os.writeStream(setIs);
+      os.writeStream(is);
       
       cache.get(key, os);
       
@@ -529,6 +615,18 @@ public class MemcachedConnection extends AbstractProtocolConnection
   }
   
   static class GetCommand extends Command {
+    private final boolean _isCas;
+
+    GetCommand()
+    {
+      this(false);
+    }
+
+    GetCommand(boolean isCas)
+    {
+      _isCas = isCas;
+    }
+
     @Override
     public boolean execute(MemcachedConnection conn)
       throws IOException
@@ -631,10 +729,12 @@ public class MemcachedConnection extends AbstractProtocolConnection
       long bytes = entry.getValueLength();
       out.print(" ");
       out.print(bytes);
-      /*
-      out.print(" ");
-      out.print(unique);
-      */
+
+      if (_isCas) {
+        out.print(" ");
+        out.print(getCasUnique(entry));
+      }
+
       out.print("\r\n");
 
       // cache.loadData(valueKey, out);
@@ -750,7 +850,13 @@ public class MemcachedConnection extends AbstractProtocolConnection
         }
       }
       
-      if (deleteCache(conn.getCache(), time, key)) {
+      boolean isDeleted;
+
+      synchronized (conn.getKeyLock(key)) {
+        isDeleted = deleteCache(conn.getCache(), time, key);
+      }
+
+      if (isDeleted) {
         if (! isNoReply)
           out.print("DELETED\r\n");
       }
@@ -834,7 +940,11 @@ public class MemcachedConnection extends AbstractProtocolConnection
         }
       }
       
-      long value = changeCache(conn.getCache(), key, delta);
+      long value;
+
+      synchronized (conn.getKeyLock(key)) {
+        value = changeCache(conn.getCache(), key, delta);
+      }
 
       if (isNoReply) {
         
@@ -1035,6 +1145,25 @@ public class MemcachedConnection extends AbstractProtocolConnection
       
       return readLength;
     }
+
+    @Override
+    public long skip(long n)
+      throws IOException
+    {
+      long skipped = 0;
+
+      while (skipped < n && _length > 0) {
+        long sublen = _is.skip(Math.min(n - skipped, _length));
+
+        if (sublen <= 0)
+          break;
+
+        _length -= sublen;
+        skipped += sublen;
+      }
+
+      return skipped;
+    }
   }
 
   static class GetOutputStream extends OutputStream {
@@ -1086,7 +1215,8 @@ public class MemcachedConnection extends AbstractProtocolConnection
     addCommand("add", new AddCommand());
     addCommand("append", new AppendCommand());
     addCommand("get", new GetCommand());
-    addCommand("gets", new GetCommand());
+    addCommand("gets", new GetCommand(true));
+    addCommand("cas", new CasCommand());
     addCommand("get_if_modified", new GetIfModifiedCommand());
     addCommand("decr", new DecrementCommand());
     addCommand("delete", new DeleteCommand());
@@ -42,7 +42,12 @@ import com.caucho.network.listen.SocketLink;
  */
 public class MemcachedProtocol implements Protocol
 {
+  private static final int KEY_LOCK_COUNT = 256;
+
   private ClusterCache _cache;
+
+  // serializes cas, incr and stores against each other for the same key
+  private final Object []_keyLocks = new Object[KEY_LOCK_COUNT];
   
   public MemcachedProtocol()
   {
@@ -50,6 +55,10 @@ public class MemcachedProtocol implements Protocol
     _cache.setName("memcache");
     _cache.setLocalExpireTimeoutMillis(1000);
     _cache.setLeaseExpireTimeoutMillis(60 * 60 * 1000);
+
+    for (int i = 0; i < _keyLocks.length; i++) {
+      _keyLocks[i] = new Object();
+    }
   }
   
   public void setMode(ResinCacheBuilder.Scope scope)
@@ -67,6 +76,11 @@ public class MemcachedProtocol implements Protocol
   {
     return _cache;
   }
+
+  Object getKeyLock(String key)
+  {
+    return _keyLocks[(key.hashCode() & Integer.MAX_VALUE) % KEY_LOCK_COUNT];
+  }
   
   @Override
   public ProtocolConnection createConnection(SocketLink link)
@@ -67,6 +67,8 @@ public class ResinSessionArrayValue extends SessionArrayValue
 
     // copy.setClusterObject(_clusterObject);
 
+    copy.setStoreEncoding(getStoreEncoding());
+
     return copy;
   }
 
@@ -63,6 +63,21 @@ public class MysqlConnectionImpl implements QuercusConnection {
   private static final int UTF8_MB3 = 33;
 
   private static final int COM_QUERY = 0x03;
+  private static final int COM_STMT_PREPARE = 0x16;
+  private static final int COM_STMT_EXECUTE = 0x17;
+  private static final int COM_STMT_CLOSE = 0x19;
+
+  private static final int SERVER_MORE_RESULTS_EXISTS = 0x0008;
+
+  private static final int CURSOR_TYPE_NO_CURSOR = 0x00;
+
+  private static final int TYPE_DOUBLE = 0x05;
+  private static final int TYPE_NULL = 0x06;
+  private static final int TYPE_BIGINT = 0x08;
+  private static final int TYPE_BLOB = 0xfc;
+  private static final int TYPE_VAR_STRING = 0xfd;
+
+  private static final int PREPARED_CACHE_MAX = 64;
 
   private QuercusMysqlDriver _driver;
 
@@ -82,6 +97,27 @@ public class MysqlConnectionImpl implements QuercusConnection {
   private String _catalog;
 
   private State _state = State.IDLE;
+  private boolean _isMoreResults;
+
+  // server-side statements by sql, closed when evicted
+  private final LinkedHashMap<String,MysqlPrepared> _preparedCache
+    = new LinkedHashMap<String,MysqlPrepared>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String,MysqlPrepared> e)
+      {
+        if (size() <= PREPARED_CACHE_MAX)
+          return false;
+
+        _closeList.add(e.getValue().getId());
+
+        return true;
+      }
+    };
+
+  // statement ids to close with the next command
+  private final ArrayList<Integer> _closeList = new ArrayList<Integer>();
+
+  private MysqlResultImpl _skipResult;
 
   enum State {
     IDLE,
@@ -171,6 +207,44 @@ public class MysqlConnectionImpl implements QuercusConnection {
     return createStatement();
   }
 
+  /**
+   * Creates a prepared statement using the binary protocol. The
+   * server-side statement is cached by the connection.
+   */
+  public PreparedStatement prepareStatement(String sql)
+    throws SQLException
+  {
+    return new MysqlPreparedStatementImpl(this, sql);
+  }
+
+  public PreparedStatement prepareStatement(String sql,
+                                            int resultSetType,
+                                            int resultSetConcurrency)
+    throws SQLException
+  {
+    return prepareStatement(sql);
+  }
+
+  public PreparedStatement prepareStatement(String sql,
+                                            int resultSetType,
+                                            int resultSetConcurrency,
+                                            int resultSetHoldability)
+    throws SQLException
+  {
+    return prepareStatement(sql);
+  }
+
+  /**
+   * Creates a prepared statement. The insert id of the OK packet is
+   * always available from getGeneratedKeys.
+   */
+  public PreparedStatement prepareStatement(String sql,
+                                            int autoGeneratedKeys)
+    throws SQLException
+  {
+    return prepareStatement(sql);
+  }
+
   public String getCatalog()
     throws SQLException
   {
@@ -335,9 +409,13 @@ public class MysqlConnectionImpl implements QuercusConnection {
         int status = in.readShort();
         int warningCount = in.readShort();
         String message = in.readTailString();
+
+        _isMoreResults = (status & SERVER_MORE_RESULTS_EXISTS) != 0;
       }
       else if (fieldCount == 0xfe) {
         result.setResultSet(false);
+
+        _isMoreResults = false;
       }
       else {
         result.setResultSet(true);
@@ -425,7 +503,7 @@ public class MysqlConnectionImpl implements QuercusConnection {
     _state = State.FIELD_DATA;
   }
 
-  private void skipRowData()
+  void skipRowData()
     throws SQLException
   {
     if (_state != State.FIELD_DATA)
@@ -433,14 +511,14 @@ public class MysqlConnectionImpl implements QuercusConnection {
 
     try {
       MysqlReader in = _in;
-      
+
       while (true) {
         in.readPacket();
 
         int count = in.readByte();
 
-        if (count == 0xfe || count < 0) { // EOF
-          _state = State.IDLE;
+        if (isEof(in, count)) {
+          readEof(in);
           return;
         }
       }
@@ -449,6 +527,71 @@ public class MysqlConnectionImpl implements QuercusConnection {
     }
   }
 
+  /**
+   * Skips the rest of the current result and any following results
+   * of a multi-statement query.
+   */
+  void skipResults()
+    throws SQLException
+  {
+    skipRowData();
+
+    while (_isMoreResults) {
+      if (_skipResult == null)
+        _skipResult = new MysqlResultImpl(null);
+
+      _isMoreResults = false;
+
+      try {
+        readResult(_skipResult);
+      } catch (SQLException e) {
+        log.log(Level.FINER, e.toString(), e);
+      }
+
+      skipRowData();
+    }
+  }
+
+  /**
+   * Reads the next result of a multi-statement query, returning false
+   * if there are no more results.
+   */
+  boolean readMoreResults(MysqlResultImpl result)
+    throws SQLException
+  {
+    skipRowData();
+
+    if (! _isMoreResults)
+      return false;
+
+    _isMoreResults = false;
+
+    readResult(result);
+
+    return true;
+  }
+
+  private boolean isEof(MysqlReader in, int count)
+  {
+    // a row may also start with 0xfe for a long length-coded value
+    return count < 0 || count == 0xfe && in.getPacketLength() < 9;
+  }
+
+  private void readEof(MysqlReader in)
+    throws IOException
+  {
+    _state = State.IDLE;
+
+    if (in.getPacketLength() >= 5) {
+      int warningCount = in.readShort();
+      int status = in.readShort();
+
+      _isMoreResults = (status & SERVER_MORE_RESULTS_EXISTS) != 0;
+    }
+    else
+      _isMoreResults = false;
+  }
+
   boolean readRow(MysqlResultImpl result)
     throws SQLException
   {
@@ -461,35 +604,41 @@ public class MysqlConnectionImpl implements QuercusConnection {
 
       int count = in.readByte();
 
-      if (count == 0xfe || count < 0) { // EOF
-        _state = State.IDLE;
+      if (isEof(in, count)) {
+        readEof(in);
         return false;
       }
 
-      int fieldCount = result.getColumnCount();
-
       TempOutputStream resultStream = result.getResultStream();
 
       if (resultStream == null)
         throw new NullPointerException();
 
+      if (result.isBinary()) {
+        readBinaryRow(result, resultStream);
+
+        return true;
+      }
+
+      int fieldCount = result.getColumnCount();
+
       int offset = 0;
       int length = 0;
-      int index = 0;
-      MysqlColumn column = result.getColumn(index++);
 
-      length = (int) in.readLengthCodedBinary(count);
+      for (int index = 0; index < fieldCount; index++) {
+        if (index > 0)
+          count = in.readByte();
 
-      column.setRowOffset(offset);
-      column.setRowLength(length);
-      in.readData(resultStream, length);
-      offset += length;
+        MysqlColumn column = result.getColumn(index);
+        column.setRowOffset(offset);
 
-      for (fieldCount--; fieldCount > 0; fieldCount--) {
-        length = (int) in.readLengthCodedBinary();
+        if (count == 251) { // NULL
+          column.setRowLength(-1);
+          continue;
+        }
+
+        length = (int) in.readLengthCodedBinary(count);
 
-        column = result.getColumn(index++);
-        column.setRowOffset(offset);
         column.setRowLength(length);
         in.readData(resultStream, length);
         offset += length;
@@ -501,6 +650,189 @@ public class MysqlConnectionImpl implements QuercusConnection {
     }
   }
 
+  /**
+   * Reads a binary protocol row, converting the values to the text
+   * form the result set expects.
+   */
+  private void readBinaryRow(MysqlResultImpl result, TempOutputStream os)
+    throws IOException
+  {
+    MysqlReader in = _in;
+
+    int fieldCount = result.getColumnCount();
+
+    byte []nullBitmap = new byte[(fieldCount + 9) / 8];
+    in.readAll(nullBitmap, 0, nullBitmap.length);
+
+    int offset = 0;
+
+    for (int i = 0; i < fieldCount; i++) {
+      MysqlColumn column = result.getColumn(i);
+      column.setRowOffset(offset);
+
+      int bit = i + 2;
+
+      if ((nullBitmap[bit >> 3] & (1 << (bit & 7))) != 0) {
+        column.setRowLength(-1);
+        continue;
+      }
+
+      int length;
+
+      switch (column.getType()) {
+      case MysqlColumn.TYPE_TINY:
+        {
+          int v = in.readByte();
+          length = print(os, column.isUnsigned() ? v : (byte) v);
+          break;
+        }
+
+      case MysqlColumn.TYPE_SHORT:
+      case MysqlColumn.TYPE_YEAR:
+        {
+          int v = in.readShort();
+          length = print(os, column.isUnsigned() ? v : (short) v);
+          break;
+        }
+
+      case MysqlColumn.TYPE_INTEGER:
+      case MysqlColumn.TYPE_INT24:
+        {
+          int v = in.readInt();
+          length = print(os, column.isUnsigned() ? v & 0xffffffffL : v);
+          break;
+        }
+
+      case MysqlColumn.TYPE_BIGINT:
+        {
+          long v = in.readLong();
+
+          if (column.isUnsigned() && v < 0)
+            length = print(os, Long.toUnsignedString(v));
+          else
+            length = print(os, v);
+          break;
+        }
+
+      case MysqlColumn.TYPE_FLOAT:
+        length = print(os, String.valueOf(Float.intBitsToFloat(in.readInt())));
+        break;
+
+      case MysqlColumn.TYPE_DOUBLE:
+        length = print(os, String.valueOf(Double.longBitsToDouble(in.readLong())));
+        break;
+
+      case MysqlColumn.TYPE_DATE:
+      case MysqlColumn.TYPE_DATETIME:
+      case MysqlColumn.TYPE_TIMESTAMP:
+        length = print(os, readBinaryDate(in, column.getType()));
+        break;
+
+      case MysqlColumn.TYPE_TIME:
+        length = print(os, readBinaryTime(in));
+        break;
+
+      default:
+        length = (int) in.readLengthCodedBinary();
+        in.readData(os, length);
+        break;
+      }
+
+      column.setRowLength(length);
+      offset += length;
+    }
+  }
+
+  private String readBinaryDate(MysqlReader in, int type)
+    throws IOException
+  {
+    int len = in.readByte();
+
+    int year = 0;
+    int month = 0;
+    int day = 0;
+    int hour = 0;
+    int minute = 0;
+    int second = 0;
+    int micros = 0;
+
+    if (len >= 4) {
+      year = in.readShort();
+      month = in.readByte();
+      day = in.readByte();
+    }
+
+    if (len >= 7) {
+      hour = in.readByte();
+      minute = in.readByte();
+      second = in.readByte();
+    }
+
+    if (len >= 11)
+      micros = in.readInt();
+
+    if (type == MysqlColumn.TYPE_DATE)
+      return String.format("%04d-%02d-%02d", year, month, day);
+    else if (micros != 0) {
+      return String.format("%04d-%02d-%02d %02d:%02d:%02d.%06d",
+                           year, month, day, hour, minute, second, micros);
+    }
+    else {
+      return String.format("%04d-%02d-%02d %02d:%02d:%02d",
+                           year, month, day, hour, minute, second);
+    }
+  }
+
+  private String readBinaryTime(MysqlReader in)
+    throws IOException
+  {
+    int len = in.readByte();
+
+    boolean isNegative = false;
+    long hours = 0;
+    int minute = 0;
+    int second = 0;
+    int micros = 0;
+
+    if (len >= 8) {
+      isNegative = in.readByte() != 0;
+      hours = 24L * (in.readInt() & 0xffffffffL);
+      hours += in.readByte();
+      minute = in.readByte();
+      second = in.readByte();
+    }
+
+    if (len >= 12)
+      micros = in.readInt();
+
+    String sign = isNegative ? "-" : "";
+
+    if (micros != 0) {
+      return String.format("%s%02d:%02d:%02d.%06d",
+                           sign, hours, minute, second, micros);
+    }
+    else
+      return String.format("%s%02d:%02d:%02d", sign, hours, minute, second);
+  }
+
+  private static int print(TempOutputStream os, long value)
+    throws IOException
+  {
+    return print(os, String.valueOf(value));
+  }
+
+  private static int print(TempOutputStream os, String value)
+    throws IOException
+  {
+    int len = value.length();
+
+    for (int i = 0; i < len; i++) {
+      os.write(value.charAt(i));
+    }
+
+    return len;
+  }
+
   private String readError(MysqlReader in)
     throws IOException, SQLException
   {
@@ -580,67 +912,240 @@ public class MysqlConnectionImpl implements QuercusConnection {
   void writeQuery(String query)
     throws SQLException
   {
-    if (_state != State.IDLE)
-      skipRowData();
-    
+    writeQuery(query, true);
+  }
+
+  /**
+   * Writes a query. Unflushed queries are pipelined, and the caller
+   * must read a result for each one in order.
+   */
+  void writeQuery(String query, boolean isFlush)
+    throws SQLException
+  {
     if (log.isLoggable(Level.FINER))
       log.finer(this + " query '" + query + "'");
 
     try {
+      startCommand(COM_QUERY);
+
       MysqlWriter out = _out;
 
-      int len = query.length() + 1;
+      out.write(query);
+      out.endCommand();
+
+      if (isFlush)
+        out.flush();
+    } catch (IOException e) {
+      throw new SQLException(e);
+    }
+  }
+
+  void flush()
+    throws SQLException
+  {
+    try {
+      _out.flush();
+    } catch (IOException e) {
+      throw new SQLException(e);
+    }
+  }
+
+  /**
+   * Returns the server-side statement for the sql, preparing it if
+   * it's not already cached.
+   */
+  MysqlPrepared prepare(String sql)
+    throws SQLException
+  {
+    MysqlPrepared prepared = _preparedCache.get(sql);
 
-      out.writeByte(len);
-      out.writeByte(len >> 8);
-      out.writeByte(len >> 16);
-      out.writeByte(0); // id
+    if (prepared != null)
+      return prepared;
 
-      out.writeByte(COM_QUERY);
-      out.write(query);
+    if (log.isLoggable(Level.FINER))
+      log.finer(this + " prepare '" + sql + "'");
+
+    try {
+      startCommand(COM_STMT_PREPARE);
+
+      MysqlWriter out = _out;
+      out.write(sql);
+      out.endCommand();
       out.flush();
+
+      MysqlReader in = _in;
+
+      in.readPacket();
+
+      int status = in.readByte();
+
+      if (status == 0xff)
+        readError(in);
+      else if (status != 0x00)
+        throw new SQLException(L.l("unexpected prepare response {0}", status));
+
+      int id = in.readInt();
+      int columnCount = in.readShort();
+      int paramCount = in.readShort();
+
+      in.endPacket();
+
+      // the definitions are sent again with each execute result
+      if (paramCount > 0)
+        skipDefinitions(in);
+
+      if (columnCount > 0)
+        skipDefinitions(in);
+
+      prepared = new MysqlPrepared(sql, id, paramCount, columnCount);
+
+      _preparedCache.put(sql, prepared);
+
+      return prepared;
     } catch (IOException e) {
       throw new SQLException(e);
     }
   }
 
-  //
-  // stub methods - methods not used by Quercus mysql
-  //
+  private void skipDefinitions(MysqlReader in)
+    throws IOException, SQLException
+  {
+    while (true) {
+      in.readPacket();
 
-  public Statement createStatement(int resultSetType,
-                                   int resultSetConcurrency,
-                                   int resultSetHoldability)
+      int code = in.readByte();
+
+      if (isEof(in, code))
+        break;
+    }
+
+    in.endPacket();
+  }
+
+  /**
+   * Executes a prepared statement with the binary protocol.
+   * Parameters are null, Long, Double, String or byte[].
+   */
+  void executePrepared(MysqlPrepared prepared,
+                       Object []params,
+                       MysqlResultImpl result)
     throws SQLException
   {
-    throw new UnsupportedOperationException(getClass().getName());
+    writeExecute(prepared, params, true);
+
+    result.setBinary(true);
+
+    readResult(result);
   }
 
-  public PreparedStatement prepareStatement(String sql)
+  /**
+   * Writes an execute command. Unflushed executes are pipelined, and
+   * the caller must read a result for each one in order.
+   */
+  void writeExecute(MysqlPrepared prepared,
+                    Object []params,
+                    boolean isFlush)
     throws SQLException
   {
-    throw new UnsupportedOperationException(getClass().getName());
+    int paramCount = prepared.getParamCount();
+
+    try {
+      startCommand(COM_STMT_EXECUTE);
+
+      MysqlWriter out = _out;
+
+      out.writeInt(prepared.getId());
+      out.writeByte(CURSOR_TYPE_NO_CURSOR);
+      out.writeInt(1); // iteration count
+
+      if (paramCount > 0) {
+        byte []nullBitmap = new byte[(paramCount + 7) / 8];
+
+        for (int i = 0; i < paramCount; i++) {
+          if (params[i] == null)
+            nullBitmap[i >> 3] |= 1 << (i & 7);
+        }
+
+        out.write(nullBitmap, 0, nullBitmap.length);
+        out.writeByte(1); // new params bound
+
+        for (int i = 0; i < paramCount; i++) {
+          out.writeShort(getParamType(params[i]));
+        }
+
+        for (int i = 0; i < paramCount; i++) {
+          Object value = params[i];
+
+          if (value == null) {
+          }
+          else if (value instanceof Long)
+            out.writeLong((Long) value);
+          else if (value instanceof Double)
+            out.writeLong(Double.doubleToRawLongBits((Double) value));
+          else if (value instanceof byte[]) {
+            byte []bytes = (byte []) value;
+
+            out.writeLengthCodedBytes(bytes, 0, bytes.length);
+          }
+          else
+            out.writeLengthCodedString(value.toString());
+        }
+      }
+
+      out.endCommand();
+
+      if (isFlush)
+        out.flush();
+    } catch (IOException e) {
+      throw new SQLException(e);
+    }
   }
 
-  public PreparedStatement prepareStatement(String sql,
-                                            int resultSetType,
-                                            int resultSetConcurrency)
-    throws SQLException
+  private static int getParamType(Object value)
   {
-    throw new UnsupportedOperationException(getClass().getName());
+    if (value == null)
+      return TYPE_NULL;
+    else if (value instanceof Long)
+      return TYPE_BIGINT;
+    else if (value instanceof Double)
+      return TYPE_DOUBLE;
+    else if (value instanceof byte[])
+      return TYPE_BLOB;
+    else
+      return TYPE_VAR_STRING;
   }
 
-  public PreparedStatement prepareStatement(String sql,
-                                            int resultSetType,
-                                            int resultSetConcurrency,
-                                            int resultSetHoldability)
-    throws SQLException
+  /**
+   * Starts a new command, finishing any pending result and sending
+   * queued statement closes ahead of it.
+   */
+  private void startCommand(int command)
+    throws IOException, SQLException
   {
-    throw new UnsupportedOperationException(getClass().getName());
+    if (_state != State.IDLE || _isMoreResults)
+      skipResults();
+
+    MysqlWriter out = _out;
+
+    for (int i = 0; i < _closeList.size(); i++) {
+      // COM_STMT_CLOSE has no response
+      out.startCommand(COM_STMT_CLOSE);
+      out.writeInt(_closeList.get(i));
+      out.endCommand();
+    }
+
+    _closeList.clear();
+
+    out.startCommand(command);
   }
 
-  public PreparedStatement prepareStatement(String sql,
-                                            int resultSetType)
+  //
+  // stub methods - methods not used by Quercus mysql
+  //
+
+  public Statement createStatement(int resultSetType,
+                                   int resultSetConcurrency,
+                                   int resultSetHoldability)
     throws SQLException
   {
     throw new UnsupportedOperationException(getClass().getName());
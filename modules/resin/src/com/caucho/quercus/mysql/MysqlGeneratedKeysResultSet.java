@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+package com.caucho.quercus.mysql;
+
+import com.caucho.util.L10N;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * The generated keys of an insert, built from the insert id of the
+ * OK packet. MySQL only reports the first generated id.
+ */
+class MysqlGeneratedKeysResultSet extends AbstractResultSet {
+  private static final L10N L = new L10N(MysqlGeneratedKeysResultSet.class);
+
+  private static final String COLUMN_NAME = "GENERATED_KEY";
+
+  private final Statement _stmt;
+  private final long _insertId;
+
+  private int _row;
+
+  MysqlGeneratedKeysResultSet(Statement stmt, long insertId)
+  {
+    _stmt = stmt;
+    _insertId = insertId;
+  }
+
+  @Override
+  public Statement getStatement()
+    throws SQLException
+  {
+    return _stmt;
+  }
+
+  @Override
+  public java.sql.ResultSetMetaData getMetaData()
+    throws SQLException
+  {
+    MysqlResultSetMetaData metaData = new MysqlResultSetMetaData();
+    metaData.setColumnCount(1);
+
+    return metaData;
+  }
+
+  @Override
+  public boolean next()
+    throws SQLException
+  {
+    if (_insertId == 0 || _row > 0)
+      return false;
+
+    _row++;
+
+    return true;
+  }
+
+  @Override
+  public int getRow()
+    throws SQLException
+  {
+    return _row;
+  }
+
+  @Override
+  public boolean wasNull()
+    throws SQLException
+  {
+    return false;
+  }
+
+  @Override
+  public int findColumn(String columnName)
+    throws SQLException
+  {
+    if (COLUMN_NAME.equalsIgnoreCase(columnName))
+      return 1;
+
+    throw new SQLException(L.l("'{0}' is an unknown column", columnName));
+  }
+
+  @Override
+  public String getString(int columnIndex)
+    throws SQLException
+  {
+    if (_row != 1)
+      throw new SQLException(L.l("no current row"));
+
+    if (columnIndex != 1)
+      throw new SQLException(L.l("{0} is an invalid column", columnIndex));
+
+    return String.valueOf(_insertId);
+  }
+}
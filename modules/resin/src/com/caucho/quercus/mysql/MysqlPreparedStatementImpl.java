@@ -0,0 +1,696 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.mysql;
+
+import com.caucho.util.*;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.*;
+import java.util.*;
+import java.util.logging.*;
+
+/**
+ * Prepared statement using the MySQL binary protocol. The server-side
+ * statement is prepared on first execute and cached by the connection.
+ */
+public class MysqlPreparedStatementImpl extends MysqlStatementImpl
+  implements PreparedStatement
+{
+  private static final Logger log
+    = Logger.getLogger(MysqlPreparedStatementImpl.class.getName());
+  private static final L10N L = new L10N(MysqlPreparedStatementImpl.class);
+
+  private final String _sql;
+
+  private Object []_params = new Object[8];
+  private boolean []_isParamSet = new boolean[8];
+
+  private ArrayList<Object[]> _paramBatch;
+
+  MysqlPreparedStatementImpl(MysqlConnectionImpl conn, String sql)
+    throws SQLException
+  {
+    super(conn);
+
+    _sql = sql;
+  }
+
+  public String getSql()
+  {
+    return _sql;
+  }
+
+  /**
+   * Executes the statement.
+   */
+  public boolean execute()
+    throws SQLException
+  {
+    MysqlConnectionImpl conn = getConnection();
+
+    MysqlPrepared prepared = conn.prepare(_sql);
+
+    Object []params = getParams(prepared);
+
+    MysqlResultImpl result = getResult();
+
+    conn.executePrepared(prepared, params, result);
+
+    return result.isResultSet();
+  }
+
+  public ResultSet executeQuery()
+    throws SQLException
+  {
+    execute();
+
+    return getResult();
+  }
+
+  public int executeUpdate()
+    throws SQLException
+  {
+    execute();
+
+    return getResult().getUpdateCount();
+  }
+
+  public void addBatch()
+    throws SQLException
+  {
+    if (_paramBatch == null)
+      _paramBatch = new ArrayList<Object[]>();
+
+    MysqlPrepared prepared = getConnection().prepare(_sql);
+
+    _paramBatch.add(getParams(prepared).clone());
+  }
+
+  @Override
+  public void clearBatch()
+    throws SQLException
+  {
+    if (_paramBatch != null)
+      _paramBatch.clear();
+  }
+
+  /**
+   * Executes the batch, pipelining the executes: all are sent before
+   * any of the results are read.
+   */
+  @Override
+  public int []executeBatch()
+    throws SQLException
+  {
+    ArrayList<Object[]> batch = _paramBatch;
+
+    if (batch == null || batch.size() == 0)
+      return new int[0];
+
+    MysqlConnectionImpl conn = getConnection();
+    MysqlPrepared prepared = conn.prepare(_sql);
+
+    for (Object []params : batch) {
+      conn.writeExecute(prepared, params, false);
+    }
+
+    conn.flush();
+
+    MysqlResultImpl result = getResult();
+    result.setBinary(true);
+
+    int []counts = new int[batch.size()];
+    SQLException exn = null;
+
+    for (int i = 0; i < counts.length; i++) {
+      try {
+        conn.readResult(result);
+
+        if (result.isResultSet())
+          counts[i] = SUCCESS_NO_INFO;
+        else
+          counts[i] = result.getUpdateCount();
+
+        conn.skipResults();
+      } catch (SQLException e) {
+        counts[i] = EXECUTE_FAILED;
+
+        if (exn == null)
+          exn = e;
+      }
+    }
+
+    batch.clear();
+
+    if (exn != null) {
+      throw new BatchUpdateException(exn.getMessage(), exn.getSQLState(),
+                                     exn.getErrorCode(), counts, exn);
+    }
+
+    return counts;
+  }
+
+  private Object []getParams(MysqlPrepared prepared)
+    throws SQLException
+  {
+    int paramCount = prepared.getParamCount();
+
+    for (int i = 0; i < paramCount; i++) {
+      if (_isParamSet.length <= i || ! _isParamSet[i])
+        throw new SQLException(L.l("parameter {0} is not set for '{1}'",
+                                   i + 1, _sql));
+    }
+
+    if (_params.length == paramCount)
+      return _params;
+    else
+      return Arrays.copyOf(_params, paramCount);
+  }
+
+  public void clearParameters()
+    throws SQLException
+  {
+    Arrays.fill(_params, null);
+    Arrays.fill(_isParamSet, false);
+  }
+
+  private void setParam(int index, Object value)
+    throws SQLException
+  {
+    if (index < 1)
+      throw new SQLException(L.l("{0} is an invalid parameter index", index));
+
+    int i = index - 1;
+
+    if (_params.length <= i) {
+      int length = Math.max(2 * _params.length, index);
+
+      _params = Arrays.copyOf(_params, length);
+      _isParamSet = Arrays.copyOf(_isParamSet, length);
+    }
+
+    _params[i] = value;
+    _isParamSet[i] = true;
+  }
+
+  public void setNull(int index, int sqlType)
+    throws SQLException
+  {
+    setParam(index, null);
+  }
+
+  public void setNull(int index, int sqlType, String typeName)
+    throws SQLException
+  {
+    setParam(index, null);
+  }
+
+  public void setBoolean(int index, boolean value)
+    throws SQLException
+  {
+    setParam(index, value ? 1L : 0L);
+  }
+
+  public void setByte(int index, byte value)
+    throws SQLException
+  {
+    setParam(index, (long) value);
+  }
+
+  public void setShort(int index, short value)
+    throws SQLException
+  {
+    setParam(index, (long) value);
+  }
+
+  public void setInt(int index, int value)
+    throws SQLException
+  {
+    setParam(index, (long) value);
+  }
+
+  public void setLong(int index, long value)
+    throws SQLException
+  {
+    setParam(index, value);
+  }
+
+  public void setFloat(int index, float value)
+    throws SQLException
+  {
+    setParam(index, (double) value);
+  }
+
+  public void setDouble(int index, double value)
+    throws SQLException
+  {
+    setParam(index, value);
+  }
+
+  public void setBigDecimal(int index, BigDecimal value)
+    throws SQLException
+  {
+    setParam(index, value != null ? value.toPlainString() : null);
+  }
+
+  public void setString(int index, String value)
+    throws SQLException
+  {
+    setParam(index, value);
+  }
+
+  public void setNString(int index, String value)
+    throws SQLException
+  {
+    setParam(index, value);
+  }
+
+  public void setBytes(int index, byte []value)
+    throws SQLException
+  {
+    setParam(index, value);
+  }
+
+  public void setDate(int index, java.sql.Date value)
+    throws SQLException
+  {
+    setParam(index, value != null ? value.toString() : null);
+  }
+
+  public void setTime(int index, Time value)
+    throws SQLException
+  {
+    setParam(index, value != null ? value.toString() : null);
+  }
+
+  public void setTimestamp(int index, Timestamp value)
+    throws SQLException
+  {
+    setParam(index, value != null ? value.toString() : null);
+  }
+
+  public void setObject(int index, Object value)
+    throws SQLException
+  {
+    if (value == null)
+      setParam(index, null);
+    else if (value instanceof Long
+             || value instanceof Integer
+             || value instanceof Short
+             || value instanceof Byte)
+      setParam(index, ((Number) value).longValue());
+    else if (value instanceof Double || value instanceof Float)
+      setParam(index, ((Number) value).doubleValue());
+    else if (value instanceof BigDecimal)
+      setBigDecimal(index, (BigDecimal) value);
+    else if (value instanceof Boolean)
+      setBoolean(index, (Boolean) value);
+    else if (value instanceof byte[])
+      setParam(index, value);
+    else
+      setParam(index, value.toString());
+  }
+
+  public void setObject(int index, Object value, int targetSqlType)
+    throws SQLException
+  {
+    setObject(index, value);
+  }
+
+  public void setObject(int index, Object value,
+                        int targetSqlType, int scale)
+    throws SQLException
+  {
+    setObject(index, value);
+  }
+
+  public void setBinaryStream(int index, InputStream is, int length)
+    throws SQLException
+  {
+    setParam(index, readBytes(is, length));
+  }
+
+  public void setBinaryStream(int index, InputStream is, long length)
+    throws SQLException
+  {
+    setParam(index, readBytes(is, length));
+  }
+
+  public void setBinaryStream(int index, InputStream is)
+    throws SQLException
+  {
+    setParam(index, readBytes(is, -1));
+  }
+
+  public void setAsciiStream(int index, InputStream is, int length)
+    throws SQLException
+  {
+    setParam(index, readBytes(is, length));
+  }
+
+  public void setAsciiStream(int index, InputStream is, long length)
+    throws SQLException
+  {
+    setParam(index, readBytes(is, length));
+  }
+
+  public void setAsciiStream(int index, InputStream is)
+    throws SQLException
+  {
+    setParam(index, readBytes(is, -1));
+  }
+
+  public void setBlob(int index, InputStream is, long length)
+    throws SQLException
+  {
+    setParam(index, readBytes(is, length));
+  }
+
+  public void setBlob(int index, InputStream is)
+    throws SQLException
+  {
+    setParam(index, readBytes(is, -1));
+  }
+
+  public void setCharacterStream(int index, Reader reader, int length)
+    throws SQLException
+  {
+    setParam(index, readString(reader, length));
+  }
+
+  public void setCharacterStream(int index, Reader reader, long length)
+    throws SQLException
+  {
+    setParam(index, readString(reader, length));
+  }
+
+  public void setCharacterStream(int index, Reader reader)
+    throws SQLException
+  {
+    setParam(index, readString(reader, -1));
+  }
+
+  public void setNCharacterStream(int index, Reader reader, long length)
+    throws SQLException
+  {
+    setParam(index, readString(reader, length));
+  }
+
+  public void setNCharacterStream(int index, Reader reader)
+    throws SQLException
+  {
+    setParam(index, readString(reader, -1));
+  }
+
+  public void setClob(int index, Reader reader, long length)
+    throws SQLException
+  {
+    setParam(index, readString(reader, length));
+  }
+
+  public void setClob(int index, Reader reader)
+    throws SQLException
+  {
+    setParam(index, readString(reader, -1));
+  }
+
+  public void setNClob(int index, Reader reader, long length)
+    throws SQLException
+  {
+    setParam(index, readString(reader, length));
+  }
+
+  public void setNClob(int index, Reader reader)
+    throws SQLException
+  {
+    setParam(index, readString(reader, -1));
+  }
+
+  private static byte []readBytes(InputStream is, long length)
+    throws SQLException
+  {
+    if (is == null)
+      return null;
+
+    try {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      byte []buffer = new byte[8192];
+
+      while (length != 0) {
+        int sublen = buffer.length;
+
+        if (length > 0 && length < sublen)
+          sublen = (int) length;
+
+        sublen = is.read(buffer, 0, sublen);
+
+        if (sublen < 0)
+          break;
+
+        bos.write(buffer, 0, sublen);
+
+        if (length > 0)
+          length -= sublen;
+      }
+
+      return bos.toByteArray();
+    } catch (IOException e) {
+      throw new SQLException(e);
+    }
+  }
+
+  private static String readString(Reader reader, long length)
+    throws SQLException
+  {
+    if (reader == null)
+      return null;
+
+    try {
+      StringBuilder sb = new StringBuilder();
+      char []buffer = new char[8192];
+
+      while (length != 0) {
+        int sublen = buffer.length;
+
+        if (length > 0 && length < sublen)
+          sublen = (int) length;
+
+        sublen = reader.read(buffer, 0, sublen);
+
+        if (sublen < 0)
+          break;
+
+        sb.append(buffer, 0, sublen);
+
+        if (length > 0)
+          length -= sublen;
+      }
+
+      return sb.toString();
+    } catch (IOException e) {
+      throw new SQLException(e);
+    }
+  }
+
+  /**
+   * Returns the metadata of the last result set.
+   */
+  public ResultSetMetaData getMetaData()
+    throws SQLException
+  {
+    MysqlResultImpl result = getResult();
+
+    if (result.isResultSet())
+      return result.getMetaData();
+    else
+      return null;
+  }
+
+  public ParameterMetaData getParameterMetaData()
+    throws SQLException
+  {
+    MysqlPrepared prepared = getConnection().prepare(_sql);
+
+    return new MysqlParameterMetaData(prepared.getParamCount());
+  }
+
+  //
+  // stubbed because not used by mysql
+  //
+
+  public void setUnicodeStream(int index, InputStream is, int length)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  public void setDate(int index, java.sql.Date value, Calendar cal)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  public void setTime(int index, Time value, Calendar cal)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  public void setTimestamp(int index, Timestamp value, Calendar cal)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  public void setRef(int index, Ref value)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  public void setBlob(int index, Blob value)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  public void setClob(int index, Clob value)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  public void setNClob(int index, NClob value)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  public void setArray(int index, java.sql.Array value)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  public void setURL(int index, URL value)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  public void setRowId(int index, RowId value)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  public void setSQLXML(int index, SQLXML value)
+    throws SQLException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _sql + "]";
+  }
+
+  /**
+   * The binary protocol doesn't describe parameters, so they're all
+   * reported as varchar.
+   */
+  static class MysqlParameterMetaData implements ParameterMetaData {
+    private final int _count;
+
+    MysqlParameterMetaData(int count)
+    {
+      _count = count;
+    }
+
+    public int getParameterCount()
+    {
+      return _count;
+    }
+
+    public int isNullable(int param)
+    {
+      return parameterNullableUnknown;
+    }
+
+    public boolean isSigned(int param)
+    {
+      return true;
+    }
+
+    public int getPrecision(int param)
+    {
+      return 0;
+    }
+
+    public int getScale(int param)
+    {
+      return 0;
+    }
+
+    public int getParameterType(int param)
+    {
+      return Types.VARCHAR;
+    }
+
+    public String getParameterTypeName(int param)
+    {
+      return "VARCHAR";
+    }
+
+    public String getParameterClassName(int param)
+    {
+      return String.class.getName();
+    }
+
+    public int getParameterMode(int param)
+    {
+      return parameterModeIn;
+    }
+
+    public <T> T unwrap(Class<T> iface)
+      throws SQLException
+    {
+      throw new UnsupportedOperationException(getClass().getName());
+    }
+
+    public boolean isWrapperFor(Class<?> iface)
+      throws SQLException
+    {
+      return false;
+    }
+  }
+}
@@ -165,6 +165,15 @@ class MysqlReader {
             + (ch4 << 24));
   }
 
+  long readLong()
+    throws IOException
+  {
+    long low = readInt() & 0xffffffffL;
+    long high = readInt() & 0xffffffffL;
+
+    return low + (high << 32);
+  }
+
   int readShort()
     throws IOException
   {
@@ -52,6 +52,7 @@ public class MysqlResultImpl extends AbstractResultSet
 
   private MysqlStatementImpl _stmt;
   private boolean _isResultSet;
+  private boolean _isBinary;
   private int _updateCount;
   private long _insertId;
 
@@ -64,6 +65,7 @@ public class MysqlResultImpl extends AbstractResultSet
   private boolean _isRowAvailable;
   private TempOutputStream _resultData;
   private char []_charBuffer;
+  private boolean _wasNull;
 
   MysqlResultImpl(MysqlStatementImpl stmt)
   {
@@ -82,6 +84,19 @@ public class MysqlResultImpl extends AbstractResultSet
     _isResultSet = isResultSet;
   }
 
+  /**
+   * True if rows use the binary protocol of prepared statements.
+   */
+  public boolean isBinary()
+  {
+    return _isBinary;
+  }
+
+  public void setBinary(boolean isBinary)
+  {
+    _isBinary = isBinary;
+  }
+
   public int getUpdateCount()
   {
     return _updateCount;
@@ -166,7 +181,7 @@ public class MysqlResultImpl extends AbstractResultSet
   public boolean wasNull()
     throws SQLException
   {
-    return false;
+    return _wasNull;
   }
 
   public int findColumn(String columnName)
@@ -194,6 +209,8 @@ public class MysqlResultImpl extends AbstractResultSet
     int offset = column.getRowOffset();
     int length = column.getRowLength();
 
+    _wasNull = length < 0;
+
     if (length < 0)
       return null;
 
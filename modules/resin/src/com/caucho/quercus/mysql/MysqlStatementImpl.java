@@ -50,6 +50,8 @@ public class MysqlStatementImpl implements java.sql.Statement {
   private MysqlConnectionImpl _conn;
   private MysqlResultImpl _result;
 
+  private ArrayList<String> _batch;
+
   MysqlStatementImpl(MysqlConnectionImpl conn)
     throws SQLException
   {
@@ -69,6 +71,7 @@ public class MysqlStatementImpl implements java.sql.Statement {
   {
     _conn.writeQuery(sql);
 
+    _result.setBinary(false);
     _conn.readResult(_result);
 
     return _result.isResultSet();
@@ -82,6 +85,7 @@ public class MysqlStatementImpl implements java.sql.Statement {
   {
     _conn.writeQuery(sql);
 
+    _result.setBinary(false);
     _conn.readResult(_result);
 
     return _result;
@@ -95,6 +99,7 @@ public class MysqlStatementImpl implements java.sql.Statement {
   {
     _conn.writeQuery(sql);
 
+    _result.setBinary(false);
     _conn.readResult(_result);
 
     return _result.getUpdateCount();
@@ -106,6 +111,102 @@ public class MysqlStatementImpl implements java.sql.Statement {
     return _result;
   }
 
+  MysqlResultImpl getResult()
+  {
+    return _result;
+  }
+
+  /**
+   * Returns true if the next result of a multi-statement query is
+   * a result set.
+   */
+  public boolean getMoreResults()
+    throws SQLException
+  {
+    if (_conn.readMoreResults(_result))
+      return _result.isResultSet();
+
+    _result.setResultSet(false);
+    _result.setUpdateCount(-1);
+
+    return false;
+  }
+
+  public boolean getMoreResults(int current)
+    throws SQLException
+  {
+    return getMoreResults();
+  }
+
+  public void addBatch(String sql)
+    throws SQLException
+  {
+    if (_batch == null)
+      _batch = new ArrayList<String>();
+
+    _batch.add(sql);
+  }
+
+  public void clearBatch()
+    throws SQLException
+  {
+    if (_batch != null)
+      _batch.clear();
+  }
+
+  /**
+   * Executes the batch, pipelining the queries: all are sent before
+   * any of the results are read.
+   */
+  public int[]executeBatch()
+    throws SQLException
+  {
+    ArrayList<String> batch = _batch;
+
+    if (batch == null || batch.size() == 0)
+      return new int[0];
+
+    MysqlConnectionImpl conn = _conn;
+
+    for (String sql : batch) {
+      conn.writeQuery(sql, false);
+    }
+
+    conn.flush();
+
+    int []counts = new int[batch.size()];
+    SQLException exn = null;
+
+    _result.setBinary(false);
+
+    for (int i = 0; i < counts.length; i++) {
+      try {
+        conn.readResult(_result);
+
+        if (_result.isResultSet())
+          counts[i] = SUCCESS_NO_INFO;
+        else
+          counts[i] = _result.getUpdateCount();
+
+        conn.skipResults();
+      } catch (SQLException e) {
+        counts[i] = EXECUTE_FAILED;
+
+        if (exn == null)
+          exn = e;
+      }
+    }
+
+    batch.clear();
+
+    if (exn != null) {
+      throw new BatchUpdateException(exn.getMessage(), exn.getSQLState(),
+                                     exn.getErrorCode(), counts, exn);
+    }
+
+    return counts;
+  }
+
   public int getUpdateCount()
     throws SQLException
   {
@@ -147,24 +248,12 @@ public class MysqlStatementImpl implements java.sql.Statement {
   // stubbed because not used by mysql
   //
 
-  public void addBatch(String sql)
-    throws SQLException
-  {
-    throw new UnsupportedOperationException(getClass().getName());
-  }
-
   public void cancel()
     throws SQLException
   {
     throw new UnsupportedOperationException(getClass().getName());
   }
 
-  public void clearBatch()
-    throws SQLException
-  {
-    throw new UnsupportedOperationException(getClass().getName());
-  }
-
   /**
    * Execute an update with the given result type.
    */
@@ -221,15 +310,6 @@ public class MysqlStatementImpl implements java.sql.Statement {
     throw new UnsupportedOperationException(getClass().getName());
   }
 
-  /**
-   * Executes the batched sql.
-   */
-  public int[]executeBatch()
-    throws SQLException
-  {
-    throw new UnsupportedOperationException(getClass().getName());
-  }
-
   /**
    * Returns the current fetch direction.
    */
@@ -302,15 +382,6 @@ public class MysqlStatementImpl implements java.sql.Statement {
     throw new UnsupportedOperationException(getClass().getName());
   }
 
-  /**
-   * Returns true if more results are available.
-   */
-  public boolean getMoreResults()
-    throws SQLException
-  {
-    throw new UnsupportedOperationException(getClass().getName());
-  }
-
   /**
    * Returns the current query timeout.
    */
@@ -364,22 +435,17 @@ public class MysqlStatementImpl implements java.sql.Statement {
   {
   }
 
-  /**
-   * Returns the next count results.
-   */
-  public boolean getMoreResults(int count)
-    throws SQLException
-  {
-    throw new UnsupportedOperationException(getClass().getName());
-  }
-
   /**
    * Returns the generated keys for the update.
    */
   public java.sql.ResultSet getGeneratedKeys()
     throws SQLException
   {
-    throw new UnsupportedOperationException(getClass().getName());
+    MysqlResultImpl result = _result;
+
+    long insertId = result.isResultSet() ? 0 : result.getInsertId();
+
+    return new MysqlGeneratedKeysResultSet(this, insertId);
   }
 
   /**
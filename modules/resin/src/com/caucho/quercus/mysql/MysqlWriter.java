@@ -53,10 +53,15 @@ class MysqlWriter {
   private int _packetLength;
   private int _packetNumber;
 
+  // command packets are built in memory so their length is known
+  private TempOutputStream _packet;
+  private OutputStream _os;
+
   MysqlWriter(MysqlConnectionImpl conn, WriteStream out)
   {
     _conn = conn;
     _out = out;
+    _os = out;
   }
 
   void startVariablePacket()
@@ -85,18 +90,86 @@ class MysqlWriter {
     buffer[3] = 1; // packet id
   }
 
-  void writeByte(int value)
+  /**
+   * Starts a command packet. The packet isn't sent until endCommand.
+   */
+  void startCommand(int command)
+    throws IOException
+  {
+    if (_packet == null)
+      _packet = new TempOutputStream();
+    else
+      _packet.destroy();
+
+    _os = _packet;
+
+    _packet.write(command);
+  }
+
+  /**
+   * Writes the command packet to the stream, splitting it if it exceeds
+   * the maximum packet length. The stream isn't flushed, so several
+   * commands may be pipelined.
+   */
+  void endCommand()
     throws IOException
   {
     WriteStream out = _out;
+    TempOutputStream packet = _packet;
+
+    _os = out;
+
+    int length = packet.getLength();
+    int offset = 0;
+    int packetNumber = 0;
+    byte []buffer = new byte[Math.min(length, 8192)];
+
+    do {
+      int sublen = Math.min(length - offset, 0xffffff);
+
+      out.write(sublen);
+      out.write(sublen >> 8);
+      out.write(sublen >> 16);
+      out.write(packetNumber++);
+
+      for (int i = 0; i < sublen; i += buffer.length) {
+        int chunk = Math.min(sublen - i, buffer.length);
+
+        packet.readAll(offset + i, buffer, 0, chunk);
+        out.write(buffer, 0, chunk);
+      }
+
+      offset += sublen;
+
+      // a packet of exactly the maximum length needs an empty follower
+      if (sublen < 0xffffff)
+        break;
+    } while (true);
+
+    packet.destroy();
+  }
+
+  void writeByte(int value)
+    throws IOException
+  {
+    OutputStream out = _os;
+
+    out.write(value);
+  }
+
+  void writeShort(int value)
+    throws IOException
+  {
+    OutputStream out = _os;
 
     out.write(value);
+    out.write(value >> 8);
   }
 
   void writeInt(int value)
     throws IOException
   {
-    WriteStream out = _out;
+    OutputStream out = _os;
 
     out.write(value);
     out.write(value >> 8);
@@ -104,19 +177,52 @@ class MysqlWriter {
     out.write(value >> 24);
   }
 
+  void writeLong(long value)
+    throws IOException
+  {
+    writeInt((int) value);
+    writeInt((int) (value >> 32));
+  }
+
   void writeZero(int len)
     throws IOException
   {
-    WriteStream out = _out;
+    OutputStream out = _os;
 
     for (int i = 0; i < len; i++)
       out.write(0);
   }
 
+  /**
+   * Writes a length-coded string, mapping each char to a byte like
+   * Quercus binary strings.
+   */
+  void writeLengthCodedString(String s)
+    throws IOException
+  {
+    OutputStream out = _os;
+
+    int len = s.length();
+
+    writeLengthCodedBinary(len);
+
+    for (int i = 0; i < len; i++) {
+      out.write(s.charAt(i));
+    }
+  }
+
+  void writeLengthCodedBytes(byte []buffer, int offset, int length)
+    throws IOException
+  {
+    writeLengthCodedBinary(length);
+
+    _os.write(buffer, offset, length);
+  }
+
   void writeNullTermString(String s)
     throws IOException
   {
-    WriteStream out = _out;
+    OutputStream out = _os;
 
     int len = s.length();
 
@@ -131,6 +237,14 @@ class MysqlWriter {
   void write(String s)
     throws IOException
   {
+    if (_os != _out) {
+      for (int i = 0; i < s.length(); i++) {
+        _os.write(s.charAt(i));
+      }
+
+      return;
+    }
+
     WriteStream out = _out;
 
     out.printLatin1(s);
@@ -139,7 +253,7 @@ class MysqlWriter {
   void writeLengthCodedBinary(long value)
     throws IOException
   {
-    WriteStream out = _out;
+    OutputStream out = _os;
 
     if (value <= 250)
       out.write((int) value);
@@ -170,7 +284,7 @@ class MysqlWriter {
   void write(byte []buffer, int offset, int length)
     throws IOException
   {
-    WriteStream out = _out;
+    OutputStream out = _os;
 
     out.write(buffer, offset, length);
   }
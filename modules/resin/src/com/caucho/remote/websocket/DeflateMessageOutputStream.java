@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.remote.websocket;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.caucho.vfs.WriteStream;
+
+/**
+ * Buffers a complete message so it can be sent as a single
+ * permessage-deflate frame. Messages below the threshold are sent as
+ * plain frames.
+ *
+ * <code><pre>
+ * 0xc1 len deflated-data     (compressed text)
+ * 0x82 len binarydata        (uncompressed binary)
+ * </pre></code>
+ */
+public class DeflateMessageOutputStream extends OutputStream
+  implements WebSocketConstants
+{
+  public static final int FLAG_RSV1 = 0x40;
+
+  private final WriteStream _os;
+  private final WebSocketDeflateContext _deflate;
+  private final int _opcode;
+
+  private byte []_buffer = new byte[1024];
+  private int _length;
+
+  private boolean _isOpen;
+
+  public DeflateMessageOutputStream(WriteStream os,
+                                    WebSocketDeflateContext deflate,
+                                    int opcode)
+  {
+    if (os == null)
+      throw new NullPointerException();
+
+    _os = os;
+    _deflate = deflate;
+    _opcode = opcode;
+  }
+
+  public void init()
+  {
+    _length = 0;
+    _isOpen = true;
+  }
+
+  @Override
+  public void write(int ch)
+    throws IOException
+  {
+    if (! _isOpen)
+      throw new IllegalStateException();
+
+    if (_buffer.length == _length)
+      grow(1);
+
+    _buffer[_length++] = (byte) ch;
+  }
+
+  @Override
+  public void write(byte []buffer, int offset, int length)
+    throws IOException
+  {
+    if (! _isOpen)
+      throw new IllegalStateException();
+
+    if (_buffer.length - _length < length)
+      grow(length);
+
+    System.arraycopy(buffer, offset, _buffer, _length, length);
+    _length += length;
+  }
+
+  private void grow(int length)
+  {
+    int capacity = Math.max(2 * _buffer.length, _length + length);
+
+    byte []buffer = new byte[capacity];
+    System.arraycopy(_buffer, 0, buffer, 0, _length);
+
+    _buffer = buffer;
+  }
+
+  @Override
+  public void flush()
+  {
+    // the message is sent as one frame on close
+  }
+
+  @Override
+  public void close()
+    throws IOException
+  {
+    if (! _isOpen)
+      return;
+
+    _isOpen = false;
+
+    WebSocketDeflateContext deflate = _deflate;
+
+    if (deflate != null && deflate.isCompress(_length)) {
+      deflate.deflate(_buffer, 0, _length);
+
+      writeFrame(FLAG_FIN | FLAG_RSV1 | _opcode,
+                 deflate.getBuffer(), deflate.getLength());
+    }
+    else {
+      writeFrame(FLAG_FIN | _opcode, _buffer, _length);
+    }
+
+    if (_buffer.length > 64 * 1024)
+      _buffer = new byte[1024];
+  }
+
+  private void writeFrame(int code1, byte []data, int length)
+    throws IOException
+  {
+    WriteStream os = _os;
+
+    os.write(code1);
+
+    if (length < 0x7e) {
+      os.write(length);
+    }
+    else if (length <= 0xffff) {
+      os.write(0x7e);
+      os.write(length >> 8);
+      os.write(length);
+    }
+    else {
+      os.write(0x7f);
+      os.write(0);
+      os.write(0);
+      os.write(0);
+      os.write(0);
+      os.write(length >> 24);
+      os.write(length >> 16);
+      os.write(length >> 8);
+      os.write(length);
+    }
+
+    os.write(data, 0, length);
+  }
+}
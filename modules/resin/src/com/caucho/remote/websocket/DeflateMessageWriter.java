@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.remote.websocket;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+
+/**
+ * UTF-8 writer for a text message sent through a
+ * DeflateMessageOutputStream. The writer is reused for each message.
+ */
+public class DeflateMessageWriter extends Writer
+{
+  private final DeflateMessageOutputStream _os;
+
+  private char _savedPair;
+
+  public DeflateMessageWriter(DeflateMessageOutputStream os)
+  {
+    _os = os;
+  }
+
+  public void init()
+  {
+    _savedPair = 0;
+    _os.init();
+  }
+
+  @Override
+  public void write(int ch)
+    throws IOException
+  {
+    DeflateMessageOutputStream os = _os;
+
+    if (ch < 0x80)
+      os.write(ch);
+    else if (ch < 0x800) {
+      os.write(0xc0 + (ch >> 6));
+      os.write(0x80 + (ch & 0x3f));
+    }
+    else if (0xd800 <= ch && ch <= 0xdbff) {
+      _savedPair = (char) ch;
+    }
+    else if (0xdc00 <= ch && ch <= 0xdfff) {
+      int cp = ((_savedPair & 0x3ff) << 10) + (ch & 0x3ff);
+      _savedPair = 0;
+
+      cp += 0x10000;
+
+      os.write(0xf0 + (cp >> 18));
+      os.write(0x80 + ((cp >> 12) & 0x3f));
+      os.write(0x80 + ((cp >> 6) & 0x3f));
+      os.write(0x80 + (cp & 0x3f));
+    }
+    else {
+      os.write(0xe0 + (ch >> 12));
+      os.write(0x80 + ((ch >> 6) & 0x3f));
+      os.write(0x80 + (ch & 0x3f));
+    }
+  }
+
+  @Override
+  public void write(char []buffer, int offset, int length)
+    throws IOException
+  {
+    for (int i = 0; i < length; i++) {
+      write(buffer[offset + i]);
+    }
+  }
+
+  @Override
+  public void write(String s, int offset, int length)
+    throws IOException
+  {
+    for (int i = 0; i < length; i++) {
+      write(s.charAt(offset + i));
+    }
+  }
+
+  @Override
+  public void flush()
+  {
+  }
+
+  /**
+   * Completes the message.
+   */
+  @Override
+  public void close()
+    throws IOException
+  {
+    _os.close();
+  }
+
+  /**
+   * PrintWriter facade which completes the message on close but stays
+   * usable for the next message.
+   */
+  public static class DeflatePrintWriter extends PrintWriter {
+    private final DeflateMessageWriter _out;
+
+    public DeflatePrintWriter(DeflateMessageWriter out)
+    {
+      super(out);
+
+      _out = out;
+    }
+
+    @Override
+    public void close()
+    {
+      try {
+        _out.close();
+      } catch (IOException e) {
+        setError();
+      }
+    }
+  }
+}
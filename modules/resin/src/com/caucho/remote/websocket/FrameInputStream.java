@@ -56,6 +56,9 @@ abstract public class FrameInputStream extends InputStream
 {
   private WebSocketContext _cxt;
   private WebSocketReader _textIn;
+
+  private boolean _isDeflate;
+  private boolean _isCompressed;
   
   public void init(WebSocketContext cxt, InputStream is)
   {
@@ -66,6 +69,43 @@ abstract public class FrameInputStream extends InputStream
   {
     return _cxt;
   }
+
+  /**
+   * Allows RSV1 for permessage-deflate compressed messages.
+   */
+  public void setDeflate(boolean isDeflate)
+  {
+    _isDeflate = isDeflate;
+  }
+
+  /**
+   * True if the current message is permessage-deflate compressed.
+   */
+  public boolean isCompressed()
+  {
+    return _isCompressed;
+  }
+
+  /**
+   * Validates the reserved bits of a frame header. RSV1 is only valid
+   * on the first frame of a data message when deflate is negotiated.
+   */
+  protected boolean isValidRsv(int rsv, int opcode)
+  {
+    boolean isMessageStart = (opcode == OP_TEXT || opcode == OP_BINARY);
+
+    if (isMessageStart)
+      _isCompressed = false;
+
+    if (rsv == 0)
+      return true;
+    else if (rsv == 0x40 && _isDeflate && isMessageStart) {
+      _isCompressed = true;
+      return true;
+    }
+    else
+      return false;
+  }
   
   abstract public int getOpcode();
 
@@ -47,7 +47,7 @@ import com.caucho.websocket.WebSocketEncoder;
  * User facade for http requests.
  */
 public class WebSocketContextStreamImpl
-  implements WebSocketContext, WebSocketConstants
+  implements WebSocketContext, WebSocketConstants, WebSocketFrameWriter
 {
   private static final L10N L = new L10N(WebSocketContextStreamImpl.class);
   private static final Logger log
@@ -62,6 +62,9 @@ public class WebSocketContextStreamImpl
   
   private AtomicBoolean _isWriteClosed = new AtomicBoolean();
 
+  // serializes frame writes with control frames
+  private final Object _writeLock = new Object();
+
   public WebSocketContextStreamImpl(WriteStream out)
   {     
     _out = out;
@@ -146,10 +149,12 @@ public class WebSocketContextStreamImpl
 
     try {
       WriteStream out = getWriteStream();
-    
-      out.write(0x88);
-      out.write(0x00);
-      out.flush();
+
+      synchronized (_writeLock) {
+        out.write(0x88);
+        out.write(0x00);
+        out.flush();
+      }
     } catch (IOException e) {
       log.log(Level.WARNING, e.toString(), e);
     } finally {
@@ -162,11 +167,39 @@ public class WebSocketContextStreamImpl
     return _out;
   }
 
+  @Override
+  public void writeFrame(byte []frame, int offset, int length)
+    throws IOException
+  {
+    WriteStream out = getWriteStream();
+
+    if (out == null)
+      throw new IOException(L.l("{0} is closed for writing.", this));
+
+    synchronized (_writeLock) {
+      out.write(frame, offset, length);
+    }
+  }
+
+  @Override
+  public boolean isClosed()
+  {
+    return _isWriteClosed.get() || getWriteStream() == null;
+  }
+
   @Override
   public void disconnect()
   {
     _out = null;
   }
+
+  @Override
+  public void abort()
+  {
+    _isWriteClosed.set(true);
+
+    disconnect();
+  }
   
   //
   // duplex callbacks
@@ -182,8 +215,10 @@ public class WebSocketContextStreamImpl
     throws IOException
   {
     WriteStream out = getWriteStream();
-    
-    out.flush();
+
+    synchronized (_writeLock) {
+      out.flush();
+    }
   }
 
   protected WebSocketInputStream createWebSocketInputStream(FrameInputStream is)
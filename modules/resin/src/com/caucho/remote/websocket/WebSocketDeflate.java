@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.remote.websocket;
+
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.caucho.config.types.Bytes;
+import com.caucho.util.FreeList;
+import com.caucho.util.L10N;
+
+/**
+ * Configuration for the RFC 7692 permessage-deflate extension.
+ *
+ * <code><pre>
+ * &lt;websocket-deflate>
+ *   &lt;threshold>256&lt;/threshold>
+ *   &lt;server-no-context-takeover>true&lt;/server-no-context-takeover>
+ * &lt;/websocket-deflate>
+ * </pre></code>
+ *
+ * With no context takeover, the deflater or inflater is taken from a pool
+ * for each message instead of being held for the life of the connection.
+ */
+public class WebSocketDeflate {
+  private static final L10N L = new L10N(WebSocketDeflate.class);
+
+  public static final String EXTENSION = "permessage-deflate";
+
+  private static final int WINDOW_BITS_MAX = 15;
+
+  private boolean _isEnable = true;
+  private int _level = Deflater.DEFAULT_COMPRESSION;
+  private int _threshold = 256;
+  private long _messageMax = 16 * 1024 * 1024;
+
+  private boolean _isServerNoContextTakeover;
+  private boolean _isClientNoContextTakeover;
+
+  private final FreeList<Deflater> _deflaterPool
+    = new FreeList<Deflater>(64);
+  private final FreeList<Inflater> _inflaterPool
+    = new FreeList<Inflater>(64);
+
+  public void setEnable(boolean isEnable)
+  {
+    _isEnable = isEnable;
+  }
+
+  public boolean isEnable()
+  {
+    return _isEnable;
+  }
+
+  /**
+   * Sets the deflate compression level, 0-9.
+   */
+  public void setLevel(int level)
+  {
+    if (level < -1 || level > 9)
+      throw new IllegalArgumentException(L.l("deflate level '{0}' must be between 0 and 9",
+                                             level));
+
+    _level = level;
+  }
+
+  public int getLevel()
+  {
+    return _level;
+  }
+
+  /**
+   * Messages shorter than the threshold are sent uncompressed.
+   */
+  public void setThreshold(Bytes threshold)
+  {
+    _threshold = (int) threshold.getBytes();
+  }
+
+  public int getThreshold()
+  {
+    return _threshold;
+  }
+
+  /**
+   * Maximum inflated size of a received message.
+   */
+  public void setMessageMax(Bytes max)
+  {
+    _messageMax = max.getBytes();
+  }
+
+  public long getMessageMax()
+  {
+    return _messageMax;
+  }
+
+  /**
+   * Resets the server's compression context after each message, trading
+   * compression ratio for per-connection memory.
+   */
+  public void setServerNoContextTakeover(boolean isNoTakeover)
+  {
+    _isServerNoContextTakeover = isNoTakeover;
+  }
+
+  public boolean isServerNoContextTakeover()
+  {
+    return _isServerNoContextTakeover;
+  }
+
+  /**
+   * Asks the client to reset its compression context after each message.
+   */
+  public void setClientNoContextTakeover(boolean isNoTakeover)
+  {
+    _isClientNoContextTakeover = isNoTakeover;
+  }
+
+  public boolean isClientNoContextTakeover()
+  {
+    return _isClientNoContextTakeover;
+  }
+
+  /**
+   * Selects the first acceptable permessage-deflate offer from a
+   * Sec-WebSocket-Extensions header.
+   *
+   * @return the connection's deflate context, or null if no offer matches
+   */
+  public WebSocketDeflateContext negotiate(String extensions)
+  {
+    if (! _isEnable || extensions == null)
+      return null;
+
+    for (String offer : extensions.split(",")) {
+      WebSocketDeflateContext cxt = negotiateOffer(offer);
+
+      if (cxt != null)
+        return cxt;
+    }
+
+    return null;
+  }
+
+  private WebSocketDeflateContext negotiateOffer(String offer)
+  {
+    String []params = offer.split(";");
+
+    if (! EXTENSION.equalsIgnoreCase(params[0].trim()))
+      return null;
+
+    boolean isServerNoTakeover = _isServerNoContextTakeover;
+    boolean isClientNoTakeover = _isClientNoContextTakeover;
+
+    for (int i = 1; i < params.length; i++) {
+      String param = params[i].trim();
+      String value = null;
+
+      int p = param.indexOf('=');
+
+      if (p >= 0) {
+        value = param.substring(p + 1).trim();
+        param = param.substring(0, p).trim();
+
+        if (value.startsWith("\"") && value.endsWith("\"")
+            && value.length() >= 2) {
+          value = value.substring(1, value.length() - 1);
+        }
+      }
+
+      if ("server_no_context_takeover".equalsIgnoreCase(param)) {
+        isServerNoTakeover = true;
+      }
+      else if ("client_no_context_takeover".equalsIgnoreCase(param)) {
+        // the client allows us to ask
+      }
+      else if ("server_max_window_bits".equalsIgnoreCase(param)) {
+        // java.util.zip always compresses with a 32k window
+        if (parseWindowBits(value) != WINDOW_BITS_MAX)
+          return null;
+      }
+      else if ("client_max_window_bits".equalsIgnoreCase(param)) {
+        // a 32k inflate window accepts any client window
+        if (value != null && parseWindowBits(value) < 0)
+          return null;
+      }
+      else {
+        return null;
+      }
+    }
+
+    return new WebSocketDeflateContext(this,
+                                       isServerNoTakeover,
+                                       isClientNoTakeover);
+  }
+
+  private static int parseWindowBits(String value)
+  {
+    if (value == null)
+      return -1;
+
+    try {
+      int bits = Integer.parseInt(value);
+
+      if (8 <= bits && bits <= WINDOW_BITS_MAX)
+        return bits;
+    } catch (NumberFormatException e) {
+    }
+
+    return -1;
+  }
+
+  //
+  // pools
+  //
+
+  Deflater allocateDeflater()
+  {
+    Deflater deflater = _deflaterPool.allocate();
+
+    if (deflater == null)
+      deflater = new Deflater(_level, true);
+
+    return deflater;
+  }
+
+  void freeDeflater(Deflater deflater)
+  {
+    deflater.reset();
+
+    if (! _deflaterPool.free(deflater))
+      deflater.end();
+  }
+
+  Inflater allocateInflater()
+  {
+    Inflater inflater = _inflaterPool.allocate();
+
+    if (inflater == null)
+      inflater = new Inflater(true);
+
+    return inflater;
+  }
+
+  void freeInflater(Inflater inflater)
+  {
+    inflater.reset();
+
+    if (! _inflaterPool.free(inflater))
+      inflater.end();
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[threshold=" + _threshold
+            + ",server-no-takeover=" + _isServerNoContextTakeover
+            + ",client-no-takeover=" + _isClientNoContextTakeover + "]");
+  }
+}
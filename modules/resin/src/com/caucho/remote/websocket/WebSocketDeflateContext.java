@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.remote.websocket;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.caucho.util.L10N;
+
+/**
+ * Negotiated permessage-deflate state for a single connection.
+ *
+ * With context takeover the deflater and inflater keep their history
+ * across messages, so they belong to the connection until close.
+ * Otherwise they're borrowed from the configuration's pool per message.
+ */
+public class WebSocketDeflateContext {
+  private static final L10N L = new L10N(WebSocketDeflateContext.class);
+
+  // the sync flush trailer, removed on send and restored on receive
+  private static final byte []TAIL = new byte[] { 0, 0, (byte) 0xff, (byte) 0xff };
+
+  private final WebSocketDeflate _config;
+  private final boolean _isServerNoTakeover;
+  private final boolean _isClientNoTakeover;
+
+  private Deflater _deflater;
+  private Inflater _inflater;
+
+  private byte []_buffer = new byte[1024];
+  private int _length;
+
+  private final byte []_inBuffer = new byte[4096];
+
+  WebSocketDeflateContext(WebSocketDeflate config,
+                          boolean isServerNoTakeover,
+                          boolean isClientNoTakeover)
+  {
+    _config = config;
+    _isServerNoTakeover = isServerNoTakeover;
+    _isClientNoTakeover = isClientNoTakeover;
+  }
+
+  /**
+   * Returns the Sec-WebSocket-Extensions response value.
+   */
+  public String getResponseHeader()
+  {
+    StringBuilder sb = new StringBuilder(WebSocketDeflate.EXTENSION);
+
+    if (_isServerNoTakeover)
+      sb.append("; server_no_context_takeover");
+
+    if (_isClientNoTakeover)
+      sb.append("; client_no_context_takeover");
+
+    return sb.toString();
+  }
+
+  /**
+   * True if a message of the given length should be compressed.
+   */
+  public boolean isCompress(int length)
+  {
+    return _config.getThreshold() <= length;
+  }
+
+  /**
+   * Compresses a complete message. The result is available from
+   * getBuffer() and getLength() until the next call.
+   */
+  public void deflate(byte []data, int offset, int length)
+  {
+    Deflater deflater = _deflater;
+
+    if (deflater == null) {
+      deflater = _config.allocateDeflater();
+
+      if (! _isServerNoTakeover)
+        _deflater = deflater;
+    }
+
+    try {
+      deflater.setInput(data, offset, length);
+
+      int len = 0;
+      int sublen;
+
+      do {
+        if (_buffer.length - len < 64) {
+          byte []buffer = new byte[2 * _buffer.length];
+          System.arraycopy(_buffer, 0, buffer, 0, len);
+          _buffer = buffer;
+        }
+
+        int avail = _buffer.length - len;
+
+        sublen = deflater.deflate(_buffer, len, avail, Deflater.SYNC_FLUSH);
+
+        len += sublen;
+
+        if (sublen < avail)
+          break;
+      } while (true);
+
+      if (isTail(_buffer, len))
+        len -= TAIL.length;
+
+      _length = len;
+    } finally {
+      if (_isServerNoTakeover)
+        _config.freeDeflater(deflater);
+    }
+  }
+
+  public byte []getBuffer()
+  {
+    return _buffer;
+  }
+
+  public int getLength()
+  {
+    return _length;
+  }
+
+  /**
+   * Reads and inflates a complete compressed message. The input is
+   * inflated as it's read, so neither the compressed nor the inflated
+   * bytes can grow past message-max.
+   */
+  public byte []inflate(InputStream is)
+    throws IOException
+  {
+    byte []inBuffer = _inBuffer;
+
+    long max = _config.getMessageMax();
+    // zlib's deflateBound: the largest compressed form of max bytes
+    long inMax = max + (max >> 12) + (max >> 14) + (max >> 25) + 13;
+    long inLength = 0;
+
+    Inflater inflater = _inflater;
+
+    if (inflater == null) {
+      inflater = _config.allocateInflater();
+
+      if (! _isClientNoTakeover)
+        _inflater = inflater;
+    }
+
+    try {
+      byte []out = new byte[256];
+      int len = 0;
+      boolean isTail = false;
+
+      while (true) {
+        if (inflater.needsInput()) {
+          if (isTail)
+            break;
+
+          int sublen = is.read(inBuffer, 0, inBuffer.length);
+
+          if (sublen < 0) {
+            inflater.setInput(TAIL, 0, TAIL.length);
+            isTail = true;
+          }
+          else {
+            inLength += sublen;
+
+            if (inMax < inLength)
+              throw new WebSocketProtocolException(L.l("compressed message is larger than {0}",
+                                                       max));
+
+            inflater.setInput(inBuffer, 0, sublen);
+          }
+
+          continue;
+        }
+
+        if (out.length == len) {
+          if (max <= len)
+            throw new WebSocketProtocolException(L.l("inflated message is larger than {0}",
+                                                     max));
+
+          byte []buffer = new byte[(int) Math.min(max, 2L * out.length)];
+          System.arraycopy(out, 0, buffer, 0, len);
+          out = buffer;
+        }
+
+        int sublen = inflater.inflate(out, len, out.length - len);
+
+        len += sublen;
+
+        if (sublen == 0) {
+          if (inflater.finished()) {
+            // the client ended the deflate stream; start a fresh one
+            // and discard anything after the final block
+            inflater.reset();
+            skipInput(is, inLength, inMax, max);
+            break;
+          }
+          else if (inflater.needsDictionary())
+            throw new WebSocketProtocolException(L.l("unexpected deflate dictionary"));
+        }
+      }
+
+      if (len == out.length)
+        return out;
+
+      byte []result = new byte[len];
+      System.arraycopy(out, 0, result, 0, len);
+
+      return result;
+    } catch (DataFormatException e) {
+      throw new WebSocketProtocolException(e.toString());
+    } finally {
+      if (_isClientNoTakeover)
+        _config.freeInflater(inflater);
+    }
+  }
+
+  private void skipInput(InputStream is, long inLength, long inMax, long max)
+    throws IOException
+  {
+    byte []inBuffer = _inBuffer;
+    int sublen;
+
+    while ((sublen = is.read(inBuffer, 0, inBuffer.length)) >= 0) {
+      inLength += sublen;
+
+      if (inMax < inLength)
+        throw new WebSocketProtocolException(L.l("compressed message is larger than {0}",
+                                                 max));
+    }
+  }
+
+  private static boolean isTail(byte []buffer, int length)
+  {
+    if (length < TAIL.length)
+      return false;
+
+    int offset = length - TAIL.length;
+
+    for (int i = 0; i < TAIL.length; i++) {
+      if (buffer[offset + i] != TAIL[i])
+        return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Releases the connection's deflater and inflater.
+   */
+  public void close()
+  {
+    Deflater deflater = _deflater;
+    _deflater = null;
+
+    if (deflater != null)
+      _config.freeDeflater(deflater);
+
+    Inflater inflater = _inflater;
+    _inflater = null;
+
+    if (inflater != null)
+      _config.freeInflater(inflater);
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + getResponseHeader() + "]";
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.remote.websocket;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * An immutable, fully-encoded server frame. The buffer is shared by
+ * every connection the frame is written to and must not be modified.
+ */
+public final class WebSocketFrame implements WebSocketConstants {
+  private final int _opcode;
+  private final byte []_buffer;
+  private final int _payloadOffset;
+
+  private WebSocketFrame(int opcode, byte []buffer, int payloadOffset)
+  {
+    _opcode = opcode;
+    _buffer = buffer;
+    _payloadOffset = payloadOffset;
+  }
+
+  /**
+   * Encodes a final text frame.
+   */
+  public static WebSocketFrame createText(String text)
+  {
+    try {
+      byte []data = text.getBytes("utf-8");
+
+      return create(OP_TEXT, data, 0, data.length);
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Encodes a final binary frame.
+   */
+  public static WebSocketFrame createBinary(byte []data, int offset, int length)
+  {
+    return create(OP_BINARY, data, offset, length);
+  }
+
+  private static WebSocketFrame create(int opcode,
+                                       byte []data, int offset, int length)
+  {
+    int headerLength;
+
+    if (length < 0x7e)
+      headerLength = 2;
+    else if (length <= 0xffff)
+      headerLength = 4;
+    else
+      headerLength = 10;
+
+    byte []buffer = new byte[headerLength + length];
+
+    buffer[0] = (byte) (FLAG_FIN | opcode);
+
+    if (headerLength == 2) {
+      buffer[1] = (byte) length;
+    }
+    else if (headerLength == 4) {
+      buffer[1] = (byte) 0x7e;
+      buffer[2] = (byte) (length >> 8);
+      buffer[3] = (byte) length;
+    }
+    else {
+      buffer[1] = (byte) 0x7f;
+
+      long len = length;
+
+      for (int i = 0; i < 8; i++) {
+        buffer[2 + i] = (byte) (len >> (56 - 8 * i));
+      }
+    }
+
+    System.arraycopy(data, offset, buffer, headerLength, length);
+
+    return new WebSocketFrame(opcode, buffer, headerLength);
+  }
+
+  public int getOpcode()
+  {
+    return _opcode;
+  }
+
+  /**
+   * The encoded frame, including the header.
+   */
+  public byte []getBuffer()
+  {
+    return _buffer;
+  }
+
+  public int getLength()
+  {
+    return _buffer.length;
+  }
+
+  public int getPayloadOffset()
+  {
+    return _payloadOffset;
+  }
+
+  public int getPayloadLength()
+  {
+    return _buffer.length - _payloadOffset;
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[op=" + _opcode + ",len=" + getPayloadLength() + "]");
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.remote.websocket;
+
+import java.io.IOException;
+
+/**
+ * Server-side connection which can write an already-encoded frame, so a
+ * broadcast frame can be shared by many connections.
+ *
+ * Frame writes, flushes and the connection's own control frames, such
+ * as the pong sent from the reader thread, are serialized by a single
+ * per-connection lock.
+ */
+public interface WebSocketFrameWriter {
+  /**
+   * Writes a complete, unmasked frame without flushing.
+   */
+  public void writeFrame(byte []frame, int offset, int length)
+    throws IOException;
+
+  /**
+   * Flushes the written frames.
+   */
+  public void flush()
+    throws IOException;
+
+  /**
+   * True if the connection is closed for writing.
+   */
+  public boolean isClosed();
+
+  /**
+   * Shuts down the connection from another thread, so a blocked write
+   * fails instead of holding its writer.
+   */
+  public void abort();
+}
@@ -37,6 +37,7 @@ import java.util.Locale;
 
 import com.caucho.vfs.OutputStreamWithBuffer;
 import com.caucho.vfs.Path;
+import com.caucho.vfs.i18n.EncodingWriter;
 
 /**
  * API for handling the PrintWriter/ServletOutputStream
@@ -263,6 +264,26 @@ public abstract class AbstractResponseStream
   abstract public void print(char []buffer, int offset, int length)
     throws IOException;
 
+  /**
+   * Returns the encoder for printed characters, or null if printed
+   * characters can't be replaced by pre-encoded bytes.
+   */
+  public EncodingWriter getPrintEncoder()
+  {
+    return null;
+  }
+
+  /**
+   * Writes characters which were already encoded with the print encoder.
+   *
+   * @return false if the caller must print the characters instead
+   */
+  public boolean printEncoded(byte []buffer, int offset, int length)
+    throws IOException
+  {
+    return false;
+  }
+
   /**
    * Clears the output buffer, including headers if possible.
    */
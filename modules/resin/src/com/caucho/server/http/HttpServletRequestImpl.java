@@ -61,6 +61,8 @@ import com.caucho.network.listen.SocketLinkDuplexController;
 import com.caucho.remote.websocket.MaskedFrameInputStream;
 import com.caucho.remote.websocket.UnmaskedFrameInputStream;
 import com.caucho.remote.websocket.WebSocketConstants;
+import com.caucho.remote.websocket.WebSocketDeflate;
+import com.caucho.remote.websocket.WebSocketDeflateContext;
 import com.caucho.security.AbstractLogin;
 import com.caucho.security.Login;
 import com.caucho.server.cluster.ServletService;
@@ -1621,6 +1623,24 @@ public final class HttpServletRequestImpl extends AbstractCauchoRequest
     
     if (! isMasked)
       serverExtensions = "x-unmasked";
+
+    WebApp webApp = getWebApp();
+    WebSocketDeflate deflateConfig = null;
+
+    if (webApp != null)
+      deflateConfig = webApp.getWebSocketDeflate();
+
+    WebSocketDeflateContext deflate = null;
+
+    if (deflateConfig != null)
+      deflate = deflateConfig.negotiate(extensions);
+
+    if (deflate != null) {
+      if (serverExtensions != null)
+        serverExtensions += ", " + deflate.getResponseHeader();
+      else
+        serverExtensions = deflate.getResponseHeader();
+    }
     
     _response.setStatus(101);//, "Switching Protocols");
     _response.setHeader("Upgrade", "websocket");
@@ -1642,6 +1662,8 @@ public final class HttpServletRequestImpl extends AbstractCauchoRequest
     else
       webSocket = new WebSocketContextImpl(this, _response, listener,
                                            new UnmaskedFrameInputStream());
+
+    webSocket.setDeflate(deflate);
     
     SocketLinkDuplexController controller = _request.startDuplex(webSocket);
     webSocket.setController(controller);
@@ -426,6 +426,41 @@ public abstract class ToByteResponseStream extends AbstractResponseStream {
     _charLength = charLength;
   }
 
+  /**
+   * Returns the encoder for printed characters.
+   */
+  @Override
+  public EncodingWriter getPrintEncoder()
+  {
+    if (_isOutputStreamOnly)
+      return null;
+    else
+      return _toByte;
+  }
+
+  /**
+   * Writes pre-encoded characters, flushing any pending chars first.
+   */
+  @Override
+  public boolean printEncoded(byte []buffer, int offset, int length)
+    throws IOException
+  {
+    if (isClosed() || isHead() || _isOutputStreamOnly)
+      return true;
+
+    if (_charLength > 0) {
+      flushCharBuffer();
+
+      // a partial surrogate pair is still pending
+      if (_charLength > 0)
+        return false;
+    }
+
+    write(buffer, offset, length);
+
+    return true;
+  }
+
   /**
    * Converts the char buffer.
    */
@@ -29,8 +29,10 @@
 
 package com.caucho.server.http;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.util.concurrent.BlockingQueue;
@@ -40,16 +42,23 @@ import java.util.logging.Logger;
 
 import com.caucho.network.listen.SocketLinkDuplexController;
 import com.caucho.network.listen.SocketLinkDuplexListener;
+import com.caucho.network.listen.TcpSocketLink;
+import com.caucho.remote.websocket.DeflateMessageOutputStream;
+import com.caucho.remote.websocket.DeflateMessageWriter;
 import com.caucho.remote.websocket.WebSocketBlockingQueue;
 import com.caucho.remote.websocket.WebSocketConstants;
+import com.caucho.remote.websocket.WebSocketDeflateContext;
+import com.caucho.remote.websocket.WebSocketFrameWriter;
 import com.caucho.remote.websocket.WebSocketInputStream;
 import com.caucho.remote.websocket.WebSocketOutputStream;
 import com.caucho.remote.websocket.WebSocketPrintWriter;
+import com.caucho.remote.websocket.WebSocketProtocolException;
 import com.caucho.remote.websocket.WebSocketReader;
 import com.caucho.remote.websocket.WebSocketWriter;
 import com.caucho.remote.websocket.FrameInputStream;
 import com.caucho.util.IoUtil;
 import com.caucho.util.L10N;
+import com.caucho.vfs.QSocket;
 import com.caucho.vfs.ReadStream;
 import com.caucho.vfs.TempBuffer;
 import com.caucho.vfs.WriteStream;
@@ -61,7 +70,8 @@ import com.caucho.websocket.WebSocketListener;
  * User facade for http requests.
  */
 class WebSocketContextImpl
-  implements WebSocketContext, WebSocketConstants, SocketLinkDuplexListener
+  implements WebSocketContext, WebSocketConstants, SocketLinkDuplexListener,
+             WebSocketFrameWriter
 {
   private static final L10N L = new L10N(WebSocketContextImpl.class);
   private static final Logger log
@@ -81,9 +91,18 @@ class WebSocketContextImpl
   private PrintWriter _textWriter;
   // private WebSocketReader _textIn;
 
+  // permessage-deflate, when negotiated
+  private WebSocketDeflateContext _deflate;
+  private DeflateMessageOutputStream _deflateBinaryOut;
+  private DeflateMessageWriter _deflateTextOut;
+  private PrintWriter _deflateTextWriter;
+
   private boolean _isReadClosed;
   private AtomicBoolean _isWriteClosed = new AtomicBoolean();
 
+  // serializes frame writes with the reader thread's control frames
+  private final Object _writeLock = new Object();
+
   WebSocketContextImpl(HttpServletRequestImpl request,
                        HttpServletResponseImpl response,
                        WebSocketListener listener,
@@ -94,6 +113,16 @@ class WebSocketContextImpl
     _is = is;
   }
 
+  /**
+   * Enables permessage-deflate for the connection.
+   */
+  void setDeflate(WebSocketDeflateContext deflate)
+  {
+    _deflate = deflate;
+
+    _is.setDeflate(deflate != null);
+  }
+
   public void setController(SocketLinkDuplexController controller)
   {
     _controller = controller;
@@ -138,6 +167,17 @@ class WebSocketContextImpl
       throw new IllegalStateException(L.l("{0} is closed for writing.",
                                           this));
 
+    if (_deflate != null) {
+      if (_deflateBinaryOut == null)
+        _deflateBinaryOut
+          = new DeflateMessageOutputStream(_controller.getWriteStream(),
+                                           _deflate, OP_BINARY);
+
+      _deflateBinaryOut.init();
+
+      return _deflateBinaryOut;
+    }
+
     if (_binaryOut == null)
       _binaryOut = new WebSocketOutputStream(_controller.getWriteStream(),
                                              TempBuffer.allocate().getBuffer());
@@ -151,6 +191,22 @@ class WebSocketContextImpl
   public PrintWriter startTextMessage()
     throws IOException
   {
+    if (_deflate != null) {
+      if (_deflateTextOut == null) {
+        DeflateMessageOutputStream os
+          = new DeflateMessageOutputStream(_controller.getWriteStream(),
+                                           _deflate, OP_TEXT);
+
+        _deflateTextOut = new DeflateMessageWriter(os);
+        _deflateTextWriter
+          = new DeflateMessageWriter.DeflatePrintWriter(_deflateTextOut);
+      }
+
+      _deflateTextOut.init();
+
+      return _deflateTextWriter;
+    }
+
     if (_textOut == null) {
       _textOut = new WebSocketWriter(_controller.getWriteStream(),
                                      TempBuffer.allocate().getBuffer());
@@ -170,12 +226,27 @@ class WebSocketContextImpl
 
     byte []bytes = value;
 
-    out.write(0x8a);
-    out.write(bytes.length);
-    out.write(bytes);
-    out.flush();
+    synchronized (_writeLock) {
+      out.write(0x8a);
+      out.write(bytes.length);
+      out.write(bytes);
+      out.flush();
+    }
+  }
+
+  @Override
+  public void writeFrame(byte []frame, int offset, int length)
+    throws IOException
+  {
+    if (_isWriteClosed.get())
+      throw new IOException(L.l("{0} is closed for writing.", this));
+
+    synchronized (_writeLock) {
+      _controller.getWriteStream().write(frame, offset, length);
+    }
   }
 
+  @Override
   public boolean isClosed()
   {
     return _isWriteClosed.get();
@@ -196,23 +267,30 @@ class WebSocketContextImpl
     WriteStream out = _controller.getWriteStream();
 
     try {
-      if (code <= 0) {
-        out.write(0x88);
-        out.write(0x00);
-      }
-      else {
-        byte []bytes = message.getBytes("utf-8");
-
-        out.write(0x88);
-        out.write(0x02 + bytes.length);
-        out.write((code >> 8) & 0xff);
-        out.write(code & 0xff);
-        out.write(bytes);
+      // a writer blocked on a stalled client holds the lock until the
+      // group's write timeout aborts the connection
+      synchronized (_writeLock) {
+        try {
+          if (code <= 0) {
+            out.write(0x88);
+            out.write(0x00);
+          }
+          else {
+            byte []bytes = message.getBytes("utf-8");
+
+            out.write(0x88);
+            out.write(0x02 + bytes.length);
+            out.write((code >> 8) & 0xff);
+            out.write(code & 0xff);
+            out.write(bytes);
+          }
+        } finally {
+          IoUtil.close(out);
+        }
       }
     } catch (IOException e) {
       log.log(Level.WARNING, e.toString(), e);
     } finally {
-      IoUtil.close(out);
       disconnect();
     }
   }
@@ -226,9 +304,29 @@ class WebSocketContextImpl
       _controller.complete();
     } finally {
       IoUtil.close(_is);
+
+      WebSocketDeflateContext deflate = _deflate;
+
+      if (deflate != null)
+        deflate.close();
     }
   }
 
+  @Override
+  public void abort()
+  {
+    _isWriteClosed.set(true);
+
+    TcpSocketLink link = _controller.getSocketLink();
+    QSocket socket = link != null ? link.getSocket() : null;
+
+    // fails a write blocked on a stalled client
+    if (socket != null)
+      socket.forceShutdown();
+
+    disconnect();
+  }
+
   //
   // duplex callbacks
   //
@@ -245,7 +343,9 @@ class WebSocketContextImpl
   {
     WriteStream out = _controller.getWriteStream();
 
-    out.flush();
+    synchronized (_writeLock) {
+      out.flush();
+    }
   }
 
   @Override
@@ -274,6 +374,10 @@ class WebSocketContextImpl
 
     int opcode = _is.getOpcode();
 
+    if (_is.isCompressed()) {
+      return readCompressedFrame(opcode);
+    }
+
     switch (opcode) {
     case OP_BINARY:
       if (_binaryIn == null)
@@ -309,6 +413,44 @@ class WebSocketContextImpl
     return true;
   }
 
+  /**
+   * Inflates a complete permessage-deflate message before passing it
+   * to the listener.
+   */
+  private boolean readCompressedFrame(int opcode)
+    throws IOException
+  {
+    if (_binaryIn == null)
+      _binaryIn = createWebSocketInputStream(_is);
+
+    _binaryIn.init();
+
+    byte []data = null;
+
+    try {
+      data = _deflate.inflate(_binaryIn);
+    } catch (WebSocketProtocolException e) {
+      log.log(Level.FINER, e.toString(), e);
+    } finally {
+      _binaryIn.close();
+    }
+
+    if (data == null) {
+      close(CLOSE_ERROR, "invalid compressed message");
+
+      return false;
+    }
+
+    InputStream is = new ByteArrayInputStream(data);
+
+    if (opcode == OP_TEXT)
+      _listener.onReadText(this, new InputStreamReader(is, "utf-8"));
+    else
+      _listener.onReadBinary(this, is);
+
+    return true;
+  }
+
   protected WebSocketInputStream createWebSocketInputStream(FrameInputStream is)
     throws IOException
   {
@@ -94,6 +94,12 @@ public class AccessLog extends AbstractAccessLog implements AlarmListener
   private Alarm _alarm = new WeakAlarm(this);
   private boolean _isActive;
 
+  // async-format: request threads capture raw values, the writer formats
+  private boolean _isAsyncFormat;
+  private int _asyncQueueSize = 4096;
+  private boolean _isAsyncDrop;
+  private AccessLogFormatActor _formatActor;
+
   public AccessLog()
   {
     setRolloverSize(new Bytes(ROLLOVER_SIZE));
@@ -234,6 +240,81 @@ public class AccessLog extends AbstractAccessLog implements AlarmListener
     _autoFlushTime = period.getPeriod();
   }
 
+  /**
+   * Formats log lines on the writer thread. Request threads only copy
+   * the raw values into a ring entry.
+   */
+  @Configurable
+  public void setAsyncFormat(boolean isAsyncFormat)
+  {
+    _isAsyncFormat = isAsyncFormat;
+  }
+
+  public boolean isAsyncFormat()
+  {
+    return _isAsyncFormat;
+  }
+
+  /**
+   * Sets the number of entries in the async-format ring.
+   */
+  @Configurable
+  public void setAsyncQueueSize(int size)
+  {
+    if (size <= 0)
+      throw new IllegalArgumentException(L.l("async-queue-size '{0}' must be positive",
+                                             size));
+
+    _asyncQueueSize = size;
+  }
+
+  /**
+   * If true, entries are dropped when the async-format ring is full.
+   * Otherwise the request thread waits briefly for the writer.
+   */
+  @Configurable
+  public void setAsyncDrop(boolean isDrop)
+  {
+    _isAsyncDrop = isDrop;
+  }
+
+  /**
+   * Returns the number of entries queued in async-format mode.
+   */
+  public long getAsyncLogCount()
+  {
+    AccessLogFormatActor actor = _formatActor;
+
+    return actor != null ? actor.getLogCount() : 0;
+  }
+
+  /**
+   * Returns the number of entries dropped because the ring was full.
+   */
+  public long getAsyncDropCount()
+  {
+    AccessLogFormatActor actor = _formatActor;
+
+    return actor != null ? actor.getDropCount() : 0;
+  }
+
+  /**
+   * Returns the number of times a request thread waited for the ring.
+   */
+  public long getAsyncBlockCount()
+  {
+    AccessLogFormatActor actor = _formatActor;
+
+    return actor != null ? actor.getBlockCount() : 0;
+  }
+
+  public int getAsyncQueueSize()
+  {
+    AccessLogFormatActor actor = _formatActor;
+
+    return actor != null ? actor.getQueueSize() : 0;
+  }
+
   /**
    * Sets the shared buffer attribute.
    */
@@ -285,6 +366,13 @@ public class AccessLog extends AbstractAccessLog implements AlarmListener
     _logWriter.init();
     // _sharedBufferLock = _logWriter.getBufferLock();
 
+    if (_isAsyncFormat) {
+      _formatActor = new AccessLogFormatActor(this, _logWriter,
+                                              _segments, _timeFormat,
+                                              _asyncQueueSize,
+                                              _isAsyncDrop);
+    }
+
     super.init();
     
     _logWriter.rollover();
@@ -389,6 +477,11 @@ public class AccessLog extends AbstractAccessLog implements AlarmListener
       }
     }
 
+    if (_formatActor != null) {
+      logAsync(request, responseImpl, response);
+      return;
+    }
+
     LogBuffer logBuffer = response.getLogBuffer();
     
     if (! logBuffer.allocate(_logWriter)) {
@@ -412,6 +505,225 @@ public class AccessLog extends AbstractAccessLog implements AlarmListener
     }
   }
 
+  /**
+   * Captures the raw values for the writer thread to format.
+   */
+  private void logAsync(HttpServletRequestImpl request,
+                        HttpServletResponseImpl responseFacade,
+                        AbstractHttpResponse response)
+    throws IOException
+  {
+    AccessLogFormatActor actor = _formatActor;
+
+    AccessLogEntry entry = actor.startEntry();
+
+    if (entry == null)
+      return;
+
+    try {
+      capture(request, responseFacade, response, entry);
+
+      entry.setValid(true);
+    } finally {
+      // an allocated ring entry must always be released
+      actor.finishEntry(entry);
+    }
+  }
+
+  private void capture(HttpServletRequestImpl request,
+                       HttpServletResponseImpl responseFacade,
+                       AbstractHttpResponse response,
+                       AccessLogEntry entry)
+    throws IOException
+  {
+    AbstractHttpRequest absRequest = request.getAbstractHttpRequest();
+
+    Segment []segments = _segments;
+
+    for (int i = 0; i < segments.length; i++) {
+      Segment segment = segments[i];
+
+      switch (segment._code) {
+      case Segment.TEXT:
+      case Segment.CHAR:
+      case 'l':
+      case 't':
+        break;
+
+      case 'b':
+        if (responseFacade.getStatus() == 304)
+          entry.setValue(i, -1);
+        else
+          entry.setValue(i, response.getContentLength());
+        break;
+
+      case 'c':
+        {
+          Cookie cookie = request.getCookie(segment._string);
+          if (cookie == null)
+            cookie = responseFacade.getCookie(segment._string);
+
+          if (cookie == null)
+            entry.setNull(i);
+          else
+            entry.setString(i, cookie.getValue());
+          break;
+        }
+
+      case Segment.SET_COOKIE:
+        {
+          ArrayList<Cookie> cookies = responseFacade.getCookies();
+          String value = response.getHeader(segment._string);
+
+          entry.start(i);
+
+          if (cookies == null) {
+            // as in the synchronous format, nothing is printed
+          }
+          else if (cookies.size() > 0) {
+            boolean isFirst = true;
+
+            if (value != null) {
+              entry.append(value);
+              isFirst = value.length() == 0;
+            }
+
+            for (int j = 0; j < cookies.size(); j++) {
+              Cookie cookie = cookies.get(j);
+
+              if (! isFirst)
+                entry.append(',');
+
+              isFirst = false;
+
+              entry.append(cookie.getName());
+              entry.append('=');
+              entry.append(cookie.getValue());
+            }
+          }
+          else if (value != null) {
+            int p = value.indexOf(';');
+
+            entry.append(p > 0 ? value.substring(0, p) : value);
+          }
+          else {
+            entry.append('-');
+          }
+
+          entry.end(i);
+          break;
+        }
+
+      case 'h':
+        if (isHostnameDnsLookup()) {
+          // the writer thread does the lookup
+          entry.setString(i, request.getRemoteAddr());
+        }
+        else {
+          entry.start(i);
+          entry.ensureCapacity(256);
+
+          int tail = absRequest.printRemoteAddr(entry.getData(),
+                                                entry.getDataLength());
+          entry.setDataLength(tail);
+
+          entry.end(i);
+        }
+        break;
+
+      case 'i':
+        entry.setChars(i, absRequest.getHeaderBuffer(segment._string));
+        break;
+
+      case 'n':
+        {
+          Object oValue = request.getAttribute(segment._string);
+
+          if (oValue == null)
+            entry.setNull(i);
+          else
+            entry.setString(i, String.valueOf(oValue));
+          break;
+        }
+
+      case 'o':
+        entry.setString(i, response.getHeader(segment._string));
+        break;
+
+      case 'r':
+        {
+          entry.start(i);
+
+          entry.append(request.getMethod());
+          entry.append(' ');
+
+          byte []uri = absRequest.getUriBuffer();
+          int uriLength = absRequest.getUriLength();
+
+          entry.append(uri, 0, uriLength);
+
+          // server/02e9
+          if (AccessLogEntry.FIELD_MAX < uriLength)
+            entry.append("...");
+
+          entry.append(' ');
+          entry.append(request.getProtocol());
+
+          entry.end(i);
+          break;
+        }
+
+      case 's':
+        entry.setValue(i, responseFacade.getStatus());
+        break;
+
+      case 'S':
+        {
+          String sessionId = request.getRequestedSessionId();
+
+          if (! request.isRequestedSessionIdValid() || sessionId == null)
+            entry.setNull(i);
+          else
+            entry.setString(i, sessionId);
+          break;
+        }
+
+      case 'T':
+        {
+          long startTime = request.getStartTime();
+          long endTime = CurrentTime.getCurrentTime();
+
+          entry.setValue(i, (int) ((endTime - startTime + 500) / 1000));
+          break;
+        }
+
+      case 'D':
+        {
+          long startTime = request.getStartTime();
+          long endTime = CurrentTime.getExactTime();
+
+          entry.setValue(i, (int) ((endTime - startTime) * 1000));
+          break;
+        }
+
+      case 'u':
+        entry.setString(i, request.getRemoteUser(false));
+        break;
+
+      case 'v':
+        entry.setString(i, request.getServerName());
+        break;
+
+      case 'U':
+        entry.setString(i, request.getRequestURI());
+        break;
+
+      default:
+        throw new IOException();
+      }
+    }
+  }
+
   /**
    * Logs a request using the current format.
    *
@@ -788,6 +1100,11 @@ public class AccessLog extends AbstractAccessLog implements AlarmListener
   public void flush()
   {
     // server/0213, 021q
+    AccessLogFormatActor formatActor = _formatActor;
+
+    if (formatActor != null)
+      formatActor.waitForFlush(5000L);
+
     _logWriter.flush();
     _logWriter.waitForFlush(5000L);
     _logWriter.rollover();
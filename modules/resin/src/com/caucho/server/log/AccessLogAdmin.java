@@ -55,6 +55,46 @@ public class AccessLogAdmin extends AbstractManagedObject
     return null;
   }
 
+  //
+  // Statistics
+  //
+
+  @Override
+  public long getAsyncLogCount()
+  {
+    if (_accessLog instanceof AccessLog)
+      return ((AccessLog) _accessLog).getAsyncLogCount();
+    else
+      return 0;
+  }
+
+  @Override
+  public long getAsyncDropCount()
+  {
+    if (_accessLog instanceof AccessLog)
+      return ((AccessLog) _accessLog).getAsyncDropCount();
+    else
+      return 0;
+  }
+
+  @Override
+  public long getAsyncBlockCount()
+  {
+    if (_accessLog instanceof AccessLog)
+      return ((AccessLog) _accessLog).getAsyncBlockCount();
+    else
+      return 0;
+  }
+
+  @Override
+  public int getAsyncQueueSize()
+  {
+    if (_accessLog instanceof AccessLog)
+      return ((AccessLog) _accessLog).getAsyncQueueSize();
+    else
+      return 0;
+  }
+
   //
   // Operations
   //
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.log;
+
+import com.caucho.util.CharSegment;
+import com.caucho.util.RingItem;
+
+/**
+ * Raw values for one access log line, captured on the request thread and
+ * formatted by the log's writer thread.
+ *
+ * Each format segment has either a byte range in the entry's data buffer
+ * or a numeric value. A null byte range is printed as '-'.
+ */
+final class AccessLogEntry extends RingItem {
+  // truncate for hacker attacks
+  static final int FIELD_MAX = 4096;
+
+  private byte []_data = new byte[512];
+  private int _length;
+
+  private int []_offsets = new int[0];
+  private int []_lengths = new int[0];
+  private long []_values = new long[0];
+
+  private long _time;
+  private boolean _isValid;
+
+  AccessLogEntry(int index)
+  {
+    super(index);
+  }
+
+  void init(int segmentCount, long time)
+  {
+    if (_offsets.length < segmentCount) {
+      _offsets = new int[segmentCount];
+      _lengths = new int[segmentCount];
+      _values = new long[segmentCount];
+    }
+
+    _length = 0;
+    _time = time;
+    _isValid = false;
+  }
+
+  long getTime()
+  {
+    return _time;
+  }
+
+  boolean isValid()
+  {
+    return _isValid;
+  }
+
+  void setValid(boolean isValid)
+  {
+    _isValid = isValid;
+  }
+
+  //
+  // numeric values
+  //
+
+  void setValue(int index, long value)
+  {
+    _values[index] = value;
+  }
+
+  long getValue(int index)
+  {
+    return _values[index];
+  }
+
+  //
+  // byte values
+  //
+
+  byte []getData()
+  {
+    return _data;
+  }
+
+  int getOffset(int index)
+  {
+    return _offsets[index];
+  }
+
+  /**
+   * Returns the field's length, or -1 for a null field.
+   */
+  int getLength(int index)
+  {
+    return _lengths[index];
+  }
+
+  int getDataLength()
+  {
+    return _length;
+  }
+
+  void setNull(int index)
+  {
+    _lengths[index] = -1;
+  }
+
+  /**
+   * Starts a field which is built from several appends.
+   */
+  void start(int index)
+  {
+    _offsets[index] = _length;
+  }
+
+  void end(int index)
+  {
+    _lengths[index] = _length - _offsets[index];
+  }
+
+  void setString(int index, String value)
+  {
+    if (value == null) {
+      setNull(index);
+      return;
+    }
+
+    start(index);
+    append(value);
+    end(index);
+  }
+
+  void setChars(int index, CharSegment value)
+  {
+    if (value == null) {
+      setNull(index);
+      return;
+    }
+
+    start(index);
+    append(value.getBuffer(), value.getOffset(), value.getLength());
+    end(index);
+  }
+
+  void append(String value)
+  {
+    int length = Math.min(value.length(), FIELD_MAX);
+
+    ensureCapacity(length);
+
+    byte []data = _data;
+    int offset = _length;
+
+    for (int i = 0; i < length; i++) {
+      data[offset + i] = (byte) value.charAt(i);
+    }
+
+    _length = offset + length;
+  }
+
+  void append(char []buffer, int offset, int length)
+  {
+    length = Math.min(length, FIELD_MAX);
+
+    ensureCapacity(length);
+
+    byte []data = _data;
+    int tail = _length;
+
+    for (int i = 0; i < length; i++) {
+      data[tail + i] = (byte) buffer[offset + i];
+    }
+
+    _length = tail + length;
+  }
+
+  void append(byte []buffer, int offset, int length)
+  {
+    length = Math.min(length, FIELD_MAX);
+
+    ensureCapacity(length);
+
+    System.arraycopy(buffer, offset, _data, _length, length);
+
+    _length += length;
+  }
+
+  void append(int ch)
+  {
+    ensureCapacity(1);
+
+    _data[_length++] = (byte) ch;
+  }
+
+  /**
+   * Ensures room for a direct write into getData() at getDataLength().
+   */
+  void ensureCapacity(int length)
+  {
+    if (_data.length < _length + length) {
+      byte []data = new byte[Math.max(2 * _data.length, _length + length)];
+
+      System.arraycopy(_data, 0, data, 0, _length);
+
+      _data = data;
+    }
+  }
+
+  void setDataLength(int length)
+  {
+    _length = length;
+  }
+
+  /**
+   * Releases an oversized buffer after the entry is written.
+   */
+  void clear()
+  {
+    if (_data.length > 16 * 1024)
+      _data = new byte[512];
+
+    _isValid = false;
+  }
+}
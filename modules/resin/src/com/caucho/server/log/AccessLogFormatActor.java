@@ -0,0 +1,437 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.log;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.env.actor.AbstractActorProcessor;
+import com.caucho.env.actor.ActorQueue;
+import com.caucho.server.log.AccessLog.Segment;
+import com.caucho.util.CharBuffer;
+import com.caucho.util.CurrentTime;
+import com.caucho.util.QDate;
+import com.caucho.util.RingItemFactory;
+
+/**
+ * Formats and writes access log entries for the async-format mode.
+ *
+ * Request threads only copy raw values into a preallocated ring entry.
+ * The single actor thread formats dates and numbers, does any DNS lookup
+ * and writes the batch to the log with one flush.
+ */
+class AccessLogFormatActor extends AbstractActorProcessor<AccessLogEntry>
+  implements RingItemFactory<AccessLogEntry>
+{
+  private static final Logger log
+    = Logger.getLogger(AccessLogFormatActor.class.getName());
+
+  // bounded backpressure wait before a blocked entry is dropped
+  private static final int OFFER_RETRY_MAX = 10;
+
+  private final AccessLog _log;
+  private final AccessLogWriter _logWriter;
+  private final Segment []_segments;
+  private final String _timeFormat;
+  private final boolean _isDrop;
+  private final int _lineOverhead;
+
+  private final ActorQueue<AccessLogEntry> _queue;
+
+  private final AtomicLong _logCount = new AtomicLong();
+  private final AtomicLong _dropCount = new AtomicLong();
+  private final AtomicLong _blockCount = new AtomicLong();
+
+  // writer-thread state
+  private byte []_buffer = new byte[AccessLog.BUFFER_SIZE];
+  private int _offset;
+
+  private final QDate _calendar = new QDate(true);
+  private final CharBuffer _cb = new CharBuffer();
+  private byte []_dateBuffer = new byte[64];
+  private int _dateLength;
+  private long _lastDateSecond = -1;
+
+  AccessLogFormatActor(AccessLog log,
+                       AccessLogWriter logWriter,
+                       Segment []segments,
+                       String timeFormat,
+                       int capacity,
+                       boolean isDrop)
+  {
+    _log = log;
+    _logWriter = logWriter;
+    _segments = segments;
+    _timeFormat = timeFormat;
+    _isDrop = isDrop;
+
+    // text, numbers and the date, beyond the entry's raw data
+    int lineOverhead = 256;
+
+    for (Segment segment : segments) {
+      if (segment._code == Segment.TEXT)
+        lineOverhead += segment._data.length;
+      else
+        lineOverhead += 32;
+    }
+
+    _lineOverhead = lineOverhead;
+
+    _queue = new ActorQueue<AccessLogEntry>(capacity, this, this);
+  }
+
+  @Override
+  public AccessLogEntry createItem(int index)
+  {
+    return new AccessLogEntry(index);
+  }
+
+  @Override
+  public String getThreadName()
+  {
+    return toString();
+  }
+
+  //
+  // request thread
+  //
+
+  /**
+   * Allocates a ring entry, or returns null if the entry is dropped.
+   * Every allocated entry must be passed to finishEntry.
+   */
+  AccessLogEntry startEntry()
+  {
+    AccessLogEntry entry = _queue.startOffer(false);
+
+    if (entry == null) {
+      if (_isDrop) {
+        _dropCount.incrementAndGet();
+        return null;
+      }
+
+      _blockCount.incrementAndGet();
+
+      for (int i = 0; entry == null && i < OFFER_RETRY_MAX; i++) {
+        entry = _queue.startOffer(true);
+      }
+
+      if (entry == null) {
+        _dropCount.incrementAndGet();
+        return null;
+      }
+    }
+
+    entry.init(_segments.length, CurrentTime.getCurrentTime());
+
+    return entry;
+  }
+
+  void finishEntry(AccessLogEntry entry)
+  {
+    if (entry.isValid())
+      _logCount.incrementAndGet();
+
+    _queue.finishOffer(entry);
+  }
+
+  long getLogCount()
+  {
+    return _logCount.get();
+  }
+
+  long getDropCount()
+  {
+    return _dropCount.get();
+  }
+
+  long getBlockCount()
+  {
+    return _blockCount.get();
+  }
+
+  int getQueueSize()
+  {
+    return _queue.getSize();
+  }
+
+  boolean isEmpty()
+  {
+    return _queue.isEmpty();
+  }
+
+  void wake()
+  {
+    _queue.wake();
+  }
+
+  /**
+   * Waits for the queued entries to be written.
+   */
+  void waitForFlush(long timeout)
+  {
+    long expire = CurrentTime.getCurrentTimeActual() + timeout;
+
+    while (! _queue.isEmpty()
+           && CurrentTime.getCurrentTimeActual() < expire) {
+      _queue.wake();
+
+      try {
+        Thread.sleep(10);
+      } catch (Exception e) {
+      }
+    }
+  }
+
+  //
+  // writer thread
+  //
+
+  @Override
+  public void process(AccessLogEntry entry)
+    throws Exception
+  {
+    try {
+      if (entry.isValid())
+        format(entry);
+    } catch (Throwable e) {
+      log.log(Level.WARNING, e.toString(), e);
+    } finally {
+      entry.clear();
+    }
+  }
+
+  @Override
+  public void onProcessComplete()
+    throws Exception
+  {
+    writeBuffer();
+
+    _logWriter.flushFormatted();
+  }
+
+  private void writeBuffer()
+    throws IOException
+  {
+    if (_offset > 0) {
+      int offset = _offset;
+      _offset = 0;
+
+      _logWriter.writeFormatted(_buffer, 0, offset);
+    }
+  }
+
+  private void format(AccessLogEntry entry)
+    throws IOException
+  {
+    int lineMax = entry.getDataLength() + _lineOverhead;
+
+    if (_buffer.length - _offset < lineMax) {
+      writeBuffer();
+
+      if (_buffer.length < lineMax)
+        _buffer = new byte[lineMax];
+    }
+
+    byte []buffer = _buffer;
+    int offset = _offset;
+
+    byte []data = entry.getData();
+    Segment []segments = _segments;
+
+    for (int i = 0; i < segments.length; i++) {
+      Segment segment = segments[i];
+
+      switch (segment._code) {
+      case Segment.TEXT:
+        System.arraycopy(segment._data, 0, buffer, offset,
+                         segment._data.length);
+        offset += segment._data.length;
+        break;
+
+      case Segment.CHAR:
+        buffer[offset++] = segment._ch;
+        break;
+
+      case 'b':
+        if (entry.getValue(i) < 0)
+          buffer[offset++] = (byte) '-';
+        else
+          offset = print(buffer, offset, entry.getValue(i));
+        break;
+
+      case 's':
+        {
+          int status = (int) entry.getValue(i);
+          buffer[offset++] = (byte) ('0' + (status / 100) % 10);
+          buffer[offset++] = (byte) ('0' + (status / 10) % 10);
+          buffer[offset++] = (byte) ('0' + status % 10);
+          break;
+        }
+
+      case 'T':
+      case 'D':
+        offset = print(buffer, offset, entry.getValue(i));
+        break;
+
+      case 't':
+        offset = printDate(buffer, offset, entry.getTime());
+        break;
+
+      case 'h':
+        if (_log.isHostnameDnsLookup() && entry.getLength(i) > 0) {
+          String addrName = new String(data, entry.getOffset(i),
+                                       entry.getLength(i), "iso-8859-1");
+
+          offset = print(buffer, offset,
+                         InetAddress.getByName(addrName).getHostName());
+        }
+        else
+          offset = print(buffer, offset, entry, i);
+        break;
+
+      case 'u':
+        if (entry.getLength(i) < 0)
+          buffer[offset++] = (byte) '-';
+        else {
+          buffer[offset++] = (byte) '"';
+          offset = print(buffer, offset, entry, i);
+          buffer[offset++] = (byte) '"';
+        }
+        break;
+
+      case 'l':
+        buffer[offset++] = (byte) '-';
+        break;
+
+      default:
+        offset = print(buffer, offset, entry, i);
+        break;
+      }
+    }
+
+    _offset = offset;
+  }
+
+  private int print(byte []buffer, int offset, AccessLogEntry entry, int i)
+  {
+    int length = entry.getLength(i);
+
+    if (length < 0) {
+      buffer[offset] = (byte) '-';
+      return offset + 1;
+    }
+
+    System.arraycopy(entry.getData(), entry.getOffset(i),
+                     buffer, offset, length);
+
+    return offset + length;
+  }
+
+  private int print(byte []buffer, int offset, String s)
+  {
+    int length = Math.min(s.length(), 256);
+
+    for (int i = 0; i < length; i++) {
+      buffer[offset + i] = (byte) s.charAt(i);
+    }
+
+    return offset + length;
+  }
+
+  private int print(byte []buffer, int offset, long v)
+  {
+    if (v == 0) {
+      buffer[offset] = (byte) '0';
+      return offset + 1;
+    }
+
+    if (v < 0) {
+      buffer[offset++] = (byte) '-';
+      v = -v;
+    }
+
+    int length = 0;
+    long exp = 10;
+
+    for (; exp <= v && exp > 0; length++)
+      exp = 10 * exp;
+
+    offset += length;
+    for (int i = 0; i <= length; i++) {
+      buffer[offset - i] = (byte) (v % 10 + '0');
+      v = v / 10;
+    }
+
+    return offset + 1;
+  }
+
+  /**
+   * Prints the log date, reformatting at most once per second.
+   */
+  private int printDate(byte []buffer, int offset, long time)
+  {
+    long second = time / 1000;
+
+    if (second != _lastDateSecond) {
+      _lastDateSecond = second;
+
+      _calendar.setGMTTime(time);
+      _cb.clear();
+      _calendar.format(_cb, _timeFormat);
+
+      int length = Math.min(_cb.length(), 256);
+
+      if (_dateBuffer.length < length)
+        _dateBuffer = new byte[length];
+
+      char []cb = _cb.getBuffer();
+
+      for (int i = 0; i < length; i++) {
+        _dateBuffer[i] = (byte) cb[i];
+      }
+
+      _dateLength = length;
+    }
+
+    System.arraycopy(_dateBuffer, 0, buffer, offset, _dateLength);
+
+    return offset + _dateLength;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _logWriter.getPath() + "]";
+  }
+}
@@ -123,6 +123,21 @@ public class AccessLogWriter extends AbstractRolloverLog
     flushStream();
   }
 
+  /**
+   * Writes formatted lines from the async-format writer thread.
+   */
+  void writeFormatted(byte []buffer, int offset, int length)
+    throws IOException
+  {
+    write(buffer, offset, length);
+  }
+
+  void flushFormatted()
+    throws IOException
+  {
+    flushStream();
+  }
+
   void writeBuffer(LogBuffer buffer)
   {
     _logWriterTask.offer(buffer);
@@ -143,6 +143,7 @@ import com.caucho.management.server.HostMXBean;
 import com.caucho.naming.Jndi;
 import com.caucho.network.listen.ProtocolConnection;
 import com.caucho.network.listen.TcpSocketLink;
+import com.caucho.remote.websocket.WebSocketDeflate;
 import com.caucho.rewrite.DispatchRule;
 import com.caucho.rewrite.IfSecure;
 import com.caucho.rewrite.Not;
@@ -399,6 +400,7 @@ public class WebApp extends ServletContextImpl
   private HashMap<String,Object> _extensions = new HashMap<String,Object>();
 
   private MultipartForm _multipartForm;
+  private WebSocketDeflate _webSocketDeflate;
 
   private ArrayList<String> _regexp;
 
@@ -2272,6 +2274,30 @@ public class WebApp extends ServletContextImpl
       return -1;
   }
 
+  /**
+   * WebSocket permessage-deflate config.
+   */
+  @Configurable
+  public WebSocketDeflate createWebSocketDeflate()
+  {
+    if (_webSocketDeflate == null)
+      _webSocketDeflate = new WebSocketDeflate();
+
+    return _webSocketDeflate;
+  }
+
+  /**
+   * Returns the WebSocket deflate config, or null if compression is
+   * disabled.
+   */
+  public WebSocketDeflate getWebSocketDeflate()
+  {
+    if (_webSocketDeflate != null && _webSocketDeflate.isEnable())
+      return _webSocketDeflate;
+    else
+      return null;
+  }
+
   /**
    * Returns the access log
    */
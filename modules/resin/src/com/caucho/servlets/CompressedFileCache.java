@@ -0,0 +1,685 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.servlets;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import com.caucho.env.service.ResinSystem;
+import com.caucho.env.service.RootDirectorySystem;
+import com.caucho.loader.EnvironmentLocal;
+import com.caucho.util.CacheListener;
+import com.caucho.util.Crc64;
+import com.caucho.util.LruCache;
+import com.caucho.vfs.Path;
+import com.caucho.vfs.ReadStream;
+import com.caucho.vfs.TempOutputStream;
+import com.caucho.vfs.WriteStream;
+
+/**
+ * Cache of compressed variants of static files for the FileServlet.
+ *
+ * A variant is a precompressed sibling (foo.css.gz, foo.css.br) when one
+ * exists and is newer than the file, otherwise the file is gzipped once
+ * on its first request.  Small variants are held in memory up to
+ * memory-max and larger ones are spilled to the data directory.
+ *
+ * In-memory variants have their own LRU, so memory pressure only evicts
+ * in-memory variants.  Variants returned by getVariant must be released,
+ * because an evicted disk variant is only deleted after its last use.
+ */
+public class CompressedFileCache {
+  private static final Logger log
+    = Logger.getLogger(CompressedFileCache.class.getName());
+
+  public static final String GZIP = "gzip";
+  public static final String BROTLI = "br";
+
+  private static final EnvironmentLocal<CompressedFileCache> _cacheLocal
+    = new EnvironmentLocal<CompressedFileCache>();
+
+  // identity, pending, sibling and disk entries
+  private final LruCache<String,Entry> _cache
+    = new LruCache<String,Entry>(8 * 1024);
+
+  // in-memory variants, evicted when the memory-max is exceeded
+  private final LruCache<String,Entry> _memoryCache
+    = new LruCache<String,Entry>(8 * 1024);
+
+  private final AtomicLong _memorySize = new AtomicLong();
+
+  private long _memoryMax = 32 * 1024 * 1024;
+  private long _entryMemoryMax = 256 * 1024;
+  private long _lengthMax = 16 * 1024 * 1024;
+
+  private Path _diskDirectory;
+  private boolean _isDiskInit;
+  private final AtomicLong _diskSequence = new AtomicLong();
+
+  private final AtomicLong _hitCount = new AtomicLong();
+  private final AtomicLong _siblingHitCount = new AtomicLong();
+  private final AtomicLong _missCount = new AtomicLong();
+  private final AtomicLong _compressCount = new AtomicLong();
+  private final AtomicLong _evictCount = new AtomicLong();
+
+  private CompressedFileCache()
+  {
+  }
+
+  /**
+   * Returns the cache shared by the FileServlets of the current server.
+   */
+  public static CompressedFileCache getCurrent()
+  {
+    ResinSystem resin = ResinSystem.getCurrent();
+    ClassLoader loader = resin.getClassLoader();
+
+    synchronized (_cacheLocal) {
+      CompressedFileCache cache = _cacheLocal.getLevel(loader);
+
+      if (cache == null) {
+        cache = new CompressedFileCache();
+        _cacheLocal.set(cache, loader);
+
+        new CompressedFileCacheAdmin(cache, loader);
+      }
+
+      return cache;
+    }
+  }
+
+  /**
+   * Sets the total memory used for in-memory variants.
+   */
+  public void setMemoryMax(long memoryMax)
+  {
+    _memoryMax = memoryMax;
+  }
+
+  public long getMemoryMax()
+  {
+    return _memoryMax;
+  }
+
+  /**
+   * Sets the largest variant kept in memory.  Larger variants are
+   * written to disk.
+   */
+  public void setEntryMemoryMax(long entryMax)
+  {
+    _entryMemoryMax = entryMax;
+  }
+
+  /**
+   * Sets the largest file which will be compressed on demand.
+   */
+  public void setLengthMax(long lengthMax)
+  {
+    _lengthMax = lengthMax;
+  }
+
+  public long getMemorySize()
+  {
+    return _memorySize.get();
+  }
+
+  public int getEntryCount()
+  {
+    return _cache.size() + _memoryCache.size();
+  }
+
+  public long getHitCount()
+  {
+    return _hitCount.get();
+  }
+
+  public long getSiblingHitCount()
+  {
+    return _siblingHitCount.get();
+  }
+
+  public long getMissCount()
+  {
+    return _missCount.get();
+  }
+
+  public long getCompressCount()
+  {
+    return _compressCount.get();
+  }
+
+  public long getEvictCount()
+  {
+    return _evictCount.get();
+  }
+
+  /**
+   * Clears the cache.
+   */
+  public void clear()
+  {
+    _cache.clear();
+    _memoryCache.clear();
+  }
+
+  /**
+   * Returns the compressed variant of a file for the encoding, or null
+   * if the file should be sent as-is.  The caller must release the
+   * returned variant when it's done with it.
+   *
+   * @param key the cache key of the file
+   * @param path the file
+   * @param lastModified the file's last-modified time
+   * @param length the file's length
+   * @param etag the file's etag
+   * @param encoding the content-coding, gzip or br
+   * @param minLength the smallest file which will be compressed
+   */
+  public Entry getVariant(String key,
+                          Path path,
+                          long lastModified,
+                          long length,
+                          String etag,
+                          String encoding,
+                          long minLength)
+  {
+    String cacheKey = key + '|' + encoding;
+
+    Entry entry = _memoryCache.get(cacheKey);
+
+    if (entry != null && entry.isValid(lastModified, length)) {
+      if (! entry.acquire())
+        return null;
+
+      _hitCount.incrementAndGet();
+
+      return entry;
+    }
+
+    entry = _cache.get(cacheKey);
+
+    if (entry != null && entry.isValid(lastModified, length)) {
+      if (entry.isCompressed()) {
+        if (! entry.acquire())
+          return null;
+
+        _hitCount.incrementAndGet();
+
+        if (entry.isSibling())
+          _siblingHitCount.incrementAndGet();
+
+        return entry;
+      }
+      else if (entry.isPending())
+        _missCount.incrementAndGet();
+
+      return null;
+    }
+
+    _missCount.incrementAndGet();
+
+    Entry pending = new Entry(encoding, lastModified, length, etag);
+
+    if (entry != null) {
+      if (! _cache.compareAndPut(entry, cacheKey, pending))
+        return null;
+    }
+    else if (_cache.putIfNew(cacheKey, pending) != pending)
+      return null;
+
+    Entry result = createVariant(cacheKey, path, lastModified, length, etag,
+                                 encoding, minLength);
+
+    if (result.getData() != null) {
+      _memoryCache.put(cacheKey, result);
+      _cache.remove(cacheKey);
+
+      while (_memoryMax < _memorySize.get() && _memoryCache.removeTail()) {
+      }
+    }
+    else {
+      if (! _cache.compareAndPut(pending, cacheKey, result)) {
+        result.removeEvent();
+        return null;
+      }
+
+      // a stale in-memory variant is replaced by the new entry
+      _memoryCache.remove(cacheKey);
+    }
+
+    if (result.isCompressed() && result.acquire())
+      return result;
+    else
+      return null;
+  }
+
+  private Entry createVariant(String cacheKey,
+                              Path path,
+                              long lastModified,
+                              long length,
+                              String etag,
+                              String encoding,
+                              long minLength)
+  {
+    Path sibling = findSibling(path, lastModified, encoding);
+
+    if (sibling != null) {
+      return new Entry(encoding, lastModified, length, etag,
+                       null, sibling, sibling.getLastModified(),
+                       sibling.getLength(), true);
+    }
+
+    if (! GZIP.equals(encoding)
+        || length < minLength
+        || _lengthMax < length) {
+      return new Entry(encoding, lastModified, length, etag,
+                       null, null, 0, 0, false);
+    }
+
+    TempOutputStream tos = new TempOutputStream();
+
+    try {
+      compress(path, tos);
+
+      int compressedLength = tos.getLength();
+
+      _compressCount.incrementAndGet();
+
+      // variants which don't save space aren't worth the encoding
+      if (length - length / 16 <= compressedLength) {
+        return new Entry(encoding, lastModified, length, etag,
+                         null, null, 0, 0, false);
+      }
+
+      // a variant larger than the whole memory-max would evict everything
+      if (compressedLength <= _entryMemoryMax
+          && compressedLength <= _memoryMax) {
+        _memorySize.addAndGet(compressedLength);
+
+        return new Entry(encoding, lastModified, length, etag,
+                         tos.toByteArray(), null, 0,
+                         compressedLength, false);
+      }
+
+      Path diskPath = writeDisk(cacheKey, lastModified, tos);
+
+      if (diskPath != null) {
+        return new Entry(encoding, lastModified, length, etag,
+                         null, diskPath, 0, compressedLength, false);
+      }
+    } catch (IOException e) {
+      log.log(Level.FINE, e.toString(), e);
+    } finally {
+      tos.destroy();
+    }
+
+    return new Entry(encoding, lastModified, length, etag,
+                     null, null, 0, 0, false);
+  }
+
+  private Path findSibling(Path path, long lastModified, String encoding)
+  {
+    String ext;
+
+    if (GZIP.equals(encoding))
+      ext = ".gz";
+    else if (BROTLI.equals(encoding))
+      ext = ".br";
+    else
+      return null;
+
+    Path sibling = path.getParent().lookup(path.getTail() + ext);
+
+    // a sibling older than the file is stale
+    if (sibling.canRead()
+        && ! sibling.isDirectory()
+        && lastModified <= sibling.getLastModified()) {
+      return sibling;
+    }
+    else
+      return null;
+  }
+
+  private void compress(Path path, TempOutputStream tos)
+    throws IOException
+  {
+    ReadStream is = path.openRead();
+
+    try {
+      GZIPOutputStream gzip = new GZIPOutputStream(tos);
+
+      is.writeToStream(gzip);
+
+      gzip.close();
+    } finally {
+      is.close();
+    }
+  }
+
+  private Path writeDisk(String cacheKey,
+                         long lastModified,
+                         TempOutputStream tos)
+    throws IOException
+  {
+    Path dir = getDiskDirectory();
+
+    if (dir == null)
+      return null;
+
+    // unique, because an evicted file may still be in use when the
+    // variant is recreated
+    String name = (Long.toHexString(Crc64.generate(cacheKey))
+                   + "-" + Long.toHexString(lastModified)
+                   + "-" + Long.toHexString(_diskSequence.incrementAndGet())
+                   + ".gz");
+
+    Path diskPath = dir.lookup(name);
+
+    WriteStream os = diskPath.openWrite();
+
+    try {
+      tos.writeToStream(os);
+    } finally {
+      os.close();
+    }
+
+    return diskPath;
+  }
+
+  private synchronized Path getDiskDirectory()
+  {
+    if (_isDiskInit)
+      return _diskDirectory;
+
+    _isDiskInit = true;
+
+    RootDirectorySystem rootSystem = RootDirectorySystem.getCurrent();
+
+    if (rootSystem == null)
+      return null;
+
+    try {
+      Path dir = rootSystem.getDataDirectory().lookup("file-servlet-gzip");
+
+      // variants left by a previous run have no entries
+      if (dir.isDirectory()) {
+        String []list = dir.list();
+
+        for (int i = 0; i < list.length; i++) {
+          dir.lookup(list[i]).remove();
+        }
+      }
+
+      dir.mkdirs();
+
+      _diskDirectory = dir;
+    } catch (IOException e) {
+      log.log(Level.WARNING, e.toString(), e);
+    }
+
+    return _diskDirectory;
+  }
+
+  /**
+   * Returns true if the mime-type is worth compressing.
+   */
+  static boolean isCompressible(String mimeType)
+  {
+    if (mimeType == null)
+      return false;
+
+    String type = mimeType.toLowerCase(Locale.ENGLISH);
+
+    return (type.startsWith("text/")
+            || type.startsWith("application/javascript")
+            || type.startsWith("application/x-javascript")
+            || type.startsWith("application/json")
+            || type.startsWith("application/xml")
+            || type.endsWith("+xml"));
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[entries=" + getEntryCount()
+            + ",memory=" + getMemorySize() + "]");
+  }
+
+  /**
+   * A compressed variant of a file.
+   */
+  public final class Entry implements CacheListener {
+    private final String _encoding;
+    private final long _sourceLastModified;
+    private final long _sourceLength;
+    private final String _etag;
+
+    private final byte []_data;
+    private final Path _path;
+    private final long _pathLastModified;
+    private final long _length;
+    private final boolean _isSibling;
+    private final boolean _isPending;
+
+    // the cache holds one reference until the entry is removed
+    private final AtomicInteger _useCount = new AtomicInteger(1);
+    private final AtomicBoolean _isRemoved = new AtomicBoolean();
+
+    Entry(String encoding,
+          long sourceLastModified,
+          long sourceLength,
+          String etag)
+    {
+      _encoding = encoding;
+      _sourceLastModified = sourceLastModified;
+      _sourceLength = sourceLength;
+      _etag = etag;
+
+      _data = null;
+      _path = null;
+      _pathLastModified = 0;
+      _length = 0;
+      _isSibling = false;
+      _isPending = true;
+    }
+
+    Entry(String encoding,
+          long sourceLastModified,
+          long sourceLength,
+          String etag,
+          byte []data,
+          Path path,
+          long pathLastModified,
+          long length,
+          boolean isSibling)
+    {
+      _encoding = encoding;
+      _sourceLastModified = sourceLastModified;
+      _sourceLength = sourceLength;
+
+      if (data != null || path != null)
+        _etag = createEtag(etag, encoding);
+      else
+        _etag = etag;
+
+      _data = data;
+      _path = path;
+      _pathLastModified = pathLastModified;
+      _length = length;
+      _isSibling = isSibling;
+      _isPending = false;
+    }
+
+    /**
+     * The Content-Encoding of the variant.
+     */
+    public String getEncoding()
+    {
+      return _encoding;
+    }
+
+    /**
+     * The variant's etag, distinct from the identity etag.
+     */
+    public String getEtag()
+    {
+      return _etag;
+    }
+
+    /**
+     * The compressed data when held in memory.
+     */
+    public byte []getData()
+    {
+      return _data;
+    }
+
+    /**
+     * The compressed file when held on disk or for a sibling.
+     */
+    public Path getPath()
+    {
+      return _path;
+    }
+
+    /**
+     * The compressed length.
+     */
+    public long getLength()
+    {
+      return _length;
+    }
+
+    /**
+     * True if the entry matches the source file, and a sibling is
+     * unchanged since it was found.
+     */
+    boolean isValid(long sourceLastModified, long sourceLength)
+    {
+      if (_sourceLastModified != sourceLastModified
+          || _sourceLength != sourceLength)
+        return false;
+      else if (_isSibling)
+        return (_path.getLastModified() == _pathLastModified
+                && _path.getLength() == _length);
+      else
+        return true;
+    }
+
+    boolean isCompressed()
+    {
+      return _data != null || _path != null;
+    }
+
+    boolean isSibling()
+    {
+      return _isSibling;
+    }
+
+    boolean isPending()
+    {
+      return _isPending;
+    }
+
+    /**
+     * Adds a use of the entry.  Returns false if the entry has already
+     * been freed.
+     */
+    boolean acquire()
+    {
+      while (true) {
+        int count = _useCount.get();
+
+        if (count <= 0)
+          return false;
+        else if (_useCount.compareAndSet(count, count + 1))
+          return true;
+      }
+    }
+
+    /**
+     * Releases a use of the entry.  A disk variant is deleted after the
+     * entry is removed and its last use is released.
+     */
+    public void release()
+    {
+      if (_useCount.decrementAndGet() > 0)
+        return;
+
+      if (_path != null && ! _isSibling) {
+        try {
+          _path.remove();
+        } catch (IOException e) {
+          log.log(Level.FINER, e.toString(), e);
+        }
+      }
+    }
+
+    @Override
+    public void removeEvent()
+    {
+      if (! _isRemoved.compareAndSet(false, true))
+        return;
+
+      if (_data != null) {
+        _memorySize.addAndGet(- _length);
+        _evictCount.incrementAndGet();
+      }
+      else if (_path != null && ! _isSibling) {
+        _evictCount.incrementAndGet();
+      }
+
+      release();
+    }
+
+    private String createEtag(String etag, String encoding)
+    {
+      if (etag != null && etag.endsWith("\""))
+        return etag.substring(0, etag.length() - 1) + "-" + encoding + "\"";
+      else
+        return etag;
+    }
+
+    @Override
+    public String toString()
+    {
+      return (getClass().getSimpleName()
+              + "[" + _encoding + ",length=" + _length + "]");
+    }
+  }
+}
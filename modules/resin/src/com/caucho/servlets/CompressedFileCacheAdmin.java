@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.servlets;
+
+import com.caucho.management.server.AbstractManagedObject;
+import com.caucho.management.server.CompressedFileCacheMXBean;
+
+/**
+ * The admin implementation for the compressed file cache.
+ */
+public class CompressedFileCacheAdmin extends AbstractManagedObject
+  implements CompressedFileCacheMXBean
+{
+  private final CompressedFileCache _cache;
+
+  CompressedFileCacheAdmin(CompressedFileCache cache, ClassLoader loader)
+  {
+    super(loader);
+
+    _cache = cache;
+
+    registerSelf();
+  }
+
+  @Override
+  public String getName()
+  {
+    return null;
+  }
+
+  //
+  // Configuration
+  //
+
+  @Override
+  public long getMemoryMax()
+  {
+    return _cache.getMemoryMax();
+  }
+
+  //
+  // Statistics
+  //
+
+  @Override
+  public int getEntryCount()
+  {
+    return _cache.getEntryCount();
+  }
+
+  @Override
+  public long getMemorySize()
+  {
+    return _cache.getMemorySize();
+  }
+
+  @Override
+  public long getHitCountTotal()
+  {
+    return _cache.getHitCount();
+  }
+
+  @Override
+  public long getSiblingHitCountTotal()
+  {
+    return _cache.getSiblingHitCount();
+  }
+
+  @Override
+  public long getMissCountTotal()
+  {
+    return _cache.getMissCount();
+  }
+
+  @Override
+  public double getHitRatio()
+  {
+    long hitCount = _cache.getHitCount();
+    long total = hitCount + _cache.getMissCount();
+
+    if (total == 0)
+      return 0;
+    else
+      return (double) hitCount / (double) total;
+  }
+
+  @Override
+  public long getCompressCountTotal()
+  {
+    return _cache.getCompressCount();
+  }
+
+  @Override
+  public long getEvictCountTotal()
+  {
+    return _cache.getEvictCount();
+  }
+
+  //
+  // Operations
+  //
+
+  @Override
+  public void clearCache()
+  {
+    _cache.clear();
+  }
+}
@@ -49,6 +49,7 @@ import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import com.caucho.config.types.Bytes;
 import com.caucho.env.service.ResinSystem;
 import com.caucho.loader.EnvironmentLocal;
 import com.caucho.server.http.CauchoRequest;
@@ -95,6 +96,11 @@ public class FileServlet extends GenericServlet {
   private boolean _isGenerateSession;
   private String _characterEncoding;
 
+  private boolean _isPrecompress;
+  private long _precompressMinLength = 256;
+  private long _precompressMemoryMax = -1;
+  private CompressedFileCache _compressCache;
+
   public FileServlet()
   {
     ResinSystem resin = ResinSystem.getCurrent();
@@ -136,6 +142,32 @@ public class FileServlet extends GenericServlet {
     _isGenerateSession = isGenerateSession;
   }
 
+  /**
+   * Enables the gzip/brotli variant cache.  Precompressed siblings like
+   * foo.css.gz are served when present, otherwise compressible files are
+   * gzipped once and the result cached.
+   */
+  public void setPrecompress(boolean isPrecompress)
+  {
+    _isPrecompress = isPrecompress;
+  }
+
+  /**
+   * Sets the smallest file which will be compressed on demand.
+   */
+  public void setPrecompressMinLength(Bytes length)
+  {
+    _precompressMinLength = length.getBytes();
+  }
+
+  /**
+   * Sets the memory used by the shared variant cache.
+   */
+  public void setPrecompressMemoryMax(Bytes size)
+  {
+    _precompressMemoryMax = size.getBytes();
+  }
+
   /**
    * Clears the cache
    */
@@ -176,6 +208,17 @@ public class FileServlet extends GenericServlet {
     String encoding = getInitParameter("character-encoding");
     if (encoding != null && ! "".equals(encoding))
       _characterEncoding = encoding;
+
+    String precompress = getInitParameter("precompress");
+    if (precompress != null && precompress.equals("true"))
+      _isPrecompress = true;
+
+    if (_isPrecompress) {
+      _compressCache = CompressedFileCache.getCurrent();
+
+      if (_precompressMemoryMax >= 0)
+        _compressCache.setMemoryMax(_precompressMemoryMax);
+    }
   }
 
   @Override
@@ -365,8 +408,44 @@ public class FileServlet extends GenericServlet {
       return;
     }
 
+    String mime = cache.getMimeType();
+
+    CompressedFileCache.Entry variant = null;
+
+    if (_compressCache != null
+        && ! isInclude
+        && CompressedFileCache.isCompressible(mime)) {
+      if (! res.containsHeader("Vary"))
+        res.addHeader("Vary", "Accept-Encoding");
+
+      variant = selectVariant(req, cache);
+    }
+
+    try {
+      sendCache(req, res, cauchoReq, cache, variant, method, mime);
+    } finally {
+      // the variant's disk file is kept until it's released
+      if (variant != null)
+        variant.release();
+    }
+  }
+
+  private void sendCache(HttpServletRequest req,
+                         HttpServletResponse res,
+                         CauchoRequest cauchoReq,
+                         Cache cache,
+                         CompressedFileCache.Entry variant,
+                         String method,
+                         String mime)
+    throws ServletException, IOException
+  {
     String ifMatch = req.getHeader("If-None-Match");
-    String etag = cache.getEtag();
+    String etag;
+
+    if (variant != null)
+      etag = variant.getEtag();
+    else
+      etag = cache.getEtag();
 
     if (ifMatch != null && ifMatch.equals(etag)) {
       res.addHeader("ETag", etag);
@@ -419,8 +498,6 @@ public class FileServlet extends GenericServlet {
     if (_isEnableRange && cauchoReq != null && cauchoReq.isTop()) {
       res.addHeader("Accept-Ranges", "bytes");
     }
-    
-    String mime = cache.getMimeType();
 
     if (_characterEncoding != null && isText(mime)) {
       res.setCharacterEncoding(_characterEncoding);
@@ -430,6 +507,21 @@ public class FileServlet extends GenericServlet {
       res.setContentType(mime);
     }
 
+    if (variant != null) {
+      res.setHeader("Content-Encoding", variant.getEncoding());
+
+      if (method.equalsIgnoreCase("HEAD")) {
+        if (res instanceof CauchoResponse)
+          ((CauchoResponse) res).setContentLength(variant.getLength());
+        else
+          res.setContentLength((int) variant.getLength());
+      }
+      else
+        sendVariant(res, variant);
+
+      return;
+    }
+
     if (method.equalsIgnoreCase("HEAD")) {
       if (res instanceof CauchoResponse) {
         CauchoResponse cRes = (CauchoResponse) res;
@@ -490,6 +582,120 @@ public class FileServlet extends GenericServlet {
     }
   }
 
+  /**
+   * Selects a compressed variant acceptable to the client, preferring
+   * brotli over gzip. The caller must release the returned variant.
+   */
+  private CompressedFileCache.Entry selectVariant(HttpServletRequest req,
+                                                  Cache cache)
+  {
+    String acceptEncoding = req.getHeader("Accept-Encoding");
+
+    if (acceptEncoding == null)
+      return null;
+
+    // ranges apply to the identity encoding
+    if (_isEnableRange && req.getHeader("Range") != null)
+      return null;
+
+    Path path = cache.getPath();
+    String key = path.getURL();
+    CompressedFileCache.Entry variant = null;
+
+    if (isAcceptEncoding(acceptEncoding, CompressedFileCache.BROTLI)) {
+      variant = _compressCache.getVariant(key, path,
+                                          cache.getLastModified(),
+                                          cache.getLength(),
+                                          cache.getEtag(),
+                                          CompressedFileCache.BROTLI,
+                                          _precompressMinLength);
+    }
+
+    if (variant == null
+        && isAcceptEncoding(acceptEncoding, CompressedFileCache.GZIP)) {
+      variant = _compressCache.getVariant(key, path,
+                                          cache.getLastModified(),
+                                          cache.getLength(),
+                                          cache.getEtag(),
+                                          CompressedFileCache.GZIP,
+                                          _precompressMinLength);
+    }
+
+    return variant;
+  }
+
+  /**
+   * Returns true if the Accept-Encoding header allows the coding,
+   * i.e. it's listed without a zero q-value.
+   */
+  private static boolean isAcceptEncoding(String header, String coding)
+  {
+    int length = header.length();
+    int head = 0;
+
+    while (head < length) {
+      int tail = header.indexOf(',', head);
+
+      if (tail < 0)
+        tail = length;
+
+      String item = header.substring(head, tail);
+      head = tail + 1;
+
+      int p = item.indexOf(';');
+      String name = (p < 0 ? item : item.substring(0, p)).trim();
+
+      if (! name.equalsIgnoreCase(coding))
+        continue;
+
+      if (p < 0)
+        return true;
+
+      String param = item.substring(p + 1).trim();
+
+      if (! param.startsWith("q=") && ! param.startsWith("Q="))
+        return true;
+
+      try {
+        return Double.parseDouble(param.substring(2).trim()) > 0;
+      } catch (NumberFormatException e) {
+        return false;
+      }
+    }
+
+    return false;
+  }
+
+  private void sendVariant(HttpServletResponse res,
+                           CompressedFileCache.Entry variant)
+    throws IOException
+  {
+    byte []data = variant.getData();
+
+    if (res instanceof CauchoResponse) {
+      CauchoResponse cRes = (CauchoResponse) res;
+
+      cRes.setContentLength(variant.getLength());
+
+      if (data != null)
+        cRes.getResponseStream().write(data, 0, data.length);
+      else
+        cRes.getResponseStream().sendFile(variant.getPath(),
+                                          0,
+                                          variant.getLength());
+    }
+    else {
+      res.setContentLength((int) variant.getLength());
+
+      OutputStream os = res.getOutputStream();
+
+      if (data != null)
+        os.write(data, 0, data.length);
+      else
+        variant.getPath().writeToStream(os);
+    }
+  }
+
   private String getCacheUrl(HttpServletRequest req, String uri)
   {
     WebApp webApp = (WebApp) req.getServletContext();
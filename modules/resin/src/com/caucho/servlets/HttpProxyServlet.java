@@ -118,11 +118,15 @@ public class HttpProxyServlet extends GenericServlet
     if ("round-robin".equalsIgnoreCase(strategy))
       _loadBalanceBuilder.setStrategy(LoadBalanceStrategy.ROUND_ROBIN);
     else if ("least-connection".equalsIgnoreCase(strategy))
-      _loadBalanceBuilder.setStrategy(LoadBalanceStrategy.ADAPTIVE);
+      _loadBalanceBuilder.setStrategy(LoadBalanceStrategy.LEAST_OUTSTANDING);
+    else if ("least-latency".equalsIgnoreCase(strategy))
+      _loadBalanceBuilder.setStrategy(LoadBalanceStrategy.LEAST_LATENCY);
+    else if ("power-of-two".equalsIgnoreCase(strategy))
+      _loadBalanceBuilder.setStrategy(LoadBalanceStrategy.POWER_OF_TWO);
     else if ("adaptive".equalsIgnoreCase(strategy))
       _loadBalanceBuilder.setStrategy(LoadBalanceStrategy.ADAPTIVE);
     else
-      throw new ConfigException(L.l("'{0}' is an unknown load-balance strategy.  'round-robin' and 'least-connection' are the known values.",
+      throw new ConfigException(L.l("'{0}' is an unknown load-balance strategy.  'round-robin', 'least-connection', 'least-latency', 'power-of-two' and 'adaptive' are the known values.",
                                     strategy));
   }
   
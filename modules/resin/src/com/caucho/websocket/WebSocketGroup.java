@@ -0,0 +1,644 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.websocket;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.env.thread.ThreadPool;
+import com.caucho.remote.websocket.WebSocketConstants;
+import com.caucho.remote.websocket.WebSocketFrame;
+import com.caucho.remote.websocket.WebSocketFrameWriter;
+import com.caucho.util.Alarm;
+import com.caucho.util.AlarmListener;
+import com.caucho.util.CurrentTime;
+import com.caucho.util.L10N;
+
+/**
+ * A broadcast group of WebSocket connections.
+ *
+ * A broadcast message is encoded once into a shared frame and queued to
+ * each member. A small number of writer tasks drain the member queues,
+ * so the broadcasting thread never blocks on a member's socket.
+ *
+ * A member whose queue grows past the queue maximum while it's being
+ * written is a slow consumer: it's removed from the group and its
+ * connection is aborted, so a writer blocked on its socket is released.
+ * A member still waiting for a writer is allowed twice the maximum.
+ * A member whose write has been blocked longer than the write timeout is
+ * aborted the same way, even if nothing more is broadcast to it.
+ *
+ * Each writer turn is bounded, so a member with a deep queue is re-queued
+ * behind the other ready members instead of holding its writer.
+ *
+ * While a context is a member, the application should send its own
+ * messages through the group or an output queue, not directly.
+ */
+public class WebSocketGroup {
+  private static final L10N L = new L10N(WebSocketGroup.class);
+  private static final Logger log
+    = Logger.getLogger(WebSocketGroup.class.getName());
+
+  // maximum frames and bytes written to a member in one writer turn
+  private static final int DRAIN_FRAME_MAX = 64;
+  private static final int DRAIN_BYTE_MAX = 64 * 1024;
+
+  private final String _name;
+
+  private final ConcurrentHashMap<WebSocketContext,Member> _memberMap
+    = new ConcurrentHashMap<WebSocketContext,Member>();
+
+  private final ConcurrentLinkedQueue<Member> _readyQueue
+    = new ConcurrentLinkedQueue<Member>();
+
+  private final AtomicInteger _writerCount = new AtomicInteger();
+  private int _writerMax;
+
+  private int _queueMax = 256;
+  private long _writeTimeout = 30000L;
+
+  // members with a write in progress, checked for the write timeout
+  private final ConcurrentHashMap<Member,Member> _writingMap
+    = new ConcurrentHashMap<Member,Member>();
+
+  private final Alarm _timeoutAlarm;
+
+  private final AtomicLong _broadcastCount = new AtomicLong();
+  private final AtomicLong _frameWriteCount = new AtomicLong();
+  private final AtomicLong _slowConsumerCount = new AtomicLong();
+
+  private volatile boolean _isClosed;
+
+  public WebSocketGroup(String name)
+  {
+    _name = name;
+
+    int cpus = Runtime.getRuntime().availableProcessors();
+
+    _writerMax = Math.max(1, Math.min(4, cpus));
+
+    _timeoutAlarm = new Alarm(new WriteTimeoutListener());
+  }
+
+  public String getName()
+  {
+    return _name;
+  }
+
+  /**
+   * Sets the maximum number of concurrent writer tasks.
+   */
+  public void setWriterMax(int max)
+  {
+    if (max <= 0)
+      throw new IllegalArgumentException(L.l("writer-max '{0}' must be positive",
+                                             max));
+
+    _writerMax = max;
+  }
+
+  public int getWriterMax()
+  {
+    return _writerMax;
+  }
+
+  /**
+   * Sets the maximum pending frames for a member before it's treated as
+   * a slow consumer.
+   */
+  public void setQueueMax(int max)
+  {
+    if (max <= 0)
+      throw new IllegalArgumentException(L.l("queue-max '{0}' must be positive",
+                                             max));
+
+    _queueMax = max;
+  }
+
+  public int getQueueMax()
+  {
+    return _queueMax;
+  }
+
+  /**
+   * Sets the maximum time in milliseconds a write to a member may block
+   * before the member is aborted as a slow consumer.
+   */
+  public void setWriteTimeout(long timeout)
+  {
+    if (timeout <= 0)
+      throw new IllegalArgumentException(L.l("write-timeout '{0}' must be positive",
+                                             timeout));
+
+    _writeTimeout = timeout;
+  }
+
+  public long getWriteTimeout()
+  {
+    return _writeTimeout;
+  }
+
+  /**
+   * Adds a connection to the group.
+   */
+  public boolean join(WebSocketContext context)
+  {
+    if (context == null)
+      throw new NullPointerException();
+
+    if (_isClosed)
+      throw new IllegalStateException(L.l("{0} is closed", this));
+
+    return _memberMap.putIfAbsent(context, new Member(context)) == null;
+  }
+
+  /**
+   * Removes a connection from the group. Pending frames are discarded.
+   */
+  public boolean leave(WebSocketContext context)
+  {
+    Member member = _memberMap.remove(context);
+
+    if (member == null)
+      return false;
+
+    member.remove();
+
+    return true;
+  }
+
+  public boolean isMember(WebSocketContext context)
+  {
+    return _memberMap.containsKey(context);
+  }
+
+  public int getMemberCount()
+  {
+    return _memberMap.size();
+  }
+
+  /**
+   * Sends a text message to all members.
+   *
+   * @return the number of members the message was queued to
+   */
+  public int broadcastText(String text)
+  {
+    return broadcast(WebSocketFrame.createText(text));
+  }
+
+  /**
+   * Sends a binary message to all members.
+   *
+   * @return the number of members the message was queued to
+   */
+  public int broadcastBinary(byte []data)
+  {
+    return broadcastBinary(data, 0, data.length);
+  }
+
+  /**
+   * Sends a binary message to all members.
+   *
+   * @return the number of members the message was queued to
+   */
+  public int broadcastBinary(byte []data, int offset, int length)
+  {
+    return broadcast(WebSocketFrame.createBinary(data, offset, length));
+  }
+
+  /**
+   * Sends an encoded frame to all members.
+   *
+   * @return the number of members the frame was queued to
+   */
+  public int broadcast(WebSocketFrame frame)
+  {
+    if (_isClosed)
+      throw new IllegalStateException(L.l("{0} is closed", this));
+
+    _broadcastCount.incrementAndGet();
+
+    int count = 0;
+
+    for (Member member : _memberMap.values()) {
+      if (member.offer(frame))
+        count++;
+    }
+
+    return count;
+  }
+
+  /**
+   * Sends a text message to a single member through its queue.
+   */
+  public boolean sendText(WebSocketContext context, String text)
+  {
+    Member member = _memberMap.get(context);
+
+    if (member == null)
+      return false;
+
+    return member.offer(WebSocketFrame.createText(text));
+  }
+
+  public long getBroadcastCount()
+  {
+    return _broadcastCount.get();
+  }
+
+  public long getFrameWriteCount()
+  {
+    return _frameWriteCount.get();
+  }
+
+  public long getSlowConsumerCount()
+  {
+    return _slowConsumerCount.get();
+  }
+
+  /**
+   * Removes all members. The connections themselves stay open.
+   */
+  public void close()
+  {
+    _isClosed = true;
+
+    _timeoutAlarm.dequeue();
+
+    for (WebSocketContext context : _memberMap.keySet()) {
+      leave(context);
+    }
+  }
+
+  //
+  // writer scheduling
+  //
+
+  private void schedule(Member member)
+  {
+    _readyQueue.offer(member);
+
+    startWriter();
+  }
+
+  private void startWriter()
+  {
+    while (! _readyQueue.isEmpty()) {
+      int count = _writerCount.get();
+
+      if (_writerMax <= count)
+        return;
+
+      if (_writerCount.compareAndSet(count, count + 1)) {
+        if (! _timeoutAlarm.isQueued())
+          _timeoutAlarm.queue(getTimeoutCheckInterval());
+
+        ThreadPool.getCurrent().schedule(new WriterTask());
+        return;
+      }
+    }
+  }
+
+  private long getTimeoutCheckInterval()
+  {
+    return Math.max(100, _writeTimeout / 4);
+  }
+
+  private void onSlowConsumer(Member member)
+  {
+    if (_memberMap.remove(member.getContext(), member)) {
+      _slowConsumerCount.incrementAndGet();
+
+      if (log.isLoggable(Level.FINE)) {
+        log.fine(L.l("{0} aborting slow consumer {1}",
+                     this, member.getContext()));
+      }
+    }
+  }
+
+  private void onWriteError(Member member, IOException e)
+  {
+    _memberMap.remove(member.getContext(), member);
+
+    log.log(Level.FINER, e.toString(), e);
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _name + "]";
+  }
+
+  /**
+   * Aborts members whose write has blocked past the write timeout.
+   * Runs while any writer is active.
+   */
+  class WriteTimeoutListener implements AlarmListener {
+    @Override
+    public void handleAlarm(Alarm alarm)
+    {
+      long now = CurrentTime.getCurrentTime();
+
+      for (Member member : _writingMap.keySet()) {
+        member.checkWriteTimeout(now);
+      }
+
+      if (! _isClosed && _writerCount.get() > 0)
+        alarm.queue(getTimeoutCheckInterval());
+    }
+  }
+
+  class WriterTask implements Runnable {
+    @Override
+    public void run()
+    {
+      do {
+        try {
+          Member member;
+
+          while ((member = _readyQueue.poll()) != null) {
+            member.drain();
+          }
+        } finally {
+          _writerCount.decrementAndGet();
+        }
+
+        // a member may have been queued after the last poll
+      } while (! _readyQueue.isEmpty() && reacquire());
+    }
+
+    private boolean reacquire()
+    {
+      while (true) {
+        int count = _writerCount.get();
+
+        if (_writerMax <= count)
+          return false;
+
+        if (_writerCount.compareAndSet(count, count + 1))
+          return true;
+      }
+    }
+  }
+
+  final class Member {
+    private final WebSocketContext _context;
+    private final WebSocketFrameWriter _frameWriter;
+
+    private final ConcurrentLinkedQueue<WebSocketFrame> _queue
+      = new ConcurrentLinkedQueue<WebSocketFrame>();
+    private final AtomicInteger _queueSize = new AtomicInteger();
+
+    private final AtomicBoolean _isScheduled = new AtomicBoolean();
+
+    private final AtomicBoolean _isAborted = new AtomicBoolean();
+
+    private volatile boolean _isRemoved;
+    private volatile boolean _isWriting;
+    private volatile long _writeStartTime;
+
+    Member(WebSocketContext context)
+    {
+      _context = context;
+
+      if (context instanceof WebSocketFrameWriter)
+        _frameWriter = (WebSocketFrameWriter) context;
+      else
+        _frameWriter = null;
+    }
+
+    WebSocketContext getContext()
+    {
+      return _context;
+    }
+
+    boolean offer(WebSocketFrame frame)
+    {
+      if (_isRemoved)
+        return false;
+
+      // a member waiting for a writer hasn't stalled itself; its writer
+      // may be held by a stalled member, which is aborted first
+      int queueMax = _isWriting ? _queueMax : 2 * _queueMax;
+
+      if (queueMax <= _queueSize.get()) {
+        abort();
+
+        return false;
+      }
+
+      _queue.offer(frame);
+      _queueSize.incrementAndGet();
+
+      wake();
+
+      return true;
+    }
+
+    void remove()
+    {
+      _isRemoved = true;
+
+      wake();
+    }
+
+    /**
+     * Aborts a slow consumer from the detecting thread. A writer may be
+     * blocked on the member's socket, so a close frame would never be sent.
+     */
+    private void abort()
+    {
+      _isRemoved = true;
+
+      if (! _isAborted.compareAndSet(false, true))
+        return;
+
+      onSlowConsumer(this);
+
+      try {
+        if (_frameWriter != null)
+          _frameWriter.abort();
+        else
+          _context.disconnect();
+      } catch (RuntimeException e) {
+        log.log(Level.FINER, e.toString(), e);
+      }
+
+      wake();
+    }
+
+    void checkWriteTimeout(long now)
+    {
+      long startTime = _writeStartTime;
+
+      if (startTime > 0 && _writeTimeout <= now - startTime) {
+        if (log.isLoggable(Level.FINE)) {
+          log.fine(L.l("{0} write to {1} blocked for {2}ms",
+                       WebSocketGroup.this, _context, now - startTime));
+        }
+
+        abort();
+      }
+    }
+
+    private void wake()
+    {
+      if (_isScheduled.compareAndSet(false, true))
+        schedule(this);
+    }
+
+    /**
+     * Writes up to a turn's worth of pending frames with a single flush.
+     * Only one writer drains a member at a time.
+     */
+    void drain()
+    {
+      try {
+        if (_isRemoved) {
+          clear();
+          return;
+        }
+
+        try {
+          _isWriting = true;
+          _writeStartTime = CurrentTime.getCurrentTime();
+          _writingMap.put(this, this);
+
+          writeQueue();
+        } catch (IOException e) {
+          _isRemoved = true;
+          clear();
+
+          onWriteError(this, e);
+        }
+      } catch (RuntimeException e) {
+        _isRemoved = true;
+        clear();
+
+        _memberMap.remove(_context, this);
+
+        log.log(Level.FINE, e.toString(), e);
+      } finally {
+        _writingMap.remove(this);
+        _writeStartTime = 0;
+        _isWriting = false;
+        _isScheduled.set(false);
+      }
+
+      // frames left over from the turn, queued after the last poll,
+      // or queued before a removal during the write
+      if (! _queue.isEmpty())
+        wake();
+    }
+
+    private void writeQueue()
+      throws IOException
+    {
+      WebSocketFrameWriter out = _frameWriter;
+
+      if (out != null && out.isClosed()) {
+        throw new IOException(L.l("{0} is closed", _context));
+      }
+
+      WebSocketFrame frame;
+      int frameCount = 0;
+      int byteCount = 0;
+
+      while (frameCount < DRAIN_FRAME_MAX
+             && byteCount < DRAIN_BYTE_MAX
+             && ! _isRemoved
+             && (frame = _queue.poll()) != null) {
+        _queueSize.decrementAndGet();
+
+        if (out != null)
+          out.writeFrame(frame.getBuffer(), 0, frame.getLength());
+        else
+          writeMessage(frame);
+
+        _frameWriteCount.incrementAndGet();
+        frameCount++;
+        byteCount += frame.getLength();
+      }
+
+      if (frameCount > 0) {
+        if (out != null)
+          out.flush();
+        else
+          _context.flush();
+      }
+    }
+
+    /**
+     * Fallback for contexts which can't write a shared frame.
+     */
+    private void writeMessage(WebSocketFrame frame)
+      throws IOException
+    {
+      byte []buffer = frame.getBuffer();
+      int offset = frame.getPayloadOffset();
+      int length = frame.getPayloadLength();
+
+      if (frame.getOpcode() == WebSocketConstants.OP_TEXT) {
+        PrintWriter out = _context.startTextMessage();
+
+        out.print(new String(buffer, offset, length, "utf-8"));
+        out.close();
+      }
+      else {
+        OutputStream os = _context.startBinaryMessage();
+
+        os.write(buffer, offset, length);
+        os.close();
+      }
+    }
+
+    private void clear()
+    {
+      while (_queue.poll() != null) {
+        _queueSize.decrementAndGet();
+      }
+    }
+
+    @Override
+    public String toString()
+    {
+      return getClass().getSimpleName() + "[" + _context + "]";
+    }
+  }
+}